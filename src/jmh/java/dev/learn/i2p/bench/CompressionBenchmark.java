@@ -0,0 +1,248 @@
+package dev.learn.i2p.bench;
+
+import dev.learn.i2p.net.PeerStream;
+import dev.learn.i2p.proto.Compression;
+import dev.learn.i2p.proto.Frame;
+import dev.learn.i2p.proto.FrameCodec;
+import dev.learn.i2p.proto.FramedProtocol;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Сжатие фреймов {@link FramedProtocol} на корпусе, похожем на настоящую переписку: короткие реплики,
+ * лог роутера, BMP, PDF с несжатым потоком текста и уже сжатые PNG/JPEG (их сжатие должно пропускать).
+ * send — CPU отправителя (sniff + deflate + кадр), receive — CPU получателя (распаковка + сохранение).
+ * <p>
+ * Вторичные метрики: wireBytes — сколько ушло в стрим, rawBytes — сколько было до сжатия
+ * (отношение — выигрыш на проводе):
+ * {@code mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="Compression -prof gc"}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    /** Реплики чата: по одной на сообщение, по кругу. */
+    private static final String[] CHAT = {
+            "привет!", "привет, как дела?", "всё хорошо, спасибо. а у тебя?",
+            "скинь, пожалуйста, адрес своего роутера, я добавлю в адресную книгу",
+            "hi! are you there?", "yes, just got back. tunnel build took forever today",
+            "Ок, завтра вечером созвонимся, я напишу, когда буду дома.",
+            "Посмотри файл, который я отправил утром: там логи за вчера и скриншот ошибки.",
+            "thanks, got it. I think the problem is the outbound tunnel length, try 2 hops instead of 3",
+            "да",
+    };
+
+    private static final byte[] ACK = FrameCodec.encode(Frame.ack(0));
+
+    @Param({"chat", "log", "bmp", "pdf", "png", "jpeg"})
+    public String kind;
+
+    @Param({"on", "off"})
+    public String compression;
+
+    private Path dir;
+    private Path file;
+    private String log;
+    private int next;
+    private FramedProtocol protocol;
+    private byte[] received;
+
+    /** Суммы за итерацию: JMH выводит их рядом со временем. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Bytes {
+        public long wireBytes;
+        public long rawBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            wireBytes = 0;
+            rawBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("bench-compression");
+        protocol = new FramedProtocol(Files.createDirectories(dir.resolve("inbox")), 0,
+                "on".equals(compression) ? Compression.ON : Compression.OFF);
+        log = routerLog(64 * 1024);
+        byte[] body = switch (kind) {
+            case "bmp" -> bmp(320, 240);
+            case "pdf" -> pdf(64 * 1024);
+            case "png", "jpeg" -> Payloads.of(kind, 200 * 1024);
+            default -> null;
+        };
+        if (body != null) file = Files.write(dir.resolve("payload." + kind), body);
+
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        send(new Bytes(), wire);
+        received = wire.toByteArray();
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long send(Bytes bytes) throws IOException {
+        return send(bytes, null);
+    }
+
+    @Benchmark
+    public long receive() throws IOException {
+        protocol.handle(new MemoryStream(new ByteArrayInputStream(received), null));
+        long n = 0;
+        try (Stream<Path> s = Files.walk(protocol.inbox())) {
+            for (Path p : (Iterable<Path>) s.filter(Files::isRegularFile)::iterator) {
+                n += Files.size(p);
+                Files.delete(p);
+            }
+        }
+        return n;
+    }
+
+    private long send(Bytes bytes, ByteArrayOutputStream capture) throws IOException {
+        MemoryStream s = new MemoryStream(new ByteArrayInputStream(ACK), capture);
+        switch (kind) {
+            case "chat" -> {
+                String text = CHAT[next++ % CHAT.length];
+                protocol.sendText(s, text);
+                bytes.rawBytes += text.getBytes(StandardCharsets.UTF_8).length;
+            }
+            case "log" -> {
+                protocol.sendText(s, log);
+                bytes.rawBytes += log.length();
+            }
+            default -> {
+                protocol.sendImage(s, file);
+                bytes.rawBytes += Files.size(file);
+            }
+        }
+        bytes.wireBytes += s.written;
+        return s.written;
+    }
+
+    /** Лог роутера: повторяющиеся шаблоны, но с разными числами и адресами. */
+    private static String routerLog(int size) {
+        StringBuilder sb = new StringBuilder(size + 256);
+        String[] events = {"Tunnel build succeeded", "Tunnel build timed out", "Peer profile updated",
+                "Lease set published", "Inbound message dropped: queue full", "Exploratory tunnel expired"};
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append(String.format("2024-05-%02d %02d:%02d:%02d.%03d INFO  [Router %d] %s (peer %08x, %d ms)%n",
+                    1 + i / 2000 % 28, i / 60 % 24, i % 60, (i * 7) % 60, (i * 131) % 1000, i % 4,
+                    events[(i * 5 + i / 3) % events.length], i * 2654435761L & 0xFFFFFFFFL, 50 + (i * 37) % 900));
+        }
+        return sb.toString();
+    }
+
+    /** 24-битный BMP: градиент с парой цветных полос — как скриншот интерфейса. */
+    private static byte[] bmp(int w, int h) {
+        int row = (w * 3 + 3) & ~3;
+        byte[] b = new byte[54 + row * h];
+        b[0] = 'B';
+        b[1] = 'M';
+        le(b, 2, b.length);
+        le(b, 10, 54);
+        le(b, 14, 40);
+        le(b, 18, w);
+        le(b, 22, h);
+        b[26] = 1;
+        b[28] = 24;
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                int p = 54 + y * row + x * 3;
+                boolean bar = y % 60 < 20;
+                b[p] = (byte) (bar ? 0xF0 : x * 255 / w);
+                b[p + 1] = (byte) (bar ? 0xF0 : y * 255 / h);
+                b[p + 2] = (byte) (bar ? 0x30 : 0x80);
+            }
+        }
+        return b;
+    }
+
+    private static void le(byte[] b, int off, int v) {
+        for (int i = 0; i < 4; i++) b[off + i] = (byte) (v >>> (8 * i));
+    }
+
+    /** PDF с несжатым потоком содержимого: текст страницы в операторах Tj. */
+    private static byte[] pdf(int size) {
+        StringBuilder sb = new StringBuilder("%PDF-1.4\n1 0 obj << /Type /Catalog /Pages 2 0 R >> endobj\n"
+                + "4 0 obj << >> stream\nBT /F1 11 Tf 72 720 Td 14 TL\n");
+        for (int i = 0; sb.length() < size; i++) {
+            sb.append("(Line ").append(i).append(": the router keeps a profile for each peer it talks to) Tj T*\n");
+        }
+        sb.append("ET\nendstream endobj\ntrailer << /Root 1 0 R >>\n%%EOF\n");
+        return sb.toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /** Стрим в памяти: читает из in, запись считается и, если задан capture, копится в нём. */
+    private static final class MemoryStream implements PeerStream {
+        private final InputStream in;
+        private final ByteArrayOutputStream capture;
+        long written;
+
+        MemoryStream(InputStream in, ByteArrayOutputStream capture) {
+            this.in = in;
+            this.capture = capture;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    if (capture != null) capture.write(b);
+                    written++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    if (capture != null) capture.write(b, off, len);
+                    written += len;
+                }
+            };
+        }
+
+        @Override
+        public String peerAddress() {
+            return "benchbench.b32.i2p";
+        }
+
+        @Override
+        public void setReadTimeout(long ms) {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
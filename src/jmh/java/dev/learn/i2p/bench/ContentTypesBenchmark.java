@@ -0,0 +1,46 @@
+package dev.learn.i2p.bench;
+
+import dev.learn.i2p.proto.ContentType;
+import dev.learn.i2p.proto.ContentTypes;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Поиск в {@link ContentTypes}: расширение по MIME/имени (точное попадание, MIME с параметрами,
+ * подсказка по подстроке, фолбэк на имя файла) и MIME по расширению. Для известных типов
+ * gc.alloc.rate.norm должен быть ~0.
+ * <p>
+ * {@code mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="ContentTypesBenchmark -prof gc"}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentTypesBenchmark {
+
+    @Param({"image/png", "image/JPEG; charset=binary", "application/x-avif-image", "application/x-unknown"})
+    public String contentType;
+
+    @Param({"holiday.photo.JPEG?size=large#top"})
+    public String fallbackName;
+
+    private ContentTypes registry;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        registry = ContentTypes.shared();
+    }
+
+    @Benchmark
+    public String extensionFor() {
+        return registry.extensionFor(contentType, fallbackName);
+    }
+
+    @Benchmark
+    public ContentType forFileName() {
+        return registry.forFileName(fallbackName);
+    }
+}
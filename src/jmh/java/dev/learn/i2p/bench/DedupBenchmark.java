@@ -0,0 +1,105 @@
+package dev.learn.i2p.bench;
+
+import dev.learn.i2p.core.InboundSaver;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Сколько байт уходит на диск при приёме потока, где почти всё — повторы: 16 разных вложений
+ * (8 картинок около 4 KiB и 8 "PDF" около 512 KiB), 1000 сообщений за итерацию, каждая итерация — с пустого inbox.
+ * dedup — как по умолчанию (BlobStore), copies — с {@code -Di2p.messenger.dedup=false}.
+ * <p>
+ * Смотреть на вторичные метрики: diskBytes — сколько места заняли принятые файлы, writtenBytes —
+ * сколько процесс передал в write() (wchar из /proc/self/io; вне Linux — 0):
+ * {@code mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="Dedup"}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, batchSize = DedupBenchmark.MESSAGES)
+@Measurement(iterations = 5, batchSize = DedupBenchmark.MESSAGES)
+public class DedupBenchmark {
+    static final int MESSAGES = 1000;
+
+    private byte[][] distinct;
+    private Random pick;
+    private Path home;
+    private Path inbox;
+
+    /** Суммы за итерацию (EVENTS): JMH выводит их рядом со временем. */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Bytes {
+        public long diskBytes;
+        public long writtenBytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            diskBytes = 0;
+            writtenBytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void payloads() {
+        distinct = new byte[16][];
+        for (int i = 0; i < distinct.length; i++) {
+            distinct[i] = Payloads.of(i < 8 ? "png" : "pdf", (i < 8 ? 4096 : 512 * 1024) + i); // размер задаёт и содержимое
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void freshInbox() throws IOException {
+        home = Files.createTempDirectory("bench-dedup");
+        inbox = home.resolve("inbox");
+        pick = new Random(42);
+    }
+
+    @TearDown(Level.Iteration)
+    public void cleanup() throws IOException {
+        try (Stream<Path> s = Files.walk(home)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    @Fork(1)
+    public Path dedup(Bytes bytes) throws IOException {
+        return save(bytes);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Di2p.messenger.dedup=false")
+    public Path copies(Bytes bytes) throws IOException {
+        return save(bytes);
+    }
+
+    private Path save(Bytes bytes) throws IOException {
+        byte[] body = distinct[pick.nextInt(distinct.length)];
+        long before = wchar();
+        Path p = InboundSaver.saveSmart(inbox, "benchbench.b32.i2p", new ByteArrayInputStream(body));
+        bytes.writtenBytes += wchar() - before;
+        // новое содержимое: 1 ссылка (без хранилища) или 2 (blob + файл); больше — повтор, места не занял
+        if ((Integer) Files.getAttribute(p, "unix:nlink") <= 2) bytes.diskBytes += body.length;
+        return p;
+    }
+
+    /** Байт, переданных процессом в write(): все потоки, но в одном форке пишет только бенчмарк. */
+    private static long wchar() {
+        try (Stream<String> lines = Files.lines(Path.of("/proc/self/io"))) {
+            return lines.filter(l -> l.startsWith("wchar:"))
+                    .mapToLong(l -> Long.parseLong(l.substring(6).trim()))
+                    .findFirst().orElse(0);
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package dev.learn.i2p.bench;
+
+import dev.learn.i2p.core.DurableOutbox;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * {@link DurableOutbox}: сколько стоит постановка на диск и как ящик разгребается после падения.
+ * <ul>
+ *   <li>enqueue — запись в журнал с fsync своего участка (ops/s);</li>
+ *   <li>drainFlapping — {@code messages} сообщений {@code peers} получателям через транспорт-заглушку,
+ *       который каждые {@code flapMs} то поднимается, то падает; время — пока всё не доставлено,
+ *       вторичные метрики — сколько было повторов;</li>
+ *   <li>recoverAfterCrash — процесс упал с {@code messages} ждущими и недописанной записью в хвосте:
+ *       открыть журнал (проверка CRC, обрезка хвоста, перезапись) и доставить первое сообщение.</li>
+ * </ul>
+ * {@code mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="DurableOutbox"}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DurableOutboxBenchmark {
+
+    private static final DurableOutbox.Settings SETTINGS =
+            new DurableOutbox.Settings(4, Duration.ofMillis(5), Duration.ofMillis(100), Duration.ZERO);
+    private static final String TEXT = "x".repeat(256);
+
+    @Param({"10000"})
+    public int messages;
+
+    @Param({"16"})
+    public int peers;
+
+    @Param({"50"})
+    public int flapMs;
+
+    private Path dir;
+    private int run;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Retries {
+        public long retries;
+    }
+
+    /** Транспорт-заглушка: доступен и недоступен по очереди, полупериод — flapMs. */
+    private static final class Flapping implements DurableOutbox.Delivery {
+        private final long start = System.nanoTime();
+        private final long halfPeriod;
+        final LongAdder delivered = new LongAdder();
+
+        Flapping(int flapMs) {
+            this.halfPeriod = TimeUnit.MILLISECONDS.toNanos(flapMs);
+        }
+
+        @Override
+        public void deliver(DurableOutbox.Message m) throws IOException {
+            if (((System.nanoTime() - start) / halfPeriod) % 2 == 1) throw new IOException("peer offline");
+            delivered.increment();
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("bench-outbox");
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private DurableOutbox fresh() throws IOException {
+        return open(dir.resolve("run" + run++));
+    }
+
+    private static DurableOutbox open(Path d) throws IOException {
+        return DurableOutbox.open(d, SETTINGS);
+    }
+
+    private void fill(DurableOutbox o) throws IOException {
+        for (int i = 0; i < messages; i++) o.enqueue("peer" + (i % peers), DurableOutbox.Kind.TEXT, TEXT);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 2, time = 2)
+    @Measurement(iterations = 3, time = 3)
+    public long enqueue(EnqueueState s) throws IOException {
+        return s.outbox.enqueue("peer", DurableOutbox.Kind.TEXT, TEXT);
+    }
+
+    @State(Scope.Benchmark)
+    public static class EnqueueState {
+        DurableOutbox outbox;
+        Path dir;
+
+        @Setup(Level.Iteration)
+        public void open() throws IOException {
+            dir = Files.createTempDirectory("bench-outbox-enqueue");
+            outbox = DurableOutboxBenchmark.open(dir);
+        }
+
+        @TearDown(Level.Iteration)
+        public void close() throws IOException {
+            outbox.close();
+            try (Stream<Path> s = Files.walk(dir)) {
+                s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+            }
+        }
+    }
+
+    @Benchmark
+    public void drainFlapping(Retries r) throws Exception {
+        try (DurableOutbox o = fresh()) {
+            fill(o);
+            Flapping link = new Flapping(flapMs);
+            o.start(link);
+            while (o.size() > 0) Thread.sleep(1);
+            r.retries = o.retried();
+        }
+    }
+
+    @Benchmark
+    public void recoverAfterCrash(CrashedJournal crashed) throws Exception {
+        Flapping up = new Flapping(Integer.MAX_VALUE);
+        try (DurableOutbox o = open(crashed.dir)) {
+            o.start(up);
+            while (up.delivered.sum() == 0) Thread.onSpinWait();
+        }
+    }
+
+    /** Журнал процесса, упавшего посреди добавления: messages ждущих и мусор после последней записи. */
+    @State(Scope.Benchmark)
+    public static class CrashedJournal {
+        Path dir;
+
+        @Setup(Level.Invocation)
+        public void crash(DurableOutboxBenchmark b) throws Exception {
+            dir = b.dir.resolve("crashed" + b.run++);
+            long end;
+            try (DurableOutbox o = DurableOutboxBenchmark.open(dir)) {
+                b.fill(o);
+                end = o.journalBytes();
+            }
+            try (var ch = FileChannel.open(dir.resolve("journal"), StandardOpenOption.WRITE)) {
+                ch.write(ByteBuffer.allocate(8).putInt(0, 4096).putInt(4, 0xDEAD), end);
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package dev.learn.i2p.bench;
+
+import dev.learn.i2p.core.InboundSaver;
+import dev.learn.i2p.proto.ContentType;
+import dev.learn.i2p.proto.ContentTypes;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Приём сообщения в inbox: прежний путь (BufferedInputStream mark/reset + transferTo в OutputStream)
+ * против потокового {@link InboundSaver} с буферами из пула; отдельно — 8 потоков, сохраняющих
+ * в один и тот же inbox (подбор уникального имени, конкуренция за каталог и пул буферов).
+ * <p>
+ * Смотреть стоит прежде всего на gc.alloc.rate.norm (байт на операцию):
+ * {@code mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="InboundSaver -prof gc"}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InboundSaverBenchmark {
+
+    @Param({"1024", "1048576", "33554432"})
+    public int size;
+
+    /** Текст проходит полную проверку UTF-8 при определении типа, картинка — нет. */
+    @Param({"binary", "utf8", "png"})
+    public String kind;
+
+    private byte[] payload;
+    private Path inbox;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        payload = Payloads.of(kind, size);
+        inbox = Files.createTempDirectory("bench-inbox");
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        try (Stream<Path> s = Files.walk(inbox)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long legacy() throws IOException {
+        Path p = legacySave(inbox, new ByteArrayInputStream(payload));
+        long n = Files.size(p);
+        Files.delete(p);
+        return n;
+    }
+
+    @Benchmark
+    public long streaming() throws IOException {
+        Path p = InboundSaver.saveSmart(inbox, "benchbench.b32.i2p", new ByteArrayInputStream(payload));
+        long n = Files.size(p);
+        Files.delete(p);
+        return n;
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long streamingConcurrent() throws IOException {
+        return streaming();
+    }
+
+    /** Копия алгоритма InboundSaver до перехода на пул буферов (без логов и подбора имени). */
+    private static Path legacySave(Path dir, InputStream rawIn) throws IOException {
+        try (BufferedInputStream in = new BufferedInputStream(rawIn)) {
+            in.mark(16384);
+            byte[] head = in.readNBytes(16384);
+            in.reset();
+            ContentType ct = ContentTypes.shared().sniff(head, head.length);
+            Path target = Files.createTempFile(dir, "legacy-", ct.ext());
+            try (OutputStream out = Files.newOutputStream(target, StandardOpenOption.TRUNCATE_EXISTING)) {
+                in.transferTo(out);
+            }
+            return target;
+        }
+    }
+}
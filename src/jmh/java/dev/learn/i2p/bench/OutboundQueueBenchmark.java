@@ -0,0 +1,68 @@
+package dev.learn.i2p.bench;
+
+import dev.learn.i2p.core.OutboundQueue;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OutboundQueue} против отправки по одному: {@code messages} текстов одному получателю через
+ * транспорт-заглушку, каждое обращение к которому стоит {@code rttMs} (новый стрим в I2P — несколько RTT).
+ * <ul>
+ *   <li>onePerCall — каждое сообщение отдельным обращением, как {@code Messenger.sendText} подряд;</li>
+ *   <li>queued — все через очередь: пачки до maxBatch за одно обращение.</li>
+ * </ul>
+ * {@code mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="OutboundQueue"}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OutboundQueueBenchmark {
+
+    private static final String TEXT = "x".repeat(256);
+
+    @Param({"200"})
+    public int messages;
+
+    @Param({"20"})
+    public int rttMs;
+
+    /** Транспорт-заглушка: пачка любого размера — одно обращение ценой rttMs. */
+    private OutboundQueue.BatchSender link() {
+        return (dest, texts, acked) -> {
+            try {
+                Thread.sleep(rttMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            for (int i = 0; i < texts.size(); i++) acked.accept(i);
+        };
+    }
+
+    @Benchmark
+    public void onePerCall() throws IOException {
+        OutboundQueue.BatchSender link = link();
+        for (int i = 0; i < messages; i++) link.send("peer", List.of(TEXT), n -> {});
+    }
+
+    @Benchmark
+    public long queued() throws Exception {
+        OutboundQueue q = new OutboundQueue(link(), new OutboundQueue.Settings(
+                messages, 64, 64 * 1024, Duration.ofMillis(5), OutboundQueue.Overflow.BLOCK));
+        List<CompletableFuture<Void>> all = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) all.add(q.submit("peer", TEXT));
+        CompletableFuture.allOf(all.toArray(CompletableFuture[]::new)).get(1, TimeUnit.MINUTES);
+        q.close();
+        return q.batches();
+    }
+}
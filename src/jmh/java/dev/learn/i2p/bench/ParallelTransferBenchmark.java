@@ -0,0 +1,76 @@
+package dev.learn.i2p.bench;
+
+import dev.learn.i2p.net.support.ThrottledLoopback;
+import dev.learn.i2p.proto.FramedProtocol;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Кривая ускорения: один файл по 1..8 стримам через loopback, где у каждого стрима своя полоса
+ * (bandwidthKiB KiB/s) и задержка ответа (latencyMs). Идеал — время / streams, пока не упрёмся
+ * в latency на открытие стримов, OFFER и COMMIT.
+ * <p>
+ * {@code mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="ParallelTransfer"}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ParallelTransferBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int streams;
+
+    @Param({"1024"})
+    public int bandwidthKiB;
+
+    @Param({"50"})
+    public int latencyMs;
+
+    @Param({"4194304"})
+    public int size;
+
+    private Path dir;
+    private Path file;
+    private FramedProtocol sender;
+    private ThrottledLoopback net;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("bench-parallel");
+        byte[] data = new byte[size];
+        new Random(8).nextBytes(data);
+        file = Files.write(dir.resolve("payload.bin"), data);
+        sender = new FramedProtocol(dir.resolve("unused"), FramedProtocol.DEFAULT_CHUNK_SIZE);
+    }
+
+    /** Новый получатель на каждый прогон — иначе он уже всё "имеет" и передача пустая. */
+    @Setup(Level.Invocation)
+    public void freshReceiver() throws IOException {
+        Path inbox = Files.createTempDirectory(dir, "inbox");
+        FramedProtocol receiver = new FramedProtocol(inbox, FramedProtocol.DEFAULT_CHUNK_SIZE);
+        net = new ThrottledLoopback(receiver::handle, bandwidthKiB * 1024L, Duration.ofMillis(latencyMs));
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void send() throws IOException {
+        sender.sendImage(file, streams, net::withStream);
+    }
+}
@@ -0,0 +1,57 @@
+package dev.learn.i2p.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/** Детерминированные полезные нагрузки для бенчмарков: нужный "тип" по первым байтам + размер. */
+final class Payloads {
+    private Payloads() {}
+
+    /** Основные виды, которые различает ContentTypes.sniff, плюс многобайтный UTF-8. */
+    static final String[] KINDS = {"png", "jpeg", "gif", "webp", "bmp", "pdf", "zip", "rar", "7z", "mp4", "ogg",
+            "ascii", "utf8", "binary"};
+
+    /**
+     * kind — один из {@link #KINDS}. Картинки/архивы — магия + случайные байты,
+     * текст — повторяющаяся строка (ascii или кириллица), binary — случайные байты.
+     */
+    static byte[] of(String kind, int size) {
+        byte[] b = new byte[size];
+        switch (kind) {
+            case "ascii" -> fill(b, "The quick brown fox jumps over the lazy dog.\n");
+            case "utf8" -> fill(b, "Съешь же ещё этих мягких французских булок, да выпей чаю.\n");
+            default -> {
+                new Random(size * 31L + kind.hashCode()).nextBytes(b);
+                byte[] magic = magic(kind);
+                System.arraycopy(magic, 0, b, 0, Math.min(magic.length, size));
+            }
+        }
+        return b;
+    }
+
+    private static byte[] magic(String kind) {
+        return switch (kind) {
+            case "png" -> new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+            case "jpeg" -> new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0};
+            case "gif" -> "GIF89a".getBytes(StandardCharsets.US_ASCII);
+            case "webp" -> new byte[]{'R', 'I', 'F', 'F', 0, 0, 0, 0, 'W', 'E', 'B', 'P'};
+            case "bmp" -> new byte[]{'B', 'M'};
+            case "pdf" -> "%PDF-1.7".getBytes(StandardCharsets.US_ASCII);
+            case "zip" -> new byte[]{'P', 'K', 3, 4};
+            case "rar" -> new byte[]{'R', 'a', 'r', '!', 0x1A, 0x07, 0x01, 0x00};
+            case "7z" -> new byte[]{'7', 'z', (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C};
+            case "mp4" -> new byte[]{0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm'};
+            case "ogg" -> "OggS".getBytes(StandardCharsets.US_ASCII);
+            case "binary" -> new byte[]{0, 0, 0, 0}; // не совпадает ни с одной магией
+            default -> throw new IllegalArgumentException("Unknown payload kind: " + kind);
+        };
+    }
+
+    /** Заполняет b повторами s; последний многобайтный символ может обрезаться — как на границе чтения. */
+    private static void fill(byte[] b, String s) {
+        byte[] unit = s.getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i < b.length; i += unit.length) {
+            System.arraycopy(unit, 0, b, i, Math.min(unit.length, b.length - i));
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package dev.learn.i2p.bench;
+
+import dev.learn.i2p.core.ProfileHost;
+import dev.learn.i2p.net.LoopbackNetwork;
+import dev.learn.i2p.proto.FramedProtocol;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * Память на ещё один профиль в {@link ProfileHost} против отдельной JVM на профиль.
+ * Время здесь неважно (в него входят полные GC), смотреть на вторичные метрики:
+ * <ul>
+ *   <li>heapPerProfile — прирост занятой кучи после GC на профиль (открыт, слушает, принял сообщение);</li>
+ *   <li>threadsPerProfile — прирост живых платформенных потоков на профиль;</li>
+ *   <li>jvmFloor — куча + non-heap (metaspace, code cache) всего процесса; при profiles=1 — сколько
+ *       как минимум стоит каждая отдельная JVM (без стеков потоков и памяти самой JVM).</li>
+ * </ul>
+ * Транспорт — loopback: I2P-сессия у каждого профиля всё равно своя, общий только контекст клиента.
+ * <p>
+ * {@code mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="ProfileHost"}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class ProfileHostBenchmark {
+
+    @Param({"1", "20"})
+    public int profiles;
+
+    private Path dir;
+    private int run;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long heapPerProfile;
+        public long threadsPerProfile;
+        public long jvmFloor;
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("bench-profiles");
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void host(Footprint f) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        List<String> names = IntStream.range(0, profiles).mapToObj(i -> "p" + i).toList();
+        Path base = dir.resolve("run" + run++);
+        FramedProtocol sender = new FramedProtocol(base.resolve("sender"));
+
+        try (LoopbackNetwork net = new LoopbackNetwork(LoopbackNetwork.LinkProfile.PERFECT)) {
+            long heap = usedHeapAfterGc(memory);
+            int threads = Thread.activeCount();
+            try (ProfileHost host = ProfileHost.open(base, names, 64, (name, p, inbound) -> net.endpoint(name, inbound))) {
+                host.start();
+                var peer = net.endpoint("peer");
+                for (String name : names) peer.withConnection(name, s -> sender.sendText(s, "hello " + name));
+
+                f.heapPerProfile = (usedHeapAfterGc(memory) - heap) / profiles;
+                f.threadsPerProfile = (Thread.activeCount() - threads) / profiles;
+                f.jvmFloor = memory.getHeapMemoryUsage().getUsed() + memory.getNonHeapMemoryUsage().getUsed();
+            }
+        }
+    }
+
+    private static long usedHeapAfterGc(MemoryMXBean memory) {
+        for (int i = 0; i < 3; i++) memory.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
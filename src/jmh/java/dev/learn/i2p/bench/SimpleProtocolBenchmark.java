@@ -0,0 +1,134 @@
+package dev.learn.i2p.bench;
+
+import dev.learn.i2p.net.PeerStream;
+import dev.learn.i2p.proto.SimpleProtocol;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * {@link SimpleProtocol} целиком, без сети: приём (handle → InboundSaver → файл в inbox)
+ * и отправка текста/файла в стрим, который только считает байты.
+ * <p>
+ * {@code mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="SimpleProtocol -prof gc"}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SimpleProtocolBenchmark {
+
+    @Param({"64", "65536", "1048576"})
+    public int size;
+
+    @Param({"utf8", "binary"})
+    public String kind;
+
+    private byte[] payload;
+    private String text;
+    private Path dir;
+    private Path file;
+    private SimpleProtocol protocol;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        payload = Payloads.of(kind, size);
+        text = new String(Payloads.of("utf8", size), StandardCharsets.UTF_8);
+        dir = Files.createTempDirectory("bench-simple");
+        file = Files.write(dir.resolve("payload.bin"), payload);
+        protocol = new SimpleProtocol(Files.createDirectories(dir.resolve("inbox")));
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public long handle() throws IOException {
+        protocol.handle(new MemoryStream(new ByteArrayInputStream(payload)));
+        long n = 0;
+        try (Stream<Path> s = Files.list(protocol.inbox())) {
+            for (Path p : (Iterable<Path>) s::iterator) {
+                n += Files.size(p);
+                Files.delete(p);
+            }
+        }
+        return n;
+    }
+
+    @Benchmark
+    public long sendText() throws IOException {
+        MemoryStream s = new MemoryStream(InputStream.nullInputStream());
+        protocol.sendText(s, text);
+        return s.written;
+    }
+
+    @Benchmark
+    public long sendImage() throws IOException {
+        MemoryStream s = new MemoryStream(InputStream.nullInputStream());
+        protocol.sendImage(s, file);
+        return s.written;
+    }
+
+    /** Стрим в памяти: читает из in, запись только считается. */
+    private static final class MemoryStream implements PeerStream {
+        private final InputStream in;
+        long written;
+
+        MemoryStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int b) {
+                    written++;
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) {
+                    written += len;
+                }
+            };
+        }
+
+        @Override
+        public String peerAddress() {
+            return "benchbench.b32.i2p";
+        }
+
+        @Override
+        public void setReadTimeout(long ms) {
+        }
+
+        @Override
+        public boolean isClosed() {
+            return false;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
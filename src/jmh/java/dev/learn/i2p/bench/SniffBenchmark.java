@@ -0,0 +1,43 @@
+package dev.learn.i2p.bench;
+
+import dev.learn.i2p.proto.ContentType;
+import dev.learn.i2p.proto.ContentTypes;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Определение типа по первым байтам ({@link ContentTypes#sniff}). Текст и "binary" проходят все
+ * проверки сигнатур и UTF-8 до конца — это худший случай; на 16 КиБ (столько читает InboundSaver)
+ * видно цену проверки UTF-8.
+ * <p>
+ * {@code mvn -Pjmh test-compile exec:exec@jmh -Djmh.args="SniffBenchmark -prof gc"}
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SniffBenchmark {
+
+    @Param({"png", "jpeg", "gif", "webp", "bmp", "pdf", "zip", "rar", "7z", "mp4", "ogg", "ascii", "utf8", "binary"})
+    public String kind;
+
+    @Param({"64", "1024", "16384"})
+    public int size;
+
+    private byte[] head;
+    private ContentTypes registry;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        head = Payloads.of(kind, size);
+        registry = ContentTypes.shared();
+    }
+
+    @Benchmark
+    public ContentType sniff() {
+        return registry.sniff(head, head.length);
+    }
+}
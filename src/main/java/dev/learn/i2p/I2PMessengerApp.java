@@ -3,10 +3,11 @@
  */
 package dev.learn.i2p;
 
-import dev.learn.i2p.core.FileTypes;
 import dev.learn.i2p.core.Constants; // ← добавлен импорт
+import dev.learn.i2p.net.DestinationCache;
+import dev.learn.i2p.proto.ContentType;
+import dev.learn.i2p.proto.ContentTypes;
 
-import net.i2p.I2PAppContext;
 import net.i2p.I2PException;
 import net.i2p.client.I2PClient;
 import net.i2p.client.I2PClientFactory;
@@ -18,8 +19,10 @@ import net.i2p.data.Base32;
 import net.i2p.data.Destination;
 
 import java.io.*;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.util.Objects;
 import java.util.Properties;
@@ -148,7 +151,6 @@ public class I2PMessengerApp {
             try {
                 // Таймаут уже задан в listenLoop(...) через setReadTimeout(Constants.READ_TIMEOUT_MS)
 
-                final int MAX_IMAGE = 32 * 1024 * 1024; // 32 MB safety cap
                 int type = in.readUnsignedByte(); // 1=text, 2=image
                 if (type == 1) {
                     int len = in.readInt();
@@ -163,25 +165,7 @@ public class I2PMessengerApp {
                     System.out.println("[TEXT] " + text);
                     out.writeUTF("OK");
                 } else if (type == 2) {
-                    String fileName = in.readUTF();    // <= 64k
-                    String contentType = in.readUTF(); // MIME
-                    int size = in.readInt();
-                    if (size < 0 || size > MAX_IMAGE) {
-                        out.writeUTF("ERR: image too large");
-                        out.flush();
-                        return;
-                    }
-                    byte[] data = new byte[size];
-                    in.readFully(data); // читаем ровно size
-
-                    String safe = sanitize(fileName);
-                    if (safe.isBlank()) safe = "image";
-                    String ext = FileTypes.toExtension(contentType, safe);
-                    Path outPath = INBOX_DIR.resolve(safe + "_" + Instant.now().toEpochMilli() + ext).normalize();
-
-                    Files.write(outPath, data);
-                    System.out.println("[IMAGE] saved: " + outPath + " (" + contentType + ", " + size + " bytes)");
-                    out.writeUTF("OK");
+                    out.writeUTF(receiveImage(in, INBOX_DIR));
                 } else {
                     out.writeUTF("ERR: unknown type");
                 }
@@ -216,21 +200,11 @@ public class I2PMessengerApp {
     private static void sendImage(I2PSocketManager mgr, String destB32, Path imgPath) {
         try {
             Objects.requireNonNull(imgPath, "Image path required");
-            byte[] data = Files.readAllBytes(imgPath);
-            String ct = Files.probeContentType(imgPath);
-            if (ct == null) ct = "application/octet-stream";
-            String name = imgPath.getFileName().toString();
-
             try (I2PSocket s = connect(mgr, destB32);
                  DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
                  DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()))) {
 
-                out.writeByte(2);
-                out.writeUTF(name);
-                out.writeUTF(ct);
-                out.writeInt(data.length);
-                out.write(data);
-                out.flush();
+                writeImage(out, imgPath);
                 System.out.println("Server replied: " + in.readUTF());
             }
         } catch (IOException e) {
@@ -238,6 +212,86 @@ public class I2PMessengerApp {
         }
     }
 
+    /**
+     * Пишет сообщение type=2: имя, MIME, размер и тело файла порциями по {@link Constants#BUFFER_SIZE}.
+     * Файл целиком в память не читается.
+     */
+    static void writeImage(DataOutputStream out, Path imgPath) throws IOException {
+        long size = Files.size(imgPath);
+        if (size > Constants.MAX_IMAGE_BYTES) {
+            throw new IOException("Image too large: " + size + " bytes (max " + Constants.MAX_IMAGE_BYTES + ")");
+        }
+        String ct = Files.probeContentType(imgPath);
+        if (ct == null) {
+            ContentType known = ContentTypes.shared().forFileName(imgPath.getFileName().toString());
+            ct = known != null ? known.mime() : "application/octet-stream";
+        }
+
+        out.writeByte(2);
+        out.writeUTF(imgPath.getFileName().toString());
+        out.writeUTF(ct);
+        out.writeInt((int) size);
+        byte[] buf = new byte[Constants.BUFFER_SIZE];
+        long sent = 0;
+        try (InputStream file = Files.newInputStream(imgPath)) {
+            int n;
+            while (sent < size && (n = file.read(buf, 0, (int) Math.min(buf.length, size - sent))) >= 0) {
+                out.write(buf, 0, n);
+                sent += n;
+            }
+        }
+        // заголовок с размером уже ушёл: файл, укоротившийся на ходу, — ошибка, а не молча обрезанное сообщение
+        if (sent != size) throw new IOException("File changed while sending: " + imgPath);
+        out.flush();
+    }
+
+    /**
+     * Принимает тело сообщения type=2 (после байта типа) и пишет его на диск по мере поступления.
+     * Память — один буфер {@link Constants#BUFFER_SIZE} независимо от размера: заявленный размер
+     * лишь ограничивает, сколько байт читать, лимит сверяется с ним до чтения, а в лог/ответ идёт
+     * фактически принятое. Имя занимается атомарно (CREATE_NEW, при совпадении — суффикс -1, -2…),
+     * при обрыве удаляется только свой недописанный файл. Возвращает ответ для отправителя.
+     */
+    static String receiveImage(DataInputStream in, Path inboxDir) throws IOException {
+        String fileName = in.readUTF();    // <= 64k
+        String contentType = in.readUTF(); // MIME
+        int size = in.readInt();
+        if (size < 0 || size > Constants.MAX_IMAGE_BYTES) return "ERR: image too large";
+
+        String safe = sanitize(fileName);
+        if (safe.isBlank()) safe = "image";
+        String ext = ContentTypes.shared().extensionFor(contentType, safe);
+        Files.createDirectories(inboxDir);
+        String stem = safe + "_" + Instant.now().toEpochMilli();
+        Path outPath = null;
+        OutputStream created = null;
+        for (int i = 0; created == null; i++) {
+            Path candidate = inboxDir.resolve(stem + (i == 0 ? "" : "-" + i) + ext).normalize();
+            try {
+                created = Files.newOutputStream(candidate, StandardOpenOption.CREATE_NEW);
+                outPath = candidate;
+            } catch (FileAlreadyExistsException taken) {
+                if (i >= 1000) throw taken; // то же имя в ту же миллисекунду — берём следующее
+            }
+        }
+
+        long received = 0;
+        byte[] buf = new byte[Constants.BUFFER_SIZE];
+        try (OutputStream file = created) {
+            while (received < size) {
+                int n = in.read(buf, 0, (int) Math.min(buf.length, size - received));
+                if (n < 0) throw new EOFException("Image truncated: " + received + " of " + size + " bytes");
+                file.write(buf, 0, n);
+                received += n;
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(outPath);
+            throw e;
+        }
+        System.out.println("[IMAGE] saved: " + outPath + " (" + contentType + ", " + received + " bytes)");
+        return "OK";
+    }
+
     /** Подключение к пиру по .b32 адресу. */
     private static I2PSocket connect(I2PSocketManager mgr, String hostB32) throws IOException {
         Destination dest = resolveDestination(hostB32);
@@ -249,8 +303,8 @@ public class I2PMessengerApp {
     }
 
     private static Destination resolveDestination(String host) throws IOException {
-        // Резолвим .b32/.i2p имя через локальный NamingService
-        Destination d = I2PAppContext.getGlobalContext().namingService().lookup(host);
+        // Резолвим .b32/.i2p имя через локальный NamingService (с кэшем и single-flight)
+        Destination d = DestinationCache.shared().resolve(host);
         if (d == null) throw new IOException("Unknown I2P host: " + host);
         return d;
     }
@@ -3,21 +3,42 @@
  */
 package dev.learn.i2p.cli;
 
+import dev.learn.i2p.core.ControlChannel;
+import dev.learn.i2p.core.DurableOutbox;
+import dev.learn.i2p.core.InboxIndex;
 import dev.learn.i2p.core.Messenger;
+import dev.learn.i2p.core.ProfileHost;
+import dev.learn.i2p.core.Retention;
+import dev.learn.i2p.net.LazyTransport;
+import jdk.jfr.Configuration;
+import jdk.jfr.Recording;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.net.ProtocolException;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystemException;
 import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
 import java.util.Arrays;
+import java.util.List;
 
 import static dev.learn.i2p.core.Constants.EXIT_FAILURE;
+import static dev.learn.i2p.core.Constants.EXIT_QUEUED;
 import static dev.learn.i2p.core.Constants.EXIT_USAGE;
 
 public class Main {
     private static final Logger log = LoggerFactory.getLogger(Main.class);
 
     public static void main(String[] args) {
+        long started = System.nanoTime();
         log.info("CLI args: {}", Arrays.toString(args));
 
         if (args.length == 0 || "-h".equals(args[0]) || "--help".equals(args[0])) {
@@ -25,6 +46,89 @@ public class Main {
             System.exit(EXIT_USAGE);
         }
 
+        if ("inbox".equals(args[0])) { // только локальные файлы — роутер не нужен
+            if (forwardToDaemon(args)) return; // prune — в демоне, которому принадлежит inbox
+            try {
+                inbox(Arrays.copyOfRange(args, 1, args.length));
+            } catch (IllegalArgumentException e) {
+                log.error(e.getMessage());
+                usage();
+                System.exit(EXIT_USAGE);
+            } catch (Throwable t) {
+                log.error("CLI failed: {}", t.getMessage(), t);
+                System.exit(EXIT_FAILURE);
+            }
+            return;
+        }
+
+        if ("outbox".equals(args[0])) { // list — без роутера; flush — с ним
+            try {
+                outbox(Arrays.copyOfRange(args, 1, args.length));
+            } catch (IllegalArgumentException e) {
+                log.error(e.getMessage());
+                usage();
+                System.exit(EXIT_USAGE);
+            } catch (Throwable t) {
+                log.error("CLI failed: {}", t.getMessage(), t);
+                System.exit(EXIT_FAILURE);
+            }
+            return;
+        }
+
+        List<String> profiles = null;
+        if ("listen".equals(args[0]) && args.length > 1) {
+            Path recording = null;
+            for (int i = 1; i < args.length; i += 2) {
+                if (i + 1 >= args.length || !("--record".equals(args[i]) || "--profiles".equals(args[i]))) {
+                    log.error("listen accepts only: --record <file.jfr>, --profiles <name,name,...>");
+                    usage();
+                    System.exit(EXIT_USAGE);
+                }
+                if ("--record".equals(args[i])) recording = Path.of(args[i + 1]);
+                else profiles = Arrays.stream(args[i + 1].split(",")).map(String::trim).filter(n -> !n.isEmpty()).toList();
+            }
+            if (recording != null) {
+                try {
+                    record(recording); // до подключения к роутеру: в запись попадёт и оно
+                } catch (IOException | ParseException e) {
+                    log.error("Cannot start flight recording: {}", e.getMessage(), e);
+                    System.exit(EXIT_FAILURE);
+                }
+            }
+        }
+
+        if (profiles != null) { // все профили в этом процессе, каждый со своим адресом и inbox
+            try (ProfileHost host = ProfileHost.fromSystemProps(profiles)) {
+                Runtime.getRuntime().addShutdownHook(new Thread(host::close));
+                for (ProfileHost.Tenant t : host.tenants()) System.out.println(t.name() + " " + t.messenger().myB32());
+                host.listen();
+            } catch (IllegalArgumentException e) {
+                log.error(e.getMessage());
+                usage();
+                System.exit(EXIT_USAGE);
+            } catch (Throwable t) {
+                log.error("CLI failed: {}", t.getMessage(), t);
+                System.exit(EXIT_FAILURE);
+            }
+            return;
+        }
+
+        if (forwardToDaemon(args)) return; // запущен daemon — его туннели уже построены
+
+        if ("address".equals(args[0])) { // b32 считается из файла ключей — роутер не нужен
+            try {
+                String b32 = Messenger.offlineAddress();
+                if (b32 != null) {
+                    System.out.println(b32);
+                    return;
+                }
+            } catch (Throwable t) {
+                log.error("CLI failed: {}", t.getMessage(), t);
+                System.exit(EXIT_FAILURE);
+            }
+        }
+
+        // I2P подключается в фоне (LazyTransport): разбор аргументов и подготовка файла идут параллельно
         try (Messenger m = Messenger.createDefault()) {
             switch (args[0]) {
                 case "address" -> System.out.println(m.myB32()); // ← без лишних {}
@@ -35,6 +139,17 @@ public class Main {
                     m.listen(); // блокирующий цикл; при прерывании сработает hook
                 }
 
+                case "daemon" -> {
+                    // listen + канал управления: send-text/send-image/address из других процессов идут сюда
+                    try (ControlChannel control = ControlChannel.open(m, ControlChannel.defaultSocket())) {
+                        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                            control.close();
+                            m.close();
+                        }));
+                        m.listen();
+                    }
+                }
+
                 case "send-text" -> {
                     if (args.length < 3) {
                         log.error("send-text requires: <peer.b32.i2p> <message...>");
@@ -44,7 +159,15 @@ public class Main {
                     String dest = args[1];
                     String msg = String.join(" ", Arrays.copyOfRange(args, 2, args.length));
                     log.info("send-text -> {} ({} bytes)", dest, msg.getBytes(StandardCharsets.UTF_8).length);
-                    m.sendText(dest, msg);
+                    long ready = System.nanoTime();
+                    try {
+                        m.sendText(dest, msg);
+                    } catch (ProtocolException e) {
+                        throw e;
+                    } catch (IOException e) {
+                        queued(queueOrRethrow(e, () -> m.queueText(dest, msg)));
+                    }
+                    startup(m, started, ready);
                 }
 
                 case "send-image" -> {
@@ -56,7 +179,16 @@ public class Main {
                     String dest = args[1];
                     Path img = Path.of(args[2]);
                     log.info("send-image -> {} (path: {})", dest, img.toAbsolutePath());
-                    m.sendImage(dest, img);
+                    m.prepareImage(img); // хэши частей — пока строятся туннели
+                    long ready = System.nanoTime();
+                    try {
+                        m.sendImage(dest, img);
+                    } catch (ProtocolException | FileSystemException e) {
+                        throw e;
+                    } catch (IOException e) {
+                        queued(queueOrRethrow(e, () -> m.queueImage(dest, img)));
+                    }
+                    startup(m, started, ready);
                 }
 
                 default -> {
@@ -72,19 +204,221 @@ public class Main {
         }
     }
 
+    /**
+     * address / send-text / send-image через запущенный daemon ({@link ControlChannel}): без своей
+     * I2CP-сессии и туннелей. false — демона нет (или команда не из этих), работаем сами.
+     */
+    private static boolean forwardToDaemon(String[] args) {
+        boolean forwardable = switch (args[0]) {
+            case "address" -> args.length == 1;
+            case "send-text" -> args.length >= 3;
+            case "send-image" -> args.length == 3;
+            case "inbox" -> args.length == 2 && "prune".equals(args[1]); // inbox и индекс принадлежат демону
+            default -> false;
+        };
+        if (!forwardable) return false;
+        ControlChannel.Client daemon = ControlChannel.Client.connect(ControlChannel.defaultSocket());
+        if (daemon == null) return false;
+        log.info("Forwarding {} to the running daemon", args[0]);
+        try {
+            switch (args[0]) {
+                case "address" -> System.out.println(daemon.address());
+                case "inbox" -> System.out.println(daemon.prune());
+                case "send-text" -> queued(daemon.sendText(args[1], String.join(" ", Arrays.copyOfRange(args, 2, args.length))));
+                default -> queued(daemon.sendImage(args[1], Path.of(args[2])));
+            }
+        } catch (Throwable t) {
+            log.error("CLI failed: {}", t.getMessage(), t);
+            System.exit(EXIT_FAILURE);
+        }
+        return true;
+    }
+
+    private interface Queue {
+        long run() throws IOException;
+    }
+
+    /** Не ушло — отложить в {@link DurableOutbox}; не вышло и это (ящик занят другим процессом) — исходная ошибка. */
+    private static long queueOrRethrow(IOException failed, Queue queue) throws IOException {
+        try {
+            return queue.run();
+        } catch (IOException e) {
+            failed.addSuppressed(e);
+            throw failed;
+        }
+    }
+
+    /** id &gt; 0 — сообщение ждёт в ящике: сообщить и выйти с {@code EXIT_QUEUED}. */
+    private static void queued(long id) {
+        if (id == 0) return;
+        log.warn("Not delivered now, queued in the outbox as #{}: listen/daemon will retry", id);
+        System.out.println("queued " + id);
+        System.exit(EXIT_QUEUED);
+    }
+
+    /**
+     * Из чего сложился старт команды: подготовка (разбор аргументов, хэши файла) и подключение к роутеру
+     * шли параллельно, ждали его только остаток.
+     */
+    private static void startup(Messenger m, long started, long ready) {
+        if (!(m.transport() instanceof LazyTransport lazy)) return;
+        log.info("Startup: prepared in {} ms, router connected in {} ms, waited for it {} ms, total {} ms",
+                (ready - started) / 1_000_000, lazy.connectMillis(), lazy.waitedMillis(),
+                (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Запись JFR до выхода из процесса (Ctrl+C / SIGTERM): события мессенджера ({@code dev.learn.i2p.*})
+     * вместе с GC и файловым/сетевым I/O. Настройки — -Di2p.messenger.jfr.settings (default | profile
+     * или путь к .jfc), по умолчанию default (накладные расходы ~1%); на диске держим не больше 256 MB.
+     */
+    static Recording record(Path file) throws IOException, ParseException {
+        String settings = System.getProperty("i2p.messenger.jfr.settings", "default");
+        Configuration c = settings.endsWith(".jfc")
+                ? Configuration.create(Path.of(settings))
+                : Configuration.getConfiguration(settings);
+        Recording r = new Recording(c);
+        r.setName("i2p-messenger");
+        r.setToDisk(true);
+        r.setMaxSize(256L * 1024 * 1024);
+        r.setDestination(file);
+        r.setDumpOnExit(true);
+        r.start();
+        log.info("Flight recording ({}) started, will be written to {} on exit", settings, file.toAbsolutePath());
+        return r;
+    }
+
+    private static final DateTimeFormatter LIST_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+    /** outbox list | outbox flush (одна попытка для всего отложенного прямо сейчас) */
+    private static void outbox(String[] args) throws Exception {
+        if (args.length != 1) throw new IllegalArgumentException("outbox requires: list|flush");
+        Path inbox = Messenger.defaultInbox().toAbsolutePath().normalize();
+        try {
+            switch (args[0]) {
+                case "list" -> {
+                    List<DurableOutbox.Message> pending = DurableOutbox.of(inbox).pending();
+                    for (DurableOutbox.Message m : pending) {
+                        System.out.printf("#%-6d %s  %-5s %3d attempt(s), next %s  %s  %s%n", m.id(), LIST_TIME.format(m.created()),
+                                m.kind(), m.attempts(), LIST_TIME.format(m.nextAttempt()), m.dest(),
+                                m.kind() == DurableOutbox.Kind.IMAGE ? m.body() : m.body().length() + " chars");
+                    }
+                    log.info("outbox list: {} pending", pending.size());
+                }
+                case "flush" -> {
+                    DurableOutbox outbox = DurableOutbox.of(inbox); // до подключения: занят демоном — сразу ошибка
+                    try (Messenger m = Messenger.createDefault()) {
+                        int sent = outbox.flush(m::deliver);
+                        System.out.println("delivered " + sent + ", pending " + outbox.size());
+                        if (outbox.size() > 0) System.exit(EXIT_QUEUED);
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown outbox command: " + args[0]);
+            }
+        } finally {
+            DurableOutbox.closeIfOpen(inbox);
+        }
+    }
+
+    /** inbox list [--from peer] [--since t] [--until t] [--type mime] | inbox reindex | inbox prune */
+    private static void inbox(String[] args) throws IOException {
+        if (args.length == 0) throw new IllegalArgumentException("inbox requires: list|reindex|prune");
+        Path dir = Messenger.defaultInbox().toAbsolutePath().normalize();
+        try {
+            switch (args[0]) {
+                case "reindex" -> {
+                    InboxIndex index = InboxIndex.of(dir); // держит listen/daemon — ошибка, под ним не пересобираем
+                    index.rebuild();
+                    System.out.println(index.size() + " file(s) indexed in " + dir);
+                }
+                // демона нет (иначе ушло бы к нему); inbox держит listen — отказ, под ним не чистим
+                case "prune" -> System.out.println(new Retention(dir, Retention.Policy.fromSystemProps()).run());
+                case "list" -> {
+                    String from = null, type = null;
+                    Instant since = null, until = null;
+                    for (int i = 1; i < args.length; i++) {
+                        String opt = args[i];
+                        if (i + 1 >= args.length) throw new IllegalArgumentException("inbox list: " + opt + " requires a value");
+                        String v = args[++i];
+                        switch (opt) {
+                            case "--from" -> from = v;
+                            case "--since" -> since = parseTime(v, false);
+                            case "--until" -> until = parseTime(v, true);
+                            case "--type" -> type = v;
+                            default -> throw new IllegalArgumentException("inbox list: unknown option " + opt);
+                        }
+                    }
+                    InboxIndex index = InboxIndex.forReading(dir); // держит listen/daemon — читаем снимок
+                    try {
+                        List<InboxIndex.Entry> found = index.query(new InboxIndex.Query(from, since, until, type));
+                        for (InboxIndex.Entry e : found) {
+                            System.out.printf("%s  %-26s %12d  %s  %s%n", LIST_TIME.format(e.time()), e.mime(), e.size(),
+                                    dir.relativize(e.path()), e.sender().isEmpty() ? "-" : e.sender());
+                        }
+                        log.info("inbox list: {} of {} file(s){}", found.size(), index.size(),
+                                index.isSnapshot() ? " (snapshot, the listener owns the index)" : "");
+                    } finally {
+                        if (index.isSnapshot()) index.close();
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown inbox command: " + args[0]);
+            }
+        } finally {
+            InboxIndex.closeIfOpen(dir);
+        }
+    }
+
+    /**
+     * 7d / 12h / 30m — столько назад от текущего момента; 2025-01-31 — начало дня (для --until — его конец);
+     * иначе ISO-время (2025-01-31T10:00:00Z).
+     */
+    static Instant parseTime(String v, boolean endOfDay) {
+        String s = v.trim();
+        try {
+            if (s.matches("\\d+[dhm]")) {
+                long n = Long.parseLong(s.substring(0, s.length() - 1));
+                Duration d = switch (s.charAt(s.length() - 1)) {
+                    case 'd' -> Duration.ofDays(n);
+                    case 'h' -> Duration.ofHours(n);
+                    default -> Duration.ofMinutes(n);
+                };
+                return Instant.now().minus(d);
+            }
+            if (s.length() == 10) {
+                LocalDate day = LocalDate.parse(s);
+                ZoneId zone = ZoneId.systemDefault();
+                return endOfDay ? day.plusDays(1).atStartOfDay(zone).toInstant().minusMillis(1) : day.atStartOfDay(zone).toInstant();
+            }
+            return Instant.parse(s);
+        } catch (DateTimeParseException | NumberFormatException e) {
+            throw new IllegalArgumentException("Bad time: " + v + " (expected 7d, 12h, 30m, 2025-01-31 or ISO instant)");
+        }
+    }
+
     private static void usage() {
         System.out.println("""
                 Usage:
                   i2p-messenger address
-                  i2p-messenger listen
+                  i2p-messenger listen [--record <file.jfr>] [--profiles <name,name,...>]
+                  i2p-messenger daemon         (listen + канал управления; address/send-* пойдут через него)
                   i2p-messenger send-text <peer.b32.i2p> <message>
                   i2p-messenger send-image <peer.b32.i2p> <path/to/image>
+                  i2p-messenger inbox list [--from <peer>] [--since <7d|2025-01-31>] [--until <...>] [--type <image|image/png>]
+                  i2p-messenger inbox reindex
+                  i2p-messenger inbox prune    (правила — i2p.messenger.retention.*; при запущенном daemon — в нём)
+                  i2p-messenger outbox list    (не доставленное сразу; доставляют listen/daemon)
+                  i2p-messenger outbox flush
 
                 Examples:
                   i2p-messenger address
                   i2p-messenger listen
+                  i2p-messenger listen --record alice.jfr
+                  i2p-messenger listen --profiles alice,bob,carol
+                  i2p-messenger daemon &
                   i2p-messenger send-text uz6d...f2dq.b32.i2p "привет из I2P"
                   i2p-messenger send-image uz6d...f2dq.b32.i2p ./cat.png
+                  i2p-messenger inbox list --from uz6d...f2dq.b32.i2p --since 7d --type image
+                  I2P_MESSENGER_RETENTION_MAXAGE=90d i2p-messenger inbox prune
                 """);
     }
 }
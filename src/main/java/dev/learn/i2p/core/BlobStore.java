@@ -0,0 +1,294 @@
+package dev.learn.i2p.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.stream.Stream;
+
+/**
+ * Хранилище содержимого по SHA-256 рядом с inbox: {@code <inbox>.blobs/<2 hex>/<64 hex>}.
+ * <p>
+ * Файл в inbox — жёсткая ссылка на blob, поэтому одинаковое содержимое, принятое много раз,
+ * лежит на диске один раз. Счётчик ссылок — число ссылок на inode (unix:nlink): blob с одной
+ * ссылкой (только из хранилища) никому не нужен и удаляется в {@link #release} или {@link #sweep}.
+ * Файлы-ссылки не стоит править на месте — изменятся все копии.
+ * <p>
+ * Хэш всего файла известен только в конце приёма, поэтому для больших файлов есть ещё
+ * {@code heads/<SHA-256 первых 16К>} → SHA-256 blob'а: по началу потока находим кандидата и дальше
+ * сравниваем поток с ним вместо записи на диск ({@link Match}); разошлись — дописываем совпавшее
+ * начало из blob'а и продолжаем как обычно.
+ * <p>
+ * Выключается {@code -Di2p.messenger.dedup=false} (или I2P_MESSENGER_DEDUP=false); на ФС без жёстких
+ * ссылок отключается само при первой неудаче.
+ */
+public final class BlobStore {
+    private static final Logger log = LoggerFactory.getLogger(BlobStore.class);
+    private static final HexFormat HEX = HexFormat.of();
+
+    private static final boolean ENABLED = !"false".equalsIgnoreCase(Config.get("i2p.messenger.dedup", "true"));
+    private static volatile boolean linksUnsupported;
+
+    private final Path root;
+
+    private BlobStore(Path root) {
+        this.root = root;
+    }
+
+    /** Хранилище этого inbox; null — дедупликация выключена. */
+    public static BlobStore forInbox(Path inbox) {
+        if (!ENABLED || linksUnsupported) return null;
+        return new BlobStore(rootFor(inbox));
+    }
+
+    static Path rootFor(Path inbox) {
+        Path abs = inbox.toAbsolutePath();
+        return abs.resolveSibling(abs.getFileName() + ".blobs");
+    }
+
+    public Path pathOf(byte[] sha256) {
+        String hex = HEX.formatHex(sha256);
+        return root.resolve(hex.substring(0, 2)).resolve(hex);
+    }
+
+    public boolean has(byte[] sha256) {
+        return Files.exists(pathOf(sha256));
+    }
+
+    /**
+     * Положить в inbox под именем target готовый файл с хэшем sha256. Новое содержимое — файл
+     * становится blob'ом (ссылкой из хранилища) и переносится в target; уже известное — target
+     * становится ссылкой на имеющийся blob, а файл удаляется. Каталог target должен существовать.
+     *
+     * @return target
+     */
+    public Path publish(Path file, byte[] sha256, Path target) throws IOException {
+        Path blob = pathOf(sha256);
+        for (int attempt = 0; attempt < 3; attempt++) {
+            if (keep(blob, file)) return move(file, target);
+            try {
+                Files.createLink(target, blob);
+                Files.delete(file);
+                log.debug("Duplicate of blob {} linked as {}", blob.getFileName(), target.getFileName());
+                return target;
+            } catch (NoSuchFileException released) {
+                // blob удалили между проверкой и ссылкой — сохраним свой
+            }
+        }
+        throw new IOException("Blob " + blob.getFileName() + " keeps disappearing");
+    }
+
+    /** Сделать target ссылкой на уже имеющийся blob, не трогая данных; false — такого blob нет. */
+    public boolean linkExisting(byte[] sha256, Path target) throws IOException {
+        try {
+            Files.createLink(target, pathOf(sha256));
+            return true;
+        } catch (NoSuchFileException absent) {
+            if (!Files.exists(target.getParent())) throw absent;
+            return false;
+        }
+    }
+
+    /** Ключ начала потока head[0..len) для {@link #match} и {@link #rememberHead}. */
+    public static byte[] headKey(byte[] head, int len) {
+        MessageDigest md = InboxIndex.sha256();
+        md.update(head, 0, len);
+        return md.digest();
+    }
+
+    /** Кандидат в повторы по ключу начала потока; null — такого начала не встречали. */
+    public Match match(byte[] headKey) {
+        try {
+            String hex = Files.readString(headRef(headKey));
+            if (hex.length() != 64) return null; // недописанная ссылка
+            byte[] sha = HEX.parseHex(hex);
+            return new Match(FileChannel.open(pathOf(sha), StandardOpenOption.READ), sha);
+        } catch (IOException | IllegalArgumentException none) {
+            return null;
+        }
+    }
+
+    /** Запомнить начало потока, чтобы следующий такой же файл сравнивался с blob'ом, а не писался. */
+    public void rememberHead(byte[] headKey, byte[] sha256) {
+        try {
+            Path ref = headRef(headKey);
+            Files.createDirectories(ref.getParent());
+            Files.writeString(ref, HEX.formatHex(sha256));
+        } catch (IOException e) {
+            log.debug("Head reference not saved: {}", e.toString());
+        }
+    }
+
+    private Path headRef(byte[] headKey) {
+        return root.resolve("heads").resolve(HEX.formatHex(headKey));
+    }
+
+    /**
+     * Сравнение принимаемого потока с blob'ом-кандидатом: пока совпадает, данные не пишутся.
+     */
+    public static final class Match implements Closeable {
+        private final FileChannel blob;
+        private final byte[] sha256;
+        private final long size;
+        private final BufferPool.Buffer buf = BufferPool.shared().acquire();
+        private long matched;
+        private boolean closed;
+
+        private Match(FileChannel blob, byte[] sha256) throws IOException {
+            this.blob = blob;
+            this.sha256 = sha256;
+            this.size = blob.size();
+        }
+
+        /** Следующие n байт потока (a[0..n)) совпали с blob'ом. */
+        public boolean next(byte[] a, int n) throws IOException {
+            if (matched + n > size) return false;
+            byte[] b = buf.array();
+            ByteBuffer bb = ByteBuffer.wrap(b, 0, n);
+            while (bb.hasRemaining()) {
+                if (blob.read(bb, matched + bb.position()) < 0) return false;
+            }
+            if (!Arrays.equals(a, 0, n, b, 0, n)) return false;
+            matched += n;
+            return true;
+        }
+
+        /** Поток кончился и совпал с blob'ом целиком (а его хэш — с именем blob'а). */
+        public boolean whole(byte[] streamSha256) {
+            return matched == size && MessageDigest.isEqual(streamSha256, sha256);
+        }
+
+        /** Совпадение кончилось: дописать в out (с его текущей позиции) совпавшее начало и закрыться. */
+        public void divert(FileChannel out) throws IOException {
+            try {
+                for (long pos = 0; pos < matched; ) pos += blob.transferTo(pos, matched - pos, out);
+            } finally {
+                close();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                blob.close();
+            } finally {
+                buf.close();
+            }
+        }
+    }
+
+    /** Ссылка из хранилища на file; false — такое содержимое уже есть. */
+    private boolean keep(Path blob, Path file) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                Files.createLink(blob, file);
+                return true;
+            } catch (FileAlreadyExistsException known) {
+                return false;
+            } catch (NoSuchFileException noDir) {
+                if (attempt > 0 || !Files.exists(file)) throw noDir;
+                Files.createDirectories(blob.getParent());
+            } catch (FileSystemException e) {
+                if (e.getClass() != FileSystemException.class) throw e; // нет доступа и т. п. — не про ссылки
+                return disable(e);
+            } catch (UnsupportedOperationException e) {
+                return disable(e);
+            }
+        }
+    }
+
+    /** Файл просто уйдёт в inbox как есть; следующие сохранения хранилище уже не трогают. */
+    private boolean disable(Exception why) {
+        linksUnsupported = true;
+        log.warn("Hard links are not supported under {} ({}), inbound deduplication disabled", root, why.toString());
+        return true;
+    }
+
+    private static Path move(Path from, Path target) throws IOException {
+        try {
+            return Files.move(from, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException otherDisk) {
+            return Files.move(from, target);
+        }
+    }
+
+    /**
+     * Удалить файл из inbox; если это была последняя ссылка на его blob, удалить и blob.
+     *
+     * @return true, если освободилось место под содержимое (удалён blob или файл без blob)
+     */
+    public boolean release(Path inboxFile) throws IOException {
+        return release(inboxFile, hash(inboxFile));
+    }
+
+    /** То же, когда SHA-256 содержимого уже известен (из индекса): файл не перечитывается. */
+    public boolean release(Path inboxFile, byte[] sha256) throws IOException {
+        Path blob = pathOf(sha256);
+        boolean shared = Files.exists(blob) && Files.isSameFile(blob, inboxFile);
+        Files.delete(inboxFile);
+        if (!shared || links(blob) != 1) return !shared;
+        // ссылку, созданную прямо сейчас, это не ломает: содержимое останется у неё, пропадёт лишь дедупликация
+        Files.deleteIfExists(blob);
+        return true;
+    }
+
+    /**
+     * Удалить blob'ы, на которые из inbox больше нет ссылок (файлы удалили руками).
+     *
+     * @return сколько blob'ов удалено
+     */
+    public int sweep() throws IOException {
+        if (!Files.isDirectory(root)) return 0;
+        int removed = 0;
+        Path heads = root.resolve("heads");
+        try (Stream<Path> s = Files.walk(root, 2)) {
+            for (Path p : s.filter(Files::isRegularFile).toList()) {
+                if (p.startsWith(heads)) continue;
+                if (links(p) == 1) {
+                    Files.deleteIfExists(p);
+                    removed++;
+                }
+            }
+        }
+        if (Files.isDirectory(heads)) {
+            try (Stream<Path> s = Files.list(heads)) {
+                for (Path ref : s.toList()) {
+                    String hex = Files.readString(ref);
+                    if (hex.length() != 64 || !Files.exists(root.resolve(hex.substring(0, 2)).resolve(hex))) Files.deleteIfExists(ref);
+                }
+            }
+        }
+        if (removed > 0) log.info("Removed {} unreferenced blob(s) from {}", removed, root);
+        return removed;
+    }
+
+    /** Число жёстких ссылок; -1 — ФС его не сообщает (тогда ничего не удаляем). */
+    static int links(Path p) throws IOException {
+        try {
+            return (Integer) Files.getAttribute(p, "unix:nlink");
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    private static byte[] hash(Path file) throws IOException {
+        MessageDigest md = InboxIndex.sha256();
+        try (InputStream in = Files.newInputStream(file); BufferPool.Buffer buf = BufferPool.shared().acquire()) {
+            byte[] a = buf.array();
+            int n;
+            while ((n = in.read(a)) > 0) md.update(a, 0, n);
+        }
+        return md.digest();
+    }
+
+}
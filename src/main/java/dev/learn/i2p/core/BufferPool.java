@@ -0,0 +1,83 @@
+package dev.learn.i2p.core;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Пул буферов для потокового приёма/записи на диск.
+ * <p>
+ * Каждый буфер — пара: heap-массив (в него читает {@link java.io.InputStream}) и direct
+ * ByteBuffer того же размера (его пишет {@link java.nio.channels.FileChannel}). Запись heap-буфера
+ * в канал заставила бы JDK взять временный direct-буфер на поток — с виртуальным потоком на
+ * соединение это аллокация на каждое сообщение; пул делает расход памяти постоянным.
+ * Свободных буферов храним не больше maxRetained, лишние отдаём GC.
+ */
+public final class BufferPool {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_RETAINED = 64;
+
+    private static final BufferPool SHARED = new BufferPool(DEFAULT_BUFFER_SIZE, DEFAULT_MAX_RETAINED);
+
+    private final int bufferSize;
+    private final BlockingQueue<Buffer> free;
+
+    public BufferPool(int bufferSize, int maxRetained) {
+        if (bufferSize <= 0) throw new IllegalArgumentException("bufferSize must be > 0: " + bufferSize);
+        this.bufferSize = bufferSize;
+        this.free = new ArrayBlockingQueue<>(Math.max(1, maxRetained));
+    }
+
+    /** Общий на процесс пул (64 KiB × до 64 свободных). */
+    public static BufferPool shared() {
+        return SHARED;
+    }
+
+    public int bufferSize() {
+        return bufferSize;
+    }
+
+    /** Свободных буферов в пуле сейчас. */
+    public int retained() {
+        return free.size();
+    }
+
+    /** Взять буфер; вернуть — через {@link Buffer#close()} (удобно в try-with-resources). */
+    public Buffer acquire() {
+        Buffer b = free.poll();
+        return b != null ? b : new Buffer(this, new byte[bufferSize], ByteBuffer.allocateDirect(bufferSize));
+    }
+
+    private void release(Buffer b) {
+        b.direct.clear();
+        free.offer(b); // пул полон — буфер просто уходит в GC
+    }
+
+    public static final class Buffer implements AutoCloseable {
+        private final BufferPool owner;
+        private final byte[] array;
+        private final ByteBuffer direct;
+
+        private Buffer(BufferPool owner, byte[] array, ByteBuffer direct) {
+            this.owner = owner;
+            this.array = array;
+            this.direct = direct;
+        }
+
+        public byte[] array() {
+            return array;
+        }
+
+        /** direct-буфер, заполненный первыми n байтами {@link #array()} и готовый к записи в канал. */
+        public ByteBuffer direct(int n) {
+            direct.clear();
+            direct.put(array, 0, n);
+            return direct.flip();
+        }
+
+        @Override
+        public void close() {
+            owner.release(this);
+        }
+    }
+}
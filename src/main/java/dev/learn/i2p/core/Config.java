@@ -0,0 +1,30 @@
+package dev.learn.i2p.core;
+
+import java.util.Locale;
+
+/**
+ * Настройки процесса: системное свойство (-Di2p.messenger.x.y=…), иначе переменная окружения с тем же
+ * именем в верхнем регистре и с '_' вместо '.' (I2P_MESSENGER_X_Y). Пустое значение — как отсутствующее,
+ * пробелы по краям отбрасываются.
+ */
+public final class Config {
+
+    private Config() {}
+
+    /** Значение настройки или def. */
+    public static String get(String name, String def) {
+        String v = System.getProperty(name);
+        if (v == null || v.isBlank()) v = System.getenv(envName(name));
+        return (v == null || v.isBlank()) ? def : v.trim();
+    }
+
+    /** Значение настройки или null. */
+    public static String get(String name) {
+        return get(name, null);
+    }
+
+    /** Имя переменной окружения для настройки: i2p.messenger.pool.idleMs → I2P_MESSENGER_POOL_IDLEMS. */
+    static String envName(String name) {
+        return name.toUpperCase(Locale.ROOT).replace('.', '_');
+    }
+}
@@ -5,6 +5,7 @@ public final class Constants {
 
     public static final int EXIT_USAGE = 64;
     public static final int EXIT_FAILURE = 2;
+    public static final int EXIT_QUEUED = 75;               // не доставлено сейчас, ждёт в DurableOutbox
 
     public static final int READ_TIMEOUT_MS = 300_000;      // 5 минут
     public static final int MAX_TEXT_BYTES   = 1_000_000;   // 1 MB
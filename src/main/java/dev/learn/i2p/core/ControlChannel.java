@@ -0,0 +1,326 @@
+package dev.learn.i2p.core;
+
+import dev.learn.i2p.proto.Frame;
+import dev.learn.i2p.proto.FrameCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.FileSystemException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Канал управления демоном: CLI на той же машине отдаёт команды процессу, который держит
+ * {@link Messenger} с уже построенными туннелями и пулом соединений, — отправка стоит один
+ * round trip до пира, а не старт JVM + I2CP-сессию + туннели.
+ * <p>
+ * Транспорт — unix domain socket (файл только для владельца), формат — фреймы {@link FrameCodec}:
+ * <pre>
+ *   запрос := preamble frame                  (по запросу на соединение)
+ *   ADDRESS    —
+ *   SEND_TEXT  to=&lt;адрес&gt;, тело — текст в UTF-8
+ *   SEND_IMAGE to=&lt;адрес&gt;, path=&lt;абсолютный путь&gt; (файл читает демон)
+ *   PRUNE      —                                   (проход {@link Retention} — inbox принадлежит демону)
+ *   ответ  := ACK (тело — результат; queued=&lt;id&gt; — не ушло сразу, ждёт в {@link DurableOutbox})
+ *           | NAK (тело — сообщение об ошибке)
+ * </pre>
+ */
+public final class ControlChannel implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ControlChannel.class);
+
+    public static final int TYPE_ADDRESS = 0x20;
+    public static final int TYPE_SEND_TEXT = 0x21;
+    public static final int TYPE_SEND_IMAGE = 0x22;
+    public static final int TYPE_PRUNE = 0x23;
+
+    private static final long MAX_REQUEST = Constants.MAX_TEXT_BYTES + 1024;
+    private static final long MAX_REPLY = 64 * 1024;
+
+    private final Messenger messenger;
+    private final Path socket;
+    private final ServerSocketChannel server;
+    private final Thread loop;
+    private volatile boolean closed;
+
+    private ControlChannel(Messenger messenger, Path socket, ServerSocketChannel server) {
+        this.messenger = messenger;
+        this.socket = socket;
+        this.server = server;
+        this.loop = Thread.ofPlatform().daemon().name("i2p-control").start(this::acceptLoop);
+    }
+
+    /**
+     * Открыть канал на {@code socket}. Каталог сокета — только владельцу (см. {@link #privateDir});
+     * файл от упавшего демона удаляется; живой демон на том же пути — {@link IOException}.
+     */
+    public static ControlChannel open(Messenger messenger, Path socket) throws IOException {
+        socket = socket.toAbsolutePath();
+        privateDir(socket.getParent());
+        if (Files.exists(socket)) {
+            if (Client.connect(socket) != null) throw new IOException("Daemon is already running at " + socket);
+            Files.deleteIfExists(socket); // остался от процесса, который не закрылся
+        }
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        try {
+            server.bind(UnixDomainSocketAddress.of(socket));
+            ownerOnly(socket);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+        log.info("Control channel listening at {}", socket);
+        return new ControlChannel(messenger, socket, server);
+    }
+
+    /** Путь сокета по умолчанию: i2p.messenger.daemon.socket или &lt;home&gt;/control.sock. */
+    public static Path defaultSocket() {
+        String v = Config.get("i2p.messenger.daemon.socket", null);
+        if (v != null) return Paths.get(v);
+        Path home = Paths.get(Config.get("i2p.messenger.home", Paths.get(System.getProperty("user.home"), ".i2p-messenger").toString()));
+        return home.resolve("control.sock");
+    }
+
+    public Path socket() {
+        return socket;
+    }
+
+    /**
+     * Между bind и chmod сокет открыт всем, кому открыт каталог, — поэтому каталог создаётся сразу
+     * с rwx------, а существующий должен принадлежать нам: лишние права снимаются, чужой каталог
+     * (например, /tmp) — {@link IOException}.
+     */
+    private static void privateDir(Path dir) throws IOException {
+        if (!dir.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            Files.createDirectories(dir); // Windows: доступ по ACL каталога
+            return;
+        }
+        Set<PosixFilePermission> ownerOnly = PosixFilePermissions.fromString("rwx------");
+        if (!Files.isDirectory(dir)) {
+            Files.createDirectories(dir.getParent());
+            try {
+                Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(ownerOnly));
+            } catch (FileAlreadyExistsException raced) {
+                // создал кто-то другой — проверяем ниже, как существующий
+            }
+        }
+        UserPrincipal me = dir.getFileSystem().getUserPrincipalLookupService()
+                .lookupPrincipalByName(System.getProperty("user.name"));
+        UserPrincipal owner = Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS);
+        if (!owner.equals(me)) {
+            throw new IOException("Control socket directory " + dir + " belongs to " + owner.getName()
+                    + ", not " + me.getName() + "; set i2p.messenger.daemon.socket to a private directory");
+        }
+        if (!Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS).equals(ownerOnly)) {
+            log.info("Restricting {} to its owner", dir);
+            Files.setPosixFilePermissions(dir, ownerOnly);
+        }
+    }
+
+    private static void ownerOnly(Path socket) throws IOException {
+        try {
+            Files.setPosixFilePermissions(socket, PosixFilePermissions.fromString("rw-------"));
+        } catch (UnsupportedOperationException e) {
+            log.debug("No POSIX permissions for {}", socket); // Windows: доступ по ACL каталога
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            SocketChannel ch;
+            try {
+                ch = server.accept();
+            } catch (AsynchronousCloseException e) {
+                return;
+            } catch (IOException e) {
+                if (closed) return;
+                log.warn("Control accept failed: {}", e.toString());
+                continue;
+            }
+            Thread.ofVirtual().name("i2p-control-conn").start(() -> serve(ch));
+        }
+    }
+
+    private void serve(SocketChannel ch) {
+        try (ch) {
+            InputStream in = new BufferedInputStream(Channels.newInputStream(ch));
+            OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch));
+            readPreamble(in);
+            Frame req = FrameCodec.read(in, MAX_REQUEST);
+            if (req == null) return;
+            Frame reply;
+            try {
+                reply = execute(req);
+            } catch (IOException | RuntimeException e) {
+                log.warn("Control command 0x{} failed: {}", Integer.toHexString(req.type()), e.toString());
+                reply = reply(req.seq(), Frame.TYPE_NAK, String.valueOf(e.getMessage()));
+            }
+            FrameCodec.writePreamble(out);
+            FrameCodec.write(out, reply);
+            out.flush();
+        } catch (IOException e) {
+            log.debug("Control connection dropped: {}", e.toString());
+        }
+    }
+
+    private Frame execute(Frame req) throws IOException {
+        return switch (req.type()) {
+            case TYPE_ADDRESS -> reply(req.seq(), Frame.TYPE_ACK, messenger.myB32());
+            case TYPE_SEND_TEXT -> {
+                String to = header(req, "to"), text = new String(req.payload(), StandardCharsets.UTF_8);
+                yield sent(req, () -> messenger.sendText(to, text), () -> messenger.queueText(to, text));
+            }
+            case TYPE_SEND_IMAGE -> {
+                String to = header(req, "to");
+                Path img = Paths.get(header(req, "path"));
+                if (!img.isAbsolute()) throw new ProtocolException("Image path must be absolute: " + img);
+                yield sent(req, () -> messenger.sendImage(to, img), () -> messenger.queueImage(to, img));
+            }
+            case TYPE_PRUNE -> reply(req.seq(), Frame.TYPE_ACK, messenger.prune().toString());
+            default -> throw new ProtocolException("Unknown control command: 0x" + Integer.toHexString(req.type()));
+        };
+    }
+
+    private interface Send {
+        void run() throws IOException;
+    }
+
+    private interface Queue {
+        long run() throws IOException;
+    }
+
+    /** Не ушло сразу (пир недоступен) — в {@link DurableOutbox}; ACK с заголовком queued=&lt;id&gt;. */
+    private static Frame sent(Frame req, Send send, Queue queue) throws IOException {
+        try {
+            send.run();
+            return reply(req.seq(), Frame.TYPE_ACK, "");
+        } catch (ProtocolException | FileSystemException e) {
+            throw e; // повтор не поможет
+        } catch (IOException e) {
+            long id = queue.run();
+            log.info("Control: not delivered now ({}), queued as #{}", e.toString(), id);
+            return new Frame(Frame.TYPE_ACK, 0, req.seq(), Map.of("queued", String.valueOf(id)), null);
+        }
+    }
+
+    private static String header(Frame req, String name) throws ProtocolException {
+        String v = req.headers().get(name);
+        if (v == null || v.isBlank()) throw new ProtocolException("Missing header: " + name);
+        return v;
+    }
+
+    private static Frame reply(long seq, int type, String body) {
+        return new Frame(type, 0, seq, Map.of(), body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void readPreamble(InputStream in) throws IOException {
+        byte[] head = in.readNBytes(FrameCodec.PREAMBLE_LENGTH);
+        if (head.length < FrameCodec.PREAMBLE_LENGTH) throw new EOFException("Truncated preamble");
+        if (!FrameCodec.hasMagic(head)) throw new ProtocolException("Not a control request");
+        FrameCodec.checkVersion(head[FrameCodec.MAGIC.length] & 0xFF);
+    }
+
+    /** Перестать принимать команды; начатые доработают сами. Файл сокета удаляется. */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        try {
+            server.close();
+            loop.join(1_000);
+            Files.deleteIfExists(socket);
+        } catch (IOException e) {
+            log.warn("Control socket {} not removed: {}", socket, e.toString());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        log.info("Control channel closed");
+    }
+
+    /** Клиент канала: команда — одно соединение, ответ ждём до конца отправки. */
+    public static final class Client {
+        private final Path socket;
+
+        private Client(Path socket) {
+            this.socket = socket;
+        }
+
+        /** Демон на {@code socket}, если он запущен и принимает соединения; иначе null. */
+        public static Client connect(Path socket) {
+            if (!Files.exists(socket)) return null;
+            try (SocketChannel ignored = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+                return new Client(socket);
+            } catch (IOException e) {
+                return null; // файл есть, процесса нет
+            }
+        }
+
+        /** @return 0 — доставлено; иначе не ушло сразу и ждёт в ящике демона под этим id */
+        public long sendText(String to, String text) throws IOException {
+            return queuedId(call(new Frame(TYPE_SEND_TEXT, 0, 0, Map.of("to", to), text.getBytes(StandardCharsets.UTF_8))));
+        }
+
+        /** @return как у {@link #sendText} */
+        public long sendImage(String to, Path img) throws IOException {
+            return queuedId(call(new Frame(TYPE_SEND_IMAGE, 0, 0,
+                    Map.of("to", to, "path", img.toAbsolutePath().normalize().toString()), null)));
+        }
+
+        private static long queuedId(Frame reply) throws ProtocolException {
+            String id = reply.headers().get("queued");
+            try {
+                return id == null ? 0 : Long.parseLong(id);
+            } catch (NumberFormatException e) {
+                throw new ProtocolException("Bad queued id: " + id);
+            }
+        }
+
+        /** @return итог прохода {@link Retention} в демоне */
+        public String prune() throws IOException {
+            return new String(call(new Frame(TYPE_PRUNE, 0, 0, Map.of(), null)).payload(), StandardCharsets.UTF_8);
+        }
+
+        public String address() throws IOException {
+            return new String(call(new Frame(TYPE_ADDRESS, 0, 0, Map.of(), null)).payload(), StandardCharsets.UTF_8);
+        }
+
+        private Frame call(Frame req) throws IOException {
+            try (SocketChannel ch = SocketChannel.open(UnixDomainSocketAddress.of(socket))) {
+                OutputStream out = new BufferedOutputStream(Channels.newOutputStream(ch));
+                FrameCodec.writePreamble(out);
+                FrameCodec.write(out, req);
+                out.flush();
+                InputStream in = new BufferedInputStream(Channels.newInputStream(ch));
+                readPreamble(in);
+                Frame reply = FrameCodec.read(in, MAX_REPLY);
+                if (reply == null) throw new EOFException("Daemon closed the control connection");
+                if (reply.type() == Frame.TYPE_NAK) throw new IOException("Daemon: " + new String(reply.payload(), StandardCharsets.UTF_8));
+                if (reply.type() != Frame.TYPE_ACK) throw new ProtocolException("Unexpected reply type: " + reply.type());
+                return reply;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,632 @@
+package dev.learn.i2p.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.FileSystemException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.CRC32;
+
+/**
+ * Исходящие, которые не удалось отдать сразу (пир офлайн, нет lease set, таймаут), — на диске до доставки.
+ * <p>
+ * Журнал — отображённый в память файл рядом с inbox ({@code <inbox>.outbox/journal}), записи только
+ * дописываются; на месте меняются лишь попытки, время следующей и состояние. Доставленные и
+ * просроченные вычищаются перезаписью журнала (живые записи сначала копируются в
+ * {@code journal.compact} — упадём посреди, при открытии восстановимся из копии).
+ * <p>
+ * Запись (длина кратна 8):
+ * <pre>
+ *   0  int    длина записи (0 — дальше пусто)
+ *   4  int    CRC32 байтов 24..конец данных
+ *   8  long   время следующей попытки, мс от эпохи
+ *  16  int    сделано попыток
+ *  20  byte   состояние: 0 — ждёт, 1 — доставлено, 2 — брошено
+ *  24  long   id
+ *  32  long   время постановки, мс от эпохи
+ *  40  int    длина адреса
+ *  44  int    длина тела
+ *  48  byte   вид: 1 — текст (тело — текст), 2 — файл (тело — абсолютный путь)
+ *  56  адрес, тело (UTF-8)
+ * </pre>
+ * Доставку ведут workers потоков; у каждого получателя своя очередь (порядок сохраняется) и своё
+ * расписание повторов: экспоненциальная пауза от backoffMin до backoffMax со случайной половиной,
+ * чтобы после падения роутера все получатели не ломились разом. Гарантия — "хотя бы раз": отметка
+ * о доставке не сбрасывается на диск синхронно, после падения ОС сообщение может уйти повторно.
+ * Журнал принадлежит одному процессу (файловый лок).
+ */
+public final class DurableOutbox implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(DurableOutbox.class);
+
+    public enum Kind {
+        TEXT, IMAGE;
+
+        final byte code() {
+            return (byte) (ordinal() + 1);
+        }
+
+        static Kind of(byte code) throws IOException {
+            if (code < 1 || code > values().length) throw new IOException("Unknown outbox record kind: " + code);
+            return values()[code - 1];
+        }
+    }
+
+    /** Сообщение в ящике; attempts/nextAttempt — на момент чтения. */
+    public record Message(long id, String dest, Kind kind, String body, Instant created, int attempts, Instant nextAttempt) {}
+
+    /**
+     * Отдать сообщение; исключение — не доставлено. {@link ProtocolException} (пир отказал) и
+     * {@link FileSystemException} (файла нет, не читается, слишком велик) — и не будет, сообщение бросается.
+     */
+    @FunctionalInterface
+    public interface Delivery {
+        void deliver(Message m) throws IOException;
+    }
+
+    /**
+     * @param maxAge сколько пытаться доставить, потом бросить; 0 — бесконечно
+     */
+    public record Settings(int workers, Duration backoffMin, Duration backoffMax, Duration maxAge) {
+        public Settings {
+            maxAge = maxAge == null ? Duration.ZERO : maxAge;
+            if (workers < 1) throw new IllegalArgumentException("workers must be >= 1: " + workers);
+            if (backoffMin == null || backoffMin.isNegative() || backoffMin.isZero() || backoffMax == null
+                    || backoffMax.compareTo(backoffMin) < 0 || maxAge.isNegative()) {
+                throw new IllegalArgumentException("Bad outbox backoff/maxAge: " + backoffMin + ", " + backoffMax + ", " + maxAge);
+            }
+        }
+
+        /**
+         * i2p.messenger.outbox.workers (4), .backoffMin (5s), .backoffMax (15m), .maxAge (7d; 0 — без предела);
+         * переменные окружения — I2P_MESSENGER_OUTBOX_*.
+         */
+        public static Settings fromSystemProps() {
+            return new Settings(
+                    Integer.parseInt(Config.get("i2p.messenger.outbox.workers", "4")),
+                    Retention.duration(Config.get("i2p.messenger.outbox.backoffMin", "5s")),
+                    Retention.duration(Config.get("i2p.messenger.outbox.backoffMax", "15m")),
+                    Retention.duration(Config.get("i2p.messenger.outbox.maxAge", "7d")));
+        }
+    }
+
+    private static final long MAGIC = 0x4932504F424F5831L; // "I2POBOX1"
+    private static final int VERSION = 1;
+    private static final int HEADER = 32;
+    private static final int INITIAL_BYTES = 64 * 1024;
+    /** Вычищать, когда мёртвых байт больше живых и не меньше этого. */
+    private static final int COMPACT_MIN = 64 * 1024;
+
+    private static final int H_MAGIC = 0, H_VERSION = 8, H_NEXT_ID = 16;
+    private static final int R_LEN = 0, R_CRC = 4, R_NEXT = 8, R_ATTEMPTS = 16, R_STATE = 20, R_ID = 24,
+            R_CREATED = 32, R_DEST_LEN = 40, R_BODY_LEN = 44, R_KIND = 48, R_DATA = 56;
+    private static final byte PENDING = 0, DELIVERED = 1, DROPPED = 2;
+
+    private static final Map<Path, DurableOutbox> OPEN = new ConcurrentHashMap<>();
+
+    private final Path dir;
+    private final Path journal;
+    private final Settings settings;
+    private final FileChannel channel;
+    private final FileLock lock;
+    private MappedByteBuffer map;
+    private int end;
+    private long nextId = 1;
+    private long liveBytes;
+    private long deadBytes;
+    /** id ждущих записей -> смещение, в порядке журнала. */
+    private final Map<Long, Integer> offsets = new LinkedHashMap<>();
+    private final Map<String, Peer> peers = new HashMap<>();
+    private final DelayQueue<Due> due = new DelayQueue<>();
+    private final List<Thread> workers = new ArrayList<>();
+    private Delivery delivery;
+    private volatile boolean closed;
+
+    private final LongAdder delivered = new LongAdder();
+    private final LongAdder retried = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    /** Очередь одного получателя; queued — он в {@link #due} или его сейчас разбирает worker. */
+    private static final class Peer {
+        final String dest;
+        final ArrayDeque<Long> ids = new ArrayDeque<>();
+        int failures;
+        long nextAt;
+        boolean queued;
+
+        Peer(String dest) {
+            this.dest = dest;
+        }
+    }
+
+    private record Due(Peer peer, long at) implements Delayed {
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(at - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed o) {
+            return Long.compare(at, ((Due) o).at);
+        }
+    }
+
+    private DurableOutbox(Path dir, Settings settings, FileChannel channel, FileLock lock) {
+        this.dir = dir;
+        this.journal = dir.resolve("journal");
+        this.settings = settings;
+        this.channel = channel;
+        this.lock = lock;
+    }
+
+    public static Path dirFor(Path inbox) {
+        Path abs = inbox.toAbsolutePath();
+        return abs.resolveSibling(abs.getFileName() + ".outbox");
+    }
+
+    /** Общий на процесс ящик этого inbox (настройки — {@link Settings#fromSystemProps()}). */
+    public static DurableOutbox of(Path inbox) throws IOException {
+        Path key = inbox.toAbsolutePath().normalize();
+        DurableOutbox o = OPEN.get(key);
+        if (o != null) return o;
+        synchronized (OPEN) {
+            o = OPEN.get(key);
+            if (o == null) {
+                o = open(dirFor(key), Settings.fromSystemProps());
+                OPEN.put(key, o);
+            }
+            return o;
+        }
+    }
+
+    /** Закрыть общий ящик inbox, если он был открыт. */
+    public static void closeIfOpen(Path inbox) {
+        DurableOutbox o = OPEN.remove(inbox.toAbsolutePath().normalize());
+        if (o != null) o.close();
+    }
+
+    /** Открыть журнал в dir мимо общего реестра. Занят другим процессом — {@link IOException}. */
+    public static DurableOutbox open(Path dir, Settings settings) throws IOException {
+        Files.createDirectories(dir);
+        FileChannel ch = FileChannel.open(dir.resolve("journal"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = ch.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            ch.close();
+            throw new IOException("Outbox " + dir + " is used by another process (send through its daemon)");
+        }
+        DurableOutbox o = new DurableOutbox(dir, settings, ch, lock);
+        try {
+            o.load();
+            return o;
+        } catch (IOException | RuntimeException e) {
+            o.closeChannel();
+            throw e;
+        }
+    }
+
+    private void load() throws IOException {
+        Path backup = dir.resolve("journal.compact");
+        if (Files.exists(backup)) { // перезапись журнала прервалась — живые записи целиком в копии
+            log.warn("Outbox {}: restoring journal from interrupted compaction", dir);
+            byte[] saved = Files.readAllBytes(backup);
+            channel.truncate(0);
+            ByteBuffer bb = ByteBuffer.wrap(saved);
+            while (bb.hasRemaining()) channel.write(bb, bb.position());
+            channel.force(true);
+            Files.delete(backup);
+        }
+        long size = channel.size();
+        if (size == 0) {
+            format(INITIAL_BYTES);
+            return;
+        }
+        if (size < HEADER || size > Integer.MAX_VALUE) throw new IOException("Outbox journal " + journal + " has a bad size: " + size);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        if (map.getLong(H_MAGIC) != MAGIC || map.getInt(H_VERSION) != VERSION) {
+            throw new IOException("Outbox journal " + journal + " has an unknown format");
+        }
+        nextId = Math.max(1, map.getLong(H_NEXT_ID));
+
+        int at = HEADER;
+        boolean torn = false;
+        while (at + R_DATA <= map.capacity()) {
+            int len = map.getInt(at + R_LEN);
+            if (len == 0) break;
+            if (len < R_DATA || (len & 7) != 0 || at + len > map.capacity() || !fits(at, len) || !crcOk(at)) {
+                torn = true; // недописанная запись — процесс упал посреди добавления
+                break;
+            }
+            long id = map.getLong(at + R_ID);
+            nextId = Math.max(nextId, id + 1);
+            if (map.get(at + R_STATE) == PENDING) {
+                offsets.put(id, at);
+                peer(dest(at)).ids.add(id);
+                liveBytes += len;
+            } else {
+                deadBytes += len;
+            }
+            at += len;
+        }
+        end = at;
+        if (torn || deadBytes > 0) compact();
+
+        long now = System.currentTimeMillis();
+        for (Peer p : peers.values()) { // расписание переживает перезапуск: по первой ждущей записи
+            int head = offsets.get(p.ids.peek());
+            p.failures = map.getInt(head + R_ATTEMPTS);
+            p.nextAt = map.getLong(head + R_NEXT);
+            schedule(p, now);
+        }
+        if (!offsets.isEmpty()) log.info("Outbox {}: {} pending message(s) to {} peer(s)", dir, offsets.size(), peers.size());
+    }
+
+    private void format(int capacity) throws IOException {
+        channel.truncate(0);
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        map.putLong(H_MAGIC, MAGIC).putInt(H_VERSION, VERSION).putLong(H_NEXT_ID, nextId);
+        end = HEADER;
+    }
+
+    /**
+     * Поставить в ящик: когда метод вернулся, запись на диске. Доставка — в потоках {@link #start},
+     * не раньше, чем подойдёт расписание получателя.
+     *
+     * @param body текст или (для {@link Kind#IMAGE}) путь к файлу
+     * @return id записи
+     */
+    public synchronized long enqueue(String dest, Kind kind, String body) throws IOException {
+        ensureOpen();
+        if (dest == null || dest.isBlank()) throw new IllegalArgumentException("Empty destination");
+        byte[] d = dest.trim().getBytes(StandardCharsets.UTF_8);
+        byte[] b = (kind == Kind.IMAGE ? Path.of(body).toAbsolutePath().normalize().toString() : body == null ? "" : body)
+                .getBytes(StandardCharsets.UTF_8);
+        if (b.length > Constants.MAX_TEXT_BYTES) throw new IOException("Message too large for the outbox: " + b.length + " bytes");
+        int len = (R_DATA + d.length + b.length + 7) & ~7;
+        ensureCapacity(end + len + R_DATA);
+
+        long id = nextId++;
+        long now = System.currentTimeMillis();
+        int at = end;
+        map.putLong(at + R_NEXT, now)
+                .putInt(at + R_ATTEMPTS, 0)
+                .put(at + R_STATE, PENDING)
+                .putLong(at + R_ID, id)
+                .putLong(at + R_CREATED, now)
+                .putInt(at + R_DEST_LEN, d.length)
+                .putInt(at + R_BODY_LEN, b.length)
+                .put(at + R_KIND, kind.code())
+                .put(at + R_DATA, d)
+                .put(at + R_DATA + d.length, b);
+        map.putInt(at + R_CRC, crc(at));
+        map.putInt(at + R_LEN, len); // запись видна при чтении только целиком
+        map.putLong(H_NEXT_ID, nextId);
+        map.force(at, len);
+        end += len;
+        liveBytes += len;
+
+        offsets.put(id, at);
+        Peer p = peer(dest.trim());
+        p.ids.add(id);
+        schedule(p, now);
+        return id;
+    }
+
+    private void ensureCapacity(long need) throws IOException {
+        if (need <= map.capacity()) return;
+        long bytes = Math.max(need, 2L * map.capacity());
+        if (bytes > Integer.MAX_VALUE) throw new IOException("Outbox journal is full: " + offsets.size() + " pending");
+        map.force();
+        map = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+    }
+
+    private Peer peer(String dest) {
+        return peers.computeIfAbsent(dest, Peer::new);
+    }
+
+    private void schedule(Peer p, long now) {
+        if (p.queued || p.ids.isEmpty()) return;
+        p.queued = true;
+        due.add(new Due(p, Math.max(now, p.nextAt)));
+    }
+
+    /** Запустить доставку (workers потоков); повторный вызов ничего не делает. */
+    public synchronized void start(Delivery delivery) {
+        if (closed) throw new IllegalStateException("Outbox is closed");
+        if (this.delivery != null) return;
+        this.delivery = delivery;
+        for (int i = 0; i < settings.workers(); i++) {
+            workers.add(Thread.ofVirtual().name("outbox-" + i).start(this::work));
+        }
+    }
+
+    private void work() {
+        while (!closed) {
+            Due d;
+            try {
+                d = due.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            drain(d.peer(), delivery);
+        }
+    }
+
+    /** Отдать получателю всё по порядку; первая неудача — пауза по расписанию, остальное ждёт с ней. */
+    private int drain(Peer p, Delivery to) {
+        int sent = 0;
+        while (true) {
+            Message m;
+            synchronized (this) {
+                m = closed ? null : head(p);
+                if (m == null) {
+                    p.queued = false;
+                    return sent;
+                }
+            }
+            try {
+                to.deliver(m);
+                synchronized (this) {
+                    finish(p, m, DELIVERED);
+                    p.failures = 0;
+                    p.nextAt = 0;
+                }
+                delivered.increment();
+                sent++;
+            } catch (ProtocolException | FileSystemException e) {
+                log.warn("Outbox: message {} to {} dropped, it cannot be delivered: {}", m.id(), m.dest(), e.toString());
+                synchronized (this) {
+                    finish(p, m, DROPPED);
+                }
+                dropped.increment();
+            } catch (IOException | RuntimeException e) {
+                retried.increment();
+                synchronized (this) {
+                    long now = System.currentTimeMillis();
+                    p.failures++;
+                    p.nextAt = now + backoffMillis(p.failures, ThreadLocalRandom.current().nextDouble());
+                    Integer at = offsets.get(m.id());
+                    if (at != null) map.putLong(at + R_NEXT, p.nextAt).putInt(at + R_ATTEMPTS, p.failures);
+                    if (closed) p.queued = false;
+                    else due.add(new Due(p, p.nextAt));
+                }
+                log.info("Outbox: {} not delivered to {} ({}), retry #{} in {} ms", m.id(), m.dest(), e.toString(),
+                        p.failures, Math.max(0, p.nextAt - System.currentTimeMillis()));
+                return sent;
+            }
+        }
+    }
+
+    /** Пауза перед попыткой после failures неудач подряд: половина экспоненты плюс случайная половина. */
+    long backoffMillis(int failures, double random) {
+        long min = settings.backoffMin().toMillis();
+        long max = settings.backoffMax().toMillis();
+        long exp = min;
+        for (int i = 1; i < failures && exp < max; i++) exp = Math.min(max, exp * 2);
+        return exp / 2 + (long) (random * (exp - exp / 2));
+    }
+
+    /** Первое ждущее сообщение получателя; просроченные по maxAge по пути бросаются. */
+    private Message head(Peer p) {
+        long now = System.currentTimeMillis();
+        Long id;
+        while ((id = p.ids.peek()) != null) {
+            Message m = read(offsets.get(id));
+            if (settings.maxAge().isZero() || m.created().plus(settings.maxAge()).toEpochMilli() > now) return m;
+            log.warn("Outbox: message {} to {} expired after {} attempt(s), dropped", m.id(), m.dest(), m.attempts());
+            finish(p, m, DROPPED);
+            dropped.increment();
+        }
+        return null;
+    }
+
+    private void finish(Peer p, Message m, byte state) {
+        p.ids.remove(m.id());
+        Integer at = offsets.remove(m.id());
+        if (at == null) return;
+        map.put(at + R_STATE, state);
+        int len = map.getInt(at + R_LEN);
+        liveBytes -= len;
+        deadBytes += len;
+        if (p.ids.isEmpty()) peers.remove(p.dest);
+        if (deadBytes >= COMPACT_MIN && deadBytes > liveBytes) {
+            try {
+                compact();
+            } catch (IOException e) {
+                log.warn("Outbox {} not compacted: {}", dir, e.toString());
+            }
+        }
+    }
+
+    /**
+     * Переписать журнал только с ждущими записями. Сначала они целиком уходят в journal.compact
+     * (с fsync) — это точка, после которой перезапись можно повторить при следующем открытии.
+     */
+    private void compact() throws IOException {
+        int live = (int) liveBytes;
+        ByteBuffer copy = ByteBuffer.allocate(HEADER + live);
+        copy.putLong(H_MAGIC, MAGIC).putInt(H_VERSION, VERSION).putLong(H_NEXT_ID, nextId).position(HEADER);
+        Map<Long, Integer> moved = new LinkedHashMap<>();
+        for (Map.Entry<Long, Integer> e : offsets.entrySet()) {
+            int at = e.getValue();
+            moved.put(e.getKey(), copy.position());
+            copy.put(map.slice(at, map.getInt(at + R_LEN)));
+        }
+        copy.flip();
+
+        Path tmp = dir.resolve("journal.compact.tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            while (copy.hasRemaining()) out.write(copy);
+            out.force(true);
+        }
+        Path backup = dir.resolve("journal.compact");
+        Files.move(tmp, backup, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        format((int) Math.max(INITIAL_BYTES, Long.highestOneBit(HEADER + live) * 2));
+        map.put(0, copy, 0, copy.limit());
+        map.force();
+        end = copy.limit();
+        offsets.clear();
+        offsets.putAll(moved);
+        long freed = deadBytes;
+        deadBytes = 0;
+        Files.delete(backup);
+        log.debug("Outbox {} compacted: {} pending, {} bytes freed", dir, offsets.size(), freed);
+    }
+
+    private Message read(int at) {
+        int destLen = map.getInt(at + R_DEST_LEN);
+        byte[] body = new byte[map.getInt(at + R_BODY_LEN)];
+        map.get(at + R_DATA + destLen, body);
+        try {
+            return new Message(map.getLong(at + R_ID), dest(at), Kind.of(map.get(at + R_KIND)),
+                    new String(body, StandardCharsets.UTF_8), Instant.ofEpochMilli(map.getLong(at + R_CREATED)),
+                    map.getInt(at + R_ATTEMPTS), Instant.ofEpochMilli(map.getLong(at + R_NEXT)));
+        } catch (IOException e) {
+            throw new IllegalStateException(e.getMessage(), e); // CRC сошёлся — такого быть не должно
+        }
+    }
+
+    private String dest(int at) {
+        byte[] d = new byte[map.getInt(at + R_DEST_LEN)];
+        map.get(at + R_DATA, d);
+        return new String(d, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Одна попытка для каждого ждущего сообщения прямо сейчас, мимо расписания (CLI {@code outbox flush}).
+     * Только пока доставка не запущена {@link #start}.
+     *
+     * @return сколько доставлено
+     */
+    public int flush(Delivery to) {
+        List<Peer> all;
+        synchronized (this) {
+            if (delivery != null) throw new IllegalStateException("Outbox delivery is already running");
+            due.clear();
+            all = List.copyOf(peers.values());
+            for (Peer p : all) p.queued = true;
+        }
+        int sent = 0;
+        for (Peer p : all) sent += drain(p, to);
+        return sent;
+    }
+
+    /** Ждущие сообщения в порядке постановки. */
+    public synchronized List<Message> pending() {
+        List<Message> out = new ArrayList<>(offsets.size());
+        for (int at : offsets.values()) out.add(read(at));
+        return out;
+    }
+
+    public synchronized int size() {
+        return offsets.size();
+    }
+
+    /** Доставлено с момента открытия. */
+    public long delivered() {
+        return delivered.sum();
+    }
+
+    /** Неудачных попыток (каждая отложила получателя по расписанию). */
+    public long retried() {
+        return retried.sum();
+    }
+
+    /** Брошено: просрочено по maxAge или пир не понимает сообщение. */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /** Размер журнала на диске, байт (для наблюдения за компактированием). */
+    public synchronized long journalBytes() {
+        return end;
+    }
+
+    public Path dir() {
+        return dir;
+    }
+
+    private boolean fits(int at, int len) {
+        long destLen = map.getInt(at + R_DEST_LEN), bodyLen = map.getInt(at + R_BODY_LEN);
+        return destLen >= 0 && bodyLen >= 0 && R_DATA + destLen + bodyLen <= len;
+    }
+
+    private boolean crcOk(int at) {
+        return map.getInt(at + R_CRC) == crc(at);
+    }
+
+    private int crc(int at) {
+        CRC32 c = new CRC32();
+        c.update(map.slice(at + R_ID, R_DATA - R_ID + map.getInt(at + R_DEST_LEN) + map.getInt(at + R_BODY_LEN)));
+        return (int) c.getValue();
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Outbox " + dir + " is closed");
+    }
+
+    /** Остановить доставку (текущие попытки доработают в фоне) и отпустить журнал. */
+    @Override
+    public void close() {
+        List<Thread> started;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            started = List.copyOf(workers);
+        }
+        for (Thread t : started) t.interrupt();
+        for (Thread t : started) {
+            try {
+                t.join(1_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        synchronized (this) {
+            try {
+                map.force();
+            } catch (RuntimeException e) {
+                log.warn("Outbox {} not flushed: {}", dir, e.toString());
+            }
+            closeChannel();
+        }
+    }
+
+    private void closeChannel() {
+        try { lock.release(); } catch (IOException ignored) {}
+        try { channel.close(); } catch (IOException ignored) {}
+    }
+
+}
@@ -0,0 +1,125 @@
+package dev.learn.i2p.core;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Frequency;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * События Java Flight Recorder: соединения, lookup, передачи, sniff и запись в inbox — чтобы
+ * всплески задержки было с чем сопоставить в JMC рядом с GC и файловым I/O.
+ * <p>
+ * Без записи JFR событие выключено: {@code isEnabled()/shouldCommit()} — false, поля не заполняются,
+ * а сам объект JIT убирает (escape analysis). Порог ({@link Threshold}) отсекает короткие события
+ * уже в записи (настройка {@code threshold} события в .jfc).
+ * Запись для слушателя — {@code i2p-messenger listen --record file.jfr}.
+ */
+public final class FlightEvents {
+    private FlightEvents() {}
+
+    static final String CATEGORY = "I2P Messenger";
+
+    @Name("dev.learn.i2p.ConnectionAccepted")
+    @Label("Connection Accepted")
+    @Category({CATEGORY, "Network"})
+    @StackTrace(false)
+    public static final class ConnectionAccepted extends Event {
+        @Label("Peer")
+        public String peer;
+    }
+
+    @Name("dev.learn.i2p.ConnectionClosed")
+    @Label("Connection Closed")
+    @Description("Соединение от accept/connect до закрытия (или возврата в пул)")
+    @Category({CATEGORY, "Network"})
+    @StackTrace(false)
+    public static final class ConnectionClosed extends Event {
+        @Label("Peer")
+        public String peer;
+        @Label("Inbound")
+        public boolean inbound;
+        @Label("Bytes In")
+        @DataAmount
+        public long bytesIn;
+        @Label("Bytes Out")
+        @DataAmount
+        public long bytesOut;
+    }
+
+    @Name("dev.learn.i2p.Lookup")
+    @Label("Naming Lookup")
+    @Description("Резолв адреса; попадания в кэш короче порога и в запись не попадают")
+    @Category({CATEGORY, "Network"})
+    @Threshold("1 ms")
+    public static final class Lookup extends Event {
+        @Label("Host")
+        public String host;
+        @Label("Found")
+        public boolean found;
+    }
+
+    @Name("dev.learn.i2p.Transfer")
+    @Label("Message Transfer")
+    @Category({CATEGORY, "Protocol"})
+    @StackTrace(false)
+    public static final class Transfer extends Event {
+        @Label("Peer")
+        public String peer;
+        @Label("Inbound")
+        public boolean inbound;
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+        @Label("Throughput")
+        @DataAmount
+        @Frequency
+        public long bytesPerSecond;
+
+        /** Заполнить и записать; started — System.nanoTime() начала передачи. */
+        public void end(String peer, boolean inbound, long bytes, long started) {
+            long nanos = Math.max(1, System.nanoTime() - started);
+            this.peer = peer;
+            this.inbound = inbound;
+            this.bytes = bytes;
+            this.bytesPerSecond = (long) (bytes * 1e9 / nanos);
+            commit();
+        }
+    }
+
+    @Name("dev.learn.i2p.Sniff")
+    @Label("Content Sniff")
+    @Category({CATEGORY, "Storage"})
+    @StackTrace(false)
+    public static final class Sniff extends Event {
+        @Label("MIME Type")
+        public String mime;
+        @Label("Extension")
+        public String ext;
+        @Label("Head Bytes")
+        @DataAmount
+        public int headBytes;
+    }
+
+    @Name("dev.learn.i2p.InboxWrite")
+    @Label("Inbox Write")
+    @Description("Сохранение входящего: от занятия имени до публикации файла")
+    @Category({CATEGORY, "Storage"})
+    @StackTrace(false)
+    public static final class InboxWrite extends Event {
+        @Label("File")
+        public String file;
+        @Label("MIME Type")
+        public String mime;
+        @Label("Bytes")
+        @DataAmount
+        public long bytes;
+        @Label("Duplicate")
+        @Description("Содержимое уже было: файл — ссылка на blob, данные не писались")
+        public boolean duplicate;
+    }
+}
@@ -1,73 +1,249 @@
 // start src/main/java/dev/learn/i2p/core/InboundSaver.java
 package dev.learn.i2p.core;
 
-import dev.learn.i2p.proto.FileType;
+import dev.learn.i2p.proto.ContentType;
+import dev.learn.i2p.proto.ContentTypes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
+import java.security.MessageDigest;
+import java.util.Arrays;
 
+/**
+ * Сохранение входящего сообщения в inbox.
+ * <p>
+ * Потоковый путь: первые до 16К читаются в буфер из {@link BufferPool} и по ним же определяется тип;
+ * по типу сразу занимается имя в {@link InboxLayout}, и этот же буфер пишется в скрытый part через
+ * {@link FileChannel}, остальное — тем же буфером порциями; дописанный part атомарно переименовывается.
+ * Память на сообщение постоянна и не зависит от размера файла. Попутно считается SHA-256 содержимого:
+ * по нему файл становится ссылкой в {@link BlobStore} (повторы места не занимают; сообщение, целиком
+ * уместившееся в первый буфер, при повторе и не пишется) и записывается в {@link InboxIndex}.
+ * Определение типа и запись файла видны в JFR ({@link FlightEvents}).
+ */
 public final class InboundSaver {
     private static final Logger log = LoggerFactory.getLogger(InboundSaver.class);
     private static final int SNIFF_N = 16384; // до 16К на определение
-    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS");
+
+    /** Сверка с URLConnection.guessContentTypeFromStream — только для логов, по умолчанию выключена. */
+    private static final boolean JDK_GUESS = Boolean.getBoolean("i2p.messenger.jdkGuess");
 
     private InboundSaver() {}
 
+    /** Время сохранения и ошибки пишутся в {@link Metrics}. */
     public static Path saveSmart(Path inboxDir, String senderB32, InputStream rawIn) throws IOException {
-        Files.createDirectories(inboxDir);
-
-        try (BufferedInputStream in = new BufferedInputStream(rawIn)) {
-            in.mark(SNIFF_N);
-            byte[] head = in.readNBytes(SNIFF_N);
-            in.reset();
+        long t0 = System.nanoTime();
+        try {
+            Path saved = save(inboxDir, senderB32, rawIn);
+            Metrics.shared().saved(System.nanoTime() - t0);
+            return saved;
+        } catch (IOException | RuntimeException e) {
+            Metrics.shared().error(Metrics.Stage.SAVE, e);
+            throw e;
+        }
+    }
 
-            // 1) Определяем тип через единую точку — FileType.sniff(...)
-            FileType ft = FileType.sniff(head, head.length);
-            String ext = ft.ext;
-            String mime = ft.mime;
+    private static Path save(Path inboxDir, String senderB32, InputStream rawIn) throws IOException {
+        try (InputStream in = rawIn; BufferPool.Buffer buf = BufferPool.shared().acquire()) {
+            byte[] a = buf.array();
+            int head = in.readNBytes(a, 0, Math.min(SNIFF_N, a.length));
 
-            // 2) Для справки: что верит JDK (в логах поможет разбирать спорные случаи)
-            String jdkGuess = null;
-            try {
-                jdkGuess = URLConnection.guessContentTypeFromStream(new ByteArrayInputStream(head));
-            } catch (IOException ignored) {
-                // ничего: это только для логов
+            // 1) Определяем тип через единую точку — реестр ContentTypes
+            FlightEvents.Sniff sniff = new FlightEvents.Sniff();
+            sniff.begin();
+            ContentType ct = ContentTypes.shared().sniff(a, head);
+            String ext = ct.ext();
+            String mime = ct.mime();
+            if (sniff.shouldCommit()) {
+                sniff.mime = mime;
+                sniff.ext = ext;
+                sniff.headBytes = head;
+                sniff.commit();
             }
 
-            String base = TS.format(LocalDateTime.now()) + "_from-" + shortSender(senderB32);
-            Path target = uniquified(inboxDir, base, ext);
+            // 2) Для справки: что думает JDK (в логах поможет разбирать спорные случаи)
+            String jdkGuess = JDK_GUESS ? jdkGuess(a, head) : null;
 
-            try (OutputStream out = Files.newOutputStream(target, StandardOpenOption.CREATE_NEW)) {
-                in.transferTo(out);
+            // 3) Занимаем имя и пишем в скрытый part: сначала уже прочитанную голову, затем остаток тем же буфером
+            InboxIndex index = index(inboxDir); // открыть до появления файла: иначе пересборка его тоже подхватит
+            FlightEvents.InboxWrite write = new FlightEvents.InboxWrite();
+            write.begin();
+            InboxLayout.Slot slot = InboxLayout.reserve(inboxDir, senderB32, ext);
+            BlobStore blobs = BlobStore.forInbox(inboxDir);
+            MessageDigest md = InboxIndex.sha256();
+            boolean whole = head < Math.min(SNIFF_N, a.length);
+            long total = 0;
+            byte[] sha;
+            Path target = null;
+            boolean duplicate = false;
+            BlobStore.Match match = null;
+            try {
+                if (blobs != null && whole) {
+                    // сообщение целиком в буфере: хэш известен до записи, и дубль не пишется вовсе
+                    md.update(a, 0, head);
+                    sha = md.digest();
+                    if (blobs.linkExisting(sha, slot.target())) {
+                        Files.delete(slot.part());
+                        log.info("Saved inbound duplicate (sniffed mime={}, ext={}) {} bytes -> {}", mime, ext, head, slot.target().getFileName());
+                        written(write, slot.target(), mime, head, true);
+                        append(index, senderB32, mime, head, slot.target(), sha);
+                        return slot.target();
+                    }
+                }
+                // длинный поток с уже знакомым началом сверяем с кандидатом и пишем, только если разошлись
+                byte[] headKey = blobs != null && !whole ? BlobStore.headKey(a, head) : null;
+                if (headKey != null) match = blobs.match(headKey);
+                try (FileChannel ch = FileChannel.open(slot.part(), StandardOpenOption.WRITE)) {
+                    int n = head;
+                    do {
+                        total += n;
+                        md.update(a, 0, n);
+                        if (match != null) {
+                            if (match.next(a, n)) continue;
+                            match.divert(ch);
+                            match = null;
+                        }
+                        ByteBuffer bb = buf.direct(n);
+                        while (bb.hasRemaining()) ch.write(bb);
+                    } while ((n = in.read(a, 0, a.length)) >= 0);
+                    sha = md.digest();
+                    if (match != null) {
+                        if (match.whole(sha) && blobs.linkExisting(sha, slot.target())) {
+                            target = slot.target();
+                            match.close();
+                        } else {
+                            match.divert(ch); // blob удалили или поток короче — данных в part ещё нет
+                        }
+                    }
+                }
+                if (target != null) {
+                    duplicate = true;
+                    Files.delete(slot.part());
+                } else {
+                    target = blobs == null ? slot.publish() : blobs.publish(slot.part(), sha, slot.target());
+                    if (headKey != null) blobs.rememberHead(headKey, sha);
+                }
+            } catch (IOException | RuntimeException e) {
+                if (match != null) match.close();
+                Files.deleteIfExists(slot.part());
+                throw e;
             }
             log.info("Saved inbound (sniffed mime={}, ext={}, jdkGuess={}) {} bytes -> {}",
-                    mime, ext, jdkGuess, Files.size(target), target.getFileName());
+                    mime, ext, jdkGuess, total, target.getFileName());
+            written(write, target, mime, total, duplicate);
+            append(index, senderB32, mime, total, target, sha);
 
             return target;
         }
     }
 
-    private static String shortSender(String b32) {
-        if (b32 == null) return "unknown";
-        int cut = b32.indexOf(".b32.i2p");
-        String raw = cut > 0 ? b32.substring(0, cut) : b32;
-        return raw.length() > 8 ? raw.substring(0, 8) : raw;
+    /**
+     * Кладёт в inbox уже готовый файл (например, собранный из частей): тип определяется по его
+     * началу, сам файл переименовывается без копирования (копируется, только если он на другом диске).
+     *
+     * @param sha256 уже посчитанный хэш содержимого (для индекса)
+     */
+    public static Path adopt(Path inboxDir, String senderB32, Path complete, byte[] sha256) throws IOException {
+        byte[] head;
+        try (InputStream in = Files.newInputStream(complete)) {
+            head = in.readNBytes(SNIFF_N);
+        }
+        ContentType ct = ContentTypes.shared().sniff(head, head.length);
+        long size = Files.size(complete);
+        InboxIndex index = index(inboxDir);
+        BlobStore blobs = BlobStore.forInbox(inboxDir);
+        Path target = blobs == null
+                ? InboxLayout.adopt(inboxDir, senderB32, ct.ext(), complete)
+                : blobs.publish(complete, sha256, InboxLayout.place(inboxDir, senderB32, ct.ext()));
+        log.info("Saved inbound file (sniffed mime={}, ext={}) {} bytes -> {}", ct.mime(), ct.ext(), size, target.getFileName());
+        append(index, senderB32, ct.mime(), size, target, sha256);
+        return target;
+    }
+
+    /**
+     * Содержимое с этим хэшем уже принималось от этого же отправителя и лежит в хранилище.
+     * Только такое можно не передавать заново: иначе любой пир, знающий один хэш, узнавал бы, есть ли
+     * у нас файл, и заводил бы записи в inbox, не прислав ни байта. Отправитель без адреса — не доказан.
+     */
+    public static boolean receivedFrom(Path inboxDir, String senderB32, byte[] sha256) throws IOException {
+        if (senderB32 == null || senderB32.isBlank()) return false;
+        BlobStore blobs = BlobStore.forInbox(inboxDir);
+        if (blobs == null || !blobs.has(sha256)) return false;
+        InboxIndex index = index(inboxDir);
+        if (index == null) return false;
+        String sender = senderB32.trim();
+        for (InboxIndex.Entry e : index.query(new InboxIndex.Query(sender, null, null, null))) {
+            if (Arrays.equals(e.sha256(), sha256) && sender.equalsIgnoreCase(e.sender())) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Содержимое с этим хэшем уже принималось от этого отправителя ({@link #receivedFrom}): положить
+     * в inbox ссылку на него, не получая данных заново.
+     *
+     * @return файл в inbox; null — такого содержимого от него не было (или дедупликация выключена)
+     */
+    public static Path linkKnown(Path inboxDir, String senderB32, byte[] sha256) throws IOException {
+        BlobStore blobs = BlobStore.forInbox(inboxDir);
+        if (blobs == null || !receivedFrom(inboxDir, senderB32, sha256)) return null;
+        byte[] head;
+        try (InputStream in = Files.newInputStream(blobs.pathOf(sha256))) {
+            head = in.readNBytes(SNIFF_N);
+        } catch (NoSuchFileException released) {
+            return null;
+        }
+        ContentType ct = ContentTypes.shared().sniff(head, head.length);
+        InboxIndex index = index(inboxDir);
+        Path target = InboxLayout.place(inboxDir, senderB32, ct.ext());
+        if (!blobs.linkExisting(sha256, target)) return null;
+        long size = Files.size(target);
+        log.info("Saved inbound file as a link to known content (mime={}) {} bytes -> {}", ct.mime(), size, target.getFileName());
+        append(index, senderB32, ct.mime(), size, target, sha256);
+        return target;
+    }
+
+    private static void written(FlightEvents.InboxWrite write, Path target, String mime, long size, boolean duplicate) {
+        if (!write.shouldCommit()) return;
+        write.file = target.getFileName().toString();
+        write.mime = mime;
+        write.bytes = size;
+        write.duplicate = duplicate;
+        write.commit();
+    }
+
+    /** Индекс можно пересобрать ({@code inbox reindex}) — сохранение из-за него не проваливаем. */
+    private static InboxIndex index(Path inboxDir) {
+        try {
+            return InboxIndex.of(inboxDir);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Inbox index for {} unavailable: {}", inboxDir, e.toString());
+            return null;
+        }
+    }
+
+    private static void append(InboxIndex index, String senderB32, String mime, long size, Path target, byte[] sha256) {
+        if (index == null) return;
+        try {
+            index.append(senderB32, mime, size, target, sha256);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Inbox index not updated for {}: {}", target.getFileName(), e.toString());
+        }
     }
 
-    private static Path uniquified(Path dir, String base, String ext) throws IOException {
-        for (int i = 0; i < 10000; i++) {
-            String suffix = (i == 0) ? "" : ("_" + i);
-            Path p = dir.resolve(base + suffix + ext);
-            if (!Files.exists(p)) return p;
+    private static String jdkGuess(byte[] head, int len) {
+        try {
+            return URLConnection.guessContentTypeFromStream(new ByteArrayInputStream(head, 0, len));
+        } catch (IOException ignored) {
+            return null; // ничего: это только для логов
         }
-        throw new IOException("Failed to create unique filename in " + dir);
     }
 }
 
@@ -0,0 +1,597 @@
+package dev.learn.i2p.core;
+
+import dev.learn.i2p.proto.ContentType;
+import dev.learn.i2p.proto.ContentTypes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+/**
+ * Индекс inbox: по записи фиксированной ширины на каждый сохранённый файл, в отображённом в память
+ * файле рядом с inbox ({@code <inbox>.index/records}); пути, адреса и MIME — в {@code strings}.
+ * <p>
+ * Запись ({@value #RECORD} байт):
+ * <pre>
+ *   0  long     время приёма, мс от эпохи (записи идут по неубыванию — по нему бинарный поиск)
+ *   8  long     размер файла
+ *  16  long     смещение строки в strings: "путь от inbox\0отправитель\0mime"
+ *  24  int      длина этой строки
+ *  28  int      hashCode MIME — быстрый отсев по типу
+ *  32  byte[32] SHA-256 адреса отправителя (после восстановления по каталогу — 8-символьный префикс, см. flags)
+ *  64  byte[32] SHA-256 содержимого
+ *  96  byte     flags: {@link #SENDER_PREFIX_ONLY}
+ * 100  int      CRC32 байтов 0..99
+ * </pre>
+ * Заголовок хранит число записей и флаг "открыт": процесс, упавший не закрыв индекс, оставляет флаг,
+ * и при следующем открытии индекс пересобирается по каталогу (уцелевшие записи переиспользуются,
+ * недостающие файлы хэшируются заново).
+ * <p>
+ * Владелец у индекса один — процесс, взявший блокировку файла {@code lock} (обычно listen/daemon);
+ * только он пишет, пересобирает и снимает флаг. Остальные получают {@link #snapshot снимок}: копию
+ * записей на момент открытия, без пересборки и без права записи.
+ */
+public final class InboxIndex implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(InboxIndex.class);
+
+    static final int RECORD = 104;
+    private static final int HEADER = 64;
+    private static final long MAGIC = 0x4932504958444931L; // "I2PIXDI1"
+    private static final int VERSION = 1;
+    private static final int INITIAL_RECORDS = 1024;
+
+    static final byte SENDER_PREFIX_ONLY = 1;
+
+    // заголовок
+    private static final int H_MAGIC = 0, H_VERSION = 8, H_RECORD = 12, H_COUNT = 16, H_OPEN = 24;
+    // запись
+    private static final int R_TIME = 0, R_SIZE = 8, R_STR_OFF = 16, R_STR_LEN = 24, R_MIME = 28,
+            R_SENDER = 32, R_SHA = 64, R_FLAGS = 96, R_CRC = 100;
+
+    private static final Map<Path, InboxIndex> OPEN = new ConcurrentHashMap<>();
+
+    /** Запись индекса. sender — полный адрес или, если восстановлен по каталогу, префикс из имени каталога. */
+    public record Entry(Instant time, String sender, String mime, long size, Path path, byte[] sha256) {}
+
+    /**
+     * Фильтр выборки; null — любое значение. mime — точный MIME ("image/png") или
+     * только его тип ("image", "image/*").
+     */
+    public record Query(String sender, Instant since, Instant until, String mime) {
+        public static Query all() {
+            return new Query(null, null, null, null);
+        }
+    }
+
+    private final Path inbox;
+    private final Path dir;
+    private final FileChannel records;
+    private final FileChannel strings;
+    private final FileLock lock; // null — снимок чужого индекса
+    private ByteBuffer map;
+    private long count;
+    private long stringsEnd;
+    private long lastTime;
+    private boolean closed;
+
+    private InboxIndex(Path inbox, Path dir, FileChannel records, FileChannel strings, FileLock lock) {
+        this.inbox = inbox;
+        this.dir = dir;
+        this.records = records;
+        this.strings = strings;
+        this.lock = lock;
+    }
+
+    static Path dirFor(Path inbox) {
+        Path abs = inbox.toAbsolutePath();
+        return abs.resolveSibling(abs.getFileName() + ".index");
+    }
+
+    /**
+     * Общий на процесс индекс этого inbox; открывается (и при надобности пересобирается) при первом обращении.
+     * Индекс держит другой процесс — {@link IOException}.
+     */
+    public static InboxIndex of(Path inbox) throws IOException {
+        Path key = inbox.toAbsolutePath().normalize();
+        InboxIndex idx = OPEN.get(key);
+        if (idx != null) return idx;
+        synchronized (OPEN) {
+            idx = OPEN.get(key);
+            if (idx == null) {
+                idx = open(key);
+                OPEN.put(key, idx);
+            }
+            return idx;
+        }
+    }
+
+    /**
+     * Индекс для чтения: общий, если inbox ничей или уже наш; держит другой процесс — {@link #snapshot снимок}
+     * (его закрывает вызывающий).
+     */
+    public static InboxIndex forReading(Path inbox) throws IOException {
+        Path key = inbox.toAbsolutePath().normalize();
+        synchronized (OPEN) {
+            InboxIndex idx = OPEN.get(key);
+            if (idx == null) {
+                idx = tryOpen(key);
+                if (idx == null) return snapshot(key);
+                OPEN.put(key, idx);
+            }
+            return idx;
+        }
+    }
+
+    /** Закрыть общий индекс inbox, если он был открыт (при штатной остановке). */
+    public static void closeIfOpen(Path inbox) {
+        InboxIndex idx = OPEN.remove(inbox.toAbsolutePath().normalize());
+        if (idx != null) idx.close();
+    }
+
+    /** Открыть индекс мимо общего реестра: свежий, целый — как есть; иначе пересобрать по каталогу. */
+    static InboxIndex open(Path inbox) throws IOException {
+        InboxIndex idx = tryOpen(inbox);
+        if (idx == null) {
+            throw new IOException("Inbox index " + dirFor(inbox) + " is used by another process (stop its listener or go through its daemon)");
+        }
+        return idx;
+    }
+
+    /** Как {@link #open}, но занятый другим процессом индекс — null. */
+    private static InboxIndex tryOpen(Path inbox) throws IOException {
+        Path dir = dirFor(inbox);
+        Files.createDirectories(dir);
+        // отдельный файл: закрытие любого канала к records снимает блокировки процесса на нём
+        FileChannel owner = FileChannel.open(dir.resolve("lock"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = owner.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null; // уже открыт в этом процессе мимо реестра
+        } catch (IOException e) {
+            owner.close();
+            throw e;
+        }
+        if (lock == null) {
+            owner.close();
+            return null;
+        }
+        InboxIndex idx;
+        try {
+            idx = new InboxIndex(inbox,
+                    dir,
+                    FileChannel.open(dir.resolve("records"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                    FileChannel.open(dir.resolve("strings"), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                    lock);
+        } catch (IOException e) {
+            owner.close();
+            throw e;
+        }
+        try {
+            String problem = idx.load();
+            if (problem != null) {
+                log.warn("Inbox index {} {}, rebuilding from {}", dir, problem, inbox);
+                idx.rebuild();
+            }
+            idx.markOpen(true);
+            return idx;
+        } catch (IOException | RuntimeException e) {
+            idx.closeChannels();
+            throw e;
+        }
+    }
+
+    /**
+     * Снимок индекса, который держит другой процесс: записи копируются в память на момент открытия, флаг
+     * "открыт" не проверяется (владелец жив) и ничего не пересобирается. Записи, которые владелец как раз
+     * переписывает, отсеиваются по CRC. Запись в снимок — {@link IOException}.
+     */
+    static InboxIndex snapshot(Path inbox) throws IOException {
+        Path dir = dirFor(inbox);
+        if (!Files.exists(dir.resolve("records"))) {
+            throw new IOException("Inbox index " + dir + " does not exist yet");
+        }
+        FileChannel records = FileChannel.open(dir.resolve("records"), StandardOpenOption.READ);
+        FileChannel strings;
+        try {
+            strings = FileChannel.open(dir.resolve("strings"), StandardOpenOption.READ);
+        } catch (IOException e) {
+            records.close();
+            throw e;
+        }
+        InboxIndex idx = new InboxIndex(inbox, dir, records, strings, null);
+        try {
+            idx.copy();
+            return idx;
+        } catch (IOException | RuntimeException e) {
+            idx.closeChannels();
+            throw e;
+        }
+    }
+
+    private void copy() throws IOException {
+        ByteBuffer head = readFully(records, 0, HEADER);
+        if (head.getLong(H_MAGIC) != MAGIC || head.getInt(H_VERSION) != VERSION || head.getInt(H_RECORD) != RECORD) {
+            throw new IOException("Inbox index " + dir + " has an unknown format");
+        }
+        long n = Math.max(0, Math.min(head.getLong(H_COUNT), (records.size() - HEADER) / RECORD));
+        if (HEADER + n * RECORD > Integer.MAX_VALUE) throw new IOException("Inbox index " + dir + " is too large");
+        ByteBuffer raw = readFully(records, 0, (int) (HEADER + n * RECORD));
+        long stringsSize = strings.size();
+        map = ByteBuffer.allocate(raw.capacity());
+        map.put(0, raw, 0, HEADER);
+        for (long i = 0; i < n; i++) {
+            int from = offset(i), to = offset(count);
+            map.put(to, raw, from, RECORD);
+            if (crcOk(to) && map.getLong(to + R_STR_OFF) + map.getInt(to + R_STR_LEN) <= stringsSize) count++;
+        }
+        if (count < n) log.debug("Inbox index {} snapshot: {} record(s) skipped mid-rewrite", dir, n - count);
+    }
+
+    private static ByteBuffer readFully(FileChannel ch, long at, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(len);
+        while (bb.hasRemaining()) {
+            if (ch.read(bb, at + bb.position()) < 0) break; // владелец укоротил файл — берём, что есть
+        }
+        return bb.clear();
+    }
+
+    /** Проверить заголовок и хвост; null — индекс годен, иначе — почему нет. */
+    private String load() throws IOException {
+        long fileSize = records.size();
+        if (fileSize == 0) {
+            format(INITIAL_RECORDS);
+            return Files.exists(inbox) && hasFiles() ? "is missing" : null;
+        }
+        if (fileSize < HEADER) return "is truncated";
+        map = records.map(FileChannel.MapMode.READ_WRITE, 0, fileSize);
+        if (map.getLong(H_MAGIC) != MAGIC || map.getInt(H_VERSION) != VERSION || map.getInt(H_RECORD) != RECORD) {
+            return "has an unknown format";
+        }
+        count = map.getLong(H_COUNT);
+        stringsEnd = strings.size();
+        if (count < 0 || HEADER + count * RECORD > fileSize) return "is truncated";
+        if (map.get(H_OPEN) != 0) return "was not closed cleanly";
+        if (count > 0) {
+            int last = offset(count - 1);
+            if (!crcOk(last) || map.getLong(last + R_STR_OFF) + map.getInt(last + R_STR_LEN) > stringsEnd) return "is damaged";
+            lastTime = map.getLong(last + R_TIME);
+        }
+        return null;
+    }
+
+    private boolean hasFiles() throws IOException {
+        try (Stream<Path> s = Files.walk(inbox)) {
+            return s.anyMatch(InboxIndex::isMessageFile);
+        }
+    }
+
+    private static boolean isMessageFile(Path p) {
+        return Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS) && !p.getFileName().toString().startsWith(".");
+    }
+
+    private void format(long capacity) throws IOException {
+        records.truncate(0);
+        strings.truncate(0);
+        map = records.map(FileChannel.MapMode.READ_WRITE, 0, HEADER + capacity * RECORD);
+        map.putLong(H_MAGIC, MAGIC).putInt(H_VERSION, VERSION).putInt(H_RECORD, RECORD).putLong(H_COUNT, 0);
+        count = 0;
+        stringsEnd = 0;
+        lastTime = 0;
+    }
+
+    private void markOpen(boolean open) {
+        map.put(H_OPEN, (byte) (open ? 1 : 0));
+    }
+
+    private void force() {
+        ((MappedByteBuffer) map).force();
+    }
+
+    /** Добавить запись о только что сохранённом файле; время — текущее. */
+    public void append(String sender, String mime, long size, Path file, byte[] sha256) throws IOException {
+        byte[] str = (relative(file) + '\0' + (sender == null ? "" : sender.trim()) + '\0' + mime).getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            ensureWritable();
+            long time = Math.max(System.currentTimeMillis(), lastTime); // часы могут шагнуть назад
+            put(time, size, str, mime, senderHash(sender), sha256, (byte) 0);
+        }
+    }
+
+    private void put(long time, long size, byte[] str, String mime, byte[] senderHash, byte[] sha256, byte flags) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(str);
+        long off = stringsEnd;
+        while (bb.hasRemaining()) off += strings.write(bb, off);
+        if (HEADER + (count + 1) * RECORD > map.capacity()) grow();
+
+        int at = offset(count);
+        map.putLong(at + R_TIME, time)
+                .putLong(at + R_SIZE, size)
+                .putLong(at + R_STR_OFF, stringsEnd)
+                .putInt(at + R_STR_LEN, str.length)
+                .putInt(at + R_MIME, mimeHash(mime))
+                .put(at + R_SENDER, senderHash)
+                .put(at + R_SHA, sha256 == null ? new byte[32] : sha256)
+                .put(at + R_FLAGS, flags);
+        map.putInt(at + R_CRC, crc(at));
+        stringsEnd = off;
+        lastTime = time;
+        map.putLong(H_COUNT, ++count); // запись видна только после того, как целиком на месте
+    }
+
+    private void grow() throws IOException {
+        long records = (map.capacity() - HEADER) / RECORD * 2;
+        long bytes = HEADER + records * RECORD;
+        if (bytes > Integer.MAX_VALUE) throw new IOException("Inbox index is full: " + count + " records");
+        force();
+        map = this.records.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+    }
+
+    /** Выборка по фильтру в порядке приёма. Время отсекается бинарным поиском, остальное — проходом по диапазону. */
+    public synchronized List<Entry> query(Query q) throws IOException {
+        ensureOpen();
+        long from = q.since() == null ? 0 : lowerBound(q.since().toEpochMilli());
+        long to = q.until() == null ? count : lowerBound(q.until().toEpochMilli() + 1);
+        byte[] full = q.sender() == null ? null : senderHash(q.sender());
+        byte[] prefix = q.sender() == null ? null : prefixHash(InboxLayout.senderKey(q.sender()));
+        String mime = q.mime() == null ? null : q.mime().trim().toLowerCase(Locale.ROOT);
+        boolean exactMime = mime != null && mime.indexOf('/') > 0 && !mime.endsWith("/*");
+        String mimeType = mime == null || exactMime ? null : (mime.endsWith("/*") ? mime.substring(0, mime.length() - 1) : mime + "/");
+
+        byte[] sender = new byte[32];
+        List<Entry> out = new ArrayList<>();
+        for (long i = from; i < to; i++) {
+            int at = offset(i);
+            if (exactMime && map.getInt(at + R_MIME) != mimeHash(mime)) continue;
+            if (full != null) {
+                map.get(at + R_SENDER, sender);
+                byte[] want = (map.get(at + R_FLAGS) & SENDER_PREFIX_ONLY) != 0 ? prefix : full;
+                if (!Arrays.equals(sender, want)) continue;
+            }
+            Entry e = entry(at);
+            if (exactMime && !e.mime().equals(mime)) continue;
+            if (mimeType != null && !e.mime().startsWith(mimeType)) continue;
+            out.add(e);
+        }
+        return out;
+    }
+
+    public synchronized long size() {
+        return count;
+    }
+
+    /** Первая запись со временем не меньше t. */
+    private long lowerBound(long t) {
+        long lo = 0, hi = count;
+        while (lo < hi) {
+            long mid = (lo + hi) >>> 1;
+            if (map.getLong(offset(mid) + R_TIME) < t) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private Entry entry(int at) throws IOException {
+        String[] parts = readString(map.getLong(at + R_STR_OFF), map.getInt(at + R_STR_LEN)).split("\0", -1);
+        byte[] sha = new byte[32];
+        map.get(at + R_SHA, sha);
+        return new Entry(Instant.ofEpochMilli(map.getLong(at + R_TIME)), parts[1], parts[2],
+                map.getLong(at + R_SIZE), inbox.resolve(parts[0]), sha);
+    }
+
+    private String readString(long off, int len) throws IOException {
+        ByteBuffer bb = ByteBuffer.allocate(len);
+        while (bb.hasRemaining()) {
+            if (strings.read(bb, off + bb.position()) < 0) throw new IOException("Inbox index strings are truncated");
+        }
+        return new String(bb.array(), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Пересобрать индекс по содержимому inbox. Уцелевшие записи (CRC сошёлся, файл на месте) сохраняют
+     * полный адрес отправителя; для остальных файлов время берётся из имени (или даты изменения),
+     * отправитель — из каталога раскладки, тип и хэш — по содержимому.
+     */
+    public synchronized void rebuild() throws IOException {
+        ensureWritable();
+        Map<String, Rebuilt> known = new HashMap<>();
+        long n = map == null ? 0 : Math.min(count, (map.capacity() - HEADER) / RECORD);
+        for (long i = 0; i < n; i++) {
+            int at = offset(i);
+            if (!crcOk(at)) continue;
+            try {
+                Entry e = entry(at);
+                known.put(relative(e.path()), new Rebuilt(e, (map.get(at + R_FLAGS) & SENDER_PREFIX_ONLY) != 0));
+            } catch (IOException | RuntimeException damaged) {
+                // строка не читается — файл будет разобран заново
+            }
+        }
+
+        List<Rebuilt> all = new ArrayList<>();
+        int rescanned = 0;
+        if (Files.isDirectory(inbox)) {
+            List<Path> files;
+            try (Stream<Path> s = Files.walk(inbox)) {
+                files = s.filter(InboxIndex::isMessageFile).toList();
+            }
+            for (Path p : files) {
+                Rebuilt r = known.get(relative(p));
+                if (r == null || r.entry().size() != Files.size(p)) {
+                    r = new Rebuilt(scan(p), true);
+                    rescanned++;
+                }
+                all.add(r);
+            }
+        }
+        all.sort(Comparator.comparing(r -> r.entry().time()));
+
+        format(Math.max(INITIAL_RECORDS, Long.highestOneBit(Math.max(1, all.size())) * 2));
+        for (Rebuilt r : all) {
+            Entry e = r.entry();
+            byte[] str = (relative(e.path()) + '\0' + e.sender() + '\0' + e.mime()).getBytes(StandardCharsets.UTF_8);
+            put(e.time().toEpochMilli(), e.size(), str, e.mime(),
+                    r.prefixOnly() ? prefixHash(e.sender()) : senderHash(e.sender()), e.sha256(),
+                    r.prefixOnly() ? SENDER_PREFIX_ONLY : 0);
+        }
+        force();
+        strings.force(false);
+        log.info("Inbox index {} rebuilt: {} file(s), {} re-read from disk", dir, all.size(), rescanned);
+    }
+
+    private record Rebuilt(Entry entry, boolean prefixOnly) {}
+
+    /**
+     * Убрать записи о файлах, удалённых из inbox (retention, упаковка в архив). Остальные записи
+     * переписываются как есть — без обхода каталога и чтения самих файлов.
+     *
+     * @return сколько записей убрано
+     */
+    public synchronized int forget(Collection<Path> files) throws IOException {
+        ensureWritable();
+        Set<String> gone = new HashSet<>();
+        for (Path f : files) gone.add(relative(f));
+        List<byte[]> keptRecords = new ArrayList<>();
+        List<String> keptStrings = new ArrayList<>();
+        for (long i = 0; i < count; i++) {
+            int at = offset(i);
+            String str = readString(map.getLong(at + R_STR_OFF), map.getInt(at + R_STR_LEN));
+            if (gone.contains(str.substring(0, Math.max(0, str.indexOf('\0'))))) continue;
+            byte[] rec = new byte[RECORD];
+            map.get(at, rec);
+            keptRecords.add(rec);
+            keptStrings.add(str);
+        }
+        int removed = (int) (count - keptRecords.size());
+        if (removed == 0) return 0;
+
+        format(Math.max(INITIAL_RECORDS, Long.highestOneBit(Math.max(1, keptRecords.size())) * 2));
+        markOpen(true); // упадём посреди перезаписи — при следующем открытии индекс пересоберётся
+        for (int i = 0; i < keptRecords.size(); i++) {
+            ByteBuffer rec = ByteBuffer.wrap(keptRecords.get(i));
+            String str = keptStrings.get(i);
+            byte[] sender = new byte[32];
+            byte[] sha = new byte[32];
+            rec.get(R_SENDER, sender).get(R_SHA, sha);
+            put(rec.getLong(R_TIME), rec.getLong(R_SIZE), str.getBytes(StandardCharsets.UTF_8),
+                    str.substring(str.lastIndexOf('\0') + 1), sender, sha, rec.get(R_FLAGS));
+        }
+        force();
+        strings.force(false);
+        return removed;
+    }
+
+    /** Файл без записи в индексе: всё, что можно, — по самому файлу и его месту в раскладке. */
+    private Entry scan(Path p) throws IOException {
+        MessageDigest md = sha256();
+        ContentType ct;
+        try (InputStream in = Files.newInputStream(p); BufferPool.Buffer buf = BufferPool.shared().acquire()) {
+            byte[] a = buf.array();
+            int n = in.readNBytes(a, 0, Math.min(16384, a.length));
+            ct = ContentTypes.shared().sniff(a, n);
+            do md.update(a, 0, n); while ((n = in.read(a)) > 0);
+        }
+        Instant time = InboxLayout.stampOf(p.getFileName().toString());
+        if (time == null) time = Files.getLastModifiedTime(p).toInstant();
+        Path rel = inbox.relativize(p);
+        String sender = rel.getNameCount() == 3 ? rel.getName(1).toString() : "unknown";
+        return new Entry(time, sender, ct.mime(), Files.size(p), p, md.digest());
+    }
+
+    private String relative(Path file) {
+        Path rel = inbox.relativize(file.toAbsolutePath().normalize());
+        return rel.toString().replace('\\', '/');
+    }
+
+    private static int offset(long i) {
+        return (int) (HEADER + i * RECORD);
+    }
+
+    private boolean crcOk(int at) {
+        return map.getInt(at + R_CRC) == crc(at);
+    }
+
+    private int crc(int at) {
+        CRC32 c = new CRC32();
+        c.update(map.slice(at, R_CRC));
+        return (int) c.getValue();
+    }
+
+    private static int mimeHash(String mime) {
+        return mime.toLowerCase(Locale.ROOT).hashCode();
+    }
+
+    /** SHA-256 адреса без учёта регистра и пробелов по краям; пустой адрес — нули. */
+    static byte[] senderHash(String sender) {
+        if (sender == null || sender.isBlank()) return new byte[32];
+        return sha256().digest(sender.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] prefixHash(String key) {
+        return Arrays.copyOf(key.getBytes(StandardCharsets.US_ASCII), 32);
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closed) throw new IOException("Inbox index " + dir + " is closed");
+    }
+
+    private void ensureWritable() throws IOException {
+        ensureOpen();
+        if (lock == null) throw new IOException("Inbox index " + dir + " is a read-only snapshot: another process owns it");
+    }
+
+    /** Снимок чужого индекса, а не сам индекс. */
+    public boolean isSnapshot() {
+        return lock == null;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        if (lock == null) {
+            closeChannels(); // снимок: флаг и файлы — забота владельца
+            return;
+        }
+        try {
+            force();
+            strings.force(false);
+            markOpen(false);
+            force();
+        } catch (IOException | RuntimeException e) {
+            log.warn("Inbox index {} not flushed: {}", dir, e.toString());
+        }
+        closeChannels();
+    }
+
+    private void closeChannels() {
+        try { records.close(); } catch (IOException ignored) {}
+        try { strings.close(); } catch (IOException ignored) {}
+        if (lock != null) {
+            try { lock.channel().close(); } catch (IOException ignored) {} // снимает и блокировку
+        }
+    }
+}
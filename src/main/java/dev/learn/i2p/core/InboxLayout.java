@@ -0,0 +1,190 @@
+package dev.learn.i2p.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Раскладка inbox по каталогам: {@code <inbox>/<yyyy-MM-dd>/<отправитель>/<имя>}, где имя —
+ * {@code yyyyMMdd_HHmmss_SSS_from-<отправитель>_<запуск>-<номер><ext>}.
+ * <p>
+ * Номер берётся из счётчика процесса (дополнен нулями до 6 цифр, чтобы сортировка имён совпадала
+ * с порядком приёма), запуск — метка старта процесса и pid, поэтому имя уникально
+ * без проверок {@code Files.exists}: файл создаётся одним CREATE_NEW (занятое имя — только если
+ * два процесса совпали и по pid, и по миллисекунде старта, тогда берём следующий номер).
+ * Каталоги создаются лишь тогда, когда создание файла упёрлось в их отсутствие.
+ */
+public final class InboxLayout {
+    private static final Logger log = LoggerFactory.getLogger(InboxLayout.class);
+
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter TS = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS");
+    /** Имена прежней плоской раскладки: {@code 20250101_120000_000_from-abcdefgh[_N].ext}. */
+    private static final Pattern LEGACY = Pattern.compile("(\\d{4})(\\d{2})(\\d{2})_\\d{6}_\\d{3}_from-([^_.]+).*");
+
+    private static final Pattern STAMP = Pattern.compile("(\\d{8}_\\d{6}_\\d{3})_from-");
+
+    private static final String RUN = Long.toString(System.currentTimeMillis(), 36)
+            + Long.toString(ProcessHandle.current().pid(), 36);
+    private static final AtomicLong SEQ = new AtomicLong();
+
+    private InboxLayout() {}
+
+    /**
+     * Место под новый файл: {@code part} уже создан (пустой, скрытый) и принадлежит вызывающему,
+     * {@code target} — имя, под которым он появится в inbox после {@link #publish}.
+     */
+    public record Slot(Path part, Path target) {
+        /** Атомарно переименовать готовый part в target. */
+        public Path publish() throws IOException {
+            return Files.move(part, target, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    /** Занять имя под файл от sender (b32 или адрес) с расширением ext. */
+    public static Slot reserve(Path inbox, String sender, String ext) throws IOException {
+        LocalDateTime now = LocalDateTime.now();
+        String who = senderKey(sender);
+        Path shard = shard(inbox, now.toLocalDate(), who);
+        for (int attempt = 0; attempt < 100; attempt++) {
+            String name = name(now, who, ext);
+            Path part = shard.resolve("." + name + ".part");
+            try {
+                Files.createFile(part);
+                return new Slot(part, shard.resolve(name));
+            } catch (NoSuchFileException noShard) {
+                Files.createDirectories(shard); // первый файл за день от этого отправителя
+            } catch (FileAlreadyExistsException taken) {
+                log.debug("Name {} taken by another process, taking the next one", name);
+            }
+        }
+        throw new IOException("Failed to create unique filename in " + shard);
+    }
+
+    /**
+     * Перенести готовый файл (например, собранный из частей) в inbox без копирования;
+     * копирование — только если он на другом диске.
+     */
+    public static Path adopt(Path inbox, String sender, String ext, Path complete) throws IOException {
+        LocalDateTime now = LocalDateTime.now();
+        String who = senderKey(sender);
+        Path target = shard(inbox, now.toLocalDate(), who).resolve(name(now, who, ext));
+        try {
+            return moveInto(complete, target);
+        } catch (NoSuchFileException e) {
+            if (!Files.exists(complete)) throw e;
+            Files.createDirectories(target.getParent());
+            return moveInto(complete, target);
+        }
+    }
+
+    /** Свободное имя под файл от sender, каталог для него создан; сам файл — за вызывающим. */
+    public static Path place(Path inbox, String sender, String ext) throws IOException {
+        LocalDateTime now = LocalDateTime.now();
+        String who = senderKey(sender);
+        Path shard = Files.createDirectories(shard(inbox, now.toLocalDate(), who));
+        return shard.resolve(name(now, who, ext));
+    }
+
+    private static Path moveInto(Path from, Path target) throws IOException {
+        try {
+            return Files.move(from, target, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException otherDisk) {
+            return Files.move(from, target);
+        }
+    }
+
+    public static Path shard(Path inbox, LocalDate day, String senderKey) {
+        return inbox.resolve(DAY.format(day)).resolve(senderKey);
+    }
+
+    /**
+     * Перенести файлы прежней плоской раскладки (лежащие прямо в inbox) по каталогам. Дата и
+     * отправитель берутся из имени, для чужих имён — дата изменения и "unknown"; имена не меняются.
+     * Скрытые файлы (недописанные временные) не трогаются. Повторный вызов ничего не делает.
+     *
+     * @return сколько файлов перенесено
+     */
+    public static int migrate(Path inbox) throws IOException {
+        if (!Files.isDirectory(inbox)) return 0;
+        int moved = 0;
+        try (Stream<Path> s = Files.list(inbox)) {
+            for (Path p : s.toList()) {
+                String name = p.getFileName().toString();
+                if (name.startsWith(".") || !Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS)) continue;
+                Path target = shard(inbox, dayOf(p, name), senderOf(name)).resolve(name);
+                try {
+                    Files.createDirectories(target.getParent());
+                    Files.move(p, target);
+                    moved++;
+                } catch (FileAlreadyExistsException e) {
+                    log.warn("Not migrating {}: {} already exists", name, target);
+                }
+            }
+        }
+        if (moved > 0) log.info("Migrated {} file(s) in {} to the sharded layout", moved, inbox);
+        return moved;
+    }
+
+    private static LocalDate dayOf(Path p, String name) throws IOException {
+        Matcher m = LEGACY.matcher(name);
+        if (m.matches()) {
+            try {
+                return LocalDate.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2)), Integer.parseInt(m.group(3)));
+            } catch (java.time.DateTimeException ignored) {
+                // цифры похожи на дату, но даты такой нет — как для чужого имени
+            }
+        }
+        FileTime t = Files.getLastModifiedTime(p);
+        return LocalDate.ofInstant(t.toInstant(), ZoneId.systemDefault());
+    }
+
+    /** Время приёма из имени файла раскладки (прежней или нынешней); null — имя не наше. */
+    static Instant stampOf(String name) {
+        Matcher m = STAMP.matcher(name);
+        if (!m.lookingAt()) return null;
+        try {
+            return LocalDateTime.parse(m.group(1), TS).atZone(ZoneId.systemDefault()).toInstant();
+        } catch (DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    private static String senderOf(String name) {
+        Matcher m = LEGACY.matcher(name);
+        return m.matches() ? senderKey(m.group(4)) : "unknown";
+    }
+
+    private static String name(LocalDateTime at, String who, String ext) {
+        String seq = Long.toString(SEQ.incrementAndGet());
+        return TS.format(at) + "_from-" + who + "_" + RUN + "-" + "000000".substring(Math.min(6, seq.length())) + seq + ext;
+    }
+
+    /** Первые 8 символов b32 (или адреса), пригодные для имени каталога на любой ФС. */
+    static String senderKey(String sender) {
+        if (sender == null || sender.isBlank()) return "unknown";
+        int cut = sender.indexOf(".b32.i2p");
+        String raw = cut > 0 ? sender.substring(0, cut) : sender;
+        if (raw.length() > 8) raw = raw.substring(0, 8);
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            boolean ok = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-';
+            sb.append(ok ? c : '-');
+        }
+        return sb.toString();
+    }
+}
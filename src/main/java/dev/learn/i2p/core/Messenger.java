@@ -1,85 +1,344 @@
 package dev.learn.i2p.core;
 
+import dev.learn.i2p.proto.FramedProtocol;
 import dev.learn.i2p.proto.MessengerProtocol;
 import dev.learn.i2p.proto.SimpleProtocol;
+import dev.learn.i2p.proto.SplitProtocol;
+import dev.learn.i2p.net.Admission;
+import dev.learn.i2p.net.I2PIdentity;
 import dev.learn.i2p.net.I2PTransport;
-import net.i2p.data.Base32;
-import net.i2p.data.Destination;
-import net.i2p.data.Hash;
+import dev.learn.i2p.net.InboundDispatcher;
+import dev.learn.i2p.net.LazyTransport;
+import dev.learn.i2p.net.SocketConsumer;
+import dev.learn.i2p.net.TcpTransport;
+import dev.learn.i2p.net.Transport;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ProtocolException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 
-public record Messenger(I2PTransport transport, MessengerProtocol protocol, Path inbox) implements Closeable {
+/**
+ * @param outbox очередь для {@link #sendTextAsync}; null — по настройкам i2p.messenger.queue.* поверх transport/protocol
+ */
+public record Messenger(Transport transport, MessengerProtocol protocol, Path inbox,
+                        OutboundQueue outbox) implements Closeable {
     private static final Logger log = LoggerFactory.getLogger(Messenger.class);
 
+    /** Попыток отправить файл, если протокол умеет докачку (-Di2p.messenger.send.attempts). */
+    private static final int SEND_ATTEMPTS = Integer.getInteger("i2p.messenger.send.attempts", 5);
+    /** Пауза перед первым повтором отправки файла (-Di2p.messenger.send.retryDelayMs), дальше удваивается до 8 с. */
+    private static final long SEND_RETRY_DELAY_MS = Long.getLong("i2p.messenger.send.retryDelayMs", 250);
+    private static final long SEND_RETRY_DELAY_MAX_MS = 8_000;
+    /** Сколько стримов к пиру на один большой файл (-Di2p.messenger.send.streams), 1 — как раньше. */
+    private static final int SEND_STREAMS = Integer.getInteger("i2p.messenger.send.streams", 1);
+
+    public Messenger {
+        if (outbox == null) outbox = new OutboundQueue(batchSender(transport, protocol), OutboundQueue.Settings.fromSystemProps());
+    }
+
+    public Messenger(Transport transport, MessengerProtocol protocol, Path inbox) {
+        this(transport, protocol, inbox, null);
+    }
+
     public static Messenger createDefault() throws Exception {
         Path base = resolvePathDir(
                 "i2p.messenger.home",
                 Paths.get(System.getProperty("user.home"), ".i2p-messenger")
         );
         Path keyFile = resolvePath("i2p.messenger.keyfile", base.resolve("messenger-keys.dat"));
-        Path inboxDir = resolvePathDir("i2p.messenger.inbox", base.resolve("inbox"));
+        Path inboxDir = defaultInbox();
 
         Files.createDirectories(keyFile.getParent());
         Files.createDirectories(inboxDir);
+        InboxLayout.migrate(inboxDir);
 
         log.info("Messenger.createDefault() keyFile={}, inbox={}", keyFile, inboxDir);
-        var transport = I2PTransport.connectDefault(keyFile);
-        var protocol = new SimpleProtocol(inboxDir);
+        var transport = transportFor(System.getProperty("i2p.messenger.transport", "i2p"), keyFile);
+        var protocol = protocolFor(System.getProperty("i2p.messenger.protocol", "simple"), inboxDir);
         return new Messenger(transport, protocol, inboxDir);
     }
 
+    /**
+     * Свой адрес без подключения к роутеру: b32 считается из файла ключей (нет файла — ключи создаются).
+     * Для transport=tcp адрес появляется только после bind, поэтому null.
+     */
+    public static String offlineAddress() throws Exception {
+        if (!"i2p".equalsIgnoreCase(System.getProperty("i2p.messenger.transport", "i2p").trim())) return null;
+        Path base = resolvePathDir("i2p.messenger.home", Paths.get(System.getProperty("user.home"), ".i2p-messenger"));
+        Path keyFile = resolvePath("i2p.messenger.keyfile", base.resolve("messenger-keys.dat"));
+        I2PIdentity.ensure(keyFile);
+        return I2PIdentity.b32(keyFile);
+    }
+
+    /** Inbox по тем же настройкам, что и {@link #createDefault()}, — без подключения к роутеру. */
+    public static Path defaultInbox() {
+        Path base = resolvePathDir(
+                "i2p.messenger.home",
+                Paths.get(System.getProperty("user.home"), ".i2p-messenger")
+        );
+        return resolvePathDir("i2p.messenger.inbox", base.resolve("inbox"));
+    }
+
+    /**
+     * i2p (по умолчанию) — через локальный I2P-роутер;
+     * tcp — без роутера, на 127.0.0.1:{@code i2p.messenger.tcp.port} (адреса пиров — host:port).
+     */
+    static Transport transportFor(String name, Path keyFile) throws Exception {
+        return switch (name.trim().toLowerCase(java.util.Locale.ROOT)) {
+            case "i2p" -> {
+                // сессия строится в фоне, пока команда готовит сообщение; свой адрес известен из ключей сразу
+                I2PIdentity.ensure(keyFile);
+                yield LazyTransport.start(I2PIdentity.b32(keyFile), () -> I2PTransport.connectDefault(keyFile));
+            }
+            case "tcp" -> TcpTransport.bind(Integer.getInteger("i2p.messenger.tcp.port", 0));
+            default -> throw new IllegalArgumentException("Unknown transport: " + name + " (expected i2p|tcp)");
+        };
+    }
+
+    /** То же с портом TCP и диспетчером входящих — для профилей {@link ProfileHost}. */
+    static Transport transportFor(String name, Path keyFile, int tcpPort, InboundDispatcher inbound) throws Exception {
+        return switch (name.trim().toLowerCase(java.util.Locale.ROOT)) {
+            case "i2p" -> I2PTransport.connect(keyFile, inbound);
+            case "tcp" -> TcpTransport.bind(tcpPort, inbound);
+            default -> throw new IllegalArgumentException("Unknown transport: " + name + " (expected i2p|tcp)");
+        };
+    }
+
+    /**
+     * simple (по умолчанию) — отправка одним сообщением на стрим (до EOF), её понимает любой пир;
+     *   приём — {@link FramedProtocol}, который понимает и старых отправителей, и новых;
+     * framed — несколько сообщений на стрим с ACK, пул стримов, докачка, сжатие: только для пиров,
+     *   у которых приёмник уже framed (старый ждёт EOF и не отвечает ACK). Согласования версий нет,
+     *   поэтому по умолчанию — simple.
+     */
+    static MessengerProtocol protocolFor(String name, Path inboxDir) {
+        return switch (name.trim().toLowerCase(java.util.Locale.ROOT)) {
+            case "framed" -> new FramedProtocol(inboxDir);
+            case "simple" -> new SplitProtocol(new FramedProtocol(inboxDir), new SimpleProtocol(inboxDir));
+            default -> throw new IllegalArgumentException("Unknown protocol: " + name + " (expected simple|framed)");
+        };
+    }
+
     private static Path resolvePath(String sysProp, Path defVal) {
-        String v = System.getProperty(sysProp);
-        if (v == null || v.isBlank()) {
-            String env = System.getenv(sysProp.toUpperCase().replace('.', '_'));
-            if (env != null && !env.isBlank()) v = env;
-        }
-        return (v != null && !v.isBlank()) ? Paths.get(v) : defVal;
+        String v = Config.get(sysProp);
+        return v != null ? Paths.get(v) : defVal;
     }
     private static Path resolvePathDir(String sysProp, Path defVal) { return resolvePath(sysProp, defVal); }
 
-    private static String b32Of(Destination dest) {
-        if (dest == null) return "<unknown>";
-        Hash h = dest.calculateHash();
-        return Base32.encode(h.getData()) + ".b32.i2p";
-    }
+    /** Свой адрес: b32 для I2P, host:port для TCP. */
+    public String myB32() { return transport.myAddress(); }
 
-    public String myB32() { return transport.myB32(); }
+    /** Прогреть кэш имён по списку контактов, чтобы первое сообщение не платило за lookup. */
+    public CompletableFuture<Void> prefetch(Collection<String> contacts) {
+        log.info("Prefetching {} contact address(es)", contacts.size());
+        return transport.prefetch(contacts);
+    }
 
+    /**
+     * Цикл приёма; заодно публикует {@link Metrics} (JMX, периодический дамп по настройкам)
+     * и, пока слушает, чистит inbox по {@link Retention.Policy} в фоне.
+     */
     public void listen() {
         log.info("Starting listener loop...");
-        transport.acceptLoop(socket -> {
-            try {
-                String peer = b32Of(socket.getPeerDestination());
-                log.debug("Inbound from {}", peer);
-                protocol.handle(socket);
-            } catch (IOException e) {
-                log.warn("Client error: {}", e.toString(), e);
-            }
-        });
+        Metrics.shared().export();
+        Admission.shared().export();
+        try (Retention retention = inbox == null ? null : Retention.start(inbox)) {
+            deliverQueued();
+            transport.acceptLoop(stream -> {
+                try {
+                    log.debug("Inbound from {}", stream.peerAddress());
+                    protocol.handle(stream);
+                } catch (IOException e) {
+                    log.warn("Client error: {}", e.toString(), e);
+                }
+            });
+        }
+    }
+
+    /** Пока слушаем — доставлять отложенное в {@link DurableOutbox} (и то, что отложат потом). */
+    private void deliverQueued() {
+        if (inbox == null) return;
+        try {
+            DurableOutbox.of(inbox).start(this::deliver);
+        } catch (IOException e) {
+            log.warn("Outbox is not available, queued messages wait: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Отложить текст в {@link DurableOutbox}: запись на диске, доставит процесс, который слушает
+     * (listen / daemon), по расписанию повторов.
+     *
+     * @return id в ящике
+     */
+    public long queueText(String destB32, String text) throws IOException {
+        return DurableOutbox.of(requireInbox()).enqueue(destB32, DurableOutbox.Kind.TEXT, text);
+    }
+
+    /**
+     * Как {@link #queueText}, для файла: в ящике — абсолютный путь, файл читается при доставке.
+     * Файл, который не уйдёт никогда ({@link #checkImage}), в ящик не ставится.
+     */
+    public long queueImage(String destB32, Path img) throws IOException {
+        checkImage(img);
+        return DurableOutbox.of(requireInbox()).enqueue(destB32, DurableOutbox.Kind.IMAGE, img.toString());
+    }
+
+    /** Разовый проход {@link Retention} по своему inbox (правила — i2p.messenger.retention.*). */
+    public Retention.Report prune() throws IOException {
+        return new Retention(requireInbox(), Retention.Policy.fromSystemProps()).run();
+    }
+
+    /** Доставка из {@link DurableOutbox}: обычная синхронная отправка. */
+    public void deliver(DurableOutbox.Message m) throws IOException {
+        switch (m.kind()) {
+            case TEXT -> sendText(m.dest(), m.body());
+            // метка от записи в ящике: повтор после потерянного ACK получатель не примет за новое сообщение
+            case IMAGE -> sendImage(m.dest(), Path.of(m.body()), String.format("%016x%016x", m.created().toEpochMilli(), m.id()));
+        }
+    }
+
+    private Path requireInbox() throws IOException {
+        if (inbox == null) throw new IOException("No inbox — nowhere to keep the outbox");
+        return inbox;
     }
 
     public void sendText(String destB32, String text) throws IOException {
         int len = (text == null) ? 0 : text.getBytes(java.nio.charset.StandardCharsets.UTF_8).length;
         log.info("sendText -> {} ({} bytes)", destB32, len);
-        transport.withConnection(destB32, s -> protocol.sendText(s, text));
+        send(destB32, s -> protocol.sendText(s, text));
+    }
+
+    /**
+     * Асинхронная отправка через {@link OutboundQueue}: future завершается по ACK получателя.
+     * Порядок сообщений к одному получателю сохраняется; мелкие тексты, пришедшие в пределах
+     * linger, уходят одной пачкой по одному соединению.
+     */
+    public CompletableFuture<Void> sendTextAsync(String destB32, String text) {
+        int len = (text == null) ? 0 : text.getBytes(java.nio.charset.StandardCharsets.UTF_8).length;
+        if (len > Constants.MAX_TEXT_BYTES) {
+            return CompletableFuture.failedFuture(new IOException(
+                    "Text too large: " + len + " bytes (max " + Constants.MAX_TEXT_BYTES + ")"));
+        }
+        return outbox.submit(destB32, text);
+    }
+
+    /**
+     * Пачка — одно соединение из пула, кадры подряд. Для протоколов "сообщение на стрим" —
+     * по соединению на текст, но всё равно по порядку и без блокировки вызывающего.
+     */
+    private static OutboundQueue.BatchSender batchSender(Transport transport, MessengerProtocol protocol) {
+        return (dest, texts, acked) -> {
+            if (!protocol.reusesStreams()) {
+                for (int i = 0; i < texts.size(); i++) {
+                    String text = texts.get(i);
+                    transport.withConnection(dest, s -> protocol.sendText(s, text));
+                    acked.accept(i);
+                }
+                return;
+            }
+            // withReusableConnection повторяет op на свежем стриме, только если в старый ничего не записано
+            int[] done = {0};
+            transport.withReusableConnection(dest, s -> {
+                int from = done[0];
+                protocol.sendTexts(s, texts.subList(from, texts.size()), i -> {
+                    done[0] = from + i + 1;
+                    acked.accept(from + i);
+                });
+            });
+        };
+    }
+
+    /**
+     * Подготовить отправку файла заранее (манифест частей и т.п.) — пока транспорт подключается в фоне,
+     * чтобы {@link #sendImage} начал передачу сразу.
+     */
+    public void prepareImage(Path img) throws IOException {
+        protocol.prepareImage(img);
     }
 
     public void sendImage(String destB32, Path img) throws IOException {
+        sendImage(destB32, img, MessengerProtocol.newTransfer());
+    }
+
+    /**
+     * Отправка файла одной логической передачей transfer: все попытки и стримы несут эту метку.
+     * Повторяются (с паузой) только обрывы связи; ошибки самого файла и отказ пира — сразу наверх.
+     */
+    public void sendImage(String destB32, Path img, String transfer) throws IOException {
         log.info("sendImage -> {} (path: {})", destB32, img);
-        transport.withConnection(destB32, s -> protocol.sendImage(s, img));
+        checkImage(img);
+        int attempts = protocol.resumesTransfers() ? SEND_ATTEMPTS : 1;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                if (SEND_STREAMS > 1) {
+                    // отдельные стримы мимо пула: их больше, чем maxPerPeer, и живут они одну передачу
+                    protocol.sendImage(img, transfer, SEND_STREAMS, op -> transport.withConnection(destB32, op));
+                } else {
+                    send(destB32, s -> protocol.sendImage(s, img, transfer));
+                }
+                return;
+            } catch (ProtocolException | FileSystemException e) {
+                throw e; // пир нас не понимает или файл не читается — повтор не поможет
+            } catch (IOException e) {
+                if (attempt >= attempts) throw e;
+                long delay = Math.min(SEND_RETRY_DELAY_MS << Math.min(attempt - 1, 16), SEND_RETRY_DELAY_MAX_MS);
+                log.warn("sendImage -> {} interrupted ({}), resuming in {} ms (attempt {}/{})",
+                        destB32, e.toString(), delay, attempt + 1, attempts);
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    InterruptedIOException stop = new InterruptedIOException("Interrupted while resuming " + img);
+                    stop.addSuppressed(e);
+                    throw stop;
+                }
+            }
+        }
+    }
+
+    /**
+     * Файл можно отправить: есть, читается, не больше {@link Constants#MAX_IMAGE_BYTES}. Иначе —
+     * {@link FileSystemException} (NoSuchFile/AccessDenied/слишком большой): ошибка на нашей стороне,
+     * повторять отправку бессмысленно.
+     */
+    public static void checkImage(Path img) throws IOException {
+        if (!Files.isRegularFile(img)) {
+            if (!Files.exists(img)) throw new NoSuchFileException(img.toString());
+            throw new FileSystemException(img.toString(), null, "Not a regular file");
+        }
+        if (!Files.isReadable(img)) throw new AccessDeniedException(img.toString());
+        long size = Files.size(img);
+        if (size > Constants.MAX_IMAGE_BYTES) {
+            throw new FileSystemException(img.toString(), null,
+                    "Image too large: " + size + " bytes (max " + Constants.MAX_IMAGE_BYTES + ")");
+        }
+    }
+
+    private void send(String destB32, SocketConsumer op) throws IOException {
+        if (protocol.reusesStreams()) transport.withReusableConnection(destB32, op);
+        else transport.withConnection(destB32, op);
     }
 
     @Override
     public void close() {
         log.info("Closing Messenger...");
+        outbox.close();
         transport.close();
+        if (inbox != null) {
+            DurableOutbox.closeIfOpen(inbox);
+            InboxIndex.closeIfOpen(inbox);
+        }
     }
 }
\ No newline at end of file
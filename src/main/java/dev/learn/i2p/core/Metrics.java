@@ -0,0 +1,404 @@
+package dev.learn.i2p.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Метрики процесса: транспорт, допуск входящих, протокол, сохранение.
+ * <p>
+ * Запись — {@link LongAdder} (страйпы вместо одного CAS-счётчика, потоки не толкаются) и
+ * гистограммы с фиксированными корзинами-степенями двойки: ни блокировок, ни аллокаций на вызов.
+ * Чтение (JMX, дамп) суммирует страйпы и может быть чуть несогласованным — это нормально для метрик.
+ * <p>
+ * Наружу — через {@link #export()}: MXBean {@code dev.learn.i2p:type=Metrics} и периодический дамп в лог
+ * (и в файл, если задан). Настройки из sysprops/env:
+ *  - i2p.messenger.metrics.jmx = true
+ *  - i2p.messenger.metrics.dumpSec = 0 (не дампить)
+ *  - i2p.messenger.metrics.format = text | json
+ *  - i2p.messenger.metrics.file = (нет) — последний дамп, файл заменяется атомарно
+ */
+public final class Metrics implements MetricsMXBean {
+    private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+
+    public static final String OBJECT_NAME = "dev.learn.i2p:type=Metrics";
+
+    private static final Metrics SHARED = new Metrics();
+
+    /** Где случилась ошибка. */
+    public enum Stage { ACCEPT, CONNECT, LOOKUP, PROTOCOL, SAVE }
+
+    /** Почему входящее соединение не допущено (см. dev.learn.i2p.net.Admission). */
+    public enum Rejection { DENIED, NOT_ALLOWED, CONNECTION_RATE, PEER_CONCURRENCY }
+
+    private final LongAdder accepts = new LongAdder();
+    private final LongAdder active = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder messagesIn = new LongAdder();
+    private final Histogram firstByteInbound = new Histogram();
+    private final Histogram firstByteOutbound = new Histogram();
+    private final Histogram save = new Histogram();
+    private final Histogram lookup = new Histogram();
+    private final Map<Stage, ConcurrentHashMap<Class<?>, LongAdder>> errors = new EnumMap<>(Stage.class);
+    private final Map<Rejection, LongAdder> rejections = new EnumMap<>(Rejection.class);
+    private final LongAdder throttledNanos = new LongAdder();
+    private final LongAdder reclaimed = new LongAdder();
+    private final Histogram retention = new Histogram();
+
+    private long rateAtNanos = System.nanoTime();
+    private long rateAtCount;
+    private double rate;
+
+    private boolean exported;
+    private ScheduledExecutorService reporter;
+
+    public Metrics() {
+        for (Stage s : Stage.values()) errors.put(s, new ConcurrentHashMap<>());
+        for (Rejection r : Rejection.values()) rejections.put(r, new LongAdder());
+    }
+
+    /** Общие на процесс метрики. */
+    public static Metrics shared() {
+        return SHARED;
+    }
+
+    // --- запись (горячий путь) ---
+
+    public void accepted() {
+        accepts.increment();
+    }
+
+    public void connectionOpened() {
+        active.increment();
+    }
+
+    public void connectionClosed() {
+        active.decrement();
+    }
+
+    public void bytesIn(long n) {
+        bytesIn.add(n);
+    }
+
+    public void bytesOut(long n) {
+        bytesOut.add(n);
+    }
+
+    public void messageIn() {
+        messagesIn.increment();
+    }
+
+    /** От открытия стрима (accept или connect/borrow) до первого полученного байта. */
+    public void firstByte(boolean inbound, long nanos) {
+        (inbound ? firstByteInbound : firstByteOutbound).record(nanos);
+    }
+
+    public void saved(long nanos) {
+        save.record(nanos);
+    }
+
+    /** Реальное обращение к NamingService (промахи кэша). */
+    public void lookedUp(long nanos) {
+        lookup.record(nanos);
+    }
+
+    public void rejected(Rejection why) {
+        rejections.get(why).increment();
+    }
+
+    /** Приём придержан ограничением полосы на столько наносекунд. */
+    public void throttled(long nanos) {
+        throttledNanos.add(nanos);
+    }
+
+    /** Проход {@link Retention}: освобождено байт (за вычетом записанных архивов), длительность. */
+    public void retained(long reclaimedBytes, long nanos) {
+        reclaimed.add(reclaimedBytes);
+        retention.record(nanos);
+    }
+
+    public void error(Stage stage, Throwable t) {
+        errors.get(stage).computeIfAbsent(t.getClass(), k -> new LongAdder()).increment();
+    }
+
+    // --- чтение ---
+
+    public long accepts() { return accepts.sum(); }
+
+    public long activeConnections() { return active.sum(); }
+
+    public long bytesIn() { return bytesIn.sum(); }
+
+    public long bytesOut() { return bytesOut.sum(); }
+
+    public long messagesIn() { return messagesIn.sum(); }
+
+    public Histogram saveLatency() { return save; }
+
+    public Histogram lookupLatency() { return lookup; }
+
+    public Histogram firstByteLatency(boolean inbound) {
+        return inbound ? firstByteInbound : firstByteOutbound;
+    }
+
+    public long rejections(Rejection why) { return rejections.get(why).sum(); }
+
+    public long throttledNanos() { return throttledNanos.sum(); }
+
+    public long reclaimedBytes() { return reclaimed.sum(); }
+
+    public Histogram retentionLatency() { return retention; }
+
+    /** Сколько ошибок этого типа было на стадии. */
+    public long errors(Stage stage, Class<? extends Throwable> type) {
+        LongAdder a = errors.get(stage).get(type);
+        return a != null ? a.sum() : 0;
+    }
+
+    /** Скорость пересчитывается не чаще раза в секунду: частые чтения получают прежнее значение. */
+    public synchronized double acceptsPerSecond() {
+        long now = System.nanoTime();
+        long dt = now - rateAtNanos;
+        if (dt >= TimeUnit.SECONDS.toNanos(1)) {
+            long n = accepts.sum();
+            rate = (n - rateAtCount) * 1e9 / dt;
+            rateAtNanos = now;
+            rateAtCount = n;
+        }
+        return rate;
+    }
+
+    private Map<String, Histogram> histograms() {
+        Map<String, Histogram> m = new LinkedHashMap<>();
+        m.put("ttfb.inbound", firstByteInbound);
+        m.put("ttfb.outbound", firstByteOutbound);
+        m.put("save", save);
+        m.put("lookup", lookup);
+        m.put("retention", retention);
+        return m;
+    }
+
+    @Override
+    public long getAccepts() { return accepts(); }
+
+    @Override
+    public double getAcceptsPerSecond() { return acceptsPerSecond(); }
+
+    @Override
+    public long getActiveConnections() { return activeConnections(); }
+
+    @Override
+    public long getBytesIn() { return bytesIn(); }
+
+    @Override
+    public long getBytesOut() { return bytesOut(); }
+
+    @Override
+    public long getMessagesIn() { return messagesIn(); }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        Map<String, Long> m = new TreeMap<>();
+        errors.forEach((stage, byType) -> byType.forEach((type, n) ->
+                m.put(stage.name().toLowerCase(Locale.ROOT) + "." + type.getSimpleName(), n.sum())));
+        return m;
+    }
+
+    @Override
+    public Map<String, Long> getRejections() {
+        Map<String, Long> m = new LinkedHashMap<>();
+        rejections.forEach((why, n) -> m.put(why.name().toLowerCase(Locale.ROOT), n.sum()));
+        return m;
+    }
+
+    @Override
+    public double getThrottledMillis() { return throttledNanos() / 1e6; }
+
+    @Override
+    public long getReclaimedBytes() { return reclaimedBytes(); }
+
+    @Override
+    public Map<String, Double> getLatencies() {
+        Map<String, Double> m = new LinkedHashMap<>();
+        histograms().forEach((name, h) -> {
+            m.put(name + ".count", (double) h.count());
+            m.put(name + ".mean", h.meanMillis());
+            m.put(name + ".p50", h.percentileMillis(50));
+            m.put(name + ".p90", h.percentileMillis(90));
+            m.put(name + ".p99", h.percentileMillis(99));
+            m.put(name + ".max", h.maxMillis());
+        });
+        return m;
+    }
+
+    @Override
+    public String getText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format(Locale.ROOT, "accepts=%d (%.1f/s) active=%d bytesIn=%d bytesOut=%d messagesIn=%d%n",
+                accepts(), acceptsPerSecond(), activeConnections(), bytesIn(), bytesOut(), messagesIn()));
+        histograms().forEach((name, h) -> sb.append(String.format(Locale.ROOT,
+                "%-13s n=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms max=%.2fms%n", name, h.count(),
+                h.meanMillis(), h.percentileMillis(50), h.percentileMillis(90), h.percentileMillis(99), h.maxMillis())));
+        sb.append("rejected");
+        getRejections().forEach((k, v) -> sb.append(' ').append(k).append('=').append(v));
+        sb.append(String.format(Locale.ROOT, " throttled=%.0fms%n", getThrottledMillis()));
+        sb.append("reclaimed=").append(reclaimedBytes()).append(System.lineSeparator());
+        Map<String, Long> errs = getErrors();
+        sb.append("errors").append(errs.isEmpty() ? " none" : "");
+        errs.forEach((k, v) -> sb.append(' ').append(k).append('=').append(v));
+        return sb.append(System.lineSeparator()).toString();
+    }
+
+    @Override
+    public String getJson() {
+        StringBuilder sb = new StringBuilder(512);
+        sb.append(String.format(Locale.ROOT,
+                "{\"accepts\":%d,\"acceptsPerSecond\":%.3f,\"activeConnections\":%d,\"bytesIn\":%d,\"bytesOut\":%d,\"messagesIn\":%d",
+                accepts(), acceptsPerSecond(), activeConnections(), bytesIn(), bytesOut(), messagesIn()));
+        sb.append(",\"latencyMs\":{");
+        String sep = "";
+        for (Map.Entry<String, Histogram> e : histograms().entrySet()) {
+            Histogram h = e.getValue();
+            sb.append(sep).append(String.format(Locale.ROOT,
+                    "\"%s\":{\"count\":%d,\"mean\":%.3f,\"p50\":%.3f,\"p90\":%.3f,\"p99\":%.3f,\"max\":%.3f}", e.getKey(),
+                    h.count(), h.meanMillis(), h.percentileMillis(50), h.percentileMillis(90), h.percentileMillis(99), h.maxMillis()));
+            sep = ",";
+        }
+        sb.append("},\"rejections\":{");
+        sep = "";
+        for (Map.Entry<String, Long> e : getRejections().entrySet()) {
+            sb.append(sep).append('"').append(e.getKey()).append("\":").append(e.getValue());
+            sep = ",";
+        }
+        sb.append(String.format(Locale.ROOT, "},\"throttledMs\":%.3f,\"reclaimedBytes\":%d", getThrottledMillis(), reclaimedBytes()));
+        sb.append(",\"errors\":{");
+        sep = "";
+        for (Map.Entry<String, Long> e : getErrors().entrySet()) {
+            sb.append(sep).append('"').append(e.getKey()).append("\":").append(e.getValue());
+            sep = ",";
+        }
+        return sb.append("}}").toString();
+    }
+
+    // --- экспорт ---
+
+    /**
+     * Зарегистрировать MXBean и запустить периодический дамп (по настройкам); повторный вызов ничего не делает.
+     * Слушатель зовёт это при старте, короткие команды CLI — нет (JMX им ни к чему).
+     */
+    public synchronized void export() {
+        if (exported) return;
+        exported = true;
+        if (!"false".equalsIgnoreCase(Config.get("i2p.messenger.metrics.jmx", "true"))) {
+            try {
+                ObjectName name = new ObjectName(OBJECT_NAME);
+                var server = ManagementFactory.getPlatformMBeanServer();
+                if (!server.isRegistered(name)) server.registerMBean(this, name);
+            } catch (Exception | LinkageError e) {
+                log.warn("Metrics MBean not registered: {}", e.toString());
+            }
+        }
+        long every = Long.parseLong(Config.get("i2p.messenger.metrics.dumpSec", "0"));
+        if (every <= 0) return;
+        boolean json = "json".equalsIgnoreCase(Config.get("i2p.messenger.metrics.format", "text"));
+        String file = Config.get("i2p.messenger.metrics.file", null);
+        reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "i2p-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> dump(json, file == null ? null : Path.of(file)), every, every, TimeUnit.SECONDS);
+        log.info("Metrics dump every {} s ({}{})", every, json ? "json" : "text", file == null ? "" : " -> " + file);
+    }
+
+    void dump(boolean json, Path file) {
+        try {
+            String s = json ? getJson() : getText();
+            if (file == null) {
+                log.info("Metrics:{}{}", json ? " " : System.lineSeparator(), s.strip());
+                return;
+            }
+            Path abs = file.toAbsolutePath();
+            Path tmp = abs.resolveSibling(abs.getFileName() + ".tmp");
+            Files.writeString(tmp, s);
+            try {
+                Files.move(tmp, abs, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, abs, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            log.warn("Metrics dump failed: {}", e.toString()); // не даём исключению отменить расписание
+        }
+    }
+
+    /**
+     * Гистограмма задержек: корзина i — до 2^i мкс (0 — меньше микросекунды, последняя — всё, что дольше),
+     * точность перцентилей — в пределах корзины (не хуже чем вдвое), зато запись — два сложения.
+     */
+    public static final class Histogram {
+        static final int BUCKETS = 40; // 2^39 мкс — больше суток
+
+        private final LongAdder[] buckets = new LongAdder[BUCKETS];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+        public Histogram() {
+            for (int i = 0; i < BUCKETS; i++) buckets[i] = new LongAdder();
+        }
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            long micros = nanos / 1000;
+            buckets[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))].increment();
+            count.increment();
+            sumNanos.add(nanos);
+            maxNanos.accumulate(nanos);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        public double meanMillis() {
+            long n = count.sum();
+            return n == 0 ? 0 : sumNanos.sum() / 1e6 / n;
+        }
+
+        public double maxMillis() {
+            return maxNanos.get() / 1e6;
+        }
+
+        /** Верхняя граница корзины, в которую попал p-й перцентиль (но не больше максимума). */
+        public double percentileMillis(double p) {
+            long n = count.sum();
+            if (n == 0) return 0;
+            long rank = (long) Math.ceil(n * p / 100.0);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank) return Math.min(i == 0 ? 0.001 : (1L << i) / 1e3, maxMillis());
+            }
+            return maxMillis();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package dev.learn.i2p.core;
+
+import java.util.Map;
+
+/**
+ * JMX-вид {@link Metrics}: {@code dev.learn.i2p:type=Metrics} (jconsole, VisualVM, jmxterm).
+ * Счётчики — с запуска процесса; задержки — в миллисекундах.
+ */
+public interface MetricsMXBean {
+
+    long getAccepts();
+
+    /** Принятых соединений в секунду за последний интервал (не короче секунды) между чтениями. */
+    double getAcceptsPerSecond();
+
+    long getActiveConnections();
+
+    long getBytesIn();
+
+    long getBytesOut();
+
+    long getMessagesIn();
+
+    /** Отказы в допуске входящих: причина → сколько раз. */
+    Map<String, Long> getRejections();
+
+    /** Сколько всего приём ждал из-за ограничения полосы. */
+    double getThrottledMillis();
+
+    /** Сколько места освободила очистка inbox (retention) с запуска. */
+    long getReclaimedBytes();
+
+    /** "стадия.Исключение" → сколько раз. */
+    Map<String, Long> getErrors();
+
+    /** "гистограмма.count|mean|p50|p90|p99|max" → значение (мс, кроме count). */
+    Map<String, Double> getLatencies();
+
+    String getText();
+
+    String getJson();
+}
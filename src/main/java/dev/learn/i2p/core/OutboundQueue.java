@@ -0,0 +1,310 @@
+package dev.learn.i2p.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+
+/**
+ * Асинхронная отправка текстов: своя очередь на каждого получателя.
+ * <ul>
+ *   <li>порядок внутри одного получателя сохраняется — очередь разбирает один виртуальный поток;</li>
+ *   <li>первый текст ждёт linger, чтобы к нему успели добавиться следующие: пачка до maxBatch
+ *       сообщений / maxBatchBytes байт уходит одним вызовом {@link BatchSender} (одно соединение,
+ *       кадры подряд без ожидания ACK между ними);</li>
+ *   <li>очередь ограничена capacity, при переполнении — {@link Overflow};</li>
+ *   <li>опустевшая очередь ждёт ещё linger и закрывается вместе со своим потоком — получатели,
+ *       которым больше не пишут, памяти не держат.</li>
+ * </ul>
+ * Future завершается, когда получатель подтвердил именно это сообщение.
+ */
+public final class OutboundQueue implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(OutboundQueue.class);
+
+    /** Что делать с новым сообщением, когда очередь получателя полна. */
+    public enum Overflow {
+        /** future сразу завершается RejectedExecutionException */
+        REJECT,
+        /** вызывающий ждёт места */
+        BLOCK,
+        /** самое старое сообщение из очереди выбрасывается (его future — RejectedExecutionException) */
+        DROP_OLDEST
+    }
+
+    /**
+     * Отправка пачки текстов одному получателю; acked(i) — по мере подтверждения, строго по порядку.
+     * Исключение означает, что сообщения после последнего acked не доставлены.
+     */
+    @FunctionalInterface
+    public interface BatchSender {
+        void send(String dest, List<String> texts, IntConsumer acked) throws IOException;
+    }
+
+    public record Settings(int capacity, int maxBatch, int maxBatchBytes, Duration linger, Overflow overflow) {
+        public Settings {
+            if (capacity < 1) throw new IllegalArgumentException("capacity must be >= 1: " + capacity);
+            if (maxBatch < 1) throw new IllegalArgumentException("maxBatch must be >= 1: " + maxBatch);
+            if (linger == null || linger.isNegative()) linger = Duration.ZERO;
+            if (overflow == null) overflow = Overflow.REJECT;
+        }
+
+        /**
+         * i2p.messenger.queue.capacity (1024), .maxBatch (64), .maxBatchBytes (65536),
+         * .lingerMs (5), .overflow (reject|block|drop_oldest); переменные окружения — I2P_MESSENGER_QUEUE_*.
+         */
+        public static Settings fromSystemProps() {
+            return new Settings(
+                    Integer.parseInt(Config.get("i2p.messenger.queue.capacity", "1024")),
+                    Integer.parseInt(Config.get("i2p.messenger.queue.maxBatch", "64")),
+                    Integer.parseInt(Config.get("i2p.messenger.queue.maxBatchBytes", "65536")),
+                    Duration.ofMillis(Long.parseLong(Config.get("i2p.messenger.queue.lingerMs", "5"))),
+                    Overflow.valueOf(Config.get("i2p.messenger.queue.overflow", "reject").trim().toUpperCase(Locale.ROOT)));
+        }
+    }
+
+    private record Pending(String text, int bytes, CompletableFuture<Void> done) {}
+
+    private final BatchSender sender;
+    private final Settings settings;
+    private final ConcurrentHashMap<String, PeerQueue> queues = new ConcurrentHashMap<>();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private volatile boolean closed;
+
+    public OutboundQueue(BatchSender sender, Settings settings) {
+        this.sender = sender;
+        this.settings = settings;
+    }
+
+    /** Поставить текст в очередь получателя. Не блокирует (кроме {@link Overflow#BLOCK} при полной очереди). */
+    public CompletableFuture<Void> submit(String dest, String text) {
+        String t = text == null ? "" : text;
+        Pending p = new Pending(t, t.getBytes(StandardCharsets.UTF_8).length, new CompletableFuture<>());
+        if (closed) {
+            p.done.completeExceptionally(new RejectedExecutionException("Outbound queue is closed"));
+            return p.done;
+        }
+        while (!queues.computeIfAbsent(dest, PeerQueue::new).offer(p)) {
+            // очередь закрылась за простоем и уже убрана из queues — следующий круг создаст новую
+        }
+        return p.done;
+    }
+
+    /** Сообщений в очереди к dest (ещё не отданных в отправку). */
+    public int pending(String dest) {
+        PeerQueue q = queues.get(dest);
+        return q == null ? 0 : q.size();
+    }
+
+    /** Сколько пачек ушло (каждая — одно обращение к транспорту). */
+    public long batches() {
+        return batches.sum();
+    }
+
+    /** Сколько сообщений подтверждено. */
+    public long sent() {
+        return sent.sum();
+    }
+
+    public Settings settings() {
+        return settings;
+    }
+
+    /** Сколько получателей сейчас с очередью. */
+    int peerCount() {
+        return queues.size();
+    }
+
+    /** Новые сообщения отклоняются; уже поставленные дожидаются отправки до drainTimeout, остальные отменяются. */
+    public void close(Duration drainTimeout) {
+        closed = true;
+        long deadline = System.nanoTime() + drainTimeout.toNanos();
+        for (PeerQueue q : queues.values()) q.awaitDrained(deadline);
+        for (PeerQueue q : queues.values()) q.failAll(new RejectedExecutionException("Outbound queue closed before send"));
+    }
+
+    @Override
+    public void close() {
+        close(Duration.ofSeconds(10));
+    }
+
+    /** Очередь одного получателя; worker живёт, пока в ней есть сообщения (и ещё linger после). */
+    private final class PeerQueue {
+        private final String dest;
+        private final ArrayDeque<Pending> items = new ArrayDeque<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition changed = lock.newCondition();
+        private boolean running;
+        private boolean retired; // убрана из queues — offer в неё не кладёт
+
+        PeerQueue(String dest) {
+            this.dest = dest;
+        }
+
+        int size() {
+            lock.lock();
+            try {
+                return items.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * false — очередь закрыта за простоем, положить нужно в новую. Состояние перепроверяется после
+         * каждого ожидания места ({@link Overflow#BLOCK}): пока ждали, очередь могли закрыть.
+         */
+        boolean offer(Pending p) {
+            Pending dropped = null;
+            lock.lock();
+            try {
+                while (true) {
+                    if (retired) return false;
+                    if (closed) {
+                        p.done.completeExceptionally(new RejectedExecutionException("Outbound queue is closed"));
+                        return true;
+                    }
+                    if (items.size() < settings.capacity()) break;
+                    if (settings.overflow() == Overflow.REJECT) {
+                        p.done.completeExceptionally(new RejectedExecutionException(
+                                "Outbound queue to " + dest + " is full (" + settings.capacity() + ")"));
+                        return true;
+                    }
+                    if (settings.overflow() == Overflow.DROP_OLDEST) {
+                        dropped = items.poll();
+                        break;
+                    }
+                    changed.awaitUninterruptibly(); // BLOCK
+                }
+                items.add(p);
+                changed.signalAll();
+                if (!running) {
+                    running = true;
+                    Thread.ofVirtual().name("outbound-" + shortDest(dest)).start(this::drain);
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (dropped != null) {
+                dropped.done.completeExceptionally(new RejectedExecutionException("Dropped: outbound queue to " + dest + " overflowed"));
+            }
+            return true;
+        }
+
+        private void drain() {
+            List<Pending> batch;
+            while ((batch = nextBatch()) != null) send(batch);
+        }
+
+        /**
+         * Следующая пачка (с ожиданием linger); null — очередь пуста и за linger ничего не пришло:
+         * worker завершается, очередь убирается из queues.
+         */
+        private List<Pending> nextBatch() {
+            lock.lock();
+            try {
+                long left;
+                long idleUntil = System.nanoTime() + settings.linger().toNanos();
+                while (items.isEmpty() && !closed && (left = idleUntil - System.nanoTime()) > 0) {
+                    try {
+                        changed.awaitNanos(left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                if (items.isEmpty()) {
+                    running = false;
+                    retired = true;
+                    queues.remove(dest, this);
+                    changed.signalAll();
+                    return null;
+                }
+                long deadline = System.nanoTime() + settings.linger().toNanos();
+                while (items.size() < settings.maxBatch() && !closed && (left = deadline - System.nanoTime()) > 0) {
+                    try {
+                        changed.awaitNanos(left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                }
+                List<Pending> batch = new ArrayList<>();
+                int bytes = 0;
+                while (!items.isEmpty() && batch.size() < settings.maxBatch()
+                        && (batch.isEmpty() || bytes + items.peek().bytes <= settings.maxBatchBytes())) {
+                    Pending p = items.poll();
+                    bytes += p.bytes;
+                    batch.add(p);
+                }
+                changed.signalAll(); // место освободилось — для BLOCK
+                return batch;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private void send(List<Pending> batch) {
+            int[] acked = {0};
+            try {
+                sender.send(dest, batch.stream().map(Pending::text).toList(), i -> {
+                    batch.get(i).done.complete(null);
+                    acked[0] = i + 1;
+                });
+            } catch (IOException | RuntimeException e) {
+                log.warn("Send to {} failed after {} of {} message(s): {}", dest, acked[0], batch.size(), e.toString());
+                for (Pending p : batch.subList(acked[0], batch.size())) p.done.completeExceptionally(e);
+            } finally {
+                batches.increment();
+                sent.add(acked[0]);
+            }
+        }
+
+        void awaitDrained(long deadline) {
+            lock.lock();
+            try {
+                long left;
+                while ((running || !items.isEmpty()) && (left = deadline - System.nanoTime()) > 0) {
+                    changed.await(left, TimeUnit.NANOSECONDS);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void failAll(Exception cause) {
+            List<Pending> rest;
+            lock.lock();
+            try {
+                rest = new ArrayList<>(items);
+                items.clear();
+                changed.signalAll();
+            } finally {
+                lock.unlock();
+            }
+            for (Pending p : rest) p.done.completeExceptionally(cause);
+        }
+    }
+
+    private static String shortDest(String dest) {
+        return dest.length() > 8 ? dest.substring(0, 8) : dest;
+    }
+
+}
@@ -0,0 +1,176 @@
+package dev.learn.i2p.core;
+
+import dev.learn.i2p.core.profile.ProfileManager;
+import dev.learn.i2p.core.profile.ResolvedProfile;
+import dev.learn.i2p.net.Admission;
+import dev.learn.i2p.net.InboundDispatcher;
+import dev.learn.i2p.net.Transport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Несколько профилей (identity) в одном процессе — вместо JVM на каждый.
+ * <p>
+ * У каждого профиля своё: адрес (destination / порт), inbox, файл-лок ({@link ProfileManager#resolveNamed}),
+ * {@link Admission} с собственными лимитами и слоты одновременных соединений. Общее на процесс: пул потоков
+ * обработчиков входящих ({@link InboundDispatcher#sharing}), {@link BufferPool}, {@link Metrics},
+ * поток чистки пулов исходящих и поток {@link Retention}, а для I2P — контекст клиента I2P (один на JVM).
+ * Цикл accept у каждого профиля свой: {@code accept()} блокирующий.
+ * <p>
+ * Отдельного общего потока записи на диск нет, и это сознательно. {@link InboundSaver} пишет файл
+ * потоком прямо из сети, порциями одного буфера из {@link BufferPool}. Единый писатель на все профили
+ * означал бы одно из двух: держать сообщение целиком в памяти (до {@link Constants#MAX_IMAGE_BYTES}
+ * на каждое) или ставить чтение из сети в очередь за самым медленным отправителем. Поэтому общими
+ * остаются буферы записи, а порядок записей обеспечивается так: у каждого inbox один процесс-владелец
+ * и один {@link InboxIndex}, его дописывание идёт под монитором индекса, а имена занимаются атомарно
+ * ({@link InboxLayout#reserve}).
+ */
+public final class ProfileHost implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ProfileHost.class);
+
+    /** Транспорт профиля поверх выданного ему диспетчера входящих. */
+    @FunctionalInterface
+    public interface TransportFactory {
+        Transport open(String name, ResolvedProfile profile, InboundDispatcher inbound) throws Exception;
+    }
+
+    /** Профиль в процессе; messenger — и для приёма, и для отправки от его имени. */
+    public record Tenant(String name, ResolvedProfile profile, Messenger messenger, Admission admission) {
+        public Path inbox() {
+            return profile.inboxDir();
+        }
+    }
+
+    private final ExecutorService executor;
+    private final Map<String, Tenant> tenants = new LinkedHashMap<>();
+    private final List<Thread> loops = new ArrayList<>();
+    private boolean closed;
+
+    private ProfileHost(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * Открыть профили {@code <base>/profiles/<name>} (каталоги создаются, ключи I2P — при первом подключении).
+     * Не открылся хотя бы один (занят другим процессом, нет роутера) — закрываются и уже открытые.
+     *
+     * @param maxConcurrent одновременных входящих на профиль
+     */
+    public static ProfileHost open(Path base, Collection<String> names, int maxConcurrent, TransportFactory transports)
+            throws IOException {
+        if (names.isEmpty()) throw new IllegalArgumentException("No profiles to host");
+        ProfileHost host = new ProfileHost(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("i2p-inbound-", 0).factory()));
+        try {
+            for (String name : names) host.add(base, name, maxConcurrent, transports);
+        } catch (IOException | RuntimeException e) {
+            host.close();
+            throw e;
+        }
+        log.info("Hosting {} profile(s): {}", host.tenants.size(), host.tenants.keySet());
+        return host;
+    }
+
+    /**
+     * По настройкам одиночного режима (i2p.messenger.home, .transport, .protocol, .accept.maxConcurrent)
+     * плюс на профиль:
+     *  - i2p.messenger.profile.&lt;name&gt;.tcp.port = 0 (для transport=tcp; 0 — любой свободный)
+     *  - i2p.messenger.profile.&lt;name&gt;.admission.* — как i2p.messenger.admission.*
+     */
+    public static ProfileHost fromSystemProps(Collection<String> names) throws IOException {
+        Path base = Paths.get(Config.get("i2p.messenger.home", Paths.get(System.getProperty("user.home"), ".i2p-messenger").toString()));
+        String transport = Config.get("i2p.messenger.transport", "i2p");
+        int max = Integer.parseInt(Config.get("i2p.messenger.accept.maxConcurrent", String.valueOf(InboundDispatcher.DEFAULT_MAX_CONCURRENT)));
+        return open(base, names, max, (name, p, inbound) -> Messenger.transportFor(transport, p.keyFile(),
+                Integer.parseInt(Config.get("i2p.messenger.profile." + name + ".tcp.port", "0")), inbound));
+    }
+
+    private void add(Path base, String name, int maxConcurrent, TransportFactory transports) throws IOException {
+        if (tenants.containsKey(name)) throw new IllegalArgumentException("Duplicate profile: " + name);
+        ResolvedProfile profile = ProfileManager.resolveNamed(base, name);
+        Transport transport = null;
+        try {
+            InboxLayout.migrate(profile.inboxDir());
+            Admission admission = new Admission(Admission.Limits.fromSystemProps(name));
+            transport = transports.open(name, profile, InboundDispatcher.sharing(executor, maxConcurrent, admission));
+            Messenger m = new Messenger(transport,
+                    Messenger.protocolFor(Config.get("i2p.messenger.protocol", "simple"), profile.inboxDir()), profile.inboxDir());
+            tenants.put(name, new Tenant(name, profile, m, admission));
+            log.info("Profile {}: address={}, inbox={}", name, m.myB32(), profile.inboxDir());
+        } catch (Exception e) {
+            if (transport != null) transport.close();
+            profile.close();
+            if (e instanceof IOException io) throw io;
+            if (e instanceof RuntimeException re) throw re;
+            throw new IOException("Cannot open transport for profile " + name + ": " + e.getMessage(), e);
+        }
+    }
+
+    public List<Tenant> tenants() {
+        return List.copyOf(tenants.values());
+    }
+
+    public Tenant tenant(String name) {
+        Tenant t = tenants.get(name);
+        if (t == null) throw new IllegalArgumentException("Unknown profile: " + name);
+        return t;
+    }
+
+    /** Запустить приём всех профилей (по потоку на цикл accept) и вернуться. */
+    public synchronized void start() {
+        if (closed) throw new IllegalStateException("Profile host is closed");
+        if (!loops.isEmpty()) return;
+        for (Tenant t : tenants.values()) {
+            t.admission().export(t.name());
+            loops.add(Thread.ofPlatform().name("i2p-accept-" + t.name()).start(t.messenger()::listen));
+        }
+    }
+
+    /** Блокирующий приём (как {@link Messenger#listen()}), пока хост не закроют. */
+    public void listen() throws InterruptedException {
+        start();
+        for (Thread t : loops) t.join();
+    }
+
+    /** Закрыть профили (транспорт — с ожиданием текущих входящих, потом лок) и общий пул. */
+    @Override
+    public void close() {
+        List<Thread> started;
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            started = List.copyOf(loops);
+        }
+        for (Tenant t : tenants.values()) {
+            t.messenger().close();
+            try {
+                t.profile().close();
+            } catch (IOException e) {
+                log.warn("Profile {}: lock not released: {}", t.name(), e.toString());
+            }
+        }
+        for (Thread t : started) {
+            try {
+                t.join(5_000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        executor.close();
+        log.info("Profile host closed ({} profile(s))", tenants.size());
+    }
+
+}
@@ -0,0 +1,450 @@
+package dev.learn.i2p.core;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Очистка inbox: срок хранения, квоты (на отправителя и общие — по байтам и числу файлов), упаковка
+ * мелких старых файлов в архивные сегменты, уборка брошенных временных файлов и недокачек.
+ * <p>
+ * Что хранится, берётся из {@link InboxIndex} (время, отправитель, размер, SHA-256 — без stat каждого
+ * файла); вытесняются самые старые. Мелкие файлы старше {@code compactAfter} уходят по дням
+ * в {@code <inbox>.archive/<yyyy-MM-dd>-<n>.zip} (внутри — {@code <отправитель>/<имя>}), после чего
+ * удаляются из inbox. Удалённое и упакованное убирается из индекса одной перезаписью.
+ * <p>
+ * Работает на общем для процесса фоновом потоке с наименьшим приоритетом: с циклом приёма общих блокировок нет,
+ * с сохранением — только короткая перезапись индекса в конце прохода. Освобождённое место и время
+ * прохода — в {@link Metrics} и в логе.
+ * <p>
+ * Чистит только владелец inbox — процесс, держащий его {@link InboxIndex} (listen/daemon): удалять файлы
+ * и переписывать индекс под работающим слушателем нельзя. Разовый проход при запущенном демоне идёт
+ * через него ({@code ControlChannel}); при работающем {@code listen} — отказ.
+ */
+public final class Retention implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(Retention.class);
+
+    /**
+     * Правила; 0 — без ограничения (или выключено).
+     *
+     * @param maxAge           старше — удаляется
+     * @param maxBytes         всего в inbox
+     * @param maxFiles         всего в inbox
+     * @param maxSenderBytes   от одного отправителя (по каталогу раскладки — первые 8 символов адреса)
+     * @param maxSenderFiles   от одного отправителя
+     * @param compactAfter     старше — мелкие файлы упаковываются в архив
+     * @param compactBelow     "мелкий" — не больше стольких байт
+     * @param staleTemp        недописанные {@code .part} старше — брошены упавшим процессом
+     * @param stalePartial     недокачки ({@code <inbox>.partial}) без движения дольше — брошены отправителем
+     */
+    public record Policy(Duration maxAge, long maxBytes, long maxFiles, long maxSenderBytes, long maxSenderFiles,
+                         Duration compactAfter, long compactBelow, Duration staleTemp, Duration stalePartial) {
+        public Policy {
+            maxAge = maxAge == null ? Duration.ZERO : maxAge;
+            compactAfter = compactAfter == null ? Duration.ZERO : compactAfter;
+            staleTemp = staleTemp == null ? Duration.ZERO : staleTemp;
+            stalePartial = stalePartial == null ? Duration.ZERO : stalePartial;
+            if (maxAge.isNegative() || compactAfter.isNegative() || staleTemp.isNegative() || stalePartial.isNegative()
+                    || maxBytes < 0 || maxFiles < 0 || maxSenderBytes < 0 || maxSenderFiles < 0 || compactBelow < 0) {
+                throw new IllegalArgumentException("Retention limits must be >= 0");
+            }
+        }
+
+        /**
+         * Из sysprops/env (длительности — 30d, 12h, 45m; размеры — в байтах):
+         *  - i2p.messenger.retention.maxAge = 0
+         *  - i2p.messenger.retention.maxBytes = 0, maxFiles = 0
+         *  - i2p.messenger.retention.maxSenderBytes = 0, maxSenderFiles = 0
+         *  - i2p.messenger.retention.compactAfter = 0 (выключено), compactBelow = 65536
+         *  - i2p.messenger.retention.staleTemp = 1d, stalePartial = 7d
+         * По умолчанию принятое не удаляется — только брошенные временные файлы и недокачки.
+         */
+        public static Policy fromSystemProps() {
+            return new Policy(
+                    duration(Config.get("i2p.messenger.retention.maxAge", "0")),
+                    Long.parseLong(Config.get("i2p.messenger.retention.maxBytes", "0")),
+                    Long.parseLong(Config.get("i2p.messenger.retention.maxFiles", "0")),
+                    Long.parseLong(Config.get("i2p.messenger.retention.maxSenderBytes", "0")),
+                    Long.parseLong(Config.get("i2p.messenger.retention.maxSenderFiles", "0")),
+                    duration(Config.get("i2p.messenger.retention.compactAfter", "0")),
+                    Long.parseLong(Config.get("i2p.messenger.retention.compactBelow", "65536")),
+                    duration(Config.get("i2p.messenger.retention.staleTemp", "1d")),
+                    duration(Config.get("i2p.messenger.retention.stalePartial", "7d")));
+        }
+    }
+
+    /**
+     * Итог прохода.
+     *
+     * @param reclaimedBytes освобождено на диске: удалённое содержимое минус записанные архивы
+     */
+    public record Report(int expired, int evicted, int compacted, int segments, int staleRemoved,
+                         long reclaimedBytes, Duration took) {
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "expired=%d evicted=%d compacted=%d (into %d segment(s)) stale=%d reclaimed=%d bytes in %d ms",
+                    expired, evicted, compacted, segments, staleRemoved, reclaimedBytes, took.toMillis());
+        }
+    }
+
+    /** Один фоновый поток на процесс: проходы по нескольким inbox (профилям) идут по очереди. */
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread t = new Thread(task, "i2p-retention");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    /** Проходы по одному inbox в процессе — по очереди: фоновый и разовый (из демона) не пересекаются. */
+    private static final Map<Path, Object> PASSES = new ConcurrentHashMap<>();
+
+    private final Path inbox;
+    private final Policy policy;
+    private ScheduledFuture<?> schedule;
+
+    public Retention(Path inbox, Policy policy) {
+        this.inbox = inbox.toAbsolutePath().normalize();
+        this.policy = policy;
+    }
+
+    static Path archiveFor(Path inbox) {
+        Path abs = inbox.toAbsolutePath();
+        return abs.resolveSibling(abs.getFileName() + ".archive");
+    }
+
+    /**
+     * Проходы раз в {@code i2p.messenger.retention.intervalMin} минут (по умолчанию 60; 0 — не запускать),
+     * первый — через минуту после старта, чтобы не мешать подъёму слушателя.
+     */
+    public static Retention start(Path inbox) {
+        Retention r = new Retention(inbox, Policy.fromSystemProps());
+        long every = Long.parseLong(Config.get("i2p.messenger.retention.intervalMin", "60"));
+        if (every > 0) r.schedule(Duration.ofMinutes(1), Duration.ofMinutes(every));
+        return r;
+    }
+
+    synchronized void schedule(Duration first, Duration every) {
+        if (schedule != null) return;
+        schedule = SCHEDULER.scheduleWithFixedDelay(() -> {
+            try {
+                run();
+            } catch (IOException | RuntimeException e) {
+                log.warn("Inbox retention pass failed: {}", e.toString(), e);
+            }
+        }, first.toMillis(), every.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Один проход целиком (его же выполняет фоновый поток). Inbox держит другой процесс — {@link IOException}
+     * до того, как что-либо удалено.
+     */
+    public Report run() throws IOException {
+        synchronized (PASSES.computeIfAbsent(inbox, k -> new Object())) {
+            return pass();
+        }
+    }
+
+    private Report pass() throws IOException {
+        long t0 = System.nanoTime();
+        InboxIndex index = InboxIndex.of(inbox); // и проверка владельца — в том числе для недокачек
+        Pass pass = new Pass();
+        if (Files.isDirectory(inbox)) {
+            pass.enforce(index.query(InboxIndex.Query.all()));
+            pass.sweepTemps();
+            if (!pass.gone.isEmpty()) {
+                index.forget(pass.gone);
+                BlobStore blobs = BlobStore.forInbox(inbox);
+                if (blobs != null) blobs.sweep();
+            }
+        }
+        pass.sweepPartials();
+
+        long took = System.nanoTime() - t0;
+        Metrics.shared().retained(pass.reclaimed, took);
+        Report r = new Report(pass.expired, pass.evicted, pass.compacted, pass.segments, pass.stale,
+                pass.reclaimed, Duration.ofNanos(took));
+        if (pass.gone.isEmpty() && pass.stale == 0) log.debug("Inbox retention: nothing to do ({} ms)", r.took().toMillis());
+        else log.info("Inbox retention: {}", r);
+        return r;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (schedule != null) {
+            schedule.cancel(false);
+            schedule = null;
+        }
+    }
+
+    /** Состояние одного прохода. */
+    private final class Pass {
+        final List<Path> gone = new ArrayList<>();
+        final BlobStore blobs = BlobStore.forInbox(inbox);
+        final Instant now = Instant.now();
+        int expired, evicted, compacted, segments, stale;
+        long reclaimed;
+
+        void enforce(List<InboxIndex.Entry> all) throws IOException {
+            // 1) срок хранения; записи идут по времени приёма
+            List<InboxIndex.Entry> live = new ArrayList<>(all.size());
+            Instant cutoff = policy.maxAge().isZero() ? null : now.minus(policy.maxAge());
+            for (InboxIndex.Entry e : all) {
+                if (cutoff != null && e.time().isBefore(cutoff)) {
+                    remove(e);
+                    expired++;
+                } else {
+                    live.add(e);
+                }
+            }
+
+            // 2) квоты отправителя: у каждого вытесняются его самые старые
+            if (policy.maxSenderBytes() > 0 || policy.maxSenderFiles() > 0) {
+                Map<String, ArrayDeque<InboxIndex.Entry>> bySender = new HashMap<>();
+                for (InboxIndex.Entry e : live) {
+                    bySender.computeIfAbsent(InboxLayout.senderKey(e.sender()), k -> new ArrayDeque<>()).add(e);
+                }
+                Set<InboxIndex.Entry> out = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (ArrayDeque<InboxIndex.Entry> q : bySender.values()) {
+                    long bytes = q.stream().mapToLong(InboxIndex.Entry::size).sum();
+                    while (!q.isEmpty() && (over(q.size(), policy.maxSenderFiles()) || over(bytes, policy.maxSenderBytes()))) {
+                        InboxIndex.Entry e = q.poll();
+                        bytes -= e.size();
+                        remove(e);
+                        out.add(e);
+                        evicted++;
+                    }
+                }
+                live.removeIf(out::contains);
+            }
+
+            // 3) общие квоты: самые старые из оставшихся
+            long bytes = live.stream().mapToLong(InboxIndex.Entry::size).sum();
+            int from = 0;
+            while (from < live.size() && (over(live.size() - from, policy.maxFiles()) || over(bytes, policy.maxBytes()))) {
+                InboxIndex.Entry e = live.get(from++);
+                bytes -= e.size();
+                remove(e);
+                evicted++;
+            }
+            live = live.subList(from, live.size());
+
+            // 4) мелкие старые — в архив, по дню приёма
+            if (!policy.compactAfter().isZero()) {
+                Instant older = now.minus(policy.compactAfter());
+                Map<String, List<InboxIndex.Entry>> byDay = new TreeMap<>();
+                for (InboxIndex.Entry e : live) {
+                    if (e.size() > policy.compactBelow() || !e.time().isBefore(older)) continue;
+                    Path rel = inbox.relativize(e.path());
+                    String day = rel.getNameCount() == 3 ? rel.getName(0).toString() : "unsorted";
+                    byDay.computeIfAbsent(day, k -> new ArrayList<>()).add(e);
+                }
+                for (Map.Entry<String, List<InboxIndex.Entry>> day : byDay.entrySet()) {
+                    if (day.getValue().size() > 1) pack(day.getKey(), day.getValue());
+                }
+            }
+        }
+
+        private boolean over(long value, long limit) {
+            return limit > 0 && value > limit;
+        }
+
+        /** Удалить файл из inbox; освобождено место, только если это была последняя ссылка на содержимое. */
+        private void remove(InboxIndex.Entry e) throws IOException {
+            gone.add(e.path());
+            try {
+                boolean freed;
+                if (blobs != null) {
+                    byte[] sha = e.sha256();
+                    freed = isZero(sha) ? blobs.release(e.path()) : blobs.release(e.path(), sha);
+                } else {
+                    Files.delete(e.path());
+                    freed = true;
+                }
+                if (freed) reclaimed += e.size();
+            } catch (NoSuchFileException alreadyGone) {
+                // удалили руками — осталось убрать запись из индекса
+            }
+        }
+
+        /** Упаковать файлы дня в новый сегмент; сегмент появляется целиком (tmp + переименование) до удаления файлов. */
+        private void pack(String day, List<InboxIndex.Entry> files) throws IOException {
+            Path dir = Files.createDirectories(archiveFor(inbox));
+            Path tmp = dir.resolve("." + day + ".zip.tmp");
+            List<InboxIndex.Entry> packed = new ArrayList<>(files.size());
+            try (OutputStream os = Files.newOutputStream(tmp); ZipOutputStream zip = new ZipOutputStream(os)) {
+                for (InboxIndex.Entry e : files) {
+                    Path rel = inbox.relativize(e.path());
+                    ZipEntry ze = new ZipEntry(rel.subpath(rel.getNameCount() > 1 ? 1 : 0, rel.getNameCount()).toString().replace('\\', '/'));
+                    try {
+                        ze.setTime(Files.getLastModifiedTime(e.path()).toMillis());
+                        zip.putNextEntry(ze);
+                        Files.copy(e.path(), zip);
+                        zip.closeEntry();
+                        packed.add(e);
+                    } catch (NoSuchFileException alreadyGone) {
+                        gone.add(e.path());
+                    }
+                }
+            }
+            if (packed.isEmpty()) {
+                Files.deleteIfExists(tmp);
+                return;
+            }
+            Path segment = nextSegment(dir, day, tmp);
+            segments++;
+            reclaimed -= Files.size(segment);
+            for (InboxIndex.Entry e : packed) {
+                remove(e);
+                compacted++;
+            }
+            log.debug("Packed {} file(s) from {} into {}", packed.size(), day, segment.getFileName());
+        }
+
+        private Path nextSegment(Path dir, String day, Path tmp) throws IOException {
+            for (int n = 1; ; n++) {
+                Path segment = dir.resolve(day + "-" + n + ".zip");
+                if (Files.exists(segment)) continue;
+                try {
+                    return Files.move(tmp, segment, StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException raced) {
+                    // занят между проверкой и переименованием — берём следующий номер
+                }
+            }
+        }
+
+        /** Брошенные {@code .part} (процесс упал посреди приёма) и опустевшие каталоги раскладки. */
+        void sweepTemps() throws IOException {
+            Instant cutoff = now.minus(policy.staleTemp());
+            Files.walkFileTree(inbox, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    String name = file.getFileName().toString();
+                    if (!policy.staleTemp().isZero() && name.startsWith(".") && name.endsWith(".part")
+                            && attrs.lastModifiedTime().toInstant().isBefore(cutoff)) {
+                        if (Files.deleteIfExists(file)) {
+                            stale++;
+                            reclaimed += attrs.size();
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                    // только прошедшие дни: в сегодняшний (и вчерашний — около полуночи) каталог могут сохранять прямо сейчас
+                    if (!dir.equals(inbox) && isPastDay(dir) && isEmpty(dir)) {
+                        try {
+                            Files.delete(dir);
+                        } catch (DirectoryNotEmptyException raced) {
+                            // в него только что сохранили файл
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+
+        /** Недокачки без движения дольше stalePartial: отправитель не вернулся (и завершённые — их маркеры). */
+        void sweepPartials() throws IOException {
+            Path root = inbox.resolveSibling(inbox.getFileName() + ".partial");
+            if (policy.stalePartial().isZero() || !Files.isDirectory(root)) return;
+            Instant cutoff = now.minus(policy.stalePartial());
+            try (Stream<Path> s = Files.list(root)) {
+                for (Path sender : s.filter(Files::isDirectory).toList()) { // <отправитель>/<id>
+                    int kept = 0;
+                    try (Stream<Path> t = Files.list(sender)) {
+                        for (Path dir : t.filter(Files::isDirectory).toList()) {
+                            if (!lastTouched(dir).isBefore(cutoff)) {
+                                kept++;
+                                continue;
+                            }
+                            reclaimed += deleteTree(dir);
+                            stale++;
+                        }
+                    }
+                    if (kept > 0) continue;
+                    if (lastTouched(sender).isBefore(cutoff)) { // каталог прежней раскладки (<id>/) целиком
+                        reclaimed += deleteTree(sender);
+                        stale++;
+                    } else if (isEmpty(sender)) {
+                        Files.deleteIfExists(sender);
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean isPastDay(Path dir) {
+        try {
+            return LocalDate.parse(inbox.relativize(dir).getName(0).toString()).isBefore(LocalDate.now().minusDays(1));
+        } catch (DateTimeParseException notADay) {
+            return false;
+        }
+    }
+
+    private static boolean isZero(byte[] b) {
+        for (byte x : b) if (x != 0) return false;
+        return true;
+    }
+
+    private static boolean isEmpty(Path dir) throws IOException {
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            return !ds.iterator().hasNext();
+        }
+    }
+
+    private static Instant lastTouched(Path dir) throws IOException {
+        Instant last = Files.getLastModifiedTime(dir).toInstant();
+        try (Stream<Path> s = Files.list(dir)) {
+            for (Path p : s.toList()) {
+                Instant t = Files.getLastModifiedTime(p).toInstant();
+                if (t.isAfter(last)) last = t;
+            }
+        }
+        return last;
+    }
+
+    private static long deleteTree(Path dir) throws IOException {
+        long bytes = 0;
+        try (Stream<Path> s = Files.walk(dir)) {
+            for (Path p : s.sorted(Comparator.reverseOrder()).toList()) {
+                if (Files.isRegularFile(p)) bytes += Files.size(p);
+                Files.deleteIfExists(p);
+            }
+        }
+        return bytes;
+    }
+
+    /** 30d / 12h / 45m / 10s; "0" — выключено. */
+    static Duration duration(String v) {
+        String s = v.trim();
+        if (s.equals("0")) return Duration.ZERO;
+        if (!s.matches("\\d+[dhms]")) throw new IllegalArgumentException("Bad duration: " + v + " (expected 30d, 12h, 45m, 10s or 0)");
+        long n = Long.parseLong(s.substring(0, s.length() - 1));
+        return switch (s.charAt(s.length() - 1)) {
+            case 'd' -> Duration.ofDays(n);
+            case 'h' -> Duration.ofHours(n);
+            case 'm' -> Duration.ofMinutes(n);
+            default -> Duration.ofSeconds(n);
+        };
+    }
+
+}
@@ -1,5 +1,7 @@
 package dev.learn.i2p.core.profile;
 
+import dev.learn.i2p.core.Config;
+
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
@@ -7,7 +9,6 @@ import java.nio.channels.FileLock;
 import java.nio.file.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Locale;
 import java.util.concurrent.ThreadLocalRandom;
 
 public final class ProfileManager {
@@ -51,6 +52,20 @@ public final class ProfileManager {
         throw new IOException("Failed to allocate ephemeral profile (exhausted attempts).");
     }
 
+    /**
+     * Именованный профиль многопрофильного процесса: {@code <base>/profiles/<name>/} с ключами и inbox.
+     * Без ephemeral-запасного варианта: занятый профиль — ошибка (его уже слушает другой процесс).
+     */
+    public static ResolvedProfile resolveNamed(Path base, String name) throws IOException {
+        if (name == null || !name.matches("[A-Za-z0-9_-]{1,64}") || name.startsWith("auto-")) {
+            throw new IllegalArgumentException("Bad profile name: " + name + " (letters, digits, '-', '_'; not auto-*)");
+        }
+        Path home = base.resolve("profiles").resolve(name);
+        ResolvedProfile p = tryLockProfile(home, home.resolve("messenger-keys.dat"), home.resolve("inbox"), false);
+        if (p == null) throw new IOException("Profile is already in use (key locked): " + name);
+        return p;
+    }
+
     private static ResolvedProfile tryLockProfile(Path home, Path keyFile, Path inboxDir, boolean ephemeral) throws IOException {
         Files.createDirectories(home);
         Files.createDirectories(keyFile.getParent());
@@ -73,12 +88,8 @@ public final class ProfileManager {
     }
 
     private static Path getPathProp(String name, Path defVal) {
-        String v = System.getProperty(name);
-        if (v == null || v.isBlank()) {
-            String env = System.getenv(name.toUpperCase(Locale.ROOT).replace('.', '_'));
-            if (env != null && !env.isBlank()) v = env;
-        }
-        return (v != null && !v.isBlank()) ? Paths.get(v) : defVal;
+        String v = Config.get(name);
+        return v != null ? Paths.get(v) : defVal;
     }
 
     private static String stamp() { return LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")); }
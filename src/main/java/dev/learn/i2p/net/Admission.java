@@ -0,0 +1,486 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.core.Config;
+import dev.learn.i2p.core.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.ObjectName;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+
+/**
+ * Допуск входящих соединений — перед обработчиком протокола, в потоке цикла accept.
+ * <p>
+ * Порядок проверок: deny-список, allow-список (если не пуст — только его пиры), частота соединений
+ * пира (token bucket), одновременные соединения пира. Отказ — стрим закрывается сразу: ни потока-обработчика,
+ * ни байта на диске. Допущенный стрим читается через ограничитель полосы — пира и общий на процесс: читатель
+ * ждёт, пока не накопятся токены, а пир упирается в окно стрима (I2P/TCP сами притормаживают отправителя).
+ * <p>
+ * Пир — его адрес: b32 (хэш destination) для I2P, хост для TCP. Состояние пиров — в {@link ConcurrentHashMap}
+ * (блокировки по корзинам таблицы, не общая), простаивающие пиры вычищаются, когда их больше {@link #MAX_TRACKED}, —
+ * не чаще раза в {@link #SWEEP_INTERVAL_NANOS}: проход по всей таблице на каждого нового пира при наплыве был бы O(n) на соединение.
+ * Лимиты меняются на лету ({@link #update}, JMX {@code dev.learn.i2p:type=Admission}); отказы и ожидание — в {@link Metrics}.
+ */
+public final class Admission implements AdmissionMXBean {
+    private static final Logger log = LoggerFactory.getLogger(Admission.class);
+
+    public static final String OBJECT_NAME = "dev.learn.i2p:type=Admission";
+
+    static final int MAX_TRACKED = 4096;
+    static final long IDLE_NANOS = TimeUnit.MINUTES.toNanos(1);
+    static final long SWEEP_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final String UNKNOWN = "<unknown>";
+
+    /**
+     * 0 в любом лимите — без ограничения.
+     *
+     * @param connectionsPerSecond новых соединений в секунду от одного пира
+     * @param connectionBurst      сколько соединений пир может открыть разом (не меньше 1)
+     * @param bytesPerSecond       полоса приёма от одного пира
+     * @param byteBurst            сколько байт пир может прислать без ожидания; 0 — секунда полосы
+     * @param maxPerPeer           одновременных соединений от одного пира
+     * @param globalBytesPerSecond полоса приёма от всех пиров вместе (защита диска)
+     * @param allow                если не пуст — допускаются только эти пиры
+     * @param deny                 никогда не допускаются
+     */
+    public record Limits(double connectionsPerSecond, int connectionBurst, long bytesPerSecond, long byteBurst,
+                         int maxPerPeer, long globalBytesPerSecond, Set<String> allow, Set<String> deny) {
+        public static final Limits UNLIMITED = new Limits(0, 0, 0, 0, 0, 0, Set.of(), Set.of());
+
+        public Limits {
+            if (connectionsPerSecond < 0 || connectionBurst < 0 || bytesPerSecond < 0 || byteBurst < 0
+                    || maxPerPeer < 0 || globalBytesPerSecond < 0) {
+                throw new IllegalArgumentException("Admission limits must be >= 0");
+            }
+            allow = normalize(allow);
+            deny = normalize(deny);
+        }
+
+        private static Set<String> normalize(Set<String> peers) {
+            if (peers == null) return Set.of();
+            return peers.stream().filter(p -> p != null && !p.isBlank()).map(Admission::keyOf).collect(Collectors.toUnmodifiableSet());
+        }
+
+        /**
+         * Из sysprops/env:
+         *  - i2p.messenger.admission.connPerSec = 10, connBurst = 40
+         *  - i2p.messenger.admission.bytesPerSec = 4 MiB, byteBurst = 32 MiB (I2P-пир столько не прокачает,
+         *    а по TCP/loopback это граница, после которой один пир уже забивает диск)
+         *  - i2p.messenger.admission.maxPerPeer = 16
+         *  - i2p.messenger.admission.globalBytesPerSec = 0
+         *  - i2p.messenger.admission.allow / deny — адреса через запятую
+         */
+        public static Limits fromSystemProps() {
+            return fromSystemProps(null);
+        }
+
+        /**
+         * Лимиты профиля в многопрофильном процессе: i2p.messenger.profile.&lt;name&gt;.admission.*,
+         * чего нет — из общих i2p.messenger.admission.* (null — только общие).
+         */
+        public static Limits fromSystemProps(String profile) {
+            return new Limits(
+                    Double.parseDouble(prop(profile, "connPerSec", "10")),
+                    Integer.parseInt(prop(profile, "connBurst", "40")),
+                    Long.parseLong(prop(profile, "bytesPerSec", String.valueOf(4L << 20))),
+                    Long.parseLong(prop(profile, "byteBurst", String.valueOf(32L << 20))),
+                    Integer.parseInt(prop(profile, "maxPerPeer", "16")),
+                    Long.parseLong(prop(profile, "globalBytesPerSec", "0")),
+                    list(prop(profile, "allow", "")),
+                    list(prop(profile, "deny", "")));
+        }
+
+        private static String prop(String profile, String key, String def) {
+            String general = Config.get("i2p.messenger.admission." + key, def);
+            return profile == null ? general : Config.get("i2p.messenger.profile." + profile + ".admission." + key, general);
+        }
+
+        private static Set<String> list(String csv) {
+            return new HashSet<>(Arrays.asList(csv.split(",")));
+        }
+
+        private long effectiveByteBurst() {
+            return byteBurst > 0 ? byteBurst : bytesPerSecond;
+        }
+    }
+
+    private static volatile Admission shared;
+
+    private final Metrics metrics;
+    private final LongSupplier clock;
+    private final ConcurrentHashMap<String, Peer> peers = new ConcurrentHashMap<>();
+    private final Bucket global = new Bucket();
+    private final AtomicLong nextSweep;
+    private volatile Limits limits;
+    private boolean exported;
+
+    public Admission(Limits limits) {
+        this(limits, Metrics.shared(), System::nanoTime);
+    }
+
+    Admission(Limits limits, Metrics metrics, LongSupplier clock) {
+        if (limits == null) throw new IllegalArgumentException("limits must not be null");
+        this.limits = limits;
+        this.metrics = metrics;
+        this.clock = clock;
+        this.nextSweep = new AtomicLong(clock.getAsLong());
+    }
+
+    /** Общий на процесс допуск по настройкам {@link Limits#fromSystemProps()}. */
+    public static Admission shared() {
+        Admission a = shared;
+        if (a == null) {
+            synchronized (Admission.class) {
+                a = shared;
+                if (a == null) shared = a = new Admission(Limits.fromSystemProps());
+            }
+        }
+        return a;
+    }
+
+    public Limits limits() {
+        return limits;
+    }
+
+    /** Новые лимиты действуют сразу — и для новых соединений, и для чтения уже допущенных. */
+    public void update(Limits l) {
+        if (l == null) throw new IllegalArgumentException("limits must not be null");
+        limits = l;
+        log.info("Admission limits updated: {}", l);
+    }
+
+    /** Зарегистрировать MXBean (один раз); зовётся при старте слушателя. */
+    public void export() {
+        export(null);
+    }
+
+    /** То же для допуска профиля: {@code dev.learn.i2p:type=Admission,profile=<name>}. */
+    public synchronized void export(String profile) {
+        if (exported) return;
+        exported = true;
+        try {
+            ObjectName name = new ObjectName(profile == null ? OBJECT_NAME : OBJECT_NAME + ",profile=" + ObjectName.quote(profile));
+            var server = ManagementFactory.getPlatformMBeanServer();
+            if (!server.isRegistered(name)) server.registerMBean(this, name);
+        } catch (Exception | LinkageError e) {
+            log.warn("Admission MBean not registered: {}", e.toString());
+        }
+    }
+
+    /**
+     * Допустить соединение от пира.
+     *
+     * @return билет (закрыть по окончании обработки) или null — отказ, стрим нужно закрыть
+     */
+    public Ticket admit(String peerAddress) {
+        Limits l = limits;
+        String key = keyOf(peerAddress);
+        if (l.deny().contains(key)) return reject(Metrics.Rejection.DENIED, key);
+        if (!l.allow().isEmpty() && !l.allow().contains(key)) return reject(Metrics.Rejection.NOT_ALLOWED, key);
+
+        long now = clock.getAsLong();
+        Peer p = peer(key, now);
+        p.lastSeen = now;
+        if (l.connectionsPerSecond() > 0
+                && !p.connections.tryTake(l.connectionsPerSecond(), Math.max(1, l.connectionBurst()), now)) {
+            return reject(Metrics.Rejection.CONNECTION_RATE, key);
+        }
+        if (p.active.incrementAndGet() > l.maxPerPeer() && l.maxPerPeer() > 0) {
+            p.active.decrementAndGet();
+            return reject(Metrics.Rejection.PEER_CONCURRENCY, key);
+        }
+        return new Ticket(p);
+    }
+
+    private Ticket reject(Metrics.Rejection why, String key) {
+        metrics.rejected(why);
+        log.debug("Inbound connection from {} rejected: {}", key, why);
+        return null;
+    }
+
+    private Peer peer(String key, long now) {
+        Peer p = peers.get(key);
+        if (p != null) return p;
+        p = peers.computeIfAbsent(key, k -> new Peer(now));
+        long due = nextSweep.get();
+        if (peers.size() > MAX_TRACKED && now - due >= 0 && nextSweep.compareAndSet(due, now + SWEEP_INTERVAL_NANOS)) {
+            peers.values().removeIf(q -> q.active.get() == 0 && now - q.lastSeen > IDLE_NANOS);
+        }
+        return p;
+    }
+
+    /** b32 для I2P; у "host:port" порт свой у каждого соединения — пир это хост. */
+    static String keyOf(String address) {
+        if (address == null || address.isBlank()) return UNKNOWN;
+        String a = address.trim().toLowerCase(Locale.ROOT);
+        if (!a.endsWith(".i2p")) {
+            int colon = a.lastIndexOf(':');
+            if (colon > 0 && a.indexOf(':') == colon) a = a.substring(0, colon); // IPv6 без скобок не трогаем
+        }
+        return a;
+    }
+
+    private static final class Peer {
+        final Bucket connections = new Bucket();
+        final Bucket bytes = new Bucket();
+        final AtomicInteger active = new AtomicInteger();
+        volatile long lastSeen;
+
+        Peer(long now) {
+            lastSeen = now;
+        }
+    }
+
+    /**
+     * Token bucket; скорость и ёмкость передаются при каждом вызове — так на лету меняющиеся лимиты
+     * сразу действуют и на уже известных пиров. Блокировка — на корзину одного пира, не общая.
+     */
+    static final class Bucket {
+        private double tokens = Double.NaN; // NaN — ещё не трогали: полная
+        private long at;
+
+        synchronized boolean tryTake(double rate, double burst, long now) {
+            refill(rate, burst, now);
+            if (tokens < 1) return false;
+            tokens -= 1;
+            return true;
+        }
+
+        /** Взять n токенов, уходя в долг; вернуть, сколько наносекунд ждать, пока долг не погасится. */
+        synchronized long reserve(long n, double rate, double burst, long now) {
+            refill(rate, burst, now);
+            tokens -= n;
+            return tokens >= 0 ? 0 : (long) (-tokens / rate * 1e9);
+        }
+
+        private void refill(double rate, double burst, long now) {
+            tokens = Double.isNaN(tokens) ? burst : Math.min(burst, tokens + (now - at) * rate / 1e9);
+            at = now;
+        }
+    }
+
+    /** Допущенное соединение: держит слот пира до {@link #close()}. */
+    public final class Ticket implements Closeable {
+        private final Peer peer;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private Ticket(Peer peer) {
+            this.peer = peer;
+        }
+
+        /** Стрим, чтение из которого идёт не быстрее полосы пира и общей. */
+        public PeerStream throttle(PeerStream s) {
+            return new Throttled(s, this);
+        }
+
+        /** Прочитано n байт: придержать читателя, если полоса исчерпана. */
+        void consumed(int n) throws InterruptedIOException {
+            Limits l = limits;
+            if (l.bytesPerSecond() == 0 && l.globalBytesPerSecond() == 0) return;
+            long now = clock.getAsLong();
+            long wait = 0;
+            if (l.bytesPerSecond() > 0) {
+                wait = peer.bytes.reserve(n, l.bytesPerSecond(), l.effectiveByteBurst(), now);
+            }
+            if (l.globalBytesPerSecond() > 0) {
+                wait = Math.max(wait, global.reserve(n, l.globalBytesPerSecond(), l.globalBytesPerSecond(), now));
+            }
+            if (wait <= 0) return;
+            metrics.throttled(wait);
+            try {
+                Thread.sleep(Duration.ofNanos(wait));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while throttled");
+            }
+        }
+
+        @Override
+        public void close() {
+            if (closed.compareAndSet(false, true)) {
+                peer.active.decrementAndGet();
+                peer.lastSeen = clock.getAsLong();
+            }
+        }
+    }
+
+    private static final class Throttled implements PeerStream {
+        private final PeerStream delegate;
+        private final Ticket ticket;
+        private InputStream in;
+
+        Throttled(PeerStream delegate, Ticket ticket) {
+            this.delegate = delegate;
+            this.ticket = ticket;
+        }
+
+        @Override
+        public InputStream getInputStream() throws IOException {
+            InputStream raw = delegate.getInputStream();
+            if (in == null || ((Limited) in).raw() != raw) in = new Limited(raw, ticket);
+            return in;
+        }
+
+        @Override
+        public OutputStream getOutputStream() throws IOException {
+            return delegate.getOutputStream();
+        }
+
+        @Override
+        public String peerAddress() {
+            return delegate.peerAddress();
+        }
+
+        @Override
+        public synchronized void setReadTimeout(long ms) {
+            delegate.setReadTimeout(ms);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return delegate.isClosed();
+        }
+
+        @Override
+        public Object identity() {
+            return delegate.identity();
+        }
+
+        @Override
+        public void close() throws IOException {
+            delegate.close();
+        }
+    }
+
+    private static final class Limited extends FilterInputStream {
+        private final Ticket ticket;
+
+        Limited(InputStream in, Ticket ticket) {
+            super(in);
+            this.ticket = ticket;
+        }
+
+        InputStream raw() {
+            return in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) ticket.consumed(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) ticket.consumed(n);
+            return n;
+        }
+    }
+
+    // --- JMX ---
+
+    @Override
+    public double getConnectionsPerSecond() { return limits.connectionsPerSecond(); }
+
+    @Override
+    public synchronized void setConnectionsPerSecond(double v) {
+        Limits l = limits;
+        update(new Limits(v, l.connectionBurst(), l.bytesPerSecond(), l.byteBurst(), l.maxPerPeer(), l.globalBytesPerSecond(), l.allow(), l.deny()));
+    }
+
+    @Override
+    public int getConnectionBurst() { return limits.connectionBurst(); }
+
+    @Override
+    public synchronized void setConnectionBurst(int v) {
+        Limits l = limits;
+        update(new Limits(l.connectionsPerSecond(), v, l.bytesPerSecond(), l.byteBurst(), l.maxPerPeer(), l.globalBytesPerSecond(), l.allow(), l.deny()));
+    }
+
+    @Override
+    public long getBytesPerSecond() { return limits.bytesPerSecond(); }
+
+    @Override
+    public synchronized void setBytesPerSecond(long v) {
+        Limits l = limits;
+        update(new Limits(l.connectionsPerSecond(), l.connectionBurst(), v, l.byteBurst(), l.maxPerPeer(), l.globalBytesPerSecond(), l.allow(), l.deny()));
+    }
+
+    @Override
+    public long getByteBurst() { return limits.byteBurst(); }
+
+    @Override
+    public synchronized void setByteBurst(long v) {
+        Limits l = limits;
+        update(new Limits(l.connectionsPerSecond(), l.connectionBurst(), l.bytesPerSecond(), v, l.maxPerPeer(), l.globalBytesPerSecond(), l.allow(), l.deny()));
+    }
+
+    @Override
+    public int getMaxPerPeer() { return limits.maxPerPeer(); }
+
+    @Override
+    public synchronized void setMaxPerPeer(int v) {
+        Limits l = limits;
+        update(new Limits(l.connectionsPerSecond(), l.connectionBurst(), l.bytesPerSecond(), l.byteBurst(), v, l.globalBytesPerSecond(), l.allow(), l.deny()));
+    }
+
+    @Override
+    public long getGlobalBytesPerSecond() { return limits.globalBytesPerSecond(); }
+
+    @Override
+    public synchronized void setGlobalBytesPerSecond(long v) {
+        Limits l = limits;
+        update(new Limits(l.connectionsPerSecond(), l.connectionBurst(), l.bytesPerSecond(), l.byteBurst(), l.maxPerPeer(), v, l.allow(), l.deny()));
+    }
+
+    @Override
+    public List<String> getAllowed() { return limits.allow().stream().sorted().toList(); }
+
+    @Override
+    public List<String> getDenied() { return limits.deny().stream().sorted().toList(); }
+
+    @Override
+    public synchronized void allow(String peer) { lists(peer, true, true); }
+
+    @Override
+    public synchronized void disallow(String peer) { lists(peer, true, false); }
+
+    @Override
+    public synchronized void deny(String peer) { lists(peer, false, true); }
+
+    @Override
+    public synchronized void undeny(String peer) { lists(peer, false, false); }
+
+    private void lists(String peer, boolean allowList, boolean add) {
+        Limits l = limits;
+        Set<String> set = new HashSet<>(allowList ? l.allow() : l.deny());
+        if (add) set.add(keyOf(peer)); else set.remove(keyOf(peer));
+        update(new Limits(l.connectionsPerSecond(), l.connectionBurst(), l.bytesPerSecond(), l.byteBurst(), l.maxPerPeer(),
+                l.globalBytesPerSecond(), allowList ? set : l.allow(), allowList ? l.deny() : set));
+    }
+
+    @Override
+    public int getTrackedPeers() { return peers.size(); }
+
+}
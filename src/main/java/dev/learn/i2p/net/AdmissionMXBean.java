@@ -0,0 +1,49 @@
+package dev.learn.i2p.net;
+
+import java.util.List;
+
+/**
+ * JMX-управление {@link Admission}: {@code dev.learn.i2p:type=Admission}. Изменения применяются сразу,
+ * в том числе к уже известным пирам; 0 в лимите — без ограничения.
+ */
+public interface AdmissionMXBean {
+
+    double getConnectionsPerSecond();
+
+    void setConnectionsPerSecond(double v);
+
+    int getConnectionBurst();
+
+    void setConnectionBurst(int v);
+
+    long getBytesPerSecond();
+
+    void setBytesPerSecond(long v);
+
+    long getByteBurst();
+
+    void setByteBurst(long v);
+
+    int getMaxPerPeer();
+
+    void setMaxPerPeer(int v);
+
+    long getGlobalBytesPerSecond();
+
+    void setGlobalBytesPerSecond(long v);
+
+    List<String> getAllowed();
+
+    List<String> getDenied();
+
+    void allow(String peer);
+
+    void disallow(String peer);
+
+    void deny(String peer);
+
+    void undeny(String peer);
+
+    /** Сколько пиров сейчас отслеживается (корзины в памяти). */
+    int getTrackedPeers();
+}
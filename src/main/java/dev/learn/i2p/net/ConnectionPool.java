@@ -0,0 +1,258 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.core.Config;
+import net.i2p.I2PException;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.data.Destination;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Пул исходящих I2P-стримов по адресату (ключ — b32).
+ * <p>
+ * Новый стрим в I2P стоит нескольких RTT по туннелям, поэтому для протоколов, умеющих
+ * передавать несколько сообщений по одному стриму (см. {@link dev.learn.i2p.proto.MessengerProtocol#reusesStreams()}),
+ * живые сокеты возвращаются сюда и переиспользуются.
+ * <ul>
+ *   <li>maxPerPeer — сколько сокетов (занятых + свободных) может быть открыто к одному адресату;
+ *       при исчерпании {@link #borrow} ждёт освобождения не дольше borrowTimeout;</li>
+ *   <li>idleTimeout — свободный сокет старше этого закрывается фоновой чисткой; адресат, к которому
+ *       не осталось ни одного сокета, она же убирает из пула;</li>
+ *   <li>health check — закрытые сокеты и просроченные при выдаче отбрасываются.</li>
+ * </ul>
+ */
+public final class ConnectionPool implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionPool.class);
+
+    public static final int DEFAULT_MAX_PER_PEER = 2;
+    public static final Duration DEFAULT_IDLE_TIMEOUT = Duration.ofSeconds(60);
+    public static final Duration DEFAULT_BORROW_TIMEOUT = Duration.ofSeconds(30);
+
+    /** Как открыть новый стрим к адресату (обычно {@code mgr::connect}). */
+    @FunctionalInterface
+    public interface Connector {
+        I2PSocket connect(Destination dest) throws I2PException, IOException;
+    }
+
+    /** Выданный из пула сокет; fresh=false — сокет уже использовался (мог "протухнуть" у пира). */
+    public record Lease(String key, I2PSocket socket, boolean fresh) {}
+
+    private record Idle(I2PSocket socket, long sinceNanos) {}
+
+    /** Состояние по одному адресату; все поля — под монитором самого объекта. */
+    private static final class Slot {
+        final ArrayDeque<Idle> idle = new ArrayDeque<>();
+        int open; // занятые + свободные
+        boolean retired; // убран чисткой из slots — взявший его до этого берёт новый
+    }
+
+    private final Connector connector;
+    private final int maxPerPeer;
+    private final long idleTimeoutNanos;
+    private final long borrowTimeoutNanos;
+    /** Один поток чистки на все пулы процесса: у каждого профиля свой пул, но не свой поток. */
+    private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "i2p-pool-evictor");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Map<String, Slot> slots = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> eviction;
+    private volatile boolean closed;
+
+    private final AtomicLong connects = new AtomicLong();
+    private final AtomicLong reuses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ConnectionPool(Connector connector, int maxPerPeer, Duration idleTimeout, Duration borrowTimeout) {
+        if (connector == null) throw new IllegalArgumentException("connector must not be null");
+        if (maxPerPeer <= 0) throw new IllegalArgumentException("maxPerPeer must be > 0: " + maxPerPeer);
+        this.connector = connector;
+        this.maxPerPeer = maxPerPeer;
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.borrowTimeoutNanos = borrowTimeout.toNanos();
+
+        long period = Math.max(1, idleTimeout.toMillis() / 2);
+        this.eviction = EVICTOR.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Конфиг из sysprops/env:
+     *  - i2p.messenger.pool.maxPerPeer = 2
+     *  - i2p.messenger.pool.idleMs = 60000
+     */
+    public static ConnectionPool fromSystemProps(Connector connector) {
+        int max = Integer.parseInt(Config.get("i2p.messenger.pool.maxPerPeer", String.valueOf(DEFAULT_MAX_PER_PEER)));
+        long idleMs = Long.parseLong(Config.get("i2p.messenger.pool.idleMs",
+                String.valueOf(DEFAULT_IDLE_TIMEOUT.toMillis())));
+        return new ConnectionPool(connector, max, Duration.ofMillis(idleMs), DEFAULT_BORROW_TIMEOUT);
+    }
+
+    /** Взять живой сокет к dest: свободный из пула или новый (если не превышен maxPerPeer). */
+    public Lease borrow(Destination dest) throws I2PException, IOException {
+        if (closed) throw new IOException("Connection pool is closed");
+        String key = I2PTransport.toB32(dest);
+        long deadline = System.nanoTime() + borrowTimeoutNanos;
+        Slot slot;
+        acquire:
+        while (true) {
+            slot = slots.computeIfAbsent(key, k -> new Slot());
+            synchronized (slot) {
+                if (slot.retired) continue; // чистка убрала пустой слот между поиском и монитором
+                while (true) {
+                    Idle i;
+                    while ((i = slot.idle.pollLast()) != null) { // LIFO: самый "тёплый" сокет
+                        if (healthy(i, System.nanoTime())) {
+                            reuses.incrementAndGet();
+                            return new Lease(key, i.socket(), false);
+                        }
+                        slot.open--;
+                        closeQuietly(i.socket());
+                    }
+                    if (slot.open < maxPerPeer) {
+                        slot.open++;
+                        break acquire;
+                    }
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) throw new IOException("Connection pool exhausted for " + key
+                            + " (maxPerPeer=" + maxPerPeer + ")");
+                    try {
+                        TimeUnit.NANOSECONDS.timedWait(slot, left);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new java.io.InterruptedIOException("Interrupted while waiting for pooled connection");
+                    }
+                    if (closed) throw new IOException("Connection pool is closed");
+                }
+            }
+        }
+
+        // connect — вне монитора: это долго, остальные адресаты и release() не должны ждать
+        boolean ok = false;
+        try {
+            I2PSocket s = connector.connect(dest);
+            if (s == null) throw new IOException("Connector returned null socket for " + key);
+            connects.incrementAndGet();
+            ok = true;
+            return new Lease(key, s, true);
+        } finally {
+            if (!ok) forget(slot);
+        }
+    }
+
+    /** Вернуть сокет: reusable=true — в пул, иначе закрыть. */
+    public void release(Lease lease, boolean reusable) {
+        Slot slot = slots.get(lease.key());
+        if (slot == null) {
+            closeQuietly(lease.socket());
+            return;
+        }
+        if (reusable && !closed && !lease.socket().isClosed()) {
+            synchronized (slot) {
+                slot.idle.addLast(new Idle(lease.socket(), System.nanoTime()));
+                slot.notifyAll();
+            }
+        } else {
+            closeQuietly(lease.socket());
+            forget(slot);
+        }
+    }
+
+    private void forget(Slot slot) {
+        synchronized (slot) {
+            slot.open--;
+            slot.notifyAll();
+        }
+    }
+
+    private boolean healthy(Idle i, long now) {
+        return !i.socket().isClosed() && now - i.sinceNanos() < idleTimeoutNanos;
+    }
+
+    /**
+     * Фоновая чистка: закрываем протухшие свободные сокеты и убираем адресатов без сокетов — иначе
+     * slots растёт на каждого, кому когда-либо писали.
+     */
+    void evictIdle() {
+        long now = System.nanoTime();
+        for (Map.Entry<String, Slot> e : slots.entrySet()) {
+            Slot slot = e.getValue();
+            List<I2PSocket> dead = new ArrayList<>();
+            synchronized (slot) {
+                slot.idle.removeIf(i -> {
+                    if (healthy(i, now)) return false;
+                    dead.add(i.socket());
+                    slot.open--;
+                    return true;
+                });
+                if (!dead.isEmpty()) slot.notifyAll();
+                if (slot.open == 0 && slot.idle.isEmpty()) {
+                    slot.retired = true;
+                    slots.remove(e.getKey(), slot);
+                }
+            }
+            if (!dead.isEmpty()) {
+                evictions.addAndGet(dead.size());
+                log.debug("Evicted {} idle connection(s) to {}", dead.size(), e.getKey());
+                dead.forEach(ConnectionPool::closeQuietly);
+            }
+        }
+    }
+
+    /** Сколько сокетов (занятых + свободных) открыто к адресату. */
+    public int openCount(String key) {
+        Slot slot = slots.get(key);
+        if (slot == null) return 0;
+        synchronized (slot) {
+            return slot.open;
+        }
+    }
+
+    /** Сколько адресатов сейчас в пуле. */
+    int peerCount() {
+        return slots.size();
+    }
+
+    public long connects() { return connects.get(); }
+
+    public long reuses() { return reuses.get(); }
+
+    public long evictions() { return evictions.get(); }
+
+    @Override
+    public void close() {
+        closed = true;
+        eviction.cancel(false);
+        for (Slot slot : slots.values()) {
+            synchronized (slot) {
+                for (Idle i : slot.idle) closeQuietly(i.socket());
+                slot.open -= slot.idle.size();
+                slot.idle.clear();
+                slot.notifyAll();
+            }
+        }
+    }
+
+    private static void closeQuietly(I2PSocket s) {
+        try {
+            s.close();
+        } catch (IOException ignore) {
+            // best-effort
+        }
+    }
+}
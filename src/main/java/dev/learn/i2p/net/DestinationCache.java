@@ -0,0 +1,206 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.core.Config;
+import dev.learn.i2p.core.Metrics;
+import net.i2p.I2PAppContext;
+import net.i2p.data.Destination;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Кэш резолва имён (.b32.i2p / .i2p → Destination) поверх NamingService.
+ * <p>
+ * Для .b32 lookup может означать запрос LeaseSet по сети, поэтому:
+ * <ul>
+ *   <li>ограниченный LRU с TTL для найденных адресов;</li>
+ *   <li>отрицательный кэш (не найдено) с коротким TTL — чтобы не долбить сеть опечатками;</li>
+ *   <li>single-flight: параллельные резолвы одного имени ждут один общий lookup;</li>
+ *   <li>{@link #prefetch(Collection)} — прогрев по известному списку контактов.</li>
+ * </ul>
+ */
+public final class DestinationCache {
+    private static final Logger log = LoggerFactory.getLogger(DestinationCache.class);
+
+    public static final int DEFAULT_MAX_ENTRIES = 1024;
+    public static final Duration DEFAULT_TTL = Duration.ofMinutes(10);
+    public static final Duration DEFAULT_NEGATIVE_TTL = Duration.ofSeconds(30);
+
+    /** Источник истины; null — имя не найдено. */
+    @FunctionalInterface
+    public interface Lookup {
+        Destination lookup(String host);
+    }
+
+    private record Entry(Destination dest, long expiresAtNanos) {}
+
+    private static final Executor PREFETCH = task -> Thread.ofVirtual().name("i2p-prefetch").start(task);
+
+    private static volatile DestinationCache shared;
+
+    private final Lookup lookup;
+    private final Duration ttl;
+    private final Duration negativeTtl;
+    private final LongSupplier clock;
+    private final Map<String, Entry> entries;
+    private final ConcurrentHashMap<String, CompletableFuture<Destination>> inflight = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder lookups = new LongAdder();
+
+    public DestinationCache(Lookup lookup, int maxEntries, Duration ttl, Duration negativeTtl) {
+        this(lookup, maxEntries, ttl, negativeTtl, System::nanoTime);
+    }
+
+    DestinationCache(Lookup lookup, int maxEntries, Duration ttl, Duration negativeTtl, LongSupplier clock) {
+        if (lookup == null) throw new IllegalArgumentException("lookup must not be null");
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries must be > 0: " + maxEntries);
+        this.lookup = lookup;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.clock = clock;
+        // access-order LRU; доступ — под монитором самой карты
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Общий на процесс кэш поверх глобального NamingService (он тоже один на процесс).
+     * Параметры из sysprops/env:
+     *  - i2p.messenger.names.maxEntries = 1024
+     *  - i2p.messenger.names.ttlMs = 600000
+     *  - i2p.messenger.names.negativeTtlMs = 30000
+     */
+    public static DestinationCache shared() {
+        DestinationCache c = shared;
+        if (c == null) {
+            synchronized (DestinationCache.class) {
+                c = shared;
+                if (c == null) {
+                    c = new DestinationCache(
+                            host -> I2PAppContext.getGlobalContext().namingService().lookup(host),
+                            Integer.parseInt(Config.get("i2p.messenger.names.maxEntries", String.valueOf(DEFAULT_MAX_ENTRIES))),
+                            Duration.ofMillis(Long.parseLong(Config.get("i2p.messenger.names.ttlMs",
+                                    String.valueOf(DEFAULT_TTL.toMillis())))),
+                            Duration.ofMillis(Long.parseLong(Config.get("i2p.messenger.names.negativeTtlMs",
+                                    String.valueOf(DEFAULT_NEGATIVE_TTL.toMillis())))));
+                    shared = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    /** Destination для имени или null, если не найдено (в т.ч. из отрицательного кэша). */
+    public Destination resolve(String host) {
+        if (host == null || host.isBlank()) return null;
+        String key = host.trim().toLowerCase(Locale.ROOT);
+
+        Entry e = fresh(key);
+        if (e != null) {
+            hits.increment();
+            return e.dest();
+        }
+        misses.increment();
+
+        CompletableFuture<Destination> mine = new CompletableFuture<>();
+        CompletableFuture<Destination> running = inflight.putIfAbsent(key, mine);
+        if (running != null) return await(running); // кто-то уже резолвит — ждём его
+
+        try {
+            // пока брали "билет", предыдущий lookup мог успеть положить результат
+            e = fresh(key);
+            Destination d;
+            if (e != null) {
+                d = e.dest();
+            } else {
+                lookups.increment();
+                long t0 = System.nanoTime();
+                try {
+                    d = lookup.lookup(host.trim());
+                } catch (RuntimeException ex) {
+                    Metrics.shared().error(Metrics.Stage.LOOKUP, ex);
+                    throw ex;
+                } finally {
+                    Metrics.shared().lookedUp(System.nanoTime() - t0);
+                }
+                long life = (d != null ? ttl : negativeTtl).toNanos();
+                synchronized (entries) {
+                    entries.put(key, new Entry(d, clock.getAsLong() + life));
+                }
+                log.debug("Resolved {} -> {}", key, d != null ? "found" : "not found");
+            }
+            mine.complete(d);
+            return d;
+        } catch (RuntimeException ex) {
+            mine.completeExceptionally(ex);
+            throw ex;
+        } finally {
+            inflight.remove(key, mine);
+        }
+    }
+
+    private Entry fresh(String key) {
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            if (e == null) return null;
+            if (e.expiresAtNanos() - clock.getAsLong() > 0) return e;
+            entries.remove(key);
+            return null;
+        }
+    }
+
+    private static Destination await(CompletableFuture<Destination> f) {
+        try {
+            return f.join();
+        } catch (CompletionException ce) {
+            if (ce.getCause() instanceof RuntimeException re) throw re;
+            throw ce;
+        }
+    }
+
+    /** Фоновый резолв списка контактов; future завершается, когда все имена в кэше. */
+    public CompletableFuture<Void> prefetch(Collection<String> hosts) {
+        CompletableFuture<?>[] all = hosts.stream()
+                .map(h -> CompletableFuture.runAsync(() -> resolve(h), PREFETCH))
+                .toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(all);
+    }
+
+    /** Забыть имя (например, после неудачного connect к устаревшему адресу). */
+    public void invalidate(String host) {
+        if (host == null) return;
+        synchronized (entries) {
+            entries.remove(host.trim().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hits() { return hits.sum(); }
+
+    public long misses() { return misses.sum(); }
+
+    /** Сколько реальных обращений к NamingService было сделано. */
+    public long lookups() { return lookups.sum(); }
+}
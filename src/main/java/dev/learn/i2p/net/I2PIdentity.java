@@ -8,9 +8,14 @@ package dev.learn.i2p.net;
 import dev.learn.i2p.core.Messenger;
 import net.i2p.client.I2PClient;
 import net.i2p.client.I2PClientFactory;
+import net.i2p.data.DataFormatException;
+import net.i2p.data.Destination;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -38,6 +43,20 @@ public final class I2PIdentity {
         log.info("New I2P identity created: {}", file.toAbsolutePath());
     }
 
+    /**
+     * Свой b32 прямо из файла ключей, без роутера: файл начинается с Destination (за ним — приватные
+     * ключи, они не нужны), b32 — base32 от его SHA-256.
+     */
+    public static String b32(Path file) throws IOException {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(file))) {
+            Destination d = new Destination();
+            d.readBytes(in);
+            return I2PTransport.toB32(d);
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt I2P key file " + file + ": " + e.getMessage(), e);
+        }
+    }
+
 }
 
 /*
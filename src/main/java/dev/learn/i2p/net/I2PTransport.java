@@ -1,6 +1,5 @@
 package dev.learn.i2p.net;
 
-import net.i2p.I2PAppContext;
 import net.i2p.I2PException;
 import net.i2p.client.streaming.I2PServerSocket;
 import net.i2p.client.streaming.I2PSocket;
@@ -12,23 +11,31 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.MDC;
 
-import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InterruptedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collection;
 import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
 
 import dev.learn.i2p.core.Constants;
+import dev.learn.i2p.core.FlightEvents;
+import dev.learn.i2p.core.Metrics;
 
 /**
- * Транспортный слой I2P: создаёт/держит I2PSocketManager и даёт простые API:
- *  - myB32() — вернуть свой b32
+ * Транспортный слой I2P ({@link Transport} поверх I2P-роутера): создаёт/держит I2PSocketManager и даёт простые API:
+ *  - myB32() / myAddress() — вернуть свой b32
  *  - acceptLoop(handler) — блокирующий цикл входящих соединений
- *  - withConnection(b32, handler) — клиентское соединение к b32
+ *    (обработка — через {@link InboundDispatcher}: по умолчанию виртуальный поток на соединение)
+ *  - withConnection(b32, handler) — клиентское соединение к b32 (новый стрим на каждую операцию)
+ *  - withReusableConnection(b32, handler) — то же через {@link ConnectionPool}, для протоколов,
+ *    которые умеют несколько сообщений на стрим
+ * Имена резолвятся через {@link DestinationCache} (по умолчанию — общий на процесс).
  */
-public record I2PTransport(I2PSocketManager mgr) implements Closeable {
+public record I2PTransport(I2PSocketManager mgr, InboundDispatcher inbound, ConnectionPool pool,
+                           DestinationCache names) implements Transport {
 
     private static final Logger log = LoggerFactory.getLogger(I2PTransport.class);
 
@@ -36,6 +43,9 @@ public record I2PTransport(I2PSocketManager mgr) implements Closeable {
         if (mgr == null) {
             throw new IllegalStateException("I2PSocketManager is null. Cannot connect to I2P router via I2CP.");
         }
+        if (inbound == null) inbound = InboundDispatcher.fromSystemProps();
+        if (pool == null) pool = ConnectionPool.fromSystemProps(mgr::connect);
+        if (names == null) names = DestinationCache.shared();
         try {
             Destination d = mgr.getSession().getMyDestination();
             log.info("I2PSocketManager initialized. Local address: {}", toB32(d));
@@ -44,8 +54,18 @@ public record I2PTransport(I2PSocketManager mgr) implements Closeable {
         }
     }
 
+    /** Транспорт с диспетчером входящих, пулом и кэшем имён по умолчанию. */
+    public I2PTransport(I2PSocketManager mgr) {
+        this(mgr, null, null, null);
+    }
+
     /** Создать транспорт, используя ключи из keyFile и I2CP-хост/порт из системных свойств/переменных окружения. */
     public static I2PTransport connectDefault(Path keyFile) throws Exception {
+        return connect(keyFile, null);
+    }
+
+    /** То же со своим диспетчером входящих (null — по настройкам); так профили одного процесса делят пул потоков. */
+    public static I2PTransport connect(Path keyFile, InboundDispatcher inbound) throws Exception {
         dev.learn.i2p.net.I2PIdentity.ensure(keyFile);
 
         String host = System.getProperty("i2p.i2cp.host",
@@ -66,7 +86,7 @@ public record I2PTransport(I2PSocketManager mgr) implements Closeable {
                         + "Is the router running and I2CP enabled?");
             }
             log.info("I2PSocketManager created successfully.");
-            return new I2PTransport(m);
+            return new I2PTransport(m, inbound, null, null);
         }
     }
 
@@ -76,54 +96,80 @@ public record I2PTransport(I2PSocketManager mgr) implements Closeable {
         return toB32(d);
     }
 
-    /** Блокирующий цикл accept с корректным закрытием сокета. */
+    @Override
+    public String myAddress() {
+        return myB32();
+    }
+
+    @Override
+    public CompletableFuture<Void> prefetch(Collection<String> addresses) {
+        return names.prefetch(addresses);
+    }
+
+    /**
+     * Блокирующий цикл accept. Каждое соединение отдаётся {@link InboundDispatcher}:
+     * при достижении лимита цикл ждёт свободный слот, прежде чем принять следующее.
+     */
+    @Override
     public void acceptLoop(SocketConsumer handler) {
         I2PServerSocket server = mgr.getServerSocket();
         System.out.println("Listening on: " + myB32());
-        log.info("Listening on {}", myB32());
-
-        while (!Thread.currentThread().isInterrupted()) {
-            try (I2PSocket socket = server.accept()) { // может бросить I2PException
-                // ← симметрично ставим таймаут на входящее соединение
-                socket.setReadTimeout(Constants.READ_TIMEOUT_MS);
+        log.info("Listening on {} (accept mode={}, maxConcurrent={})", myB32(),
+                inbound.isInline() ? "inline" : "concurrent", inbound.maxConcurrent());
 
-                Destination peer = socket.getPeerDestination();
-                String peerB32 = (peer != null) ? toB32(peer) : "<unknown>";
-                MDC.put("peer", "[" + peerB32 + "]");
-                log.info("Inbound connection accepted from {} (readTimeout={} ms)",
-                        peerB32, Constants.READ_TIMEOUT_MS);
+        while (!Thread.currentThread().isInterrupted() && !inbound.isClosed()) {
+            try {
+                inbound.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
 
-                try {
-                    handler.accept(socket);
-                    log.debug("Inbound connection from {} handled.", peerB32);
-                } catch (InterruptedIOException e) {
-                    log.warn("Read timed out after {} ms while talking to {}: {}",
-                            Constants.READ_TIMEOUT_MS, peerB32, e.getMessage());
-                    throw e;
-                }
+            I2PSocket socket;
+            try {
+                socket = server.accept(); // может бросить I2PException
             } catch (I2PException | IOException e) {
+                inbound.release();
+                if (inbound.isClosed()) break;
+                Metrics.shared().error(Metrics.Stage.ACCEPT, e);
                 // логируем и продолжаем; при желании можно добавить backoff
                 log.warn("Accept failed: {}: {}", e.getClass().getSimpleName(), e.getMessage(), e);
-            } finally {
-                MDC.remove("peer");
+                continue;
+            }
+            if (socket == null) {
+                inbound.release();
+                continue;
             }
+            Metrics.shared().accepted();
+
+            try {
+                inbound.dispatch(PeerStream.of(socket), handler);
+            } catch (RuntimeException e) {
+                log.warn("Inbound connection rejected: {}", e.toString());
+                closeQuietly(socket);
+            }
+        }
+        log.info("Accept loop stopped.");
+    }
+
+    private static void closeQuietly(I2PSocket s) {
+        try {
+            s.close();
+        } catch (IOException ignore) {
+            // best-effort
         }
     }
 
     /** Клиентское соединение к destB32 и выполнение операции; I2PException оборачиваем в IOException. */
+    @Override
     public void withConnection(String destB32, SocketConsumer op) throws IOException {
-        log.info("Resolving destination: {}", destB32);
-        Destination dest = I2PAppContext.getGlobalContext().namingService().lookup(destB32);
-        if (dest == null) {
-            log.error("Unknown I2P host: {}", destB32);
-            throw new IOException("Unknown I2P host: " + destB32);
-        }
+        Destination dest = resolve(destB32);
 
         String peerB32 = toB32(dest);
         MDC.put("peer", "[" + peerB32 + "]");
         log.info("Connecting to {}", peerB32);
 
-        try (I2PSocket s = mgr.connect(dest)) {
+        try (PeerStream s = MeteredStream.outbound(PeerStream.of(connect(dest)))) {
             s.setReadTimeout(Constants.READ_TIMEOUT_MS); // клиентский таймаут
             log.debug("Connected to {}. Read timeout={} ms. Executing operation...",
                     peerB32, Constants.READ_TIMEOUT_MS);
@@ -142,8 +188,94 @@ public record I2PTransport(I2PSocketManager mgr) implements Closeable {
         }
     }
 
+    /**
+     * Как {@link #withConnection}, но сокет берётся из {@link ConnectionPool} и после успешной
+     * операции возвращается туда же. Операция НЕ должна закрывать потоки сокета.
+     * Если упал уже использованный сокет (пир мог закрыть его, пока он лежал в пуле) и операция
+     * ещё ничего в него не записала — одна повторная попытка на свежем стриме. Записанное могло
+     * дойти (например, таймаут на ожидании ACK), и повтор доставил бы сообщение дважды — такая
+     * ошибка уходит вызывающему.
+     */
+    @Override
+    public void withReusableConnection(String destB32, SocketConsumer op) throws IOException {
+        Destination dest = resolve(destB32);
+
+        String peerB32 = toB32(dest);
+        MDC.put("peer", "[" + peerB32 + "]");
+        try {
+            for (int attempt = 0; ; attempt++) {
+                ConnectionPool.Lease lease = borrow(dest);
+                log.debug("Using {} connection to {}", lease.fresh() ? "new" : "pooled", peerB32);
+                boolean ok = false;
+                MeteredStream stream = MeteredStream.outbound(PeerStream.of(lease.socket()));
+                try {
+                    lease.socket().setReadTimeout(Constants.READ_TIMEOUT_MS);
+                    op.accept(stream);
+                    ok = true;
+                    log.debug("Operation on {} completed.", peerB32);
+                    return;
+                } catch (IOException e) {
+                    if (lease.fresh() || attempt > 0 || stream.sent() > 0) throw e;
+                    log.debug("Pooled connection to {} is stale ({}), retrying on a new one", peerB32, e.toString());
+                } finally {
+                    stream.release();
+                    pool.release(lease, ok);
+                }
+            }
+        } catch (InterruptedIOException e) {
+            log.warn("Read timed out after {} ms while talking to {}: {}",
+                    Constants.READ_TIMEOUT_MS, peerB32, e.getMessage());
+            throw e;
+        } catch (I2PException e) {
+            log.error("I2P connect failed: {}", e.getMessage(), e);
+            throw new IOException("I2P connect failed: " + e.getMessage(), e);
+        } finally {
+            MDC.remove("peer");
+        }
+    }
+
+    private Destination resolve(String destB32) throws IOException {
+        log.debug("Resolving destination: {}", destB32);
+        FlightEvents.Lookup event = new FlightEvents.Lookup();
+        event.begin();
+        Destination dest = names.resolve(destB32);
+        if (event.shouldCommit()) {
+            event.host = destB32;
+            event.found = dest != null;
+            event.commit();
+        }
+        if (dest == null) {
+            log.error("Unknown I2P host: {}", destB32);
+            IOException e = new IOException("Unknown I2P host: " + destB32);
+            Metrics.shared().error(Metrics.Stage.LOOKUP, e);
+            throw e;
+        }
+        return dest;
+    }
+
+    private I2PSocket connect(Destination dest) throws I2PException, IOException {
+        try {
+            return mgr.connect(dest);
+        } catch (I2PException | IOException | RuntimeException e) {
+            Metrics.shared().error(Metrics.Stage.CONNECT, e);
+            throw e;
+        }
+    }
+
+    private ConnectionPool.Lease borrow(Destination dest) throws I2PException, IOException {
+        try {
+            return pool.borrow(dest);
+        } catch (I2PException | IOException | RuntimeException e) {
+            Metrics.shared().error(Metrics.Stage.CONNECT, e);
+            throw e;
+        }
+    }
+
     @Override
     public void close() {
+        // сначала дожидаемся текущих входящих (drain), потом рвём сессию
+        inbound.close();
+        pool.close();
         try {
             mgr.destroySocketManager();
             log.info("I2PSocketManager destroyed.");
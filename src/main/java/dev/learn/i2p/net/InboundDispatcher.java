@@ -0,0 +1,274 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.core.Config;
+import dev.learn.i2p.core.Constants;
+import dev.learn.i2p.core.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Duration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Диспетчер входящих соединений для {@link Transport#acceptLoop(SocketConsumer)}.
+ * <p>
+ * Режимы:
+ *  - inline — обработчик выполняется прямо в цикле accept (старое поведение, одно соединение за раз);
+ *  - virtual — каждое соединение на своём виртуальном потоке;
+ *  - executor — на переданном извне пуле.
+ * <p>
+ * Ограничение одновременных соединений — через семафор: цикл accept берёт разрешение
+ * ДО следующего {@code accept()}, поэтому при достижении лимита новые соединения просто
+ * не принимаются (backpressure), пока не освободится слот.
+ * {@link #close()} перестаёт принимать задачи и ждёт завершения текущих (drain).
+ * <p>
+ * Перед запуском обработчика соединение проходит {@link Admission} (если задан; из sysprops — общий):
+ * отклонённое закрывается прямо в цикле accept.
+ */
+public final class InboundDispatcher implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(InboundDispatcher.class);
+
+    public static final int DEFAULT_MAX_CONCURRENT = 256;
+    public static final Duration DEFAULT_DRAIN_TIMEOUT = Duration.ofSeconds(30);
+
+    private final ExecutorService executor; // null => inline
+    private final boolean ownsExecutor;
+    private final Semaphore permits;
+    private final int maxConcurrent;
+    private final Duration drainTimeout;
+    private final Admission admission; // null => без проверок
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private final AtomicInteger running = new AtomicInteger(); // задачи в пуле: их ждёт close() общего пула
+
+    private InboundDispatcher(ExecutorService executor, int maxConcurrent, Duration drainTimeout, Admission admission) {
+        this(executor, true, maxConcurrent, drainTimeout, admission);
+    }
+
+    private InboundDispatcher(ExecutorService executor, boolean ownsExecutor, int maxConcurrent, Duration drainTimeout,
+                              Admission admission) {
+        if (maxConcurrent <= 0) throw new IllegalArgumentException("maxConcurrent must be > 0: " + maxConcurrent);
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+        this.admission = admission;
+        this.maxConcurrent = maxConcurrent;
+        this.permits = new Semaphore(maxConcurrent);
+        this.drainTimeout = drainTimeout != null ? drainTimeout : DEFAULT_DRAIN_TIMEOUT;
+    }
+
+    /** Старое поведение: обработчик в потоке цикла accept. */
+    public static InboundDispatcher inline() {
+        return new InboundDispatcher(null, 1, Duration.ZERO, null);
+    }
+
+    /** Виртуальный поток на соединение, не более maxConcurrent одновременно. */
+    public static InboundDispatcher virtualThreads(int maxConcurrent) {
+        return virtualThreads(maxConcurrent, null);
+    }
+
+    /** То же, с допуском входящих через admission (null — без проверок). */
+    public static InboundDispatcher virtualThreads(int maxConcurrent, Admission admission) {
+        return new InboundDispatcher(
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("i2p-inbound-", 0).factory()),
+                maxConcurrent, DEFAULT_DRAIN_TIMEOUT, admission);
+    }
+
+    /** Внешний пул; владение переходит диспетчеру (он его и закроет). */
+    public static InboundDispatcher onExecutor(ExecutorService executor, int maxConcurrent, Duration drainTimeout) {
+        if (executor == null) throw new IllegalArgumentException("executor must not be null");
+        return new InboundDispatcher(executor, maxConcurrent, drainTimeout, null);
+    }
+
+    /**
+     * Пул, общий для нескольких диспетчеров (профили одного процесса): у каждого свои слоты и допуск,
+     * потоки — общие. Пул остаётся у вызывающего: {@link #close()} ждёт только свои соединения.
+     */
+    public static InboundDispatcher sharing(ExecutorService executor, int maxConcurrent, Admission admission) {
+        if (executor == null) throw new IllegalArgumentException("executor must not be null");
+        return new InboundDispatcher(executor, false, maxConcurrent, DEFAULT_DRAIN_TIMEOUT, admission);
+    }
+
+    /**
+     * Конфиг из sysprops/env:
+     *  - i2p.messenger.accept.mode = virtual (по умолчанию) | inline
+     *  - i2p.messenger.accept.maxConcurrent = 256
+     * Допуск — {@link Admission#shared()} (лимиты i2p.messenger.admission.*).
+     */
+    public static InboundDispatcher fromSystemProps() {
+        String mode = Config.get("i2p.messenger.accept.mode", "virtual");
+        int max = Integer.parseInt(Config.get("i2p.messenger.accept.maxConcurrent",
+                String.valueOf(DEFAULT_MAX_CONCURRENT)));
+        if ("inline".equalsIgnoreCase(mode)) return new InboundDispatcher(null, 1, Duration.ZERO, Admission.shared());
+        return virtualThreads(max, Admission.shared());
+    }
+
+    public boolean isInline() { return executor == null; }
+
+    public boolean isClosed() { return closed.get(); }
+
+    public int maxConcurrent() { return maxConcurrent; }
+
+    /** Сколько соединений сейчас в обработке. */
+    public int active() { return maxConcurrent - permits.availablePermits(); }
+
+    /** Блокирует цикл accept, пока не появится свободный слот. */
+    public void acquire() throws InterruptedException {
+        permits.acquire();
+    }
+
+    /** Вернуть слот без запуска задачи (accept упал/вернул null). */
+    public void release() {
+        permits.release();
+    }
+
+    public Admission admission() { return admission; }
+
+    /**
+     * Допустить принятый стрим и запустить его обработку ({@link #serve}). Отказ в допуске — стрим
+     * закрывается, слот возвращается, обработчик не запускается.
+     *
+     * @return false — соединение отклонено
+     */
+    public boolean dispatch(PeerStream accepted, SocketConsumer handler) {
+        if (admission == null) {
+            dispatch(() -> serve(accepted, handler));
+            return true;
+        }
+        Admission.Ticket ticket = admission.admit(accepted.peerAddress());
+        if (ticket == null) {
+            permits.release();
+            try {
+                accepted.close();
+            } catch (IOException ignore) {
+                // best-effort
+            }
+            return false;
+        }
+        PeerStream limited = ticket.throttle(accepted);
+        try {
+            dispatch(() -> {
+                try {
+                    serve(limited, handler);
+                } finally {
+                    ticket.close();
+                }
+            });
+        } catch (RuntimeException e) {
+            ticket.close();
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Запустить обработку соединения. Слот, взятый через {@link #acquire()},
+     * освобождается после завершения задачи (в том числе при ошибке).
+     */
+    public void dispatch(Runnable task) {
+        Runnable guarded = () -> {
+            try {
+                task.run();
+            } finally {
+                permits.release();
+                if (running.decrementAndGet() == 0 && !ownsExecutor) {
+                    synchronized (running) {
+                        running.notifyAll();
+                    }
+                }
+            }
+        };
+        running.incrementAndGet();
+        if (executor == null) {
+            guarded.run();
+            return;
+        }
+        try {
+            executor.execute(guarded);
+        } catch (RuntimeException e) { // RejectedExecutionException после close()
+            running.decrementAndGet();
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Обработка одного входящего стрима — общая для всех транспортов: таймаут чтения,
+     * MDC "peer" в потоке обработчика, стрим закрывается по выходу; трафик идёт в {@link Metrics}.
+     */
+    static void serve(PeerStream accepted, SocketConsumer handler) {
+        String peer = "<unknown>";
+        try (PeerStream stream = MeteredStream.inbound(accepted)) {
+            // ← симметрично ставим таймаут на входящее соединение
+            stream.setReadTimeout(Constants.READ_TIMEOUT_MS);
+
+            String addr = stream.peerAddress();
+            peer = (addr != null) ? addr : "<unknown>";
+            MDC.put("peer", "[" + peer + "]");
+            log.info("Inbound connection accepted from {} (readTimeout={} ms)",
+                    peer, Constants.READ_TIMEOUT_MS);
+
+            handler.accept(stream);
+            log.debug("Inbound connection from {} handled.", peer);
+        } catch (InterruptedIOException e) {
+            log.warn("Read timed out after {} ms while talking to {}: {}",
+                    Constants.READ_TIMEOUT_MS, peer, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            log.warn("Inbound connection from {} failed: {}: {}",
+                    peer, e.getClass().getSimpleName(), e.getMessage(), e);
+        } finally {
+            MDC.remove("peer");
+        }
+    }
+
+    /** Перестаём принимать задачи и ждём текущие не дольше drainTimeout. */
+    @Override
+    public void close() {
+        if (!closed.compareAndSet(false, true) || executor == null) return;
+        if (!ownsExecutor) {
+            awaitOwnConnections();
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(drainTimeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                log.warn("Inbound drain timed out after {} ms, {} connection(s) still active; interrupting",
+                        drainTimeout.toMillis(), active());
+                executor.shutdownNow();
+            } else {
+                log.info("Inbound connections drained.");
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Общий пул не останавливаем: ждём только свои задачи (слот цикла accept, ждущего в accept(), не в счёт). */
+    private void awaitOwnConnections() {
+        long deadline = System.nanoTime() + drainTimeout.toNanos();
+        synchronized (running) {
+            try {
+                long left;
+                while (running.get() > 0 && (left = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(running, left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (running.get() > 0) {
+            log.warn("Inbound drain timed out after {} ms, {} connection(s) still active",
+                    drainTimeout.toMillis(), running.get());
+        } else {
+            log.info("Inbound connections drained.");
+        }
+    }
+}
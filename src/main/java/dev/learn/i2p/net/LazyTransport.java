@@ -0,0 +1,136 @@
+package dev.learn.i2p.net;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Транспорт, который подключается в фоне: подключение (для I2P — I2CP-рукопожатие и постройка туннелей,
+ * секунды) начинается сразу при создании, а вызывающий тем временем разбирает аргументы и готовит
+ * сообщение. Первая операция, которой нужна сеть, ждёт подключения; свой адрес, если он известен заранее
+ * (b32 считается из файла ключей — {@link I2PIdentity#b32}), отдаётся без ожидания.
+ * <p>
+ * Ошибка подключения всплывает в первой сетевой операции — как {@link IOException}.
+ */
+public final class LazyTransport implements Transport {
+    private static final Logger log = LoggerFactory.getLogger(LazyTransport.class);
+
+    /** Как подключиться (выполняется в фоновом потоке). */
+    @FunctionalInterface
+    public interface Connect {
+        Transport open() throws Exception;
+    }
+
+    private final String address;
+    private final CompletableFuture<Transport> connecting = new CompletableFuture<>();
+    private final long startedNanos = System.nanoTime();
+    private volatile long connectNanos = -1;
+    private final LongAdder waited = new LongAdder();
+
+    private LazyTransport(String address) {
+        this.address = address;
+    }
+
+    /**
+     * Начать подключение в фоне.
+     *
+     * @param address свой адрес, если известен без подключения; null — {@link #myAddress()} дождётся транспорта
+     */
+    public static LazyTransport start(String address, Connect connect) {
+        LazyTransport t = new LazyTransport(address);
+        // платформенный поток: клиент I2P подолгу ждёт в synchronized-блоках
+        Thread.ofPlatform().daemon().name("i2p-connect").start(() -> {
+            try {
+                Transport opened = connect.open();
+                t.connectNanos = System.nanoTime() - t.startedNanos;
+                log.debug("Transport connected in background in {} ms", t.connectNanos / 1_000_000);
+                t.connecting.complete(opened);
+            } catch (Throwable e) {
+                t.connectNanos = System.nanoTime() - t.startedNanos;
+                t.connecting.completeExceptionally(e);
+            }
+        });
+        return t;
+    }
+
+    /** Транспорт; ждёт окончания подключения. */
+    public Transport get() throws IOException {
+        long t0 = System.nanoTime();
+        try {
+            return connecting.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException io) throw io;
+            if (cause instanceof RuntimeException re) throw re;
+            if (cause instanceof Error err) throw err;
+            throw new IOException("Transport connection failed: " + cause.getMessage(), cause);
+        } finally {
+            waited.add(System.nanoTime() - t0);
+        }
+    }
+
+    /** Подключение завершено (успешно или нет). */
+    public boolean isDone() {
+        return connecting.isDone();
+    }
+
+    /** Сколько длилось подключение, мс; -1 — ещё идёт. */
+    public long connectMillis() {
+        long n = connectNanos;
+        return n < 0 ? -1 : n / 1_000_000;
+    }
+
+    /** Сколько вызывающие простояли в ожидании подключения, мс (остальное время оно шло параллельно). */
+    public long waitedMillis() {
+        return waited.sum() / 1_000_000;
+    }
+
+    @Override
+    public String myAddress() {
+        if (address != null) return address;
+        try {
+            return get().myAddress();
+        } catch (IOException e) {
+            throw new IllegalStateException("Transport is not connected: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void acceptLoop(SocketConsumer handler) {
+        Transport t;
+        try {
+            t = get();
+        } catch (IOException e) {
+            throw new IllegalStateException("Transport is not connected: " + e.getMessage(), e);
+        }
+        t.acceptLoop(handler);
+    }
+
+    @Override
+    public void withConnection(String address, SocketConsumer op) throws IOException {
+        get().withConnection(address, op);
+    }
+
+    @Override
+    public void withReusableConnection(String address, SocketConsumer op) throws IOException {
+        get().withReusableConnection(address, op);
+    }
+
+    @Override
+    public CompletableFuture<Void> prefetch(Collection<String> addresses) {
+        return connecting.thenCompose(t -> t.prefetch(addresses));
+    }
+
+    /** Закрыть транспорт; если подключение ещё идёт — закроется, как только подключится. */
+    @Override
+    public void close() {
+        connecting.whenComplete((t, e) -> {
+            if (t != null) t.close();
+        });
+    }
+}
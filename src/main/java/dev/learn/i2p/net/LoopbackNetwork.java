@@ -0,0 +1,321 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.core.Constants;
+import dev.learn.i2p.core.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-JVM сеть для бенчмарков и регрессионных тестов: полный стек Messenger/протоколов без роутера.
+ * Каждый {@link #endpoint(String)} — {@link Transport} с адресом-именем; соединения между ними
+ * идут через {@link LoopbackPipe} с задержкой, полосой и обрывами из {@link LinkProfile}.
+ * <pre>
+ * try (var net = new LoopbackNetwork(new LinkProfile(Duration.ofMillis(50), 256 * 1024, 0))) {
+ *     var bob = new Messenger(net.endpoint("bob"), new FramedProtocol(inbox), inbox);
+ *     ...
+ * }
+ * </pre>
+ */
+public final class LoopbackNetwork implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(LoopbackNetwork.class);
+
+    /** Байт в полёте на одно направление стрима (окно): больше — писатель ждёт читателя. */
+    public static final int DEFAULT_WINDOW = 1024 * 1024;
+
+    /**
+     * Свойства канала между любыми двумя endpoint'ами.
+     *
+     * @param latency        задержка в одну сторону; установка соединения стоит два latency (RTT)
+     * @param bytesPerSecond полоса каждого направления каждого стрима, 0 — без ограничения
+     * @param lossRate       вероятность обрыва соединения на каждой записи (0..1) — как потеря туннеля:
+     *                       обе стороны получают SocketException, данные в полёте пропадают
+     */
+    public record LinkProfile(Duration latency, long bytesPerSecond, double lossRate) {
+        public static final LinkProfile PERFECT = new LinkProfile(Duration.ZERO, 0, 0);
+
+        public LinkProfile {
+            if (latency == null || latency.isNegative()) latency = Duration.ZERO;
+            if (bytesPerSecond < 0) throw new IllegalArgumentException("bytesPerSecond must be >= 0: " + bytesPerSecond);
+            if (lossRate < 0 || lossRate > 1) throw new IllegalArgumentException("lossRate must be in [0, 1]: " + lossRate);
+        }
+    }
+
+    private final LinkProfile link;
+    private final int window;
+    private final Random random;
+    private final ConcurrentHashMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final LongAdder connects = new LongAdder();
+    private final LongAdder resets = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+
+    public LoopbackNetwork(LinkProfile link) {
+        this(link, DEFAULT_WINDOW, System.nanoTime());
+    }
+
+    /** seed — для воспроизводимых обрывов. */
+    public LoopbackNetwork(LinkProfile link, int window, long seed) {
+        if (window <= 0) throw new IllegalArgumentException("window must be > 0: " + window);
+        this.link = link != null ? link : LinkProfile.PERFECT;
+        this.window = window;
+        this.random = new Random(seed);
+    }
+
+    public LinkProfile link() {
+        return link;
+    }
+
+    /** Новый endpoint с адресом name и виртуальным потоком на входящее соединение. */
+    public Endpoint endpoint(String name) {
+        return endpoint(name, InboundDispatcher.virtualThreads(InboundDispatcher.DEFAULT_MAX_CONCURRENT));
+    }
+
+    public Endpoint endpoint(String name, InboundDispatcher inbound) {
+        Endpoint e = new Endpoint(name, inbound);
+        if (endpoints.putIfAbsent(name, e) != null) {
+            throw new IllegalArgumentException("Loopback address already in use: " + name);
+        }
+        return e;
+    }
+
+    /** Сколько соединений открыто за всё время. */
+    public long connects() {
+        return connects.sum();
+    }
+
+    /** Сколько соединений оборвано по lossRate. */
+    public long resets() {
+        return resets.sum();
+    }
+
+    /** Сколько байт записано во все стримы (в обе стороны). */
+    public long bytesSent() {
+        return bytesSent.sum();
+    }
+
+    @Override
+    public void close() {
+        for (Endpoint e : List.copyOf(endpoints.values())) e.close();
+    }
+
+    /** {@link Transport} одного участника сети. */
+    public final class Endpoint implements Transport {
+        private final String name;
+        private final InboundDispatcher inbound;
+        private final LinkedBlockingQueue<Stream> backlog = new LinkedBlockingQueue<>();
+        private volatile boolean closed;
+
+        private Endpoint(String name, InboundDispatcher inbound) {
+            if (name == null || name.isBlank()) throw new IllegalArgumentException("name must not be blank");
+            this.name = name;
+            this.inbound = inbound != null ? inbound : InboundDispatcher.fromSystemProps();
+        }
+
+        @Override
+        public String myAddress() {
+            return name;
+        }
+
+        /** Как у I2P/TCP: соединения, пришедшие до запуска цикла, ждут в backlog. */
+        @Override
+        public void acceptLoop(SocketConsumer handler) {
+            log.info("Loopback endpoint {} listening (accept mode={}, maxConcurrent={})", name,
+                    inbound.isInline() ? "inline" : "concurrent", inbound.maxConcurrent());
+            while (!Thread.currentThread().isInterrupted() && !closed) {
+                try {
+                    inbound.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                Stream s;
+                try {
+                    s = backlog.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    inbound.release();
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                if (s == null) {
+                    inbound.release();
+                    continue;
+                }
+                Metrics.shared().accepted();
+                try {
+                    inbound.dispatch(s, handler);
+                } catch (RuntimeException e) {
+                    log.warn("Inbound connection rejected: {}", e.toString());
+                    s.close();
+                }
+            }
+            log.info("Accept loop stopped.");
+        }
+
+        @Override
+        public void withConnection(String address, SocketConsumer op) throws IOException {
+            Endpoint target = endpoints.get(address);
+            if (target == null) throw new IOException("Unknown loopback host: " + address);
+            if (closed) throw new IOException("Endpoint " + name + " is closed");
+
+            MDC.put("peer", "[" + address + "]");
+            try {
+                sleep(link.latency().multipliedBy(2)); // SYN + SYN-ACK
+                if (target.closed) throw new ConnectException("Connection refused: " + address);
+
+                long latency = link.latency().toNanos();
+                LoopbackPipe c2s = new LoopbackPipe(latency, link.bytesPerSecond(), window);
+                LoopbackPipe s2c = new LoopbackPipe(latency, link.bytesPerSecond(), window);
+                Stream client = new Stream(address, s2c, c2s);
+                Stream server = new Stream(name, c2s, s2c);
+                connects.increment();
+                target.backlog.add(server);
+
+                try (PeerStream metered = MeteredStream.outbound(client)) {
+                    metered.setReadTimeout(Constants.READ_TIMEOUT_MS);
+                    op.accept(metered);
+                }
+            } finally {
+                MDC.remove("peer");
+            }
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            endpoints.remove(name, this);
+            inbound.close();
+            Stream s;
+            while ((s = backlog.poll()) != null) s.close();
+        }
+    }
+
+    /** Конец loopback-соединения: читает из in, пишет в out. */
+    private final class Stream implements PeerStream {
+        private final String peer;
+        private final LoopbackPipe in;
+        private final LoopbackPipe out;
+        private volatile long readTimeout;
+        private volatile boolean closed;
+
+        private final InputStream input = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                int n = read(one, 0, 1);
+                return n < 0 ? -1 : one[0] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return in.read(b, off, len, readTimeout);
+            }
+
+            @Override
+            public int available() {
+                return in.available();
+            }
+
+            @Override
+            public void close() {
+                Stream.this.close();
+            }
+        };
+
+        private final OutputStream output = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (closed) throw new IOException("Stream closed");
+                if (len == 0) return;
+                if (link.lossRate() > 0 && random.nextDouble() < link.lossRate()) {
+                    resets.increment();
+                    reset();
+                    throw new SocketException("Connection reset (loopback loss)");
+                }
+                out.write(b, off, len);
+                bytesSent.add(len);
+            }
+
+            @Override
+            public void close() {
+                Stream.this.close();
+            }
+        };
+
+        Stream(String peer, LoopbackPipe in, LoopbackPipe out) {
+            this.peer = peer;
+            this.in = in;
+            this.out = out;
+        }
+
+        private void reset() {
+            in.reset("Connection reset by peer");
+            out.reset("Connection reset by peer");
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return input;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return output;
+        }
+
+        @Override
+        public String peerAddress() {
+            return peer;
+        }
+
+        @Override
+        public void setReadTimeout(long ms) {
+            readTimeout = ms;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            out.closeWrite();
+            in.closeRead();
+        }
+    }
+
+    private static void sleep(Duration d) throws InterruptedIOException {
+        long deadline = System.nanoTime() + d.toNanos();
+        long left;
+        while ((left = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(left);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while connecting");
+            }
+        }
+    }
+}
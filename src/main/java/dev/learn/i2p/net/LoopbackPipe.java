@@ -0,0 +1,205 @@
+package dev.learn.i2p.net;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Одно направление loopback-стрима. Запись режется на сегменты, каждый получает время доставки:
+ * писатель платит только за полосу (pacing), задержка ложится на читателя — как в настоящей сети,
+ * где отправитель не ждёт, пока байты долетят. В полёте не больше window байт: при заполнении
+ * писатель ждёт (аналог TCP-окна, поэтому полоса на большой задержке упирается в window/latency).
+ */
+final class LoopbackPipe {
+    private static final int SEGMENT = 16 * 1024;
+
+    private record Segment(byte[] data, long deliverAt) {}
+
+    private final long latencyNanos;
+    private final long bytesPerSecond; // 0 — без ограничения
+    private final int window;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private int headPos;
+    private long buffered;
+    private final ReentrantLock writeLock = new ReentrantLock(); // запись целиком, без перемешивания сегментов
+    private long nextSendAt; // pacing: когда "провод" освободится; только под writeLock
+    private boolean eof;
+    private boolean readerClosed;
+    private String broken; // причина обрыва
+
+    LoopbackPipe(long latencyNanos, long bytesPerSecond, int window) {
+        this.latencyNanos = latencyNanos;
+        this.bytesPerSecond = bytesPerSecond;
+        this.window = window;
+    }
+
+    void write(byte[] b, int off, int len) throws IOException {
+        writeLock.lock();
+        try {
+            while (len > 0) {
+                int n = Math.min(len, SEGMENT);
+                long onWire = pace(n);
+                byte[] copy = new byte[n];
+                System.arraycopy(b, off, copy, 0, n);
+                enqueue(new Segment(copy, onWire + latencyNanos));
+                off += n;
+                len -= n;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /** Ждёт, пока n байт "уйдут в провод" на заданной полосе; возвращает момент окончания передачи. */
+    private long pace(int n) throws IOException {
+        long now = System.nanoTime();
+        if (bytesPerSecond <= 0) return now;
+        long start = Math.max(now, nextSendAt);
+        nextSendAt = start + n * 1_000_000_000L / bytesPerSecond;
+        long left;
+        while ((left = nextSendAt - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(left);
+            if (Thread.interrupted()) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sending");
+            }
+        }
+        return nextSendAt;
+    }
+
+    private void enqueue(Segment s) throws IOException {
+        lock.lock();
+        try {
+            while (buffered > 0 && buffered + s.data.length > window && broken == null && !readerClosed && !eof) {
+                changed.awaitUninterruptibly();
+            }
+            if (broken != null) throw new SocketException(broken);
+            if (readerClosed) throw new IOException("Broken pipe: peer closed the stream");
+            if (eof) throw new IOException("Stream closed");
+            segments.add(s);
+            buffered += s.data.length;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Блокирующее чтение: -1 после closeWrite и вычитанных данных;
+     * timeoutMs <= 0 — без таймаута, иначе {@link SocketTimeoutException}.
+     */
+    int read(byte[] b, int off, int len, long timeoutMs) throws IOException {
+        if (len == 0) return 0;
+        long deadline = timeoutMs > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs) : Long.MAX_VALUE;
+        lock.lock();
+        try {
+            while (true) {
+                if (broken != null) throw new SocketException(broken);
+                if (readerClosed) throw new IOException("Stream closed");
+                long now = System.nanoTime();
+                Segment head = segments.peek();
+                if (head != null && head.deliverAt - now <= 0) return drain(b, off, len, now);
+                if (head == null && eof) return -1;
+
+                long wait = head != null ? head.deliverAt - now : Long.MAX_VALUE;
+                if (deadline != Long.MAX_VALUE) {
+                    long left = deadline - now;
+                    if (left <= 0) throw new SocketTimeoutException("Read timed out after " + timeoutMs + " ms");
+                    wait = Math.min(wait, left);
+                }
+                try {
+                    if (wait == Long.MAX_VALUE) changed.await();
+                    else changed.awaitNanos(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while reading");
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Копирует всё доставленное к моменту now, сколько влезет. Под lock. */
+    private int drain(byte[] b, int off, int len, long now) {
+        int copied = 0;
+        Segment head;
+        while (copied < len && (head = segments.peek()) != null && head.deliverAt - now <= 0) {
+            int n = Math.min(len - copied, head.data.length - headPos);
+            System.arraycopy(head.data, headPos, b, off + copied, n);
+            copied += n;
+            headPos += n;
+            if (headPos == head.data.length) {
+                segments.poll();
+                headPos = 0;
+            }
+        }
+        buffered -= copied;
+        changed.signalAll();
+        return copied;
+    }
+
+    /** Сколько байт доставлено и ещё не прочитано (для available()). */
+    int available() {
+        lock.lock();
+        try {
+            long now = System.nanoTime();
+            long n = 0;
+            for (Segment s : segments) {
+                if (s.deliverAt - now > 0) break;
+                n += s.data.length;
+            }
+            return (int) Math.min(Integer.MAX_VALUE, n - headPos);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Писатель закончил: читатель дочитает то, что в полёте, и получит EOF. */
+    void closeWrite() {
+        lock.lock();
+        try {
+            eof = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Читатель ушёл: непрочитанное выбрасывается, запись дальше падает. */
+    void closeRead() {
+        lock.lock();
+        try {
+            readerClosed = true;
+            segments.clear();
+            buffered = 0;
+            headPos = 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Обрыв соединения: обе стороны сразу получают SocketException(reason), данные в полёте теряются. */
+    void reset(String reason) {
+        lock.lock();
+        try {
+            if (broken == null) broken = reason;
+            segments.clear();
+            buffered = 0;
+            headPos = 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
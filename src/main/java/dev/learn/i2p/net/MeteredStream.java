@@ -0,0 +1,176 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.core.FlightEvents;
+import dev.learn.i2p.core.Metrics;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * {@link PeerStream}, считающий в {@link Metrics} байты в обе стороны, активные соединения и время
+ * до первого полученного байта (от accept/connect). Обёртки потоков создаются один раз на соединение,
+ * дальше на чтение/запись — только сложения. При записи JFR — ещё {@link FlightEvents.ConnectionAccepted}
+ * и {@link FlightEvents.ConnectionClosed}.
+ */
+final class MeteredStream implements PeerStream {
+    private final PeerStream delegate;
+    private final Metrics metrics;
+    private final boolean inbound;
+    private final long openedAt = System.nanoTime();
+    private final FlightEvents.ConnectionClosed span; // null — JFR не пишет
+    private InputStream in;
+    private OutputStream out;
+    private long received;
+    private long sent;
+    private boolean firstByte;
+    private boolean released;
+
+    private MeteredStream(PeerStream delegate, Metrics metrics, boolean inbound) {
+        this.delegate = delegate;
+        this.metrics = metrics;
+        this.inbound = inbound;
+        metrics.connectionOpened();
+        if (inbound) {
+            FlightEvents.ConnectionAccepted accepted = new FlightEvents.ConnectionAccepted();
+            if (accepted.isEnabled()) {
+                accepted.peer = delegate.peerAddress();
+                accepted.commit();
+            }
+        }
+        FlightEvents.ConnectionClosed e = new FlightEvents.ConnectionClosed();
+        if (e.isEnabled()) {
+            e.begin();
+            span = e;
+        } else {
+            span = null;
+        }
+    }
+
+    static MeteredStream inbound(PeerStream s) {
+        return new MeteredStream(s, Metrics.shared(), true);
+    }
+
+    static MeteredStream outbound(PeerStream s) {
+        return new MeteredStream(s, Metrics.shared(), false);
+    }
+
+    @Override
+    public InputStream getInputStream() throws IOException {
+        InputStream raw = delegate.getInputStream();
+        if (in == null || ((Counting) in).raw() != raw) in = new Counting(raw);
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() throws IOException {
+        OutputStream raw = delegate.getOutputStream();
+        if (out == null || ((CountingOut) out).raw() != raw) out = new CountingOut(raw);
+        return out;
+    }
+
+    private void received(int n) {
+        if (n <= 0) return;
+        if (!firstByte) {
+            firstByte = true;
+            metrics.firstByte(inbound, System.nanoTime() - openedAt);
+        }
+        received += n;
+        metrics.bytesIn(n);
+    }
+
+    @Override
+    public String peerAddress() {
+        return delegate.peerAddress();
+    }
+
+    @Override
+    public void setReadTimeout(long ms) {
+        delegate.setReadTimeout(ms);
+    }
+
+    @Override
+    public boolean isClosed() {
+        return delegate.isClosed();
+    }
+
+    @Override
+    public Object identity() {
+        return delegate.identity();
+    }
+
+    /** Сколько байт отдано в сокет через эту обёртку. */
+    long sent() {
+        return sent;
+    }
+
+    /** Соединение больше не используется этим вызовом, но не закрывается (сокет вернётся в пул). */
+    void release() {
+        if (released) return;
+        released = true;
+        metrics.connectionClosed();
+        if (span != null && span.shouldCommit()) {
+            span.peer = delegate.peerAddress();
+            span.inbound = inbound;
+            span.bytesIn = received;
+            span.bytesOut = sent;
+            span.commit();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        release();
+        delegate.close();
+    }
+
+    private final class Counting extends FilterInputStream {
+        Counting(InputStream in) {
+            super(in);
+        }
+
+        InputStream raw() {
+            return in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) received(1);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            received(n);
+            return n;
+        }
+    }
+
+    private final class CountingOut extends FilterOutputStream {
+        CountingOut(OutputStream out) {
+            super(out);
+        }
+
+        OutputStream raw() {
+            return out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            sent++;
+            metrics.bytesOut(1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            sent += len;
+            metrics.bytesOut(len);
+        }
+    }
+}
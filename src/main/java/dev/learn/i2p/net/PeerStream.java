@@ -0,0 +1,124 @@
+package dev.learn.i2p.net;
+
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.data.Destination;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Двунаправленный стрим к пиру — всё, что протоколу нужно от соединения.
+ * Отвязывает протоколы от I2PSocket: тот же код работает поверх I2P, TCP и in-JVM loopback
+ * (см. {@link Transport}).
+ */
+public interface PeerStream extends Closeable {
+
+    InputStream getInputStream() throws IOException;
+
+    OutputStream getOutputStream() throws IOException;
+
+    /** Адрес пира в формате транспорта (b32 для I2P, host:port для TCP) или null, если неизвестен. */
+    String peerAddress();
+
+    void setReadTimeout(long ms);
+
+    boolean isClosed();
+
+    /**
+     * Объект, по которому протокол узнаёт "тот же стрим" между вызовами (например, отправлен ли
+     * уже preamble). Обёртки над одним сокетом должны возвращать одно и то же.
+     */
+    default Object identity() {
+        return this;
+    }
+
+    static PeerStream of(I2PSocket socket) {
+        return new PeerStream() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return socket.getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                return socket.getOutputStream();
+            }
+
+            @Override
+            public String peerAddress() {
+                try {
+                    Destination peer = socket.getPeerDestination();
+                    return peer != null ? I2PTransport.toB32(peer) : null;
+                } catch (RuntimeException ignore) {
+                    return null; // best-effort: адрес отправителя не обязателен
+                }
+            }
+
+            @Override
+            public void setReadTimeout(long ms) {
+                socket.setReadTimeout(ms);
+            }
+
+            @Override
+            public boolean isClosed() {
+                return socket.isClosed();
+            }
+
+            @Override
+            public Object identity() {
+                return socket;
+            }
+
+            @Override
+            public void close() throws IOException {
+                socket.close();
+            }
+        };
+    }
+
+    static PeerStream of(Socket socket) {
+        return new PeerStream() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return socket.getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                return socket.getOutputStream();
+            }
+
+            @Override
+            public String peerAddress() {
+                return socket.getInetAddress().getHostAddress() + ":" + socket.getPort();
+            }
+
+            @Override
+            public void setReadTimeout(long ms) {
+                try {
+                    socket.setSoTimeout((int) Math.min(ms, Integer.MAX_VALUE));
+                } catch (IOException ignore) {
+                    // сокет уже закрыт — следующее чтение всё равно упадёт
+                }
+            }
+
+            @Override
+            public boolean isClosed() {
+                return socket.isClosed();
+            }
+
+            @Override
+            public Object identity() {
+                return socket;
+            }
+
+            @Override
+            public void close() throws IOException {
+                socket.close();
+            }
+        };
+    }
+}
@@ -1,13 +1,11 @@
 package dev.learn.i2p.net;
 
-import net.i2p.client.streaming.I2PSocket;
-
 import java.io.IOException;
 
 /**
- * Функциональный интерфейс-обработчик I2P-сокета.
+ * Функциональный интерфейс-обработчик стрима к пиру (I2P, TCP или loopback — см. {@link Transport}).
  */
 @FunctionalInterface
 public interface SocketConsumer {
-    void accept(I2PSocket socket) throws IOException;
+    void accept(PeerStream stream) throws IOException;
 }
@@ -0,0 +1,154 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.core.Constants;
+import dev.learn.i2p.core.Metrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * {@link Transport} поверх обычного TCP — для прогонов и бенчмарков без I2P-роутера.
+ * Адрес — "host:port"; слушаем только loopback. Пула нет: каждая операция — новое соединение
+ * (на localhost оно почти ничего не стоит, в отличие от I2P-стрима).
+ */
+public final class TcpTransport implements Transport {
+    private static final Logger log = LoggerFactory.getLogger(TcpTransport.class);
+
+    private static final int CONNECT_TIMEOUT_MS = 10_000;
+
+    private final ServerSocket server;
+    private final InboundDispatcher inbound;
+
+    public TcpTransport(ServerSocket server, InboundDispatcher inbound) {
+        this.server = server;
+        this.inbound = inbound != null ? inbound : InboundDispatcher.fromSystemProps();
+    }
+
+    /** Слушать 127.0.0.1:port (0 — любой свободный порт). */
+    public static TcpTransport bind(int port) throws IOException {
+        return bind(port, null);
+    }
+
+    /** То же со своим диспетчером входящих (null — по настройкам). */
+    public static TcpTransport bind(int port, InboundDispatcher inbound) throws IOException {
+        ServerSocket ss = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        log.info("TCP transport bound to {}", address(ss.getInetAddress(), ss.getLocalPort()));
+        return new TcpTransport(ss, inbound);
+    }
+
+    @Override
+    public String myAddress() {
+        return address(server.getInetAddress(), server.getLocalPort());
+    }
+
+    @Override
+    public void acceptLoop(SocketConsumer handler) {
+        System.out.println("Listening on: " + myAddress());
+        log.info("Listening on {} (accept mode={}, maxConcurrent={})", myAddress(),
+                inbound.isInline() ? "inline" : "concurrent", inbound.maxConcurrent());
+
+        while (!Thread.currentThread().isInterrupted() && !inbound.isClosed()) {
+            try {
+                inbound.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            Socket socket;
+            try {
+                socket = server.accept();
+                socket.setTcpNoDelay(true);
+            } catch (IOException e) {
+                inbound.release();
+                if (inbound.isClosed() || server.isClosed()) break;
+                Metrics.shared().error(Metrics.Stage.ACCEPT, e);
+                log.warn("Accept failed: {}: {}", e.getClass().getSimpleName(), e.getMessage(), e);
+                continue;
+            }
+            Metrics.shared().accepted();
+
+            try {
+                inbound.dispatch(PeerStream.of(socket), handler);
+            } catch (RuntimeException e) {
+                log.warn("Inbound connection rejected: {}", e.toString());
+                closeQuietly(socket);
+            }
+        }
+        log.info("Accept loop stopped.");
+    }
+
+    @Override
+    public void withConnection(String address, SocketConsumer op) throws IOException {
+        InetSocketAddress target = parse(address);
+        MDC.put("peer", "[" + address + "]");
+        log.info("Connecting to {}", address);
+        try (Socket s = new Socket()) {
+            try {
+                s.connect(target, CONNECT_TIMEOUT_MS);
+            } catch (IOException e) {
+                Metrics.shared().error(Metrics.Stage.CONNECT, e);
+                throw e;
+            }
+            s.setTcpNoDelay(true);
+            s.setSoTimeout(Constants.READ_TIMEOUT_MS);
+            try (PeerStream stream = MeteredStream.outbound(PeerStream.of(s))) {
+                op.accept(stream);
+            }
+            log.debug("Operation on {} completed.", address);
+        } catch (InterruptedIOException e) {
+            log.warn("Read timed out after {} ms while talking to {}: {}",
+                    Constants.READ_TIMEOUT_MS, address, e.getMessage());
+            throw e;
+        } finally {
+            MDC.remove("peer");
+        }
+    }
+
+    /** "host:port"; host по умолчанию — loopback. */
+    static InetSocketAddress parse(String address) throws IOException {
+        if (address == null) throw new IOException("Unknown TCP host: null");
+        String a = address.trim();
+        int colon = a.lastIndexOf(':');
+        try {
+            if (colon < 0) return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(a));
+            String host = a.substring(0, colon);
+            int port = Integer.parseInt(a.substring(colon + 1));
+            return host.isEmpty()
+                    ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                    : new InetSocketAddress(host, port);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Unknown TCP host: " + address, e);
+        }
+    }
+
+    @Override
+    public void close() {
+        // закрытие ServerSocket выводит цикл из accept, потом дожидаемся текущих входящих (drain)
+        try {
+            server.close();
+        } catch (IOException ignore) {
+            // best-effort
+        }
+        inbound.close();
+    }
+
+    private static String address(InetAddress host, int port) {
+        return host.getHostAddress() + ":" + port;
+    }
+
+    private static void closeQuietly(Socket s) {
+        try {
+            s.close();
+        } catch (IOException ignore) {
+            // best-effort
+        }
+    }
+}
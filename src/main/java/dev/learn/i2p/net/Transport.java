@@ -0,0 +1,43 @@
+package dev.learn.i2p.net;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Транспорт мессенджера: свой адрес, приём входящих и исходящие стримы к адресу.
+ * <ul>
+ *   <li>{@link I2PTransport} — настоящая сеть через I2P-роутер;</li>
+ *   <li>{@link TcpTransport} — TCP на localhost, для прогонов без роутера;</li>
+ *   <li>{@link LoopbackNetwork} — in-JVM с настраиваемой задержкой, полосой и обрывами,
+ *       для бенчмарков и регрессионных тестов Messenger.</li>
+ * </ul>
+ */
+public interface Transport extends Closeable {
+
+    /** Свой адрес в формате транспорта — его отдают собеседникам. */
+    String myAddress();
+
+    /** Блокирующий цикл приёма входящих: каждый стрим отдаётся handler, закрывает его транспорт. */
+    void acceptLoop(SocketConsumer handler);
+
+    /** Новый стрим к address на время op; после op стрим закрывается. */
+    void withConnection(String address, SocketConsumer op) throws IOException;
+
+    /**
+     * Как {@link #withConnection}, но стрим может быть взят из пула и после успешной op вернуться
+     * туда же (op не должна закрывать потоки). Без пула — обычный withConnection.
+     */
+    default void withReusableConnection(String address, SocketConsumer op) throws IOException {
+        withConnection(address, op);
+    }
+
+    /** Прогреть разрешение адресов заранее; транспортам без имён делать нечего. */
+    default CompletableFuture<Void> prefetch(Collection<String> addresses) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    void close();
+}
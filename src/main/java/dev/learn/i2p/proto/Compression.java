@@ -0,0 +1,325 @@
+package dev.learn.i2p.proto;
+
+import dev.learn.i2p.core.Config;
+import dev.learn.i2p.core.Constants;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Сжатие тел фреймов {@link FramedProtocol} (zlib, RFC 1950). Решается на каждое сообщение:
+ * по первым байтам ({@link ContentTypes#sniff}) уже сжатые форматы (PNG, JPEG, GIF, WEBP, ZIP, RAR, …)
+ * идут как есть, остальное сжимается и уходит сжатым, только если это заметно меньше исходного.
+ * <p>
+ * На проводе — заголовок фрейма {@link #HEADER}{@code ="<длина до сжатия>"}, длина фрейма — сжатая.
+ * Короткие тексты сжимаются с заранее известным словарём {@link #CHAT_DICTIONARY}: какой словарь
+ * нужен, получатель узнаёт из самого zlib-потока (DICTID), отдельный заголовок не нужен.
+ * <p>
+ * Получатели до этой версии заголовок не понимают и сохранили бы сжатые байты, поэтому
+ * по умолчанию выключено: {@code -Di2p.messenger.compression=on}, когда обновлены все пиры.
+ *
+ * @param enabled сжимать ли исходящие (приём сжатых фреймов работает всегда)
+ * @param level   уровень {@link Deflater} 1..9
+ */
+public record Compression(boolean enabled, int level) {
+    public static final Compression OFF = new Compression(false, Deflater.DEFAULT_COMPRESSION);
+    public static final Compression ON = new Compression(true, Deflater.DEFAULT_COMPRESSION);
+
+    /** Заголовок фрейма: тело сжато zlib, значение — длина до сжатия. */
+    public static final String HEADER = "z";
+
+    /** Короче не сжимаем: заголовок и служебные байты zlib съедят выигрыш. */
+    static final int MIN_BYTES = 48;
+    /** Сжатое (с заголовком) должно быть не больше этой доли исходного, иначе шлём как есть. */
+    static final double MAX_RATIO = 0.9;
+
+    /** Уже сжатые форматы: deflate их не уменьшит, только потратит CPU. */
+    private static final Set<String> PRECOMPRESSED = Set.of("image/png", "image/jpeg", "image/gif", "image/webp",
+            "image/heic", "image/heif", "image/avif", "application/zip", "application/vnd.rar",
+            "application/x-7z-compressed", "video/mp4", "audio/ogg");
+
+    /**
+     * Словарь для текстов: частые в переписке слова и обороты. Самое частое — в конце (deflate ищет
+     * совпадения с ближнего конца дешевле). Менять нельзя: получатель узнаёт словарь по Adler-32 —
+     * новый словарь добавляется рядом, а не вместо.
+     */
+    static final byte[] CHAT_DICTIONARY = (
+            "https://http://.b32.i2p .i2p www. .com .org .jpg .png .pdf .txt "
+                    + "сообщение файл картинка адрес ссылка роутер туннель ключ "
+                    + "tunnel router address message file link please thanks sorry "
+                    + "потом сейчас тогда вчера завтра сегодня утром вечером ночью "
+                    + "tomorrow today tonight later yesterday morning evening "
+                    + "хорошо ладно понятно конечно может быть наверное кажется "
+                    + "okay sure maybe probably of course I think I know I don't know "
+                    + "можешь можно нужно надо хочу будет было есть нет да "
+                    + "can you could you would you I will I would I have I am "
+                    + "с уважением до встречи пока спасибо пожалуйста извини "
+                    + "see you bye thank you please sorry "
+                    + "что где когда почему зачем как кто сколько "
+                    + "what where when why how who which "
+                    + "это что-то как-то тоже уже ещё только очень просто "
+                    + "this that there these those with from about have just "
+                    + "и в не на я ты мы вы он она они что это как так "
+                    + "the and you for are not but have is it to of in "
+                    + "привет! как дела? всё хорошо, спасибо. "
+                    + "hi! how are you? fine, thanks. hello, ")
+            .getBytes(StandardCharsets.UTF_8);
+    private static final int CHAT_DICTIONARY_ID = adler(CHAT_DICTIONARY);
+
+    public Compression {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("compression level must be 1..9: " + level);
+        }
+    }
+
+    /**
+     * Из sysprops/env:
+     *  - i2p.messenger.compression = off (on — сжимать исходящие)
+     *  - i2p.messenger.compression.level = 6
+     */
+    public static Compression fromSystemProps() {
+        boolean on = switch (Config.get("i2p.messenger.compression", "off").toLowerCase(Locale.ROOT)) {
+            case "on", "true" -> true;
+            default -> false;
+        };
+        return new Compression(on, Integer.parseInt(Config.get("i2p.messenger.compression.level", "6")));
+    }
+
+    /** Стоит ли пробовать сжимать содержимое, начинающееся с head. */
+    public boolean worthTrying(byte[] head, int len) {
+        return enabled && !PRECOMPRESSED.contains(ContentTypes.shared().sniff(head, len).mime());
+    }
+
+    /** Текст сообщения (UTF-8): со словарём. */
+    Encoded text(byte[] utf8) {
+        return worthTrying(utf8, Math.min(utf8.length, Constants.BUFFER_SIZE))
+                ? deflate(utf8, utf8.length, CHAT_DICTIONARY) : Encoded.plain(utf8, utf8.length);
+    }
+
+    /** Файл или часть файла; решение по типу вызывающий уже принял ({@link #worthTrying}). */
+    Encoded block(byte[] data, int len) {
+        return deflate(data, len, null);
+    }
+
+    /**
+     * Длина файла после сжатия или -1, если выигрыша нет. Сжатое никуда не пишется — память не зависит
+     * от размера файла; сами байты потом даст {@link #deflate(Path, OutputStream)} (тот же вход — тот же выход).
+     */
+    long deflatedLength(Path file, long len) throws IOException {
+        long limit = (long) (len * MAX_RATIO) - overhead(len);
+        if (len < MIN_BYTES || limit <= 0) return -1;
+        try (InputStream in = Files.newInputStream(file)) {
+            return deflate(in, OutputStream.nullOutputStream(), limit);
+        }
+    }
+
+    /** Сжать файл в out потоком; возвращает число записанных байт. */
+    long deflate(Path file, OutputStream out) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            return deflate(in, out, Long.MAX_VALUE);
+        }
+    }
+
+    /** Сжимает in в out порциями буфера; вышло больше limit — сжатие бросается, возвращается -1. */
+    private long deflate(InputStream in, OutputStream out, long limit) throws IOException {
+        Deflater d = new Deflater(level);
+        try {
+            byte[] raw = new byte[Constants.BUFFER_SIZE];
+            byte[] packed = new byte[Constants.BUFFER_SIZE];
+            long n = 0;
+            while (!d.finished()) {
+                if (d.needsInput()) {
+                    int r = in.read(raw);
+                    if (r < 0) d.finish();
+                    else d.setInput(raw, 0, r);
+                }
+                int k = d.deflate(packed);
+                n += k;
+                if (n > limit) return -1;
+                out.write(packed, 0, k);
+            }
+            return n;
+        } finally {
+            d.end();
+        }
+    }
+
+    /**
+     * Сжать в буфер размером с допустимый результат: не влезло — значит, выигрыша нет,
+     * дальше не жмём и отправляем исходные байты.
+     */
+    private Encoded deflate(byte[] raw, int len, byte[] dictionary) {
+        int limit = (int) (len * MAX_RATIO) - overhead(len);
+        if (len < MIN_BYTES || limit <= 0) return Encoded.plain(raw, len);
+        Deflater d = new Deflater(level);
+        try {
+            if (dictionary != null) d.setDictionary(dictionary);
+            d.setInput(raw, 0, len);
+            d.finish();
+            byte[] out = new byte[limit];
+            int n = 0;
+            while (!d.finished() && n < limit) n += d.deflate(out, n, limit - n);
+            return d.finished() ? new Encoded(out, n, len) : Encoded.plain(raw, len);
+        } finally {
+            d.end();
+        }
+    }
+
+    /** Примерная цена заголовка {@link #HEADER} во фрейме. */
+    private static int overhead(long rawLength) {
+        return 4 + HEADER.length() + Long.toString(rawLength).length();
+    }
+
+    /**
+     * Тело для записи во фрейм.
+     *
+     * @param rawLength длина до сжатия; равна length, если тело не сжато
+     */
+    record Encoded(byte[] bytes, int length, long rawLength) {
+        static Encoded plain(byte[] bytes, int length) {
+            return new Encoded(bytes, length, length);
+        }
+
+        boolean compressed() {
+            return length != rawLength; // сжатое всегда короче исходного
+        }
+
+        /** Заголовки фрейма: base плюс {@link #HEADER}, если тело сжато. */
+        Map<String, String> headers(Map<String, String> base) {
+            return compressed() ? Compression.headers(base, rawLength) : base;
+        }
+    }
+
+    /** Заголовки фрейма со сжатым телом: base плюс {@link #HEADER}. */
+    static Map<String, String> headers(Map<String, String> base, long rawLength) {
+        Map<String, String> h = new LinkedHashMap<>(base);
+        h.put(HEADER, Long.toString(rawLength));
+        return h;
+    }
+
+    // === приём ===
+
+    /** Длина тела до сжатия: из {@link #HEADER}, а без него — длина фрейма. */
+    static long rawLength(Frame.Header h, long max) throws ProtocolException {
+        String v = h.headers().get(HEADER);
+        if (v == null) return h.length();
+        long raw;
+        try {
+            raw = Long.parseLong(v);
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Bad " + HEADER + " header: " + v);
+        }
+        if (raw < 0 || raw > max) throw new ProtocolException("Decompressed payload too large: " + raw + " (max " + max + ")");
+        return raw;
+    }
+
+    /**
+     * Тело фрейма в исходном виде: как есть или распаковка на лету. Распаковка отдаёт ровно
+     * rawLength байт, дочитывает zlib-поток до конца и проверяет, что за ним во фрейме ничего нет, —
+     * бомба или мусор дают {@link ProtocolException}, а не гигантский файл.
+     */
+    static InputStream decoding(Frame.Header h, InputStream body, long max) throws ProtocolException {
+        if (!h.headers().containsKey(HEADER)) return body;
+        return new Inflating(body, rawLength(h, max));
+    }
+
+    private static int adler(byte[] b) {
+        Adler32 a = new Adler32();
+        a.update(b);
+        return (int) a.getValue();
+    }
+
+    private static final class Inflating extends InputStream {
+        private final InputStream in;
+        private final long expected;
+        private final Inflater inflater = new Inflater();
+        private final byte[] buf = new byte[Constants.BUFFER_SIZE];
+        private long produced;
+        private boolean done;
+
+        Inflating(InputStream in, long expected) {
+            this.in = in;
+            this.expected = expected;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] one = new byte[1];
+            return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        /** Ошибка чтения освобождает Inflater (память zlib вне кучи) сразу, не дожидаясь close() от читателя. */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) return -1;
+            if (len == 0) return 0;
+            try {
+                if (produced == expected) {
+                    finish();
+                    return -1;
+                }
+                int n = inflate(b, off, (int) Math.min(len, expected - produced));
+                if (n == 0) throw new ProtocolException("Compressed payload ended after " + produced + " of " + expected + " bytes");
+                produced += n;
+                // дочитать хвост zlib сразу: читатель, которому нужно ровно expected байт, до EOF не дойдёт
+                if (produced == expected) finish();
+                return n;
+            } catch (IOException | RuntimeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /** Сколько-нибудь байт, 0 — только если zlib-поток кончился. */
+        private int inflate(byte[] b, int off, int len) throws IOException {
+            try {
+                while (true) {
+                    int n = inflater.inflate(b, off, len);
+                    if (n > 0 || inflater.finished()) return n;
+                    if (inflater.needsDictionary()) {
+                        if (inflater.getAdler() != CHAT_DICTIONARY_ID) throw new ProtocolException("Unknown compression dictionary");
+                        inflater.setDictionary(CHAT_DICTIONARY);
+                    } else if (inflater.needsInput()) {
+                        int r = in.read(buf);
+                        if (r < 0) throw new EOFException("Compressed payload truncated after " + produced + " bytes");
+                        inflater.setInput(buf, 0, r);
+                    } else {
+                        throw new ProtocolException("Compressed payload stalled");
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ProtocolException("Corrupt compressed payload: " + e.getMessage());
+            }
+        }
+
+        private void finish() throws IOException {
+            if (!inflater.finished() && inflate(new byte[1], 0, 1) > 0) {
+                throw new ProtocolException("Decompressed payload exceeds " + expected + " bytes");
+            }
+            if (inflater.getRemaining() > 0 || in.read() >= 0) throw new ProtocolException("Trailing bytes after compressed payload");
+            close();
+        }
+
+        @Override
+        public void close() {
+            if (!done) {
+                done = true;
+                inflater.end();
+            }
+        }
+    }
+}
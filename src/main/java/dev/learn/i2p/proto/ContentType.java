@@ -0,0 +1,20 @@
+package dev.learn.i2p.proto;
+
+import java.util.List;
+
+/**
+ * Тип содержимого из {@link ContentTypes}: основной MIME, его алиасы и расширения (первое — каноническое).
+ */
+public record ContentType(String mime, List<String> extensions, List<String> aliases) {
+    public ContentType {
+        if (mime == null || mime.isBlank()) throw new IllegalArgumentException("mime must not be blank");
+        if (extensions == null || extensions.isEmpty()) throw new IllegalArgumentException("no extension for " + mime);
+        extensions = List.copyOf(extensions);
+        aliases = aliases == null ? List.of() : List.copyOf(aliases);
+    }
+
+    /** Каноническое расширение с точкой — им называется файл в inbox. */
+    public String ext() {
+        return extensions.get(0);
+    }
+}
@@ -0,0 +1,475 @@
+package dev.learn.i2p.proto;
+
+import dev.learn.i2p.core.Config;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Единый реестр типов содержимого: определение типа по первым байтам, MIME → расширение и
+ * расширение → MIME. Загружается один раз из встроенного content-types.txt (формат — в самом
+ * файле), деплой может добавить свои типы файлом в {@code i2p.messenger.contentTypes}.
+ * <p>
+ * Поиск по MIME/расширению не аллоцирует: хэш-таблицы с открытой адресацией построены заранее,
+ * ключ сравнивается без учёта регистра прямо по диапазону входной строки (параметры MIME после
+ * ';' и пробелы просто не попадают в диапазон). Сигнатуры индексированы по первому байту.
+ * Текст (проверка UTF-8 — {@link TextScan}) и двоичный фолбэк — типы text/plain и
+ * application/octet-stream из того же реестра.
+ */
+public final class ContentTypes {
+    private static final Logger log = LoggerFactory.getLogger(ContentTypes.class);
+
+    private static final String BUNDLED = "content-types.txt";
+    static final String TEXT_MIME = "text/plain";
+    static final String BINARY_MIME = "application/octet-stream";
+    private static final String DEFAULT_EXT = ".bin";
+
+    private record Signature(ContentType type, int offset, boolean[][] allowed) {
+        boolean matches(byte[] head, int len) {
+            if (len < offset + allowed.length) return false;
+            for (int i = 0; i < allowed.length; i++) {
+                boolean[] a = allowed[i];
+                if (a != null && !a[head[offset + i] & 0xFF]) return false;
+            }
+            return true;
+        }
+    }
+
+    private record Hint(String token, ContentType type) {}
+
+    private final List<ContentType> types;
+    private final ContentType text;
+    private final ContentType binary;
+    private final CaseInsensitiveTable<ContentType> byMime;
+    private final CaseInsensitiveTable<ContentType> byExt;
+    private final Signature[][] byFirstByte; // сигнатуры со смещением 0
+    private final Signature[] withOffset;    // остальные — после индексированных
+    private final Hint[] hints;
+
+    private ContentTypes(List<Definition> defs) {
+        List<ContentType> all = new ArrayList<>(defs.size());
+        List<Signature> signatures = new ArrayList<>();
+        List<Hint> hintList = new ArrayList<>();
+        for (Definition d : defs) {
+            ContentType t = new ContentType(d.mime, d.extensions, d.aliases);
+            all.add(t);
+            for (int i = 0; i < d.magic.size(); i++) signatures.add(new Signature(t, d.offsets.get(i), d.magic.get(i)));
+            for (String h : d.hints) hintList.add(new Hint(h, t));
+        }
+        this.types = List.copyOf(all);
+
+        byMime = new CaseInsensitiveTable<>(all.size() * 2);
+        byExt = new CaseInsensitiveTable<>(all.size() * 3);
+        for (ContentType t : all) {
+            byMime.putIfAbsent(t.mime(), t);
+            for (String a : t.aliases()) byMime.putIfAbsent(a, t);
+            for (String e : t.extensions()) byExt.putIfAbsent(e, t);
+        }
+
+        List<List<Signature>> first = new ArrayList<>(256);
+        for (int i = 0; i < 256; i++) first.add(new ArrayList<>());
+        List<Signature> offset = new ArrayList<>();
+        for (Signature s : signatures) {
+            boolean[] b0 = s.offset == 0 ? s.allowed[0] : null;
+            if (b0 == null) {
+                offset.add(s);
+                continue;
+            }
+            for (int b = 0; b < 256; b++) if (b0[b]) first.get(b).add(s);
+        }
+        byFirstByte = new Signature[256][];
+        for (int i = 0; i < 256; i++) {
+            if (!first.get(i).isEmpty()) byFirstByte[i] = first.get(i).toArray(Signature[]::new);
+        }
+        withOffset = offset.toArray(Signature[]::new);
+        hints = hintList.toArray(Hint[]::new);
+
+        text = byMime.get(TEXT_MIME, 0, TEXT_MIME.length());
+        binary = byMime.get(BINARY_MIME, 0, BINARY_MIME.length());
+        if (text == null || binary == null) {
+            throw new IllegalArgumentException("Registry must define " + TEXT_MIME + " and " + BINARY_MIME);
+        }
+    }
+
+    private static final class Holder {
+        static final ContentTypes SHARED = loadShared();
+    }
+
+    /** Встроенный реестр + файл из i2p.messenger.contentTypes (если задан). */
+    public static ContentTypes shared() {
+        return Holder.SHARED;
+    }
+
+    private static ContentTypes loadShared() {
+        String extra = Config.get("i2p.messenger.contentTypes");
+        if (extra != null) {
+            try {
+                ContentTypes r = withExtra(Path.of(extra));
+                log.info("Content types: {} (bundled + {})", r.types.size(), extra);
+                return r;
+            } catch (IOException | IllegalArgumentException e) {
+                log.error("Ignoring extra content types from {}: {}", extra, e.getMessage());
+            }
+        }
+        return bundled();
+    }
+
+    /** Только встроенные типы. */
+    public static ContentTypes bundled() {
+        Map<String, Definition> defs = new LinkedHashMap<>();
+        try {
+            readBundled(defs);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new ContentTypes(List.copyOf(defs.values()));
+    }
+
+    /** Встроенные типы, дополненные определениями из файла extra. */
+    public static ContentTypes withExtra(Path extra) throws IOException {
+        Map<String, Definition> defs = new LinkedHashMap<>();
+        readBundled(defs);
+        try (Reader r = Files.newBufferedReader(extra, StandardCharsets.UTF_8)) {
+            parse(r, extra.toString(), defs);
+        }
+        return new ContentTypes(List.copyOf(defs.values()));
+    }
+
+    private static void readBundled(Map<String, Definition> defs) throws IOException {
+        try (InputStream in = ContentTypes.class.getResourceAsStream(BUNDLED)) {
+            if (in == null) throw new IllegalStateException("Missing bundled " + BUNDLED);
+            parse(new InputStreamReader(in, StandardCharsets.UTF_8), BUNDLED, defs);
+        }
+    }
+
+    public List<ContentType> all() {
+        return types;
+    }
+
+    /** text/plain — результат sniff для UTF-8 текста. */
+    public ContentType text() {
+        return text;
+    }
+
+    /** application/octet-stream — результат sniff, когда ничего не подошло. */
+    public ContentType binary() {
+        return binary;
+    }
+
+    /** Тип по первым len байтам: сигнатура → UTF-8 текст → двоичный. */
+    public ContentType sniff(byte[] head, int len) {
+        // --- по сигнатуре: сначала кандидаты по первому байту, потом сигнатуры со смещением ---
+        if (len > 0) {
+            Signature[] candidates = byFirstByte[head[0] & 0xFF];
+            if (candidates != null) {
+                for (Signature s : candidates) if (s.matches(head, len)) return s.type;
+            }
+            for (Signature s : withOffset) if (s.matches(head, len)) return s.type;
+        }
+
+        // --- текст в UTF-8 (в конце, чтобы ZIP/RAR не уехали в TEXT) ---
+        if (TextScan.looksLikeUtf8Text(head, len)) return text;
+
+        return binary;
+    }
+
+    /** Тип по MIME ("image/JPEG; q=1" тоже подходит) или null, если не известен. */
+    public ContentType forMime(CharSequence contentType) {
+        if (contentType == null) return null;
+        int from = skipSpaces(contentType, 0);
+        int to = mimeEnd(contentType, from);
+        return to > from ? byMime.get(contentType, from, to) : null;
+    }
+
+    /** Тип по расширению (".jpg" или "jpg", регистр не важен) или null. */
+    public ContentType forExtension(CharSequence ext) {
+        if (ext == null || ext.isEmpty()) return null;
+        if (ext.charAt(0) == '.') return byExt.get(ext, 0, ext.length());
+        return byExt.getDotless(ext, 0, ext.length());
+    }
+
+    /** Тип по имени файла (по расширению, без query/fragment) или null. */
+    public ContentType forFileName(String name) {
+        if (name == null) return null;
+        int end = nameEnd(name);
+        int dot = extStart(name, end);
+        return dot < 0 ? null : byExt.get(name, dot, end);
+    }
+
+    /**
+     * Расширение файла (c точкой) по MIME; если MIME неизвестен — по подстроке-подсказке в нём,
+     * потом из имени файла; если и это не удаётся — ".bin". null/пустые значения и MIME с
+     * параметрами обрабатываются безопасно. Для известных типов и расширений — без аллокаций.
+     */
+    public String extensionFor(String contentType, String fallbackName) {
+        // 1) Пытаемся по MIME
+        if (contentType != null) {
+            int from = skipSpaces(contentType, 0);
+            int to = mimeEnd(contentType, from);
+            if (to > from) {
+                ContentType t = byMime.get(contentType, from, to);
+                if (t != null) return t.ext();
+                // эвристики по подстрокам MIME
+                for (Hint h : hints) {
+                    if (containsIgnoreCase(contentType, from, to, h.token)) return h.type.ext();
+                }
+            }
+        }
+
+        // 2) Фолбэк по имени файла
+        if (fallbackName != null) {
+            int end = nameEnd(fallbackName);
+            int dot = extStart(fallbackName, end);
+            if (dot >= 0) {
+                String known = byExt.keyOf(fallbackName, dot, end);
+                return known != null ? known : fallbackName.substring(dot, end).toLowerCase(Locale.ROOT);
+            }
+        }
+
+        // 3) Финальный дефолт
+        return DEFAULT_EXT;
+    }
+
+    // --- разбор строк без аллокаций ---
+
+    private static int skipSpaces(CharSequence s, int i) {
+        while (i < s.length() && Character.isWhitespace(s.charAt(i))) i++;
+        return i;
+    }
+
+    /** Конец MIME: до ';' и без хвостовых пробелов. */
+    private static int mimeEnd(CharSequence s, int from) {
+        int end = from;
+        while (end < s.length() && s.charAt(end) != ';') end++;
+        while (end > from && Character.isWhitespace(s.charAt(end - 1))) end--;
+        return end;
+    }
+
+    /** Имя без "?query" и "#fragment". */
+    private static int nameEnd(String name) {
+        int end = name.length();
+        int q = name.indexOf('?');
+        if (q >= 0) end = q;
+        int h = name.indexOf('#');
+        if (h >= 0 && h < end) end = h;
+        return end;
+    }
+
+    /** Начало расширения (индекс точки) в name[0, end): 1..5 латинских букв/цифр, точка не первая. */
+    private static int extStart(String name, int end) {
+        int dot = name.lastIndexOf('.', end - 1);
+        if (dot <= 0 || dot >= end - 1) return -1;
+        int n = end - dot;
+        if (n < 2 || n > 6) return -1;
+        for (int i = dot + 1; i < end; i++) {
+            char c = name.charAt(i);
+            if (!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9')) return -1;
+        }
+        return dot;
+    }
+
+    private static boolean containsIgnoreCase(CharSequence s, int from, int to, String token) {
+        int n = token.length();
+        outer:
+        for (int i = from; i + n <= to; i++) {
+            for (int j = 0; j < n; j++) {
+                if (lower(s.charAt(i + j)) != token.charAt(j)) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    static char lower(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    // --- загрузка ---
+
+    /** Строка реестра до сборки (до слияния с дополнениями). */
+    private static final class Definition {
+        final String mime;
+        final List<String> extensions = new ArrayList<>();
+        final List<String> aliases = new ArrayList<>();
+        final List<String> hints = new ArrayList<>();
+        final List<boolean[][]> magic = new ArrayList<>();
+        final List<Integer> offsets = new ArrayList<>();
+
+        Definition(String mime) {
+            this.mime = mime;
+        }
+    }
+
+    private static void parse(Reader reader, String source, Map<String, Definition> defs) throws IOException {
+        BufferedReader r = new BufferedReader(reader);
+        String line;
+        int no = 0;
+        while ((line = r.readLine()) != null) {
+            no++;
+            String s = line.strip();
+            if (s.isEmpty() || s.startsWith("#")) continue;
+            try {
+                parseLine(s, defs);
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException(source + ":" + no + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private static void parseLine(String line, Map<String, Definition> defs) {
+        String[] tokens = line.split("\\s+");
+        if (tokens.length < 2) throw new IllegalArgumentException("expected '<mime> <ext>[,...]'");
+        String mime = tokens[0].toLowerCase(Locale.ROOT);
+        if (mime.indexOf('/') <= 0) throw new IllegalArgumentException("bad MIME: " + tokens[0]);
+        Definition d = defs.computeIfAbsent(mime, Definition::new);
+        for (String e : tokens[1].split(",")) {
+            String ext = e.toLowerCase(Locale.ROOT);
+            if (!ext.matches("\\.[a-z0-9]{1,5}")) throw new IllegalArgumentException("bad extension: " + e);
+            if (!d.extensions.contains(ext)) d.extensions.add(ext);
+        }
+        for (int i = 2; i < tokens.length; i++) {
+            String t = tokens[i];
+            int eq = t.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("expected key=value: " + t);
+            String value = t.substring(eq + 1);
+            switch (t.substring(0, eq)) {
+                case "alias" -> {
+                    for (String a : value.split(",")) d.aliases.add(a.toLowerCase(Locale.ROOT));
+                }
+                case "hint" -> {
+                    for (String h : value.split(",")) d.hints.add(h.toLowerCase(Locale.ROOT));
+                }
+                case "magic" -> {
+                    int offset = 0;
+                    if (value.startsWith("@")) {
+                        int colon = value.indexOf(':');
+                        if (colon < 0) throw new IllegalArgumentException("expected @<offset>:<bytes>: " + value);
+                        offset = Integer.parseInt(value.substring(1, colon));
+                        value = value.substring(colon + 1);
+                    }
+                    d.magic.add(parseMagic(value));
+                    d.offsets.add(offset);
+                }
+                default -> throw new IllegalArgumentException("unknown key: " + t.substring(0, eq));
+            }
+        }
+    }
+
+    /** "47494638[37|39]61", "??" — любой байт. */
+    private static boolean[][] parseMagic(String s) {
+        List<boolean[]> out = new ArrayList<>();
+        int i = 0;
+        while (i < s.length()) {
+            if (s.startsWith("??", i)) {
+                out.add(null);
+                i += 2;
+            } else if (s.charAt(i) == '[') {
+                int close = s.indexOf(']', i);
+                if (close < 0) throw new IllegalArgumentException("unclosed '[' in magic: " + s);
+                boolean[] allowed = new boolean[256];
+                for (String alt : s.substring(i + 1, close).split("\\|")) allowed[hexByte(alt, 0)] = true;
+                out.add(allowed);
+                i = close + 1;
+            } else {
+                boolean[] allowed = new boolean[256];
+                allowed[hexByte(s, i)] = true;
+                out.add(allowed);
+                i += 2;
+            }
+        }
+        if (out.isEmpty()) throw new IllegalArgumentException("empty magic");
+        return out.toArray(boolean[][]::new);
+    }
+
+    private static int hexByte(String s, int i) {
+        if (i + 2 > s.length()) throw new IllegalArgumentException("odd number of hex digits: " + s);
+        return Integer.parseInt(s, i, i + 2, 16);
+    }
+
+    /**
+     * Открытая адресация, ключи — строки в нижнем регистре; поиск по диапазону CharSequence
+     * с приведением ASCII к нижнему регистру на лету.
+     */
+    private static final class CaseInsensitiveTable<V> {
+        private final String[] keys;
+        private final Object[] values;
+        private final int mask;
+
+        CaseInsensitiveTable(int expected) {
+            int cap = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+            keys = new String[cap];
+            values = new Object[cap];
+            mask = cap - 1;
+        }
+
+        void putIfAbsent(String key, V value) {
+            String k = key.toLowerCase(Locale.ROOT);
+            int i = hash(k, 0, k.length(), false) & mask;
+            while (keys[i] != null) {
+                if (keys[i].equals(k)) return;
+                i = (i + 1) & mask;
+            }
+            keys[i] = k;
+            values[i] = value;
+        }
+
+        @SuppressWarnings("unchecked")
+        V get(CharSequence s, int from, int to) {
+            int i = find(s, from, to, false);
+            return i < 0 ? null : (V) values[i];
+        }
+
+        /** Для расширений без точки: ключ ".jpg" совпадает с "jpg". */
+        @SuppressWarnings("unchecked")
+        V getDotless(CharSequence s, int from, int to) {
+            int i = find(s, from, to, true);
+            return i < 0 ? null : (V) values[i];
+        }
+
+        /** Сам сохранённый ключ (он уже в нижнем регистре) — чтобы вернуть его без аллокации. */
+        String keyOf(CharSequence s, int from, int to) {
+            int i = find(s, from, to, false);
+            return i < 0 ? null : keys[i];
+        }
+
+        private int find(CharSequence s, int from, int to, boolean dot) {
+            int i = hash(s, from, to, dot) & mask;
+            String k;
+            while ((k = keys[i]) != null) {
+                if (matches(k, s, from, to, dot)) return i;
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static boolean matches(String key, CharSequence s, int from, int to, boolean dot) {
+            int off = dot ? 1 : 0;
+            if (key.length() != to - from + off) return false;
+            if (dot && key.charAt(0) != '.') return false;
+            for (int j = 0; j < to - from; j++) {
+                if (key.charAt(j + off) != lower(s.charAt(from + j))) return false;
+            }
+            return true;
+        }
+
+        private static int hash(CharSequence s, int from, int to, boolean dot) {
+            int h = dot ? '.' : 0;
+            for (int i = from; i < to; i++) h = 31 * h + lower(s.charAt(i));
+            return h ^ (h >>> 16);
+        }
+    }
+}
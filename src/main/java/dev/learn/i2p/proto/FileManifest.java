@@ -0,0 +1,161 @@
+package dev.learn.i2p.proto;
+
+import dev.learn.i2p.core.BufferPool;
+import dev.learn.i2p.core.Constants;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ProtocolException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Описание файла для передачи по частям: SHA-256 всего файла (он же id передачи),
+ * размер части и SHA-256 каждой части. Уходит в OFFER-фрейме и лежит у получателя
+ * рядом с недокачанными данными.
+ *
+ * @param id          SHA-256 всего файла, 64 hex-символа в нижнем регистре
+ * @param name        исходное имя файла (только для логов)
+ * @param size        размер файла в байтах
+ * @param chunkSize   размер части; последняя может быть короче
+ * @param chunkHashes SHA-256 частей подряд, {@link #HASH_LENGTH} байт на часть
+ */
+public record FileManifest(String id, String name, long size, int chunkSize, byte[] chunkHashes) {
+
+    public static final int HASH_LENGTH = 32;
+    public static final int MIN_CHUNK = 4 * 1024;
+    public static final int MAX_CHUNK = 4 * 1024 * 1024;
+    /** Больше частей быть не может: MAX_IMAGE_BYTES / MIN_CHUNK. */
+    public static final int MAX_CHUNKS = Constants.MAX_IMAGE_BYTES / MIN_CHUNK;
+
+    private static final HexFormat HEX = HexFormat.of();
+
+    public FileManifest {
+        if (id == null || id.length() != 2 * HASH_LENGTH || !id.chars().allMatch(c -> Character.digit(c, 16) >= 0
+                && !Character.isUpperCase(c))) {
+            throw new IllegalArgumentException("id must be a lowercase hex SHA-256: " + id);
+        }
+        if (size < 0 || size > Constants.MAX_IMAGE_BYTES) throw new IllegalArgumentException("size out of range: " + size);
+        if (chunkSize < MIN_CHUNK || chunkSize > MAX_CHUNK) throw new IllegalArgumentException("chunk size out of range: " + chunkSize);
+        if (name == null) name = "";
+        long chunks = (size + chunkSize - 1) / chunkSize;
+        if (chunkHashes == null || chunkHashes.length != chunks * HASH_LENGTH) {
+            throw new IllegalArgumentException("expected " + chunks + " chunk hashes");
+        }
+    }
+
+    /** Посчитанный заранее ({@link #prepare}) манифест и то, по чему видно, что файл с тех пор не менялся. */
+    private record Prepared(Path file, long size, FileTime modified, FileManifest manifest) {}
+
+    private static final AtomicReference<Prepared> PREPARED = new AtomicReference<>();
+
+    /**
+     * Посчитать манифест заранее (пока транспорт подключается): следующий {@link #of} для того же
+     * неизменённого файла и размера части возьмёт готовый, а не будет читать файл заново. Хранится один.
+     */
+    public static FileManifest prepare(Path file, int chunkSize) throws IOException {
+        FileTime modified = Files.getLastModifiedTime(file);
+        FileManifest m = hash(file, chunkSize);
+        PREPARED.set(new Prepared(file.toAbsolutePath().normalize(), m.size(), modified, m));
+        return m;
+    }
+
+    /** Один проход по файлу: хэш целиком и хэши частей (или подготовленный {@link #prepare}, однократно). */
+    public static FileManifest of(Path file, int chunkSize) throws IOException {
+        Prepared p = PREPARED.get();
+        if (p != null && p.manifest().chunkSize() == chunkSize && p.file().equals(file.toAbsolutePath().normalize())
+                && p.size() == Files.size(file) && p.modified().equals(Files.getLastModifiedTime(file))
+                && PREPARED.compareAndSet(p, null)) {
+            return p.manifest();
+        }
+        return hash(file, chunkSize);
+    }
+
+    private static FileManifest hash(Path file, int chunkSize) throws IOException {
+        long size = Files.size(file);
+        if (size > Constants.MAX_IMAGE_BYTES) {
+            throw new IOException("File too large: " + size + " bytes (max " + Constants.MAX_IMAGE_BYTES + ")");
+        }
+        MessageDigest whole = sha256();
+        MessageDigest part = sha256();
+        byte[] hashes = new byte[(int) ((size + chunkSize - 1) / chunkSize) * HASH_LENGTH];
+        long read = 0;
+        int chunk = 0;
+        try (InputStream in = Files.newInputStream(file); BufferPool.Buffer buf = BufferPool.shared().acquire()) {
+            byte[] a = buf.array();
+            int n;
+            while ((n = in.read(a, 0, (int) Math.min(a.length, chunkSize - read % chunkSize))) > 0) {
+                whole.update(a, 0, n);
+                part.update(a, 0, n);
+                read += n;
+                if (read % chunkSize == 0 || read == size) {
+                    if (chunk * HASH_LENGTH >= hashes.length) break; // файл растёт на ходу — ниже сверим размер
+                    System.arraycopy(part.digest(), 0, hashes, chunk++ * HASH_LENGTH, HASH_LENGTH);
+                }
+            }
+        }
+        if (read != size || chunk * HASH_LENGTH != hashes.length) throw new IOException("File changed while hashing: " + file);
+        return new FileManifest(HEX.formatHex(whole.digest()), String.valueOf(file.getFileName()), size, chunkSize, hashes);
+    }
+
+    public int chunks() {
+        return chunkHashes.length / HASH_LENGTH;
+    }
+
+    public long offset(int index) {
+        return (long) index * chunkSize;
+    }
+
+    public int length(int index) {
+        return (int) Math.min(chunkSize, size - offset(index));
+    }
+
+    public byte[] chunkHash(int index) {
+        return Arrays.copyOfRange(chunkHashes, index * HASH_LENGTH, (index + 1) * HASH_LENGTH);
+    }
+
+    /** Совпадает ли описание (то же содержимое, нарезанное так же). */
+    public boolean sameAs(FileManifest o) {
+        return id.equals(o.id) && size == o.size && chunkSize == o.chunkSize && Arrays.equals(chunkHashes, o.chunkHashes);
+    }
+
+    public Frame toOffer(long seq, int flags) {
+        Map<String, String> h = new LinkedHashMap<>();
+        h.put("id", id);
+        h.put("name", name);
+        h.put("size", Long.toString(size));
+        h.put("chunk", Integer.toString(chunkSize));
+        return new Frame(Frame.TYPE_OFFER, flags, seq, h, chunkHashes);
+    }
+
+    /** Разбор OFFER; любые несостыковки — {@link ProtocolException}. */
+    public static FileManifest fromOffer(Frame f) throws ProtocolException {
+        Map<String, String> h = f.headers();
+        try {
+            return new FileManifest(h.get("id"), h.get("name"), Long.parseLong(h.get("size")),
+                    Integer.parseInt(h.get("chunk")), f.payload());
+        } catch (RuntimeException e) { // NumberFormatException, IllegalArgumentException
+            throw new ProtocolException("Bad file offer: " + e.getMessage());
+        }
+    }
+
+    static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is required by the JDK", e);
+        }
+    }
+
+    static String hex(byte[] b) {
+        return HEX.formatHex(b);
+    }
+}
@@ -0,0 +1,61 @@
+package dev.learn.i2p.proto;
+
+import dev.learn.i2p.core.MessageType;
+
+import java.util.Map;
+
+/**
+ * Фрейм протокола целиком в памяти (см. {@link FrameCodec} — формат на проводе).
+ * Для больших тел на приёме используется {@link FrameCodec#readHeader} + потоковое чтение payload.
+ *
+ * @param type    тип фрейма: {@link MessageType#code} для сообщений или служебный (ACK/NAK)
+ * @param flags   битовые флаги FLAG_*
+ * @param seq     номер фрейма в стриме; ACK/NAK ссылаются на него
+ * @param headers необязательные заголовки (ключ/значение в UTF-8), пустая карта — без заголовков
+ * @param payload тело
+ */
+public record Frame(int type, int flags, long seq, Map<String, String> headers, byte[] payload) {
+
+    public static final int TYPE_TEXT  = MessageType.TEXT.code;
+    public static final int TYPE_IMAGE = MessageType.IMAGE.code;
+    public static final int TYPE_ACK   = 0x06;
+    public static final int TYPE_NAK   = 0x15;
+
+    // возобновляемая передача файла по частям (см. FileManifest, PartialStore)
+    /** Заголовки id/name/size/chunk, тело — SHA-256 каждой части подряд. */
+    public static final int TYPE_OFFER  = 0x10;
+    /** Ответ на OFFER: битовая карта уже принятых частей ({@link java.util.BitSet#toByteArray()}). */
+    public static final int TYPE_HAVE   = 0x11;
+    /** Заголовки id/index, тело — сама часть. */
+    public static final int TYPE_CHUNK  = 0x12;
+    /** Заголовок id: все части на месте, проверить хэш файла и положить в inbox. */
+    public static final int TYPE_COMMIT = 0x13;
+
+    /** В фрейме есть блок заголовков. */
+    public static final int FLAG_HEADERS = 0x01;
+    /** Отправитель ждёт ACK/NAK на этот фрейм. */
+    public static final int FLAG_ACK_REQUESTED = 0x02;
+
+    public Frame {
+        if (type < 0 || type > 0xFF) throw new IllegalArgumentException("type out of range: " + type);
+        if (seq < 0) throw new IllegalArgumentException("seq must be >= 0: " + seq);
+        headers = headers == null ? Map.of() : Map.copyOf(headers);
+        if (payload == null) payload = new byte[0];
+        flags = headers.isEmpty() ? (flags & ~FLAG_HEADERS) : (flags | FLAG_HEADERS);
+    }
+
+    public static Frame ack(long seq) {
+        return new Frame(TYPE_ACK, 0, seq, Map.of(), new byte[0]);
+    }
+
+    public boolean ackRequested() {
+        return (flags & FLAG_ACK_REQUESTED) != 0;
+    }
+
+    /** Заголовок фрейма без тела: то, что читается до payload. */
+    public record Header(int type, int flags, long seq, Map<String, String> headers, long length) {
+        public boolean ackRequested() {
+            return (flags & FLAG_ACK_REQUESTED) != 0;
+        }
+    }
+}
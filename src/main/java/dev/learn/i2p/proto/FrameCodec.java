@@ -0,0 +1,207 @@
+package dev.learn.i2p.proto;
+
+import dev.learn.i2p.core.Constants;
+
+import java.io.*;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Кодек фреймов {@link Frame}.
+ * <pre>
+ *   стрим  := preamble frame*
+ *   preamble := "I2PM" version:u8                       (один раз в начале стрима)
+ *   frame  := type:u8 flags:u8 seq:varint
+ *             [hcount:varint (klen:varint key vlen:varint value)*]   (если FLAG_HEADERS)
+ *             len:varint payload[len]
+ * </pre>
+ * varint — беззнаковый LEB128 (7 бит на байт, старший бит — "есть продолжение"), не длиннее 9 байт (63 бита).
+ * Ошибки формата — {@link ProtocolException}, обрыв посреди фрейма — {@link EOFException}.
+ * Все длины проверяются ДО выделения памяти, так что мусор на входе не приводит к гигантским аллокациям.
+ */
+public final class FrameCodec {
+    private FrameCodec() {}
+
+    public static final byte[] MAGIC = {'I', '2', 'P', 'M'};
+    public static final int VERSION = 2;
+    public static final int PREAMBLE_LENGTH = MAGIC.length + 1;
+
+    public static final int MAX_HEADERS = 32;
+    public static final int MAX_HEADER_BYTES = 16 * 1024;       // суммарно ключи + значения
+    public static final long MAX_PAYLOAD = Constants.MAX_IMAGE_BYTES;
+
+    private static final int KNOWN_FLAGS = Frame.FLAG_HEADERS | Frame.FLAG_ACK_REQUESTED;
+    private static final int MAX_VARINT_BYTES = 9;
+
+    // === preamble ===
+
+    public static void writePreamble(OutputStream out) throws IOException {
+        out.write(MAGIC);
+        out.write(VERSION);
+    }
+
+    /** true — head начинается с "I2PM" (версию проверяет {@link #checkVersion}). */
+    public static boolean hasMagic(byte[] head) {
+        return head.length >= MAGIC.length && Arrays.equals(head, 0, MAGIC.length, MAGIC, 0, MAGIC.length);
+    }
+
+    public static void checkVersion(int version) throws ProtocolException {
+        if (version != VERSION) throw new ProtocolException("Unsupported frame version: " + version);
+    }
+
+    // === varint ===
+
+    public static void writeVarint(OutputStream out, long v) throws IOException {
+        if (v < 0) throw new IllegalArgumentException("varint must be >= 0: " + v);
+        while ((v & ~0x7FL) != 0) {
+            out.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        out.write((int) v);
+    }
+
+    public static long readVarint(InputStream in) throws IOException {
+        long result = 0;
+        for (int i = 0; i < MAX_VARINT_BYTES; i++) {
+            int b = in.read();
+            if (b < 0) throw new EOFException("Truncated varint");
+            result |= (long) (b & 0x7F) << (7 * i);
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new ProtocolException("Varint too long or out of range");
+    }
+
+    public static int varintSize(long v) {
+        int n = 1;
+        while ((v & ~0x7FL) != 0) {
+            n++;
+            v >>>= 7;
+        }
+        return n;
+    }
+
+    // === запись ===
+
+    /** Заголовок фрейма; дальше вызывающий пишет ровно length байт тела. */
+    public static void writeHeader(OutputStream out, int type, int flags, long seq,
+                                   Map<String, String> headers, long length) throws IOException {
+        if (length < 0 || length > MAX_PAYLOAD) throw new IllegalArgumentException("payload length out of range: " + length);
+        boolean hasHeaders = headers != null && !headers.isEmpty();
+        flags = hasHeaders ? (flags | Frame.FLAG_HEADERS) : (flags & ~Frame.FLAG_HEADERS);
+        out.write(type);
+        out.write(flags);
+        writeVarint(out, seq);
+        if (hasHeaders) {
+            if (headers.size() > MAX_HEADERS) throw new IllegalArgumentException("too many headers: " + headers.size());
+            writeVarint(out, headers.size());
+            for (Map.Entry<String, String> e : headers.entrySet()) {
+                writeString(out, e.getKey());
+                writeString(out, e.getValue());
+            }
+        }
+        writeVarint(out, length);
+    }
+
+    public static void write(OutputStream out, Frame f) throws IOException {
+        writeHeader(out, f.type(), f.flags(), f.seq(), f.headers(), f.payload().length);
+        out.write(f.payload());
+    }
+
+    public static byte[] encode(Frame f) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(16 + f.payload().length);
+        try {
+            write(bos, f);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // ByteArrayOutputStream не бросает
+        }
+        return bos.toByteArray();
+    }
+
+    private static void writeString(OutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        writeVarint(out, b.length);
+        out.write(b);
+    }
+
+    // === чтение ===
+
+    /**
+     * Читает заголовок следующего фрейма. null — чистый EOF на границе фреймов.
+     * Тело (length байт) вызывающий дочитывает сам, например через {@link BoundedInputStream}.
+     */
+    public static Frame.Header readHeader(InputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) return null;
+        int flags = in.read();
+        if (flags < 0) throw new EOFException("Truncated frame header");
+        if ((flags & ~KNOWN_FLAGS) != 0) throw new ProtocolException("Unknown frame flags: 0x" + Integer.toHexString(flags));
+
+        long seq = readVarint(in);
+        Map<String, String> headers = Map.of();
+        if ((flags & Frame.FLAG_HEADERS) != 0) headers = readHeaders(in);
+
+        long length = readVarint(in);
+        if (length > MAX_PAYLOAD) throw new ProtocolException("Frame payload too large: " + length + " (max " + MAX_PAYLOAD + ")");
+        return new Frame.Header(type, flags, seq, headers, length);
+    }
+
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        long count = readVarint(in);
+        if (count == 0 || count > MAX_HEADERS) throw new ProtocolException("Bad header count: " + count);
+        Map<String, String> h = new LinkedHashMap<>();
+        int[] budget = {MAX_HEADER_BYTES};
+        for (int i = 0; i < count; i++) {
+            String k = readString(in, budget);
+            String v = readString(in, budget);
+            if (h.put(k, v) != null) throw new ProtocolException("Duplicate header: " + k);
+        }
+        return h;
+    }
+
+    private static String readString(InputStream in, int[] budget) throws IOException {
+        long len = readVarint(in);
+        if (len > budget[0]) throw new ProtocolException("Headers exceed " + MAX_HEADER_BYTES + " bytes");
+        budget[0] -= (int) len;
+        byte[] b = in.readNBytes((int) len);
+        if (b.length < len) throw new EOFException("Truncated header");
+        try {
+            return StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(b)).toString();
+        } catch (CharacterCodingException e) {
+            throw new ProtocolException("Header is not valid UTF-8");
+        }
+    }
+
+    /** Фрейм целиком в память (для служебных и небольших фреймов). null — чистый EOF. */
+    public static Frame read(InputStream in, long maxPayload) throws IOException {
+        Frame.Header h = readHeader(in);
+        if (h == null) return null;
+        if (h.length() > maxPayload) throw new ProtocolException("Frame payload too large: " + h.length());
+        byte[] payload = in.readNBytes((int) h.length()); // читает порциями, не выделяя length заранее
+        if (payload.length < h.length()) {
+            throw new EOFException("Frame truncated: " + payload.length + " of " + h.length() + " bytes");
+        }
+        return new Frame(h.type(), h.flags(), h.seq(), h.headers(), payload);
+    }
+
+    /**
+     * Разбор ровно одного фрейма из массива (без preamble).
+     * Используется тестами протокола (ProtocolTestKit.ParserAdapter) и для служебных сообщений.
+     */
+    public static Frame parse(byte[] bytes) throws IOException {
+        if (bytes == null || bytes.length == 0) throw new EOFException("Empty frame");
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        Frame f = read(in, MAX_PAYLOAD);
+        if (f == null) throw new EOFException("Empty frame");
+        if (in.available() > 0) throw new ProtocolException(in.available() + " trailing byte(s) after frame");
+        return f;
+    }
+}
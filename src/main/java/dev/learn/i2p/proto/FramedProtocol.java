@@ -0,0 +1,549 @@
+package dev.learn.i2p.proto;
+
+import dev.learn.i2p.core.BufferPool;
+import dev.learn.i2p.core.Config;
+import dev.learn.i2p.core.Constants;
+import dev.learn.i2p.core.FlightEvents;
+import dev.learn.i2p.core.InboundSaver;
+import dev.learn.i2p.core.Metrics;
+import dev.learn.i2p.net.PeerStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
+
+/**
+ * Фреймовый протокол: несколько сообщений на один стрим, ACK на каждое (формат — {@link FrameCodec}).
+ * <pre>
+ *   отправитель:  preamble, затем TEXT/IMAGE-фреймы с FLAG_ACK_REQUESTED и растущим seq
+ *   получатель:   на каждый фрейм — ACK(seq) после сохранения или NAK(seq, причина) и закрытие стрима
+ * </pre>
+ * Стрим не закрывается после отправки, поэтому {@link #reusesStreams()} = true и транспорт
+ * может держать его в пуле.
+ * <p>
+ * Приём совместим со старыми отправителями {@link SimpleProtocol}: если стрим начинается
+ * не с "I2PM", весь стрим до EOF — одно сообщение.
+ * <p>
+ * Файлы больше chunkSize уходят по частям и докачиваются после обрыва:
+ * <pre>
+ *   OFFER(манифест) → HAVE(какие части уже есть) → CHUNK × недостающие (до CHUNK_WINDOW без ожидания ACK)
+ *   → COMMIT → ACK, когда файл собран, сверен с SHA-256 и лежит в inbox
+ * </pre>
+ * Недокачанное получатель держит в {@link PartialStore}; повторная отправка того же файла
+ * (см. {@link #resumesTransfers()}) шлёт только недостающие части. OFFER и COMMIT несут метку передачи
+ * ({@code transfer}): по ней повтор отличается от новой отправки того же содержимого. Части одного файла могут
+ * идти и по нескольким стримам сразу — см. {@link #sendImage(Path, int, Connector)}.
+ * <p>
+ * Тела TEXT, IMAGE и CHUNK могут идти сжатыми ({@link Compression}): получатель распаковывает
+ * на лету, прямо в {@link InboundSaver} или {@link PartialStore}.
+ *
+ * @param chunkSize   размер части; 0 — всегда одним фреймом (для получателей без поддержки частей)
+ * @param compression сжатие исходящих; приём сжатых фреймов от настройки не зависит
+ */
+public record FramedProtocol(Path inbox, int chunkSize, Compression compression) implements MessengerProtocol {
+    private static final Logger log = LoggerFactory.getLogger(FramedProtocol.class);
+
+    public static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+    /** Сколько частей шлём, не дожидаясь ACK: на I2P один RTT на часть — это секунды. */
+    static final int CHUNK_WINDOW = 8;
+    /** HAVE-битмап для MAX_CHUNKS частей. */
+    private static final int MAX_HAVE_BYTES = FileManifest.MAX_CHUNKS / 8 + 1;
+
+    /**
+     * Следующий seq для исходящих стримов. Наличие записи = preamble уже отправлен.
+     * Ключ — {@link PeerStream#identity()} (сам сокет), запись уходит вместе с закрытым сокетом.
+     */
+    private static final Map<Object, AtomicLong> OUTBOUND = Collections.synchronizedMap(new WeakHashMap<>());
+
+    public FramedProtocol {
+        if (chunkSize != 0 && (chunkSize < FileManifest.MIN_CHUNK || chunkSize > FileManifest.MAX_CHUNK)) {
+            throw new IllegalArgumentException("chunkSize must be 0 or within [" + FileManifest.MIN_CHUNK
+                    + ", " + FileManifest.MAX_CHUNK + "]: " + chunkSize);
+        }
+        if (compression == null) compression = Compression.OFF;
+    }
+
+    /** Сжатие — по {@link Compression#fromSystemProps()}. */
+    public FramedProtocol(Path inbox, int chunkSize) {
+        this(inbox, chunkSize, Compression.fromSystemProps());
+    }
+
+    /** Размер части из -Di2p.messenger.chunkSize (или I2P_MESSENGER_CHUNKSIZE), по умолчанию 256 KiB. */
+    public FramedProtocol(Path inbox) {
+        this(inbox, chunkSizeFromProps());
+    }
+
+    private static int chunkSizeFromProps() {
+        return Integer.parseInt(Config.get("i2p.messenger.chunkSize", String.valueOf(DEFAULT_CHUNK_SIZE)));
+    }
+
+    @Override
+    public boolean reusesStreams() {
+        return true;
+    }
+
+    @Override
+    public boolean resumesTransfers() {
+        return chunkSize > 0;
+    }
+
+    @Override
+    public void handle(PeerStream socket) throws IOException {
+        try {
+            receive(socket);
+        } catch (IOException | RuntimeException e) {
+            Metrics.shared().error(Metrics.Stage.PROTOCOL, e);
+            throw e;
+        }
+    }
+
+    private void receive(PeerStream socket) throws IOException {
+        String senderB32 = SimpleProtocol.senderOf(socket);
+        InputStream in = new BufferedInputStream(socket.getInputStream(), Constants.BUFFER_SIZE);
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 256);
+
+        byte[] head = in.readNBytes(FrameCodec.PREAMBLE_LENGTH);
+        if (head.length == 0) return; // пустой стрим
+        if (!FrameCodec.hasMagic(head)) {
+            // старый отправитель: "всё до EOF — одно сообщение"
+            Path saved = InboundSaver.saveSmart(inbox, senderB32,
+                    new SequenceInputStream(new ByteArrayInputStream(head), in));
+            Metrics.shared().messageIn();
+            log.info("Inbound (legacy stream) stored as {}", saved.getFileName());
+            return;
+        }
+        if (head.length < FrameCodec.PREAMBLE_LENGTH) throw new EOFException("Truncated preamble");
+        FrameCodec.checkVersion(head[FrameCodec.MAGIC.length] & 0xFF);
+
+        int frames = 0;
+        Frame.Header h;
+        while ((h = nextHeader(in)) != null) {
+            receiveFrame(h, in, out, senderB32);
+            frames++;
+        }
+        log.debug("Stream closed by peer after {} frame(s)", frames);
+    }
+
+    /** Заголовок следующего фрейма; null — пир закрыл стрим или замолчал (idle). */
+    private static Frame.Header nextHeader(InputStream in) throws IOException {
+        try {
+            return FrameCodec.readHeader(in);
+        } catch (InterruptedIOException idle) {
+            // простаивающий стрим из пула пира; таймаут посреди фрейма сюда не попадает
+            return null;
+        }
+    }
+
+    private void receiveFrame(Frame.Header h, InputStream in, OutputStream out, String senderB32) throws IOException {
+        long max = maxPayload(h.type());
+        if (max < 0 || h.length() > max) {
+            reject(out, h, max < 0 ? "unsupported frame type " + h.type() : "payload too large: " + h.length());
+        }
+        try {
+            Compression.rawLength(h, max);
+        } catch (ProtocolException e) {
+            reject(out, h, e.getMessage());
+        }
+        switch (h.type()) {
+            case Frame.TYPE_OFFER -> receiveOffer(h, in, out, senderB32);
+            case Frame.TYPE_CHUNK -> receiveChunk(h, in, out, senderB32);
+            case Frame.TYPE_COMMIT -> receiveCommit(h, out, senderB32);
+            default -> receiveMessage(h, in, out, senderB32);
+        }
+    }
+
+    private void receiveMessage(Frame.Header h, InputStream in, OutputStream out, String senderB32) throws IOException {
+        FlightEvents.Transfer transfer = new FlightEvents.Transfer();
+        transfer.begin();
+        long t0 = System.nanoTime();
+        BoundedInputStream body = new BoundedInputStream(in, h.length());
+        Path saved;
+        try (InputStream raw = Compression.decoding(h, body, maxPayload(h.type()))) {
+            saved = InboundSaver.saveSmart(inbox, senderB32, raw);
+        }
+        if (body.remaining() > 0) {
+            Files.deleteIfExists(saved);
+            throw new EOFException("Frame truncated: " + body.remaining() + " of " + h.length() + " bytes missing");
+        }
+        Metrics.shared().messageIn();
+        if (transfer.shouldCommit()) transfer.end(senderB32, true, h.length(), t0);
+        log.info("Inbound frame #{} (type={}, {} bytes{}) stored as {}", h.seq(), h.type(), h.length(),
+                h.headers().isEmpty() ? "" : ", headers=" + h.headers(), saved.getFileName());
+
+        ack(out, h);
+    }
+
+    private void receiveOffer(Frame.Header h, InputStream in, OutputStream out, String senderB32) throws IOException {
+        byte[] hashes = in.readNBytes((int) h.length());
+        if (hashes.length < h.length()) throw new EOFException("Offer truncated");
+        FileManifest m = FileManifest.fromOffer(new Frame(h.type(), h.flags(), h.seq(), h.headers(), hashes));
+        BitSet have;
+        try {
+            have = new PartialStore(inbox).offer(m, senderB32, h.headers().getOrDefault("transfer", ""));
+        } catch (ProtocolException e) {
+            nak(out, h, e.getMessage()); // тело дочитано — стрим цел
+            return;
+        }
+        FrameCodec.write(out, new Frame(Frame.TYPE_HAVE, 0, h.seq(), Map.of(), have.toByteArray()));
+        out.flush();
+    }
+
+    private void receiveChunk(Frame.Header h, InputStream in, OutputStream out, String senderB32) throws IOException {
+        int index;
+        try {
+            index = Integer.parseInt(h.headers().getOrDefault("index", ""));
+        } catch (NumberFormatException e) {
+            throw new ProtocolException("Chunk frame #" + h.seq() + " without index");
+        }
+        BoundedInputStream body = new BoundedInputStream(in, h.length());
+        boolean ok;
+        try (InputStream raw = Compression.decoding(h, body, FileManifest.MAX_CHUNK)) {
+            ok = new PartialStore(inbox).writeChunk(senderB32, h.headers().get("id"), index,
+                    raw, Compression.rawLength(h, FileManifest.MAX_CHUNK));
+        } catch (ProtocolException e) {
+            reject(out, h, e.getMessage());
+            return;
+        }
+        if (ok) {
+            ack(out, h);
+        } else {
+            nak(out, h, "chunk #" + index + " hash mismatch"); // тело дочитано — стрим цел, продолжаем
+        }
+    }
+
+    private void receiveCommit(Frame.Header h, OutputStream out, String senderB32) throws IOException {
+        try {
+            Path saved = new PartialStore(inbox).commit(h.headers().get("id"), senderB32, h.headers().getOrDefault("transfer", ""));
+            Metrics.shared().messageIn();
+            log.info("Inbound file transfer #{} stored as {}", h.seq(), saved.getFileName());
+            ack(out, h);
+        } catch (ProtocolException incomplete) {
+            reject(out, h, incomplete.getMessage());
+        } catch (IOException e) {
+            nak(out, h, e.getMessage()); // хэш файла не сошёлся: состояние сброшено, отправитель начнёт заново
+        }
+    }
+
+    private static void ack(OutputStream out, Frame.Header h) throws IOException {
+        if (h.ackRequested()) {
+            FrameCodec.write(out, Frame.ack(h.seq()));
+            out.flush();
+        }
+    }
+
+    private static void nak(OutputStream out, Frame.Header h, String reason) throws IOException {
+        if (h.ackRequested()) {
+            FrameCodec.write(out, new Frame(Frame.TYPE_NAK, 0, h.seq(), Map.of(),
+                    String.valueOf(reason).getBytes(StandardCharsets.UTF_8)));
+            out.flush();
+        }
+    }
+
+    /** NAK и обрыв стрима: тело не читаем, ресинхронизироваться не на чем. */
+    private static void reject(OutputStream out, Frame.Header h, String reason) throws IOException {
+        nak(out, h, reason);
+        throw new ProtocolException("Rejected frame #" + h.seq() + ": " + reason);
+    }
+
+    private static long maxPayload(int type) {
+        if (type == Frame.TYPE_TEXT) return Constants.MAX_TEXT_BYTES;
+        if (type == Frame.TYPE_IMAGE) return Constants.MAX_IMAGE_BYTES;
+        if (type == Frame.TYPE_OFFER) return (long) FileManifest.MAX_CHUNKS * FileManifest.HASH_LENGTH;
+        if (type == Frame.TYPE_CHUNK) return FileManifest.MAX_CHUNK;
+        if (type == Frame.TYPE_COMMIT) return 0;
+        return -1;
+    }
+
+    @Override
+    public void sendText(PeerStream socket, String text) throws IOException {
+        if (text == null) text = "";
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        if (payload.length > Constants.MAX_TEXT_BYTES) {
+            throw new IOException("Text too large: " + payload.length + " bytes (max " + Constants.MAX_TEXT_BYTES + ")");
+        }
+        Compression.Encoded body = compression.text(payload);
+        sendFrame(socket, Frame.TYPE_TEXT, body.headers(Map.of()), body.length(), out -> out.write(body.bytes(), 0, body.length()));
+    }
+
+    /** Все кадры одной записью, затем ACK по порядку: пачка стоит один RTT, а не по RTT на сообщение. */
+    @Override
+    public void sendTexts(PeerStream socket, List<String> texts, IntConsumer acked) throws IOException {
+        List<Compression.Encoded> payloads = new ArrayList<>(texts.size());
+        for (String text : texts) {
+            byte[] payload = (text == null ? "" : text).getBytes(StandardCharsets.UTF_8);
+            if (payload.length > Constants.MAX_TEXT_BYTES) {
+                throw new IOException("Text too large: " + payload.length + " bytes (max " + Constants.MAX_TEXT_BYTES + ")");
+            }
+            payloads.add(compression.text(payload));
+        }
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), Constants.BUFFER_SIZE);
+        long[] seqs = new long[payloads.size()];
+        for (int i = 0; i < seqs.length; i++) {
+            Compression.Encoded body = payloads.get(i);
+            seqs[i] = writeFrame(socket, out, Frame.TYPE_TEXT, body.headers(Map.of()), body.length(),
+                    o -> o.write(body.bytes(), 0, body.length()));
+        }
+        out.flush();
+        for (int i = 0; i < seqs.length; i++) {
+            expectAck(socket, seqs[i]);
+            acked.accept(i);
+        }
+    }
+
+    /** Файл пойдёт частями — посчитать манифест (хэш файла и частей) заранее. */
+    @Override
+    public void prepareImage(Path img) throws IOException {
+        long size = Files.size(img);
+        if (chunkSize > 0 && size > chunkSize && size <= Constants.MAX_IMAGE_BYTES) FileManifest.prepare(img, chunkSize);
+    }
+
+    @Override
+    public void sendImage(PeerStream socket, Path img) throws IOException {
+        sendImage(socket, img, MessengerProtocol.newTransfer());
+    }
+
+    @Override
+    public void sendImage(PeerStream socket, Path img, String transfer) throws IOException {
+        long size = Files.size(img);
+        if (size > Constants.MAX_IMAGE_BYTES) {
+            throw new IOException("Image too large: " + size + " bytes (max " + Constants.MAX_IMAGE_BYTES + ")");
+        }
+        if (chunkSize > 0 && size > chunkSize) {
+            sendChunked(socket, FileManifest.of(img, chunkSize), img, transfer);
+            return;
+        }
+        Map<String, String> headers = Map.of("name", String.valueOf(img.getFileName()));
+        long packed = size <= FileManifest.MAX_CHUNK ? deflatedLength(img, size) : -1;
+        if (packed >= 0) {
+            sendFrame(socket, Frame.TYPE_IMAGE, Compression.headers(headers, size), packed, out -> {
+                if (compression.deflate(img, out) != packed) throw new IOException("File changed while sending: " + img);
+            });
+            return;
+        }
+        sendFrame(socket, Frame.TYPE_IMAGE, headers, size, out -> {
+            try (InputStream in = Files.newInputStream(img)) {
+                if (in.transferTo(out) != size) throw new IOException("File changed while sending: " + img);
+            }
+        });
+    }
+
+    /**
+     * Длина файла после сжатия; -1 — сжатие выключено, формат уже сжат или выигрыша нет (шлём потоком как есть).
+     * Файл сжимается дважды — здесь ради длины для заголовка фрейма и потом прямо в стрим, — зато в памяти
+     * только буферы, а не файл целиком. Больше {@link FileManifest#MAX_CHUNK} не пробуем: пока идёт первый
+     * проход, получатель ещё ничего не получает.
+     */
+    private long deflatedLength(Path img, long size) throws IOException {
+        if (!compression.enabled()) return -1;
+        try (InputStream in = Files.newInputStream(img)) {
+            byte[] head = in.readNBytes(Constants.BUFFER_SIZE);
+            if (!compression.worthTrying(head, head.length)) return -1;
+        }
+        return compression.deflatedLength(img, size);
+    }
+
+    /** OFFER → HAVE → недостающие части окном → COMMIT. Обрыв на любом шаге лечится повторным вызовом. */
+    private void sendChunked(PeerStream socket, FileManifest m, Path img, String transfer) throws IOException {
+        sendChunks(socket, m, img, offer(socket, m, transfer));
+        commit(socket, m, transfer);
+    }
+
+    /**
+     * Файл по нескольким стримам сразу: OFFER, затем недостающие части делятся на streams
+     * непрерывных диапазонов, каждый уходит своим стримом параллельно, и COMMIT, когда дошли все.
+     * Получателю порядок не важен — части пишутся по своим смещениям в заранее выделенный файл.
+     */
+    @Override
+    public void sendImage(Path img, String transfer, int streams, Connector connect) throws IOException {
+        long size = Files.size(img);
+        if (streams <= 1 || chunkSize == 0 || size <= chunkSize) {
+            MessengerProtocol.super.sendImage(img, transfer, streams, connect);
+            return;
+        }
+        FileManifest m = FileManifest.of(img, chunkSize);
+        BitSet[] missing = new BitSet[1];
+        connect.withStream(s -> missing[0] = offer(s, m, transfer));
+
+        List<BitSet> ranges = split(missing[0], streams);
+        log.info("Sending {} over {} stream(s)", m.name(), ranges.size());
+        List<Thread> workers = new ArrayList<>();
+        List<IOException> failures = Collections.synchronizedList(new ArrayList<>());
+        for (BitSet range : ranges) {
+            workers.add(Thread.ofVirtual().name("send-range").start(() -> {
+                try {
+                    connect.withStream(s -> sendChunks(s, m, img, range));
+                } catch (IOException e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        for (Thread t : workers) {
+            try {
+                t.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while sending " + m.name());
+            }
+        }
+        if (!failures.isEmpty()) {
+            IOException first = failures.get(0);
+            for (IOException other : failures.subList(1, failures.size())) first.addSuppressed(other);
+            throw first; // дошедшие части уже у получателя — повтор докачает остальное
+        }
+        connect.withStream(s -> commit(s, m, transfer));
+    }
+
+    /** Делит отмеченные части на n непрерывных диапазонов примерно поровну (пустые не возвращает). */
+    static List<BitSet> split(BitSet chunks, int n) {
+        int total = chunks.cardinality();
+        List<BitSet> ranges = new ArrayList<>();
+        int i = chunks.nextSetBit(0);
+        for (int r = 0; r < n && i >= 0; r++) {
+            int quota = (total + n - 1 - r) / (n - r);
+            total -= quota;
+            BitSet range = new BitSet();
+            for (int k = 0; k < quota && i >= 0; k++, i = chunks.nextSetBit(i + 1)) range.set(i);
+            if (!range.isEmpty()) ranges.add(range);
+        }
+        return ranges;
+    }
+
+    /** OFFER и ответ HAVE; возвращает части, которых у получателя ещё нет. */
+    private static BitSet offer(PeerStream socket, FileManifest m, String transfer) throws IOException {
+        Frame offer = m.toOffer(0, 0);
+        Map<String, String> headers = new LinkedHashMap<>(offer.headers());
+        headers.put("transfer", transfer);
+        long offerSeq = writeFrame(socket, Frame.TYPE_OFFER, headers, offer.payload().length,
+                out -> out.write(offer.payload()));
+        Frame have = awaitReply(socket, offerSeq, MAX_HAVE_BYTES);
+        if (have.type() != Frame.TYPE_HAVE) throw new ProtocolException("Expected HAVE, got frame type " + have.type());
+        BitSet missing = BitSet.valueOf(have.payload());
+        missing.flip(0, m.chunks());
+        missing.clear(m.chunks(), Math.max(m.chunks(), missing.length()));
+        log.info("Sending {} in {} chunk(s), {} already at peer", m.name(), m.chunks(), m.chunks() - missing.cardinality());
+        return missing;
+    }
+
+    /** Части из chunks, не больше CHUNK_WINDOW без ACK. Сжимать ли, решается один раз — по началу файла. */
+    private void sendChunks(PeerStream socket, FileManifest m, Path img, BitSet chunks) throws IOException {
+        ArrayDeque<Long> inFlight = new ArrayDeque<>();
+        try (FileChannel file = FileChannel.open(img); BufferPool.Buffer buf = BufferPool.shared().acquire()) {
+            byte[] chunk = worthDeflating(file, buf) ? new byte[m.length(0)] : null;
+            for (int i = chunks.nextSetBit(0); i >= 0; i = chunks.nextSetBit(i + 1)) {
+                int index = i;
+                Map<String, String> headers = Map.of("id", m.id(), "index", Integer.toString(index));
+                if (chunk != null) {
+                    readRegion(file, m.offset(index), m.length(index), chunk);
+                    Compression.Encoded body = compression.block(chunk, m.length(index));
+                    inFlight.add(writeFrame(socket, Frame.TYPE_CHUNK, body.headers(headers), body.length(),
+                            out -> out.write(body.bytes(), 0, body.length())));
+                } else {
+                    inFlight.add(writeFrame(socket, Frame.TYPE_CHUNK, headers, m.length(index),
+                            out -> copyRegion(file, m.offset(index), m.length(index), buf, out)));
+                }
+                if (inFlight.size() >= CHUNK_WINDOW) expectAck(socket, inFlight.poll());
+            }
+            while (!inFlight.isEmpty()) expectAck(socket, inFlight.poll());
+        }
+    }
+
+    private static void commit(PeerStream socket, FileManifest m, String transfer) throws IOException {
+        expectAck(socket, writeFrame(socket, Frame.TYPE_COMMIT, Map.of("id", m.id(), "transfer", transfer), 0, out -> { }));
+    }
+
+    private boolean worthDeflating(FileChannel file, BufferPool.Buffer buf) throws IOException {
+        if (!compression.enabled()) return false;
+        byte[] a = buf.array();
+        int n = Math.max(0, file.read(ByteBuffer.wrap(a, 0, Math.min(a.length, Constants.BUFFER_SIZE)), 0));
+        return compression.worthTrying(a, n);
+    }
+
+    private static void readRegion(FileChannel file, long pos, int len, byte[] dst) throws IOException {
+        ByteBuffer bb = ByteBuffer.wrap(dst, 0, len);
+        while (bb.hasRemaining()) {
+            if (file.read(bb, pos + bb.position()) < 0) throw new IOException("File changed while sending");
+        }
+    }
+
+    private static void copyRegion(FileChannel file, long pos, int len, BufferPool.Buffer buf, OutputStream out)
+            throws IOException {
+        byte[] a = buf.array();
+        ByteBuffer bb = ByteBuffer.wrap(a);
+        for (int done = 0; done < len; ) {
+            bb.clear().limit(Math.min(a.length, len - done));
+            int n = file.read(bb, pos + done);
+            if (n < 0) throw new IOException("File changed while sending");
+            out.write(a, 0, n);
+            done += n;
+        }
+    }
+
+    private interface Body {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    /** Пишет фрейм и ждёт ACK. Потоки сокета не закрываем — стрим может вернуться в пул. */
+    private static void sendFrame(PeerStream socket, int type, Map<String, String> headers,
+                                  long len, Body body) throws IOException {
+        expectAck(socket, writeFrame(socket, type, headers, len, body));
+    }
+
+    /** Пишет фрейм с FLAG_ACK_REQUESTED (перед первым на стриме — preamble) и возвращает его seq. */
+    private static long writeFrame(PeerStream socket, int type, Map<String, String> headers,
+                                   long len, Body body) throws IOException {
+        OutputStream out = new BufferedOutputStream(socket.getOutputStream(), Constants.BUFFER_SIZE);
+        long seq = writeFrame(socket, out, type, headers, len, body);
+        out.flush();
+        return seq;
+    }
+
+    /** То же без flush — для нескольких кадров одной записью. */
+    private static long writeFrame(PeerStream socket, OutputStream out, int type, Map<String, String> headers,
+                                   long len, Body body) throws IOException {
+        AtomicLong seqs;
+        boolean fresh;
+        synchronized (OUTBOUND) {
+            seqs = OUTBOUND.get(socket.identity());
+            fresh = seqs == null;
+            if (fresh) OUTBOUND.put(socket.identity(), seqs = new AtomicLong());
+        }
+        long seq = seqs.getAndIncrement();
+
+        if (fresh) FrameCodec.writePreamble(out);
+        FrameCodec.writeHeader(out, type, Frame.FLAG_ACK_REQUESTED, seq, headers, len);
+        body.writeTo(out);
+        return seq;
+    }
+
+    private static void expectAck(PeerStream socket, long seq) throws IOException {
+        Frame reply = awaitReply(socket, seq, 4096);
+        if (reply.type() != Frame.TYPE_ACK) throw new ProtocolException("Unexpected reply frame type " + reply.type());
+    }
+
+    /** Ответ на фрейм seq; NAK — IOException с причиной от пира. */
+    private static Frame awaitReply(PeerStream socket, long seq, long maxPayload) throws IOException {
+        Frame reply = FrameCodec.read(socket.getInputStream(), maxPayload);
+        if (reply == null) throw new EOFException("Connection closed before ACK for frame #" + seq);
+        if (reply.seq() != seq) throw new ProtocolException("ACK for frame #" + reply.seq() + ", expected #" + seq);
+        if (reply.type() == Frame.TYPE_NAK) {
+            throw new IOException("Peer rejected frame #" + seq + ": " + new String(reply.payload(), StandardCharsets.UTF_8));
+        }
+        return reply;
+    }
+}
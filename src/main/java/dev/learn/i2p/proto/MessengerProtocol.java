@@ -1,15 +1,89 @@
 package dev.learn.i2p.proto;
 
-import net.i2p.client.streaming.I2PSocket;
+import dev.learn.i2p.net.PeerStream;
+import dev.learn.i2p.net.SocketConsumer;
 
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.IntConsumer;
 
+/**
+ * Протокол сообщений поверх {@link PeerStream}: не знает, какой под ним транспорт.
+ */
 public interface MessengerProtocol {
-    void handle(I2PSocket socket) throws IOException;
+    void handle(PeerStream stream) throws IOException;
 
-    void sendText(I2PSocket socket, String text) throws IOException;
+    void sendText(PeerStream stream, String text) throws IOException;
 
-    void sendImage(I2PSocket socket, Path img) throws IOException;
+    void sendImage(PeerStream stream, Path img) throws IOException;
+
+    /**
+     * Отправка файла как часть логической передачи transfer ({@link #newTransfer()}): повторы с той же
+     * меткой получатель узнаёт (докачка, повтор COMMIT после потерянного ACK), новая метка — новое сообщение.
+     * По умолчанию метка не нужна.
+     */
+    default void sendImage(PeerStream stream, Path img, String transfer) throws IOException {
+        sendImage(stream, img);
+    }
+
+    /** Метка новой логической передачи файла: 32 hex-символа (случайный UUID). */
+    static String newTransfer() {
+        return UUID.randomUUID().toString().replace("-", "");
+    }
+
+    /**
+     * Подготовить отправку файла заранее (например, пока транспорт подключается), чтобы
+     * {@link #sendImage} не тратил на это время. По умолчанию готовить нечего.
+     */
+    default void prepareImage(Path img) throws IOException {
+    }
+
+    /**
+     * Несколько текстов подряд по одному стриму; acked(i) — когда текст i подтверждён.
+     * Только для протоколов с {@link #reusesStreams()}: по умолчанию просто sendText по очереди.
+     */
+    default void sendTexts(PeerStream stream, List<String> texts, IntConsumer acked) throws IOException {
+        for (int i = 0; i < texts.size(); i++) {
+            sendText(stream, texts.get(i));
+            acked.accept(i);
+        }
+    }
+
+    /**
+     * true — протокол передаёт несколько сообщений по одному стриму и не закрывает его после
+     * отправки, поэтому транспорт может брать сокеты из пула.
+     */
+    default boolean reusesStreams() {
+        return false;
+    }
+
+    /**
+     * true — оборванную отправку файла имеет смысл повторить: получатель сохранил принятое,
+     * и повтор дошлёт только недостающее.
+     */
+    default boolean resumesTransfers() {
+        return false;
+    }
+
+    /** Как {@link #sendImage(Path, String, int, Connector)}, новой передачей. */
+    default void sendImage(Path img, int streams, Connector connect) throws IOException {
+        sendImage(img, newTransfer(), streams, connect);
+    }
+
+    /**
+     * Отправка файла, которой разрешено открыть до streams стримов к пиру одновременно.
+     * По умолчанию — обычная отправка по одному стриму.
+     */
+    default void sendImage(Path img, String transfer, int streams, Connector connect) throws IOException {
+        connect.withStream(s -> sendImage(s, img, transfer));
+    }
+
+    /** Открывает новый стрим к тому же пиру на время op (можно звать из нескольких потоков). */
+    @FunctionalInterface
+    interface Connector {
+        void withStream(SocketConsumer op) throws IOException;
+    }
 }
 
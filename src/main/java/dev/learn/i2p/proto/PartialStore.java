@@ -0,0 +1,309 @@
+package dev.learn.i2p.proto;
+
+import dev.learn.i2p.core.BufferPool;
+import dev.learn.i2p.core.Config;
+import dev.learn.i2p.core.InboundSaver;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Недокачанные файлы на стороне получателя. Лежат рядом с inbox, в {@code <inbox>.partial/<отправитель>/<id>/}
+ * (отправитель — hex первых 16 байт SHA-256 его адреса):
+ * <pre>
+ *   manifest  — OFFER-фрейм как пришёл (FileManifest)
+ *   data      — файл целиком (выделяется сразу), части пишутся по своим смещениям
+ *   have      — битовая карта принятых и проверенных частей
+ *   done      — передача завершена: "transfer\nпуть файла относительно inbox"; на повторный COMMIT
+ *               той же передачи отвечаем ACK
+ * </pre>
+ * Всё состояние — на диске, поэтому передача переживает и обрыв стрима, и перезапуск приёмника.
+ * Часть отмечается в have только после того, как её хэш сошёлся и данные сброшены на диск.
+ * <p>
+ * transfer — метка логической отправки от отправителя (повторы и стримы одной отправки несут одну метку).
+ * Данные одного содержимого от одного отправителя докачиваются под любой меткой, но завершённой считается
+ * только та же передача: новая отправка того же файла — новый файл в inbox и новая запись в индексе.
+ * Незавершённых передач не больше {@code i2p.messenger.partial.maxPerSender} (4) на отправителя и
+ * {@code i2p.messenger.partial.maxTotal} (32) всего: каждая сразу занимает место под весь файл.
+ */
+final class PartialStore {
+    private static final Logger log = LoggerFactory.getLogger(PartialStore.class);
+
+    /** Read-modify-write файлов have/done; сами части пишутся без блокировки — смещения не пересекаются. */
+    private static final Object[] LOCKS = new Object[64];
+
+    static {
+        Arrays.setAll(LOCKS, i -> new Object());
+    }
+
+    /** Проверка лимитов и создание новой передачи — одним шагом, иначе параллельные OFFER проскочат лимит. */
+    private static final Object ADMIT = new Object();
+
+    private static final int MAX_PER_SENDER = Integer.parseInt(Config.get("i2p.messenger.partial.maxPerSender", "4"));
+    private static final int MAX_TOTAL = Integer.parseInt(Config.get("i2p.messenger.partial.maxTotal", "32"));
+
+    /** Завершённая передача: её метка и куда лёг файл. */
+    private record Done(String transfer, String path) {}
+
+    private final Path inbox;
+    private final Path root;
+
+    PartialStore(Path inbox) {
+        this.inbox = inbox;
+        this.root = rootFor(inbox);
+    }
+
+    static Path rootFor(Path inbox) {
+        Path abs = inbox.toAbsolutePath();
+        return abs.resolveSibling(abs.getFileName() + ".partial");
+    }
+
+    /**
+     * Зарегистрировать передачу (или продолжить прежнюю) и вернуть уже имеющиеся части.
+     * Лимит незавершённых передач исчерпан — {@link ProtocolException}.
+     */
+    BitSet offer(FileManifest m, String senderB32, String transfer) throws IOException {
+        Path dir = dirFor(senderB32, m.id());
+        checkTransfer(transfer);
+        synchronized (lock(dir)) {
+            Done done = loadDone(dir);
+            if (done != null && done.transfer().equals(transfer)) { // повторный OFFER уже принятой передачи
+                BitSet all = new BitSet(m.chunks());
+                all.set(0, m.chunks());
+                return all;
+            }
+            FileManifest prev = loadManifest(dir);
+            if (prev == null && InboundSaver.receivedFrom(inbox, senderB32, HexFormat.of().parseHex(m.id()))) {
+                log.info("Transfer {} ({}) is content this sender sent before, nothing to send", shortId(m.id()), m.name());
+                BitSet all = new BitSet(m.chunks());
+                all.set(0, m.chunks());
+                return all; // на COMMIT файл станет ссылкой на имеющийся blob
+            }
+            if (prev != null && prev.sameAs(m)) {
+                BitSet have = loadHave(dir);
+                log.info("Resuming transfer {} ({}): {} of {} chunk(s) already here",
+                        shortId(m.id()), m.name(), have.cardinality(), m.chunks());
+                return have;
+            }
+            if (prev != null) deleteTree(dir); // тот же файл, но нарезан иначе — начинаем заново
+            else Files.deleteIfExists(dir.resolve("done")); // то же содержимое, но новая отправка
+            synchronized (ADMIT) {
+                admit(dir);
+                Files.createDirectories(dir);
+                try (RandomAccessFile data = new RandomAccessFile(dir.resolve("data").toFile(), "rw")) {
+                    data.setLength(m.size()); // место под весь файл сразу: части приходят в любом порядке и по разным стримам
+                }
+                replace(dir.resolve("manifest"), FrameCodec.encode(m.toOffer(0, 0)));
+            }
+            replace(dir.resolve("have"), new byte[0]);
+            log.info("New transfer {} ({}, {} bytes in {} chunk(s))", shortId(m.id()), m.name(), m.size(), m.chunks());
+            return new BitSet(m.chunks());
+        }
+    }
+
+    /** Место для ещё одной незавершённой передачи: у отправителя и всего. */
+    private void admit(Path dir) throws IOException {
+        long mine = pending(dir.getParent());
+        if (mine >= MAX_PER_SENDER) {
+            throw new ProtocolException("Too many unfinished transfers from this sender: " + mine + " (max " + MAX_PER_SENDER + ")");
+        }
+        long total = 0;
+        if (Files.isDirectory(root)) {
+            try (Stream<Path> s = Files.list(root)) {
+                for (Path sender : s.filter(Files::isDirectory).toList()) total += pending(sender);
+            }
+        }
+        if (total >= MAX_TOTAL) throw new ProtocolException("Too many unfinished transfers: " + total + " (max " + MAX_TOTAL + ")");
+    }
+
+    /** Незавершённые передачи в каталоге отправителя — те, у которых есть manifest. */
+    private static long pending(Path senderDir) throws IOException {
+        if (!Files.isDirectory(senderDir)) return 0;
+        try (Stream<Path> s = Files.list(senderDir)) {
+            return s.filter(d -> Files.exists(d.resolve("manifest"))).count();
+        }
+    }
+
+    /**
+     * Записать часть index из body (ровно length байт). false — хэш не сошёлся, часть не принята.
+     * Обрыв посреди части — {@link EOFException}; данные по её смещению потом просто перезапишутся.
+     */
+    boolean writeChunk(String senderB32, String id, int index, InputStream body, long length) throws IOException {
+        Path dir = dirFor(senderB32, checkId(id));
+        FileManifest m = loadManifest(dir);
+        if (m == null) throw new ProtocolException("Chunk for unknown transfer " + shortId(id));
+        if (index < 0 || index >= m.chunks() || length != m.length(index)) {
+            throw new ProtocolException("Bad chunk #" + index + " (" + length + " bytes) for " + shortId(id));
+        }
+
+        MessageDigest md = FileManifest.sha256();
+        long pos = m.offset(index);
+        long got = 0;
+        try (FileChannel ch = FileChannel.open(dir.resolve("data"), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+             BufferPool.Buffer buf = BufferPool.shared().acquire()) {
+            byte[] a = buf.array();
+            int n;
+            while (got < length && (n = body.read(a, 0, (int) Math.min(a.length, length - got))) >= 0) {
+                md.update(a, 0, n);
+                ByteBuffer bb = buf.direct(n);
+                while (bb.hasRemaining()) pos += ch.write(bb, pos);
+                got += n;
+            }
+            if (got < length) throw new EOFException("Chunk #" + index + " truncated: " + got + " of " + length + " bytes");
+            if (!MessageDigest.isEqual(md.digest(), m.chunkHash(index))) {
+                log.warn("Chunk #{} of {} failed hash check", index, shortId(id));
+                return false;
+            }
+            ch.force(false);
+        }
+
+        synchronized (lock(dir)) {
+            BitSet have = loadHave(dir);
+            have.set(index);
+            replace(dir.resolve("have"), have.toByteArray());
+        }
+        return true;
+    }
+
+    /**
+     * Все части на месте: сверить SHA-256 файла с id и отдать файл в inbox через {@link InboundSaver}.
+     * Повторный COMMIT той же передачи (ACK потерялся) — прежний путь; другой передачи содержимого,
+     * которое этот отправитель уже присылал, — новый файл-ссылка через {@link InboundSaver#linkKnown}.
+     * COMMIT без OFFER от чужого отправителя отклоняется одинаково, есть у нас такой blob или нет.
+     * Не хватает частей — {@link ProtocolException}; хэш не сошёлся — состояние сбрасывается и IOException.
+     */
+    Path commit(String id, String senderB32, String transfer) throws IOException {
+        Path dir = dirFor(senderB32, checkId(id));
+        checkTransfer(transfer);
+        synchronized (lock(dir)) {
+            Done done = loadDone(dir);
+            if (done != null && done.transfer().equals(transfer)) return inbox.resolve(done.path()); // повтор после потерянного ACK
+
+            FileManifest m = loadManifest(dir);
+            if (m == null) {
+                Path linked = InboundSaver.linkKnown(inbox, senderB32, HexFormat.of().parseHex(id));
+                if (linked == null) throw new ProtocolException("Commit for unknown transfer " + shortId(id));
+                Files.createDirectories(dir);
+                writeDone(dir, transfer, linked);
+                return linked;
+            }
+            int have = loadHave(dir).cardinality();
+            if (have < m.chunks()) throw new ProtocolException("Transfer " + shortId(id) + " incomplete: " + have + " of " + m.chunks() + " chunk(s)");
+
+            Path data = dir.resolve("data");
+            byte[] sha = digest(data);
+            if (Files.size(data) != m.size() || !FileManifest.hex(sha).equals(id)) {
+                deleteTree(dir);
+                throw new IOException("Transfer " + shortId(id) + " failed the whole-file hash check, restarting");
+            }
+
+            Path saved = InboundSaver.adopt(inbox, senderB32, data, sha);
+            try (Stream<Path> s = Files.list(dir)) {
+                for (Path p : s.toList()) Files.deleteIfExists(p);
+            }
+            writeDone(dir, transfer, saved);
+            return saved;
+        }
+    }
+
+    private Path dirFor(String senderB32, String id) {
+        String sender = senderB32 == null ? "" : senderB32.trim().toLowerCase(Locale.ROOT);
+        byte[] h = FileManifest.sha256().digest(sender.getBytes(StandardCharsets.UTF_8));
+        return root.resolve(HexFormat.of().formatHex(h, 0, 16)).resolve(id);
+    }
+
+    /** Файл done прежнего формата (только путь) — передача без метки. */
+    private static Done loadDone(Path dir) throws IOException {
+        String s;
+        try {
+            s = Files.readString(dir.resolve("done"));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        int nl = s.indexOf('\n');
+        return nl < 0 ? new Done("", s) : new Done(s.substring(0, nl), s.substring(nl + 1));
+    }
+
+    private void writeDone(Path dir, String transfer, Path saved) throws IOException {
+        replace(dir.resolve("done"), (transfer + '\n' + inbox.relativize(saved)).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static byte[] digest(Path file) throws IOException {
+        MessageDigest md = FileManifest.sha256();
+        try (InputStream in = Files.newInputStream(file); BufferPool.Buffer buf = BufferPool.shared().acquire()) {
+            byte[] a = buf.array();
+            int n;
+            while ((n = in.read(a)) > 0) md.update(a, 0, n);
+        }
+        return md.digest();
+    }
+
+    private static FileManifest loadManifest(Path dir) throws IOException {
+        try {
+            return FileManifest.fromOffer(FrameCodec.parse(Files.readAllBytes(dir.resolve("manifest"))));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static BitSet loadHave(Path dir) throws IOException {
+        try {
+            return BitSet.valueOf(Files.readAllBytes(dir.resolve("have")));
+        } catch (NoSuchFileException e) {
+            return new BitSet();
+        }
+    }
+
+    /** Запись через временный файл: после сбоя на диске либо старая версия, либо новая. */
+    private static void replace(Path file, byte[] content) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(tmp, content);
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void deleteTree(Path dir) throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            for (Path p : s.sorted(Comparator.reverseOrder()).toList()) Files.deleteIfExists(p);
+        }
+    }
+
+    /** id приходит из сети и становится именем каталога — пускаем только hex SHA-256. */
+    private static String checkId(String id) throws ProtocolException {
+        if (id == null || !id.matches("[0-9a-f]{64}")) throw new ProtocolException("Bad transfer id: " + id);
+        return id;
+    }
+
+    /** Метка передачи из сети: hex до 64 символов; пустая — отправитель без меток. */
+    private static String checkTransfer(String transfer) throws ProtocolException {
+        if (!transfer.matches("[0-9a-f]{0,64}")) throw new ProtocolException("Bad transfer tag: " + transfer);
+        return transfer;
+    }
+
+    private static Object lock(Path dir) {
+        return LOCKS[Math.floorMod(dir.hashCode(), LOCKS.length)];
+    }
+
+    static String shortId(String id) {
+        return id == null || id.length() <= 12 ? String.valueOf(id) : id.substring(0, 12);
+    }
+}
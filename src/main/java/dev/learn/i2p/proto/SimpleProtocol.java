@@ -1,6 +1,6 @@
 package dev.learn.i2p.proto;
 
-import net.i2p.client.streaming.I2PSocket;
+import dev.learn.i2p.net.PeerStream;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -9,45 +9,67 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 
+import dev.learn.i2p.core.FlightEvents;
 import dev.learn.i2p.core.InboundSaver;
-import net.i2p.data.Base32;
+import dev.learn.i2p.core.Metrics;
 import org.slf4j.LoggerFactory;
 
 public record SimpleProtocol(Path inbox) implements MessengerProtocol {
 
     @Override
-    public void handle(I2PSocket socket) throws IOException {
-        String senderB32 = null;
-        try {
-            var peer = socket.getPeerDestination();
-            if (peer != null) senderB32 = Base32.encode(peer.calculateHash().getData()) + ".b32.i2p";
-        } catch (Throwable ignore) {
-            // best-effort: адрес отправителя не обязателен
-        }
+    public void handle(PeerStream socket) throws IOException {
+        String senderB32 = senderOf(socket);
+        FlightEvents.Transfer transfer = new FlightEvents.Transfer();
+        transfer.begin();
+        long t0 = System.nanoTime();
 
         try (InputStream in = socket.getInputStream()) {
             Path saved = InboundSaver.saveSmart(inbox, senderB32, in);
+            Metrics.shared().messageIn();
+            if (transfer.shouldCommit()) transfer.end(senderB32, true, Files.size(saved), t0);
             // Лог — информативный: mime/ext/size пишет InboundSaver; тут можно кратко
             LoggerFactory.getLogger(SimpleProtocol.class)
                     .info("Inbound stored as {}", saved.getFileName());
+        } catch (IOException | RuntimeException e) {
+            Metrics.shared().error(Metrics.Stage.PROTOCOL, e);
+            throw e;
         }
     }
 
 
+    /** Адрес отправителя (b32 для I2P) или null, если не удалось определить. */
+    static String senderOf(PeerStream stream) {
+        try {
+            return stream.peerAddress();
+        } catch (RuntimeException ignore) {
+            return null; // best-effort: адрес отправителя не обязателен
+        }
+    }
+
     @Override
-    public void sendText(I2PSocket socket, String text) throws IOException {
+    public void sendText(PeerStream socket, String text) throws IOException {
         if (text == null) text = "";
+        FlightEvents.Transfer transfer = new FlightEvents.Transfer();
+        transfer.begin();
+        long t0 = System.nanoTime();
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
         try (OutputStream out = socket.getOutputStream()) {
-            out.write(text.getBytes(StandardCharsets.UTF_8));
+            out.write(payload);
             out.flush();
         }
+        if (transfer.shouldCommit()) transfer.end(socket.peerAddress(), false, payload.length, t0);
     }
 
     @Override
-    public void sendImage(I2PSocket socket, Path img) throws IOException {
+    public void sendImage(PeerStream socket, Path img) throws IOException {
+        FlightEvents.Transfer transfer = new FlightEvents.Transfer();
+        transfer.begin();
+        long t0 = System.nanoTime();
+        long bytes;
         try (OutputStream out = socket.getOutputStream()) {
-            Files.copy(img, out);
+            bytes = Files.copy(img, out);
             out.flush();
         }
+        if (transfer.shouldCommit()) transfer.end(socket.peerAddress(), false, bytes, t0);
     }
 }
\ No newline at end of file
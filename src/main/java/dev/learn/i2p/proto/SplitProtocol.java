@@ -0,0 +1,61 @@
+package dev.learn.i2p.proto;
+
+import dev.learn.i2p.net.PeerStream;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * Приём одним протоколом, отправка — другим. Нужен, пока у пиров нет согласования версий:
+ * приёмник {@link FramedProtocol} понимает и старых отправителей, а отправлять фреймы можно только
+ * пирам с новым приёмником — старый ждёт EOF, не отвечает ACK и сохраняет "I2PM…" как файл.
+ */
+public record SplitProtocol(MessengerProtocol receiver, MessengerProtocol sender) implements MessengerProtocol {
+
+    @Override
+    public void handle(PeerStream stream) throws IOException {
+        receiver.handle(stream);
+    }
+
+    @Override
+    public void sendText(PeerStream stream, String text) throws IOException {
+        sender.sendText(stream, text);
+    }
+
+    @Override
+    public void sendImage(PeerStream stream, Path img) throws IOException {
+        sender.sendImage(stream, img);
+    }
+
+    @Override
+    public void sendImage(PeerStream stream, Path img, String transfer) throws IOException {
+        sender.sendImage(stream, img, transfer);
+    }
+
+    @Override
+    public void prepareImage(Path img) throws IOException {
+        sender.prepareImage(img);
+    }
+
+    @Override
+    public void sendTexts(PeerStream stream, List<String> texts, IntConsumer acked) throws IOException {
+        sender.sendTexts(stream, texts, acked);
+    }
+
+    @Override
+    public boolean reusesStreams() {
+        return sender.reusesStreams();
+    }
+
+    @Override
+    public boolean resumesTransfers() {
+        return sender.resumesTransfers();
+    }
+
+    @Override
+    public void sendImage(Path img, String transfer, int streams, Connector connect) throws IOException {
+        sender.sendImage(img, transfer, streams, connect);
+    }
+}
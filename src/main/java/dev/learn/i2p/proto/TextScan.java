@@ -0,0 +1,64 @@
+package dev.learn.i2p.proto;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Проверка "похоже на текст в UTF-8" за один проход по заголовку.
+ * <p>
+ * Правила:
+ *  - допустимы таб/CR/LF и печатные ASCII; остальные байты должны начинать 2-4-байтную
+ *    UTF-8 последовательность с корректными продолжениями, иначе — не текст;
+ *  - последовательность, обрезанная концом буфера, не проверяется (граница чтения);
+ *  - нулей не больше 2% — нули могут оказаться только в этом необработанном хвосте,
+ *    поэтому отдельный проход для подсчёта не нужен.
+ * ASCII идёт по 8 байт за раз (SWAR): слово без старших битов, управляющих и 0x7F пропускается
+ * целиком, остальное — побайтно.
+ */
+final class TextScan {
+    private TextScan() {}
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    static boolean looksLikeUtf8Text(byte[] b, int len) {
+        int i = 0;
+        while (i < len) {
+            if (i + Long.BYTES <= len && printableAscii((long) LONGS.get(b, i))) {
+                i += Long.BYTES;
+                continue;
+            }
+            int c = b[i] & 0xFF;
+            if (c == 0x09 || c == 0x0A || c == 0x0D || (c >= 0x20 && c <= 0x7E)) { i++; continue; }
+            int n;
+            if      ((c & 0xE0) == 0xC0) n = 1;
+            else if ((c & 0xF0) == 0xE0) n = 2;
+            else if ((c & 0xF8) == 0xF0) n = 3;
+            else return false; // в том числе 0x00 и прочие управляющие
+            if (i + n >= len) return fewZeros(b, i + 1, len);
+            for (int j = 1; j <= n; j++) {
+                if ((b[i + j] & 0xC0) != 0x80) return false;
+            }
+            i += n + 1;
+        }
+        return true; // всё проверено: нулей нет
+    }
+
+    /** Обрезанный хвост [from, len): единственное место, где могут встретиться нули. */
+    private static boolean fewZeros(byte[] b, int from, int len) {
+        long zeros = 0;
+        for (int k = from; k < len; k++) if (b[k] == 0) zeros++;
+        return zeros * 1.0 / Math.max(1, len) < 0.02; // <2% нулей
+    }
+
+    /** Все 8 байт в 0x20..0x7E (таб/CR/LF сюда не входят — их проверит побайтный путь). */
+    private static boolean printableAscii(long w) {
+        if ((w & HIGHS) != 0) return false;                         // не ASCII
+        if (((w - ONES * 0x20) & ~w & HIGHS) != 0) return false;    // есть байт < 0x20
+        long del = w ^ (ONES * 0x7F);
+        return ((del - ONES) & ~del & HIGHS) == 0;                  // нет 0x7F
+    }
+}
@@ -0,0 +1,167 @@
+package dev.learn.i2p;
+
+import dev.learn.i2p.core.Constants;
+import dev.learn.i2p.proto.ContentTypes;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Старый путь type=2 в {@link I2PMessengerApp}: потоковая отправка/приём и расход памяти. */
+class I2PMessengerAppImageTest {
+
+    private static List<Path> files(Path dir) throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.toList();
+        }
+    }
+
+    /** Байты, выделенные текущим потоком (HotSpot); -1 если JVM не умеет считать. */
+    private static long allocated() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean t
+                && t.isThreadAllocatedMemorySupported()) {
+            return t.getThreadAllocatedBytes(Thread.currentThread().threadId());
+        }
+        return -1;
+    }
+
+    /** Заголовок type=2 (без байта типа) + size байт тела, которые генерируются на лету, а не лежат в массиве. */
+    private static DataInputStream wire(String name, String mime, int size) throws IOException {
+        ByteArrayOutputStream head = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(head);
+        d.writeUTF(name);
+        d.writeUTF(mime);
+        d.writeInt(size);
+        InputStream body = new InputStream() {
+            long left = size;
+
+            @Override
+            public int read() {
+                return left-- > 0 ? 0x5A : -1;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) {
+                if (left <= 0) return -1;
+                int n = (int) Math.min(len, left);
+                java.util.Arrays.fill(b, off, off + n, (byte) 0x5A);
+                left -= n;
+                return n;
+            }
+        };
+        return new DataInputStream(new BufferedInputStream(
+                new SequenceInputStream(new ByteArrayInputStream(head.toByteArray()), body)));
+    }
+
+    @Test
+    void roundtrip_preserves_bytes(@TempDir Path tmp) throws Exception {
+        byte[] data = new byte[300_000];
+        new Random(6).nextBytes(data);
+        Path img = tmp.resolve("photo.png");
+        Files.write(img, data);
+
+        ByteArrayOutputStream wire = new ByteArrayOutputStream();
+        I2PMessengerApp.writeImage(new DataOutputStream(wire), img);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(wire.toByteArray()));
+        assertEquals(2, in.readUnsignedByte());
+        Path inbox = tmp.resolve("inbox");
+        assertEquals("OK", I2PMessengerApp.receiveImage(in, inbox));
+
+        List<Path> saved = files(inbox);
+        assertEquals(1, saved.size());
+        assertTrue(saved.get(0).getFileName().toString().startsWith("photo.png_"));
+        assertArrayEquals(data, Files.readAllBytes(saved.get(0)));
+    }
+
+    @Test
+    void declared_size_over_limit_is_rejected_without_reading(@TempDir Path tmp) throws Exception {
+        DataInputStream in = wire("big.jpg", "image/jpeg", Constants.MAX_IMAGE_BYTES + 1);
+        assertEquals("ERR: image too large", I2PMessengerApp.receiveImage(in, tmp));
+        assertEquals(0, files(tmp).size());
+    }
+
+    @Test
+    void truncated_body_removes_partial_file(@TempDir Path tmp) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(bytes);
+        d.writeUTF("cut.png");
+        d.writeUTF("image/png");
+        d.writeInt(50_000);
+        d.write(new byte[20_000]);
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertThrows(EOFException.class, () -> I2PMessengerApp.receiveImage(in, tmp));
+        assertEquals(0, files(tmp).size());
+    }
+
+    /** Два приёма одного имени в одну миллисекунду: второй берёт другое имя, обрыв не трогает чужой файл. */
+    @Test
+    void same_name_in_the_same_millisecond_does_not_clobber_the_other_file(@TempDir Path tmp) throws Exception {
+        String ext = ContentTypes.shared().extensionFor("image/png", "same.png");
+        long now = Instant.now().toEpochMilli();
+        for (long t = now; t < now + 2_000; t++) Files.writeString(tmp.resolve("same.png_" + t + ext), "first");
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream d = new DataOutputStream(bytes);
+        d.writeUTF("same.png");
+        d.writeUTF("image/png");
+        d.writeInt(50_000);
+        d.write(new byte[20_000]);
+        DataInputStream cut = new DataInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        assertThrows(EOFException.class, () -> I2PMessengerApp.receiveImage(cut, tmp));
+        assertEquals(2_000, files(tmp).size(), "finished files of the same name survive a failed transfer");
+
+        assertEquals("OK", I2PMessengerApp.receiveImage(wire("same.png", "image/png", 1_000), tmp));
+        assertEquals(2_001, files(tmp).size());
+        for (Path p : files(tmp)) {
+            if (!p.getFileName().toString().matches("same\\.png_\\d+" + java.util.regex.Pattern.quote(ext))) {
+                assertEquals(1_000, Files.size(p), "the new file got a suffixed name: " + p.getFileName());
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {1 << 20, 8 << 20, Constants.MAX_IMAGE_BYTES})
+    void receive_allocation_does_not_grow_with_file_size(int size, @TempDir Path tmp) throws Exception {
+        DataInputStream in = wire("flat.bin", "application/octet-stream", size);
+        long before = allocated();
+        assertEquals("OK", I2PMessengerApp.receiveImage(in, tmp));
+        long used = allocated() - before;
+
+        assertEquals(size, Files.size(files(tmp).get(0)));
+        if (before >= 0) {
+            // прежняя реализация выделяла new byte[size]; теперь — буфер и мелочь на файл/лог
+            assertTrue(used < 1 << 20, "allocated " + used + " bytes for a " + size + "-byte image");
+        }
+    }
+
+    @Test
+    void send_allocation_does_not_grow_with_file_size(@TempDir Path tmp) throws Exception {
+        Path img = tmp.resolve("big.bin");
+        try (RandomAccessFile f = new RandomAccessFile(img.toFile(), "rw")) {
+            f.setLength(Constants.MAX_IMAGE_BYTES);
+        }
+        DataOutputStream sink = new DataOutputStream(OutputStream.nullOutputStream());
+        long before = allocated();
+        I2PMessengerApp.writeImage(sink, img);
+        long used = allocated() - before;
+
+        assertEquals(1 + 2 + "big.bin".length() + 2 + "application/octet-stream".length() + 4
+                + Constants.MAX_IMAGE_BYTES, sink.size(), "whole file streamed");
+        if (before >= 0) {
+            assertTrue(used < 1 << 20, "allocated " + used + " bytes to send a 32 MB image");
+        }
+    }
+}
@@ -1,20 +1,30 @@
 // Start src/test/java/dev/learn/i2p/cli/CliSmokeTest.java
 package dev.learn.i2p.cli;
 
+import dev.learn.i2p.core.InboundSaver;
+import dev.learn.i2p.net.I2PIdentity;
 import dev.learn.i2p.net.I2PTransport;
 
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.io.TempDir;
 import org.mockito.MockedStatic;
 import org.mockito.Mockito;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
 
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Random;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
@@ -32,24 +42,55 @@ class CliSmokeTest {
     }
 
     @Test
-    void address_prints_b32(@TempDir Path tmp) throws Exception {
-        System.setProperty("i2p.messenger.home", tmp.resolve(".i2p-messenger").toString());
+    void address_prints_b32_without_a_router(@TempDir Path tmp) throws Exception {
+        Path home = tmp.resolve(".i2p-messenger");
+        System.setProperty("i2p.messenger.home", home.toString());
+        byte[] keys = new byte[1024]; // destination + приватные ключи, как их пишет createDestination
+        new Random(1).nextBytes(keys);
+        Files.createDirectories(home);
+        Files.write(home.resolve("messenger-keys.dat"), keys);
 
-        I2PTransport transport = mock(I2PTransport.class);
-        when(transport.myB32()).thenReturn("testaddr.b32.i2p");
+        try (MockedStatic<I2PTransport> st = Mockito.mockStatic(I2PTransport.class, CALLS_REAL_METHODS)) {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(baos, true, StandardCharsets.UTF_8));
 
-        try (MockedStatic<I2PTransport> st = Mockito.mockStatic(I2PTransport.class)) {
-            st.when(() -> I2PTransport.connectDefault(any())).thenReturn(transport);
+            Main.main(new String[]{"address"});
 
+            String out = baos.toString(StandardCharsets.UTF_8).trim();
+            assertEquals(I2PIdentity.b32(home.resolve("messenger-keys.dat")), out);
+            assertTrue(out.endsWith(".b32.i2p") && out.length() == 60, out);
+            st.verify(() -> I2PTransport.connectDefault(any()), never());
+        }
+    }
+
+    @Test
+    void record_writes_a_flight_recording_on_stop(@TempDir Path tmp) throws Exception {
+        Path file = tmp.resolve("listen.jfr");
+        try (Recording r = Main.record(file)) {
+            assertEquals(RecordingState.RUNNING, r.getState());
+            r.stop(); // на выходе из процесса это делает dumpOnExit
+        }
+        assertTrue(Files.size(file) > 0);
+    }
+
+    @Test
+    void inbox_list_filters_without_a_router(@TempDir Path tmp) throws Exception {
+        System.setProperty("i2p.messenger.home", tmp.toString());
+        Path inbox = tmp.resolve("inbox");
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0};
+        InboundSaver.saveSmart(inbox, "alicealice.b32.i2p", new ByteArrayInputStream(png));
+        InboundSaver.saveSmart(inbox, "bobbobbob.b32.i2p", new ByteArrayInputStream("hi".getBytes()));
+
+        try (MockedStatic<I2PTransport> st = Mockito.mockStatic(I2PTransport.class)) {
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             System.setOut(new PrintStream(baos, true, StandardCharsets.UTF_8));
 
-            Main.main(new String[]{"address"});
+            Main.main(new String[]{"inbox", "list", "--since", "1d", "--type", "image"});
 
             String out = baos.toString(StandardCharsets.UTF_8);
-            assertTrue(out.contains("testaddr.b32.i2p"));
-            verify(transport, atLeastOnce()).close();
+            assertTrue(out.contains("image/png") && out.contains("alicealice.b32.i2p"), out);
+            assertFalse(out.contains("text/plain"), out);
+            st.verifyNoInteractions();
         }
     }
-
 }
@@ -0,0 +1,157 @@
+package dev.learn.i2p.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class BlobStoreTest {
+
+    private Path inbox;
+
+    @AfterEach
+    void closeIndex() {
+        if (inbox != null) InboxIndex.closeIfOpen(inbox);
+    }
+
+    private static byte[] random(int size, long seed) {
+        byte[] b = new byte[size];
+        new Random(seed).nextBytes(b);
+        return b;
+    }
+
+    private static Path save(Path inbox, String sender, byte[] body) throws Exception {
+        return InboundSaver.saveSmart(inbox, sender, new ByteArrayInputStream(body));
+    }
+
+    private static List<Path> blobs(Path inbox) throws Exception {
+        Path root = BlobStore.rootFor(inbox);
+        if (!Files.exists(root)) return List.of();
+        try (Stream<Path> s = Files.walk(root)) {
+            return s.filter(Files::isRegularFile).filter(p -> !p.getParent().getFileName().toString().equals("heads")).toList();
+        }
+    }
+
+    @Test
+    void duplicates_are_links_to_one_blob(@TempDir Path tmp) throws Exception {
+        inbox = tmp.resolve("inbox");
+        for (byte[] body : List.of(random(1000, 1), random(300_000, 2))) { // целиком в первом буфере и потоком
+            Path a = save(inbox, "alice", body);
+            Path b = save(inbox, "bob", body);
+            Path c = save(inbox, "alice", body);
+
+            assertNotEquals(a, b);
+            assertTrue(Files.isSameFile(a, b) && Files.isSameFile(a, c));
+            assertArrayEquals(body, Files.readAllBytes(c));
+            Path blob = BlobStore.forInbox(inbox).pathOf(MessageDigest.getInstance("SHA-256").digest(body));
+            assertTrue(Files.isSameFile(a, blob));
+            assertEquals(4, BlobStore.links(blob));
+        }
+        assertEquals(2, blobs(inbox).size());
+        assertEquals(6, InboxIndex.of(inbox).size(), "every copy is indexed");
+    }
+
+    @Test
+    void blob_lives_until_the_last_reference_is_released(@TempDir Path tmp) throws Exception {
+        inbox = tmp.resolve("inbox");
+        byte[] body = random(50_000, 3);
+        Path a = save(inbox, "alice", body);
+        Path b = save(inbox, "bob", body);
+        BlobStore store = BlobStore.forInbox(inbox);
+
+        assertFalse(store.release(a), "bob still references the content");
+        assertFalse(Files.exists(a));
+        assertEquals(1, blobs(inbox).size());
+
+        assertTrue(store.release(b));
+        assertTrue(blobs(inbox).isEmpty());
+    }
+
+    @Test
+    void sweep_removes_blobs_whose_files_were_deleted_by_hand(@TempDir Path tmp) throws Exception {
+        inbox = tmp.resolve("inbox");
+        Path kept = save(inbox, "alice", random(10, 4));
+        Files.delete(save(inbox, "alice", random(10, 5)));
+
+        assertEquals(1, BlobStore.forInbox(inbox).sweep());
+        assertEquals(1, blobs(inbox).size());
+        assertTrue(Files.isSameFile(kept, blobs(inbox).get(0)));
+        assertEquals(0, BlobStore.forInbox(inbox).sweep());
+    }
+
+    @Test
+    void concurrent_identical_saves_end_up_in_one_blob(@TempDir Path tmp) throws Exception {
+        inbox = tmp.resolve("inbox");
+        byte[] small = random(2_000, 6);
+        byte[] big = random(200_000, 7);
+        List<Future<Path>> saves = new ArrayList<>();
+        try (ExecutorService ex = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < 200; i++) {
+                byte[] body = i % 2 == 0 ? small : big;
+                saves.add(ex.submit(() -> save(inbox, "peer", body)));
+            }
+        }
+        for (int i = 0; i < saves.size(); i++) {
+            Path p = saves.get(i).get();
+            assertArrayEquals(i % 2 == 0 ? small : big, Files.readAllBytes(p));
+            assertTrue(Files.isSameFile(p, saves.get(i % 2).get()), "all copies share one inode");
+        }
+        assertEquals(2, blobs(inbox).size());
+    }
+
+    @Test
+    void long_duplicate_is_compared_not_written(@TempDir Path tmp) throws Exception {
+        inbox = tmp.resolve("inbox");
+        byte[] body = random(2 * 1024 * 1024, 8);
+        Path first = save(inbox, "alice", body);
+
+        long before = wchar();
+        Path again = save(inbox, "bob", body);
+        long written = wchar() - before;
+
+        assertTrue(Files.isSameFile(first, again));
+        assumeTrue(before >= 0, "/proc/self/io is not available");
+        assertTrue(written < body.length / 4, "duplicate must not be written again: " + written + " bytes");
+    }
+
+    @Test
+    void stream_that_diverges_from_a_known_head_is_saved_intact(@TempDir Path tmp) throws Exception {
+        inbox = tmp.resolve("inbox");
+        byte[] known = random(500_000, 9);
+        byte[] tailDiffers = known.clone();
+        tailDiffers[400_000] ^= 1;
+        byte[] shorter = java.util.Arrays.copyOf(known, 300_000);
+        byte[] longer = java.util.Arrays.copyOf(known, 600_000);
+        save(inbox, "alice", known);
+
+        for (byte[] body : List.of(tailDiffers, shorter, longer)) {
+            Path p = save(inbox, "bob", body);
+            assertArrayEquals(body, Files.readAllBytes(p));
+            assertEquals(2, BlobStore.links(p), "new content gets its own blob");
+        }
+        assertEquals(4, blobs(inbox).size());
+    }
+
+    /** Байт, переданных процессом в write(); -1 — не Linux. */
+    private static long wchar() {
+        try (Stream<String> lines = Files.lines(Path.of("/proc/self/io"))) {
+            return lines.filter(l -> l.startsWith("wchar:")).mapToLong(l -> Long.parseLong(l.substring(6).trim())).findFirst().orElse(-1);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+}
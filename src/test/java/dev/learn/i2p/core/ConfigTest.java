@@ -0,0 +1,39 @@
+package dev.learn.i2p.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConfigTest {
+
+    private static final String NAME = "i2p.messenger.test.configValue";
+
+    @AfterEach
+    void cleanup() {
+        System.clearProperty(NAME);
+    }
+
+    @Test
+    void values_are_trimmed_and_blank_means_unset() {
+        System.setProperty(NAME, " 5 ");
+        assertEquals(5, Integer.parseInt(Config.get(NAME, "1")));
+
+        System.setProperty(NAME, "   ");
+        assertEquals("1", Config.get(NAME, "1"));
+        assertNull(Config.get(NAME));
+    }
+
+    @Test
+    void env_name_does_not_depend_on_the_default_locale() {
+        Locale before = Locale.getDefault();
+        try {
+            Locale.setDefault(Locale.forLanguageTag("tr-TR")); // 'i'.toUpperCase() здесь — 'İ'
+            assertEquals("I2P_MESSENGER_POOL_IDLEMS", Config.envName("i2p.messenger.pool.idleMs"));
+        } finally {
+            Locale.setDefault(before);
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package dev.learn.i2p.core;
+
+import dev.learn.i2p.net.LoopbackNetwork;
+import dev.learn.i2p.proto.FramedProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ControlChannelTest {
+
+    private final LoopbackNetwork net = new LoopbackNetwork(LoopbackNetwork.LinkProfile.PERFECT);
+    private final List<AutoCloseable> open = new ArrayList<>();
+
+    @AfterEach
+    void cleanup() throws Exception {
+        for (AutoCloseable c : open.reversed()) c.close();
+        net.close();
+    }
+
+    /** bob слушает, alice — демон с каналом управления на tmp/control.sock. */
+    private ControlChannel daemon(Path tmp) throws IOException {
+        Path bobInbox = tmp.resolve("bob");
+        Messenger bob = new Messenger(net.endpoint("bob"), new FramedProtocol(bobInbox), bobInbox);
+        open.add(bob);
+        Thread.ofVirtual().start(bob::listen);
+        Path aliceInbox = tmp.resolve("alice");
+        Messenger alice = new Messenger(net.endpoint("alice"), new FramedProtocol(aliceInbox), aliceInbox);
+        open.add(alice);
+        ControlChannel control = ControlChannel.open(alice, tmp.resolve("control.sock"));
+        open.add(control);
+        return control;
+    }
+
+    private static List<Path> await(Path inbox, int n) throws Exception {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        List<Path> got = List.of();
+        while (System.nanoTime() < deadline) {
+            if (Files.exists(inbox)) {
+                try (Stream<Path> s = Files.walk(inbox)) {
+                    got = s.filter(Files::isRegularFile).filter(p -> !p.toString().contains(".index")).toList();
+                }
+                if (got.size() >= n) break;
+            }
+            Thread.sleep(20);
+        }
+        return got;
+    }
+
+    @Test
+    void cli_commands_run_in_the_daemon(@TempDir Path tmp) throws Exception {
+        ControlChannel control = daemon(tmp);
+        ControlChannel.Client client = ControlChannel.Client.connect(control.socket());
+        assertNotNull(client);
+
+        assertEquals("alice", client.address());
+        client.sendText("bob", "привет через демон");
+        Path img = Files.write(tmp.resolve("dot.png"), new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 1, 2, 3});
+        client.sendImage("bob", img);
+
+        List<Path> got = await(tmp.resolve("bob"), 2);
+        assertEquals(2, got.size(), got.toString());
+        assertTrue(got.stream().anyMatch(p -> p.toString().endsWith(".txt")));
+        assertTrue(got.stream().anyMatch(p -> p.toString().endsWith(".png")));
+    }
+
+    @Test
+    void failures_come_back_to_the_client(@TempDir Path tmp) throws Exception {
+        ControlChannel control = daemon(tmp);
+        ControlChannel.Client client = ControlChannel.Client.connect(control.socket());
+
+        IOException e = assertThrows(IOException.class, () -> client.sendImage("bob", tmp.resolve("missing.png")));
+        assertTrue(e.getMessage().startsWith("Daemon: "), e.getMessage());
+        assertEquals("alice", client.address(), "daemon keeps serving");
+    }
+
+    @Test
+    void unreachable_peer_is_queued_in_the_daemons_outbox(@TempDir Path tmp) throws Exception {
+        ControlChannel control = daemon(tmp);
+        ControlChannel.Client client = ControlChannel.Client.connect(control.socket());
+
+        assertEquals(0, client.sendText("bob", "delivered now"));
+        long id = client.sendText("dave", "dave is offline");
+
+        assertTrue(id > 0);
+        List<DurableOutbox.Message> pending = DurableOutbox.of(tmp.resolve("alice")).pending();
+        assertEquals(List.of("dave is offline"), pending.stream().map(DurableOutbox.Message::body).toList());
+        assertEquals(id, pending.get(0).id());
+    }
+
+    @Test
+    void prune_runs_in_the_daemon_that_owns_the_inbox(@TempDir Path tmp) throws Exception {
+        ControlChannel control = daemon(tmp);
+        ControlChannel.Client client = ControlChannel.Client.connect(control.socket());
+        client.sendText("bob", "keep me");
+        await(tmp.resolve("bob"), 1);
+
+        assertTrue(client.prune().startsWith("expired=0 "), "report comes back to the CLI");
+    }
+
+    @Test
+    void socket_is_private_and_removed_on_close(@TempDir Path tmp) throws Exception {
+        ControlChannel control = daemon(tmp);
+        Path socket = control.socket();
+        if (socket.getFileSystem().supportedFileAttributeViews().contains("posix")) {
+            assertEquals("rw-------", PosixFilePermissions.toString(Files.getPosixFilePermissions(socket)));
+        }
+
+        control.close();
+
+        assertFalse(Files.exists(socket));
+        assertNull(ControlChannel.Client.connect(socket), "no daemon — CLI works on its own");
+    }
+
+    @Test
+    void socket_directory_is_created_or_narrowed_to_the_owner(@TempDir Path tmp) throws Exception {
+        assumeTrue(tmp.getFileSystem().supportedFileAttributeViews().contains("posix"));
+        Path aliceInbox = tmp.resolve("alice");
+        Messenger alice = new Messenger(net.endpoint("alice"), new FramedProtocol(aliceInbox), aliceInbox);
+        open.add(alice);
+
+        try (ControlChannel control = ControlChannel.open(alice, tmp.resolve("run/control.sock"))) {
+            assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(control.socket().getParent())));
+        }
+
+        Path shared = Files.createDirectory(tmp.resolve("shared"));
+        Files.setPosixFilePermissions(shared, PosixFilePermissions.fromString("rwxrwxrwx"));
+        try (ControlChannel control = ControlChannel.open(alice, shared.resolve("control.sock"))) {
+            assertEquals("rwx------", PosixFilePermissions.toString(Files.getPosixFilePermissions(shared)));
+        }
+    }
+
+    @Test
+    void stale_socket_is_replaced_but_a_live_daemon_is_not(@TempDir Path tmp) throws Exception {
+        Path socket = tmp.resolve("control.sock");
+        try (var stale = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+            stale.bind(UnixDomainSocketAddress.of(socket)); // процесс упал, файл остался
+        }
+        assertTrue(Files.exists(socket));
+        assertNull(ControlChannel.Client.connect(socket));
+
+        ControlChannel control = daemon(tmp);
+        assertEquals(socket, control.socket());
+        Messenger other = new Messenger(net.endpoint("carol"), new FramedProtocol(tmp.resolve("carol")), tmp.resolve("carol"));
+        open.add(other);
+        assertThrows(IOException.class, () -> ControlChannel.open(other, socket));
+    }
+
+    @Test
+    void garbage_is_dropped_without_stopping_the_channel(@TempDir Path tmp) throws Exception {
+        ControlChannel control = daemon(tmp);
+        try (SocketChannel ch = SocketChannel.open(UnixDomainSocketAddress.of(control.socket()))) {
+            ch.write(ByteBuffer.wrap("GET / HTTP/1.1\r\n\r\n".getBytes()));
+            assertEquals(-1, ch.read(ByteBuffer.allocate(16)), "connection closed without a reply");
+        }
+        assertEquals("alice", ControlChannel.Client.connect(control.socket()).address());
+    }
+}
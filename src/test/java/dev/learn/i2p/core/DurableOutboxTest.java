@@ -0,0 +1,226 @@
+package dev.learn.i2p.core;
+
+import dev.learn.i2p.net.LoopbackNetwork;
+import dev.learn.i2p.proto.FramedProtocol;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static dev.learn.i2p.net.support.InboxFiles.texts;
+import static org.junit.jupiter.api.Assertions.*;
+
+class DurableOutboxTest {
+
+    private static final DurableOutbox.Settings FAST =
+            new DurableOutbox.Settings(2, Duration.ofMillis(20), Duration.ofMillis(200), Duration.ZERO);
+
+    private static void await(BooleanSupplier done) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!done.getAsBoolean() && System.nanoTime() < deadline) Thread.sleep(10);
+        assertTrue(done.getAsBoolean(), "timed out");
+    }
+
+    @Test
+    void pending_messages_survive_reopen_in_order(@TempDir Path tmp) throws Exception {
+        try (DurableOutbox o = DurableOutbox.open(tmp, FAST)) {
+            o.enqueue("bob", DurableOutbox.Kind.TEXT, "one");
+            o.enqueue("carol", DurableOutbox.Kind.TEXT, "two");
+            o.enqueue("bob", DurableOutbox.Kind.IMAGE, "cat.png");
+        }
+        try (DurableOutbox o = DurableOutbox.open(tmp, FAST)) {
+            List<DurableOutbox.Message> p = o.pending();
+            assertEquals(List.of("one", "two", tmp.getFileSystem().getPath("cat.png").toAbsolutePath().toString()),
+                    p.stream().map(DurableOutbox.Message::body).toList());
+            assertEquals(List.of(1L, 2L, 3L), p.stream().map(DurableOutbox.Message::id).toList());
+            assertEquals(DurableOutbox.Kind.IMAGE, p.get(2).kind());
+            assertEquals(4, o.enqueue("bob", DurableOutbox.Kind.TEXT, "four"), "ids keep growing");
+        }
+    }
+
+    @Test
+    void offline_peer_is_retried_with_backoff_without_holding_up_others(@TempDir Path tmp) throws Exception {
+        Map<String, List<String>> got = new ConcurrentHashMap<>();
+        AtomicInteger bobFailures = new AtomicInteger();
+        try (DurableOutbox o = DurableOutbox.open(tmp, FAST)) {
+            for (int i = 0; i < 5; i++) o.enqueue("bob", DurableOutbox.Kind.TEXT, "b" + i);
+            o.enqueue("carol", DurableOutbox.Kind.TEXT, "c0");
+            o.start(m -> {
+                if (m.dest().equals("bob") && bobFailures.getAndIncrement() < 3) throw new IOException("peer offline");
+                got.computeIfAbsent(m.dest(), k -> Collections.synchronizedList(new ArrayList<>())).add(m.body());
+            });
+
+            await(() -> o.size() == 0);
+            assertEquals(List.of("b0", "b1", "b2", "b3", "b4"), got.get("bob"), "order kept across retries");
+            assertEquals(List.of("c0"), got.get("carol"));
+            assertEquals(3, o.retried());
+            assertEquals(6, o.delivered());
+        }
+    }
+
+    @Test
+    void attempts_and_schedule_are_kept_across_restart(@TempDir Path tmp) throws Exception {
+        DurableOutbox.Settings slow = new DurableOutbox.Settings(1, Duration.ofHours(1), Duration.ofHours(2), Duration.ZERO);
+        try (DurableOutbox o = DurableOutbox.open(tmp, slow)) {
+            o.enqueue("bob", DurableOutbox.Kind.TEXT, "hi");
+            o.start(m -> {
+                throw new IOException("no lease set");
+            });
+            await(() -> o.retried() == 1);
+        }
+        AtomicInteger calls = new AtomicInteger();
+        try (DurableOutbox o = DurableOutbox.open(tmp, slow)) {
+            DurableOutbox.Message m = o.pending().get(0);
+            assertEquals(1, m.attempts());
+            assertTrue(m.nextAttempt().isAfter(m.created().plus(Duration.ofMinutes(29))), m.toString());
+            o.start(x -> calls.incrementAndGet());
+            Thread.sleep(200);
+            assertEquals(0, calls.get(), "not due yet");
+        }
+    }
+
+    @Test
+    void backoff_grows_exponentially_with_jitter_and_is_capped(@TempDir Path tmp) throws Exception {
+        DurableOutbox.Settings s = new DurableOutbox.Settings(1, Duration.ofSeconds(5), Duration.ofMinutes(15), Duration.ZERO);
+        try (DurableOutbox o = DurableOutbox.open(tmp, s)) {
+            assertEquals(2_500, o.backoffMillis(1, 0));
+            assertEquals(5_000, o.backoffMillis(1, 1));
+            assertEquals(10_000, o.backoffMillis(3, 0));
+            assertEquals(450_000, o.backoffMillis(40, 0));
+            assertEquals(900_000, o.backoffMillis(Integer.MAX_VALUE, 1));
+        }
+    }
+
+    @Test
+    void undeliverable_and_expired_messages_are_dropped(@TempDir Path tmp) throws Exception {
+        List<String> got = Collections.synchronizedList(new ArrayList<>());
+        try (DurableOutbox o = DurableOutbox.open(tmp, FAST)) {
+            o.enqueue("old", DurableOutbox.Kind.TEXT, "legacy peer");
+            o.enqueue("gone", DurableOutbox.Kind.IMAGE, tmp.resolve("deleted.png").toString());
+            o.enqueue("bob", DurableOutbox.Kind.TEXT, "fine");
+            o.start(m -> {
+                if (m.dest().equals("old")) throw new ProtocolException("peer does not speak framed");
+                if (m.dest().equals("gone")) throw new NoSuchFileException(m.body());
+                got.add(m.body());
+            });
+            await(() -> o.size() == 0);
+            assertEquals(List.of("fine"), got);
+            assertEquals(2, o.dropped());
+        }
+
+        DurableOutbox.Settings shortLived = new DurableOutbox.Settings(1, Duration.ofMillis(20), Duration.ofMillis(20), Duration.ofMillis(100));
+        try (DurableOutbox o = DurableOutbox.open(tmp.resolve("expiring"), shortLived)) {
+            o.enqueue("bob", DurableOutbox.Kind.TEXT, "never");
+            o.start(m -> {
+                throw new IOException("offline");
+            });
+            await(() -> o.size() == 0);
+            assertEquals(1, o.dropped());
+        }
+    }
+
+    @Test
+    void torn_tail_is_cut_off_and_the_rest_kept(@TempDir Path tmp) throws Exception {
+        long end;
+        try (DurableOutbox o = DurableOutbox.open(tmp, FAST)) {
+            o.enqueue("bob", DurableOutbox.Kind.TEXT, "whole");
+            end = o.journalBytes();
+        }
+        try (var ch = FileChannel.open(tmp.resolve("journal"), StandardOpenOption.WRITE)) {
+            // процесс упал посреди добавления: длина записана, остальное нет
+            ch.write(ByteBuffer.allocate(8).putInt(0, 64).putInt(4, 0xDEAD), end);
+        }
+        try (DurableOutbox o = DurableOutbox.open(tmp, FAST)) {
+            assertEquals(List.of("whole"), o.pending().stream().map(DurableOutbox.Message::body).toList());
+            o.enqueue("bob", DurableOutbox.Kind.TEXT, "after");
+        }
+        try (DurableOutbox o = DurableOutbox.open(tmp, FAST)) {
+            assertEquals(List.of("whole", "after"), o.pending().stream().map(DurableOutbox.Message::body).toList());
+        }
+    }
+
+    @Test
+    void delivered_messages_are_compacted_out(@TempDir Path tmp) throws Exception {
+        String big = "x".repeat(4096);
+        try (DurableOutbox o = DurableOutbox.open(tmp, FAST)) {
+            for (int i = 0; i < 100; i++) o.enqueue("bob", DurableOutbox.Kind.TEXT, big);
+            o.enqueue("carol", DurableOutbox.Kind.TEXT, "keep");
+            long full = o.journalBytes();
+            o.start(m -> {
+                if (m.dest().equals("carol")) throw new IOException("offline");
+            });
+            await(() -> o.delivered() == 100);
+            assertTrue(o.journalBytes() < full / 10, o.journalBytes() + " of " + full);
+        }
+        try (DurableOutbox o = DurableOutbox.open(tmp, FAST)) {
+            assertEquals(List.of("keep"), o.pending().stream().map(DurableOutbox.Message::body).toList());
+        }
+    }
+
+    @Test
+    void interrupted_compaction_is_finished_from_the_copy(@TempDir Path tmp) throws Exception {
+        try (DurableOutbox o = DurableOutbox.open(tmp, FAST)) {
+            o.enqueue("bob", DurableOutbox.Kind.TEXT, "survivor");
+        }
+        // копия сделана, журнал уже обнулён — упали в этот момент
+        Files.copy(tmp.resolve("journal"), tmp.resolve("journal.compact"), StandardCopyOption.REPLACE_EXISTING);
+        Files.write(tmp.resolve("journal"), new byte[0]);
+
+        try (DurableOutbox o = DurableOutbox.open(tmp, FAST)) {
+            assertEquals(List.of("survivor"), o.pending().stream().map(DurableOutbox.Message::body).toList());
+        }
+        assertFalse(Files.exists(tmp.resolve("journal.compact")));
+    }
+
+    @Test
+    void journal_belongs_to_one_owner(@TempDir Path tmp) throws Exception {
+        try (DurableOutbox o = DurableOutbox.open(tmp, FAST)) {
+            assertThrows(IOException.class, () -> DurableOutbox.open(tmp, FAST));
+        }
+        DurableOutbox.open(tmp, FAST).close();
+    }
+
+    @Test
+    void listener_delivers_what_was_queued_while_the_peer_was_away(@TempDir Path tmp) throws Exception {
+        try (LoopbackNetwork net = new LoopbackNetwork(LoopbackNetwork.LinkProfile.PERFECT)) {
+            Path aliceInbox = tmp.resolve("alice");
+            Messenger alice = new Messenger(net.endpoint("alice"), new FramedProtocol(aliceInbox), aliceInbox);
+            assertThrows(IOException.class, () -> alice.sendText("bob", "are you there?"));
+            long id = alice.queueText("bob", "are you there?");
+            assertEquals(1, id);
+
+            Path bobInbox = tmp.resolve("bob");
+            Messenger bob = new Messenger(net.endpoint("bob"), new FramedProtocol(bobInbox), bobInbox);
+            Thread.ofVirtual().start(bob::listen);
+            Thread.ofVirtual().start(alice::listen); // слушатель заодно доставляет отложенное
+
+            await(() -> texts(bobInbox).equals(List.of("are you there?")));
+            await(() -> {
+                try {
+                    return DurableOutbox.of(aliceInbox).size() == 0;
+                } catch (IOException e) {
+                    return false;
+                }
+            });
+            alice.close();
+            bob.close();
+        }
+    }
+
+}
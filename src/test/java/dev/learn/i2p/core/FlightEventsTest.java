@@ -0,0 +1,101 @@
+package dev.learn.i2p.core;
+
+import dev.learn.i2p.net.DestinationCache;
+import dev.learn.i2p.net.I2PTransport;
+import dev.learn.i2p.net.InboundDispatcher;
+import dev.learn.i2p.net.LoopbackNetwork;
+import dev.learn.i2p.net.support.FakeI2PSocketManager;
+import dev.learn.i2p.proto.SimpleProtocol;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FlightEventsTest {
+
+    private static final List<String> EVENTS = List.of("ConnectionAccepted", "ConnectionClosed", "Lookup",
+            "Transfer", "Sniff", "InboxWrite");
+
+    /** Запись только наших событий, без порогов; на выходе — события по короткому имени. */
+    private static Map<String, List<RecordedEvent>> recorded(Path tmp, ThrowingRunnable work) throws Exception {
+        Path file = tmp.resolve("test.jfr");
+        try (Recording r = new Recording()) {
+            for (String e : EVENTS) r.enable("dev.learn.i2p." + e).withThreshold(Duration.ZERO);
+            r.start();
+            work.run();
+            r.stop();
+            r.dump(file);
+        }
+        return RecordingFile.readAllEvents(file).stream()
+                .collect(Collectors.groupingBy(e -> e.getEventType().getName().substring("dev.learn.i2p.".length())));
+    }
+
+    private interface ThrowingRunnable {
+        void run() throws Exception;
+    }
+
+    @Test
+    void inbound_message_emits_connection_transfer_sniff_and_write(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        String text = "hello, flight recorder";
+
+        Map<String, List<RecordedEvent>> events = recorded(tmp, () -> {
+            try (var net = new LoopbackNetwork(LoopbackNetwork.LinkProfile.PERFECT)) {
+                var bob = net.endpoint("bob");
+                CountDownLatch handled = new CountDownLatch(1);
+                Thread.ofVirtual().start(() -> bob.acceptLoop(s -> {
+                    new SimpleProtocol(inbox).handle(s);
+                    handled.countDown();
+                }));
+                net.endpoint("alice").withConnection("bob", s -> new SimpleProtocol(inbox).sendText(s, text));
+                assertTrue(handled.await(5, TimeUnit.SECONDS));
+                bob.close(); // дожидается закрытия входящего стрима
+            }
+        });
+
+        assertEquals("alice", events.get("ConnectionAccepted").get(0).getString("peer"));
+        RecordedEvent in = events.get("ConnectionClosed").stream().filter(e -> e.getBoolean("inbound")).findFirst().orElseThrow();
+        assertEquals(text.length(), in.getLong("bytesIn"));
+        RecordedEvent out = events.get("ConnectionClosed").stream().filter(e -> !e.getBoolean("inbound")).findFirst().orElseThrow();
+        assertEquals(text.length(), out.getLong("bytesOut"));
+
+        List<RecordedEvent> transfers = events.get("Transfer");
+        assertEquals(2, transfers.size(), "sender and receiver");
+        assertTrue(transfers.stream().allMatch(e -> e.getLong("bytes") == text.length()));
+
+        assertEquals("text/plain", events.get("Sniff").get(0).getString("mime"));
+        RecordedEvent write = events.get("InboxWrite").get(0);
+        assertEquals(text.length(), write.getLong("bytes"));
+        assertTrue(write.getString("file").endsWith(".txt"), write.getString("file"));
+        assertFalse(write.getBoolean("duplicate"));
+    }
+
+    @Test
+    void lookup_is_recorded_with_the_host(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        SimpleProtocol simple = new SimpleProtocol(inbox);
+        FakeI2PSocketManager fake = new FakeI2PSocketManager(Duration.ZERO, simple::handle);
+        var names = new DestinationCache(h -> FakeI2PSocketManager.destination(7), 16, Duration.ofMinutes(1), Duration.ofSeconds(1));
+
+        Map<String, List<RecordedEvent>> events = recorded(tmp, () -> {
+            try (I2PTransport t = new I2PTransport(fake.manager(), InboundDispatcher.inline(), null, names)) {
+                t.withConnection("peer.b32.i2p", s -> simple.sendText(s, "hi"));
+            }
+        });
+
+        RecordedEvent lookup = events.get("Lookup").get(0);
+        assertEquals("peer.b32.i2p", lookup.getString("host"));
+        assertTrue(lookup.getBoolean("found"));
+    }
+}
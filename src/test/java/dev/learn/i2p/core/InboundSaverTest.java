@@ -0,0 +1,62 @@
+package dev.learn.i2p.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+
+import static dev.learn.i2p.net.support.InboxFiles.files;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InboundSaverTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 16383, 16384, 16385, 64 * 1024, 200_000})
+    void content_is_preserved_across_buffer_boundaries(int size, @TempDir Path tmp) throws Exception {
+        byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+
+        Path saved = InboundSaver.saveSmart(tmp, "abcdefghijk.b32.i2p", new ByteArrayInputStream(data));
+
+        assertArrayEquals(data, Files.readAllBytes(saved));
+        assertTrue(saved.getFileName().toString().contains("_from-abcdefgh"));
+        assertEquals(List.of(saved), files(tmp), "no temp files must be left behind");
+    }
+
+    @Test
+    void extension_comes_from_sniffed_head(@TempDir Path tmp) throws Exception {
+        byte[] png = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0};
+        Path saved = InboundSaver.saveSmart(tmp, null, new ByteArrayInputStream(png));
+        assertTrue(saved.toString().endsWith(".png"), saved.toString());
+    }
+
+    @Test
+    void failed_stream_leaves_no_partial_file(@TempDir Path tmp) {
+        InputStream broken = new SequenceInputStream(new ByteArrayInputStream(new byte[40_000]), new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("tunnel dropped");
+            }
+        });
+        assertThrows(IOException.class, () -> InboundSaver.saveSmart(tmp, null, broken));
+        assertDoesNotThrow(() -> assertEquals(0, files(tmp).size()));
+    }
+
+    @Test
+    void buffers_are_returned_to_the_pool(@TempDir Path tmp) throws Exception {
+        for (int i = 0; i < 10; i++) {
+            InboundSaver.saveSmart(tmp, null, new ByteArrayInputStream(new byte[100_000]));
+        }
+        assertTrue(BufferPool.shared().retained() >= 1);
+        assertTrue(BufferPool.shared().retained() <= BufferPool.DEFAULT_MAX_RETAINED);
+    }
+}
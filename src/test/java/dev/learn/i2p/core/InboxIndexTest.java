@@ -0,0 +1,180 @@
+package dev.learn.i2p.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InboxIndexTest {
+
+    private static final String ALICE = "alicealicealicealicealicealicealicealicealicealice.b32.i2p";
+    private static final String BOB = "bobbobbobbobbobbobbobbobbobbobbobbobbobbobbobbobbob.b32.i2p";
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0};
+
+    private final List<Path> inboxes = new ArrayList<>();
+
+    @AfterEach
+    void closeIndexes() {
+        inboxes.forEach(InboxIndex::closeIfOpen);
+    }
+
+    private Path inbox(Path tmp) {
+        Path inbox = tmp.resolve("inbox");
+        inboxes.add(inbox);
+        return inbox;
+    }
+
+    private static Path save(Path inbox, String sender, byte[] body) throws Exception {
+        return InboundSaver.saveSmart(inbox, sender, new ByteArrayInputStream(body));
+    }
+
+    @Test
+    void every_save_is_indexed_with_sender_type_size_and_hash(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        Path saved = save(inbox, ALICE, PNG);
+
+        List<InboxIndex.Entry> all = InboxIndex.of(inbox).query(InboxIndex.Query.all());
+        assertEquals(1, all.size());
+        InboxIndex.Entry e = all.get(0);
+        assertEquals(ALICE, e.sender());
+        assertEquals("image/png", e.mime());
+        assertEquals(PNG.length, e.size());
+        assertEquals(saved.toAbsolutePath(), e.path());
+        assertArrayEquals(MessageDigest.getInstance("SHA-256").digest(PNG), e.sha256());
+    }
+
+    @Test
+    void query_by_sender_type_and_time(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        save(inbox, ALICE, "hello".getBytes());
+        save(inbox, BOB, PNG);
+        Thread.sleep(5);
+        Instant middle = Instant.now();
+        Thread.sleep(5);
+        save(inbox, ALICE, PNG);
+        save(inbox, BOB, "later".getBytes());
+
+        InboxIndex idx = InboxIndex.of(inbox);
+        assertEquals(2, idx.query(new InboxIndex.Query(" ALICEalicealicealicealicealicealicealicealicealice.b32.i2p", null, null, null)).size());
+        assertEquals(2, idx.query(new InboxIndex.Query(null, null, null, "image")).size());
+        assertEquals(2, idx.query(new InboxIndex.Query(null, null, null, "image/*")).size());
+        assertEquals(2, idx.query(new InboxIndex.Query(null, null, null, "TEXT/PLAIN")).size());
+        assertEquals(2, idx.query(new InboxIndex.Query(null, middle, null, null)).size());
+        assertEquals(2, idx.query(new InboxIndex.Query(null, null, middle, null)).size());
+
+        List<InboxIndex.Entry> hit = idx.query(new InboxIndex.Query(ALICE, middle, null, "image/png"));
+        assertEquals(1, hit.size());
+        assertEquals("image/png", hit.get(0).mime());
+        assertTrue(idx.query(new InboxIndex.Query("nobody.b32.i2p", null, null, null)).isEmpty());
+    }
+
+    @Test
+    void index_grows_past_its_initial_mapping(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        InboxIndex idx = InboxIndex.of(inbox);
+        Files.createDirectories(inbox);
+        for (int i = 0; i < 3000; i++) {
+            idx.append(i % 2 == 0 ? ALICE : BOB, "text/plain", i, inbox.resolve("f" + i + ".txt"), null);
+        }
+        assertEquals(3000, idx.size());
+        assertEquals(1500, idx.query(new InboxIndex.Query(BOB, null, null, null)).size());
+        assertEquals(2999, idx.query(new InboxIndex.Query(BOB, null, null, null)).get(1499).size());
+    }
+
+    @Test
+    void clean_close_and_reopen_keeps_everything(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        save(inbox, ALICE, PNG);
+        InboxIndex.closeIfOpen(inbox);
+
+        InboxIndex again = InboxIndex.of(inbox);
+        assertEquals(ALICE, again.query(InboxIndex.Query.all()).get(0).sender());
+    }
+
+    /** Процесс упал, не закрыв индекс, и успел сохранить файл мимо индекса: всё восстанавливается по каталогу. */
+    @Test
+    void crash_is_recovered_from_the_directory(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        save(inbox, ALICE, PNG);
+        InboxIndex.closeIfOpen(inbox);
+        markOpen(inbox); // упавший процесс не снял флаг "открыт" (блокировку за него снимает ОС)
+        // файл, до записи о котором дело не дошло
+        Path shard = Files.createDirectories(inbox.resolve("2024-03-01").resolve("bobbobbo"));
+        Files.write(shard.resolve("20240301_101500_000_from-bobbobbo_x-000001.txt"), "lost".getBytes());
+
+        InboxIndex recovered = InboxIndex.open(inbox);
+        try {
+            List<InboxIndex.Entry> all = recovered.query(InboxIndex.Query.all());
+            assertEquals(2, all.size());
+            InboxIndex.Entry lost = all.get(0); // 2024 год — раньше только что сохранённого
+            assertEquals("bobbobbo", lost.sender());
+            assertEquals("text/plain", lost.mime());
+            assertEquals(LocalDateTime.of(2024, 3, 1, 10, 15), LocalDateTime.ofInstant(lost.time(), ZoneId.systemDefault()));
+            assertEquals(ALICE, all.get(1).sender(), "surviving records keep the full sender");
+
+            // по полному адресу находятся и записи, где известен только префикс каталога
+            assertEquals(1, recovered.query(new InboxIndex.Query(BOB, null, null, null)).size());
+        } finally {
+            recovered.close();
+        }
+    }
+
+    private static void markOpen(Path inbox) throws Exception {
+        Path records = InboxIndex.dirFor(inbox).resolve("records");
+        byte[] raw = Files.readAllBytes(records);
+        raw[24] = 1;
+        Files.write(records, raw);
+    }
+
+    /** Индекс держит слушатель: второй процесс читает снимок и ничего не пересобирает под ним. */
+    @Test
+    void second_process_gets_a_read_only_snapshot(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        save(inbox, ALICE, PNG);
+        InboxIndex owner = InboxIndex.of(inbox);
+
+        assertThrows(IOException.class, () -> InboxIndex.open(inbox), "one owner per inbox");
+        InboxIndex snapshot = InboxIndex.snapshot(inbox);
+        try {
+            assertTrue(snapshot.isSnapshot());
+            assertEquals(List.of(ALICE), snapshot.query(InboxIndex.Query.all()).stream().map(InboxIndex.Entry::sender).toList());
+            assertThrows(IOException.class, snapshot::rebuild);
+            assertThrows(IOException.class, () -> snapshot.forget(List.of(inbox.resolve("x"))));
+        } finally {
+            snapshot.close();
+        }
+
+        save(inbox, BOB, "after the snapshot".getBytes());
+        assertEquals(2, owner.query(InboxIndex.Query.all()).size(), "owner's mapping and open flag untouched");
+        assertEquals(1, Files.readAllBytes(InboxIndex.dirFor(inbox).resolve("records"))[24]);
+    }
+
+    @Test
+    void damaged_index_is_rebuilt(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        save(inbox, ALICE, PNG);
+        save(inbox, BOB, PNG);
+        InboxIndex.closeIfOpen(inbox);
+        Path records = InboxIndex.dirFor(inbox).resolve("records");
+        byte[] raw = Files.readAllBytes(records);
+        raw[64 + InboxIndex.RECORD + 8] ^= 1; // размер во второй записи — CRC не сойдётся
+        Files.write(records, raw);
+
+        List<InboxIndex.Entry> all = InboxIndex.of(inbox).query(InboxIndex.Query.all());
+        assertEquals(2, all.size());
+        assertEquals(ALICE, all.get(0).sender());
+        assertEquals(PNG.length, all.get(1).size());
+    }
+}
@@ -0,0 +1,93 @@
+package dev.learn.i2p.core;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static dev.learn.i2p.net.support.InboxFiles.files;
+import static org.junit.jupiter.api.Assertions.*;
+
+class InboxLayoutTest {
+
+    @Test
+    void files_are_sharded_by_day_and_sender(@TempDir Path inbox) throws Exception {
+        Path saved = InboundSaver.saveSmart(inbox, "abcdefghijk.b32.i2p", new ByteArrayInputStream("hi".getBytes()));
+
+        assertEquals(inbox.resolve(LocalDate.now().toString()).resolve("abcdefgh"), saved.getParent());
+        assertTrue(saved.getFileName().toString().contains("_from-abcdefgh_"), saved.toString());
+        assertTrue(saved.getFileName().toString().endsWith(".txt"), saved.toString());
+    }
+
+    @Test
+    void sender_key_is_safe_for_any_file_system() {
+        assertEquals("127-0-0-", InboxLayout.senderKey("127.0.0.1:7000"));
+        assertEquals("unknown", InboxLayout.senderKey(null));
+        assertEquals("unknown", InboxLayout.senderKey(" "));
+        assertEquals("a-b-c", InboxLayout.senderKey("a/b\\c.b32.i2p"));
+    }
+
+    @Test
+    void names_sort_in_arrival_order(@TempDir Path inbox) throws Exception {
+        List<Path> saved = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            saved.add(InboundSaver.saveSmart(inbox, "peer", new ByteArrayInputStream(new byte[]{(byte) i, 0, 0, 0})));
+        }
+        assertEquals(saved, files(inbox).stream().sorted().toList());
+    }
+
+    /** Тысячи параллельных сохранений в одну секунду от одного отправителя: ни потерь, ни перезаписей. */
+    @Test
+    void thousands_of_concurrent_saves_get_distinct_names(@TempDir Path inbox) throws Exception {
+        int n = 4000;
+        List<Future<Path>> futures = new ArrayList<>(n);
+        try (ExecutorService ex = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < n; i++) {
+                byte[] body = ByteBuffer.allocate(8).putInt(0xB1B1B1B1).putInt(i).array(); // бинарное, уникальное
+                String sender = "sender" + (i % 3) + ".b32.i2p";
+                futures.add(ex.submit(() -> InboundSaver.saveSmart(inbox, sender, new ByteArrayInputStream(body))));
+            }
+        }
+        Set<Path> names = new HashSet<>();
+        Set<Integer> payloads = new HashSet<>();
+        for (Future<Path> f : futures) {
+            Path p = f.get();
+            assertTrue(names.add(p), "duplicate name " + p);
+            payloads.add(ByteBuffer.wrap(Files.readAllBytes(p)).getInt(4));
+        }
+        assertEquals(n, payloads.size(), "every message must survive with its own content");
+        assertEquals(n, files(inbox).size(), "no leftovers and no extra files");
+    }
+
+    @Test
+    void flat_inbox_is_migrated_once(@TempDir Path inbox) throws Exception {
+        Files.writeString(inbox.resolve("20240229_235959_999_from-abcdefgh.txt"), "old");
+        Files.writeString(inbox.resolve("20240101_000000_000_from-abcdefgh_1.png"), "old");
+        Path foreign = Files.writeString(inbox.resolve("notes.md"), "mine");
+        Files.setLastModifiedTime(foreign, FileTime.from(Instant.parse("2023-05-05T12:00:00Z")));
+        Files.writeString(inbox.resolve(".incoming-1.part"), "half");
+
+        assertEquals(3, InboxLayout.migrate(inbox));
+
+        assertTrue(Files.exists(inbox.resolve("2024-02-29/abcdefgh/20240229_235959_999_from-abcdefgh.txt")));
+        assertTrue(Files.exists(inbox.resolve("2024-01-01/abcdefgh/20240101_000000_000_from-abcdefgh_1.png")));
+        assertTrue(Files.exists(inbox.resolve("2023-05-05/unknown/notes.md")));
+        assertTrue(Files.exists(inbox.resolve(".incoming-1.part")), "hidden temp files stay where they are");
+
+        assertEquals(0, InboxLayout.migrate(inbox));
+        assertEquals(0, InboxLayout.migrate(inbox.resolve("missing")));
+    }
+}
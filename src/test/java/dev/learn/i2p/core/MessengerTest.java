@@ -0,0 +1,101 @@
+package dev.learn.i2p.core;
+
+import dev.learn.i2p.net.LoopbackNetwork;
+import dev.learn.i2p.proto.FramedProtocol;
+import dev.learn.i2p.proto.SimpleProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MessengerTest {
+
+    private final LoopbackNetwork net = new LoopbackNetwork(LoopbackNetwork.LinkProfile.PERFECT);
+    private final List<Messenger> open = new ArrayList<>();
+
+    @AfterEach
+    void cleanup() {
+        open.forEach(Messenger::close);
+        net.close();
+    }
+
+    private Messenger listening(Messenger m) {
+        open.add(m);
+        Thread.ofVirtual().start(m::listen);
+        return m;
+    }
+
+    private static List<String> texts(Path inbox) throws Exception {
+        return texts(inbox, 5_000_000_000L);
+    }
+
+    private static List<String> texts(Path inbox, long waitNanos) throws Exception {
+        long deadline = System.nanoTime() + waitNanos;
+        do {
+            if (Files.exists(inbox)) {
+                try (Stream<Path> s = Files.walk(inbox)) {
+                    List<String> got = s.filter(p -> p.toString().endsWith(".txt")).map(p -> {
+                        try {
+                            return Files.readString(p);
+                        } catch (Exception e) {
+                            return "";
+                        }
+                    }).toList();
+                    if (!got.isEmpty()) return got;
+                }
+            }
+            Thread.sleep(20);
+        } while (System.nanoTime() < deadline);
+        return List.of();
+    }
+
+    /** Согласования версий нет: по умолчанию шлём так, как понимает старый слушатель, а принимаем оба формата. */
+    @Test
+    void default_protocol_talks_to_old_and_new_peers(@TempDir Path tmp) throws Exception {
+        Path oldInbox = tmp.resolve("old");
+        listening(new Messenger(net.endpoint("old"), new SimpleProtocol(oldInbox), oldInbox));
+        Path meInbox = tmp.resolve("me");
+        Messenger me = listening(new Messenger(net.endpoint("me"), Messenger.protocolFor("simple", meInbox), meInbox));
+        Path newInbox = tmp.resolve("new");
+        Messenger framed = listening(new Messenger(net.endpoint("new"), new FramedProtocol(newInbox), newInbox));
+
+        me.sendText("old", "hello, old listener");
+        framed.sendText("me", "hello from a framed sender");
+
+        assertEquals(List.of("hello, old listener"), texts(oldInbox), "no I2PM preamble in the old peer's inbox");
+        assertEquals(List.of("hello from a framed sender"), texts(meInbox));
+    }
+
+    /** Ошибка самого файла — сразу, без повторов и без соединения с пиром. */
+    @Test
+    void local_file_errors_are_not_retried(@TempDir Path tmp) throws Exception {
+        Path bobInbox = tmp.resolve("bob");
+        listening(new Messenger(net.endpoint("bob"), new FramedProtocol(bobInbox), bobInbox));
+        Messenger alice = new Messenger(net.endpoint("alice"), new FramedProtocol(tmp.resolve("alice")), tmp.resolve("alice"));
+        open.add(alice);
+        Path huge = tmp.resolve("huge.bin");
+        try (RandomAccessFile f = new RandomAccessFile(huge.toFile(), "rw")) {
+            f.setLength(Constants.MAX_IMAGE_BYTES + 1L);
+        }
+
+        long t0 = System.nanoTime();
+        assertThrows(NoSuchFileException.class, () -> alice.sendImage("bob", tmp.resolve("missing.png")));
+        FileSystemException tooLarge = assertThrows(FileSystemException.class, () -> alice.sendImage("bob", huge));
+        assertTrue(tooLarge.getMessage().contains("too large"), tooLarge.getMessage());
+        assertTrue(System.nanoTime() - t0 < 1_000_000_000L, "no retry pauses");
+        assertThrows(FileSystemException.class, () -> alice.queueImage("bob", huge));
+        assertThrows(NoSuchFileException.class, () -> alice.queueImage("bob", tmp.resolve("missing.png")));
+        assertEquals(0, DurableOutbox.of(tmp.resolve("alice")).size(), "nothing that can never go is queued");
+        assertFalse(Files.exists(bobInbox) && !texts(bobInbox, 0).isEmpty());
+    }
+}
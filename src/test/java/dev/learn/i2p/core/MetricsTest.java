@@ -0,0 +1,136 @@
+package dev.learn.i2p.core;
+
+import dev.learn.i2p.net.LoopbackNetwork;
+import dev.learn.i2p.proto.SimpleProtocol;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.FileSystemException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsTest {
+
+    @Test
+    void percentiles_are_bucket_upper_bounds() {
+        Metrics.Histogram h = new Metrics.Histogram();
+        for (int i = 0; i < 90; i++) h.record(300_000);      // 0.3 ms → корзина до 0.512 ms
+        for (int i = 0; i < 10; i++) h.record(40_000_000);   // 40 ms → до 65.5 ms, но не больше максимума
+
+        assertEquals(100, h.count());
+        assertEquals(0.512, h.percentileMillis(50), 1e-9);
+        assertEquals(0.512, h.percentileMillis(90), 1e-9);
+        assertEquals(40.0, h.percentileMillis(99), 1e-9);
+        assertEquals(40.0, h.maxMillis(), 1e-9);
+        assertEquals((90 * 0.3 + 10 * 40) / 100, h.meanMillis(), 1e-9);
+        assertEquals(0, new Metrics.Histogram().percentileMillis(99));
+    }
+
+    @Test
+    void recording_does_not_allocate() {
+        Metrics m = new Metrics();
+        IOException err = new IOException("x");
+        for (int i = 0; i < 10_000; i++) record(m, i, err); // страйпы и запись в карте ошибок появляются здесь
+
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().threadId();
+        long before = mx.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < 1_000_000; i++) record(m, i, err);
+        long allocated = mx.getThreadAllocatedBytes(tid) - before;
+
+        assertEquals(1_010_000, m.accepts());
+        assertTrue(allocated < 64 * 1024, "allocated " + allocated + " bytes");
+    }
+
+    private static void record(Metrics m, int i, IOException err) {
+        m.accepted();
+        m.connectionOpened();
+        m.bytesIn(i);
+        m.bytesOut(i);
+        m.firstByte(true, i * 1000L);
+        m.saved(i * 7L);
+        m.lookedUp(i);
+        m.connectionClosed();
+        if ((i & 1023) == 0) m.error(Metrics.Stage.SAVE, err);
+    }
+
+    @Test
+    void traffic_is_counted_and_exported_over_jmx(@TempDir Path tmp) throws Exception {
+        Metrics m = Metrics.shared();
+        long accepts = m.accepts(), in = m.bytesIn(), out = m.bytesOut(), msgs = m.messagesIn();
+        long saves = m.saveLatency().count(), ttfbIn = m.firstByteLatency(true).count(), ttfbOut = m.firstByteLatency(false).count();
+        Path inbox = tmp.resolve("inbox");
+        String text = "hello metrics";
+        int len = text.getBytes(StandardCharsets.UTF_8).length;
+
+        try (var net = new LoopbackNetwork(LoopbackNetwork.LinkProfile.PERFECT)) {
+            Messenger bob = new Messenger(net.endpoint("bob"), new SimpleProtocol(inbox), inbox);
+            Thread.ofVirtual().start(bob::listen);
+            var alice = net.endpoint("alice");
+            alice.withConnection("bob", s -> new SimpleProtocol(inbox).sendText(s, text));
+
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (m.messagesIn() == msgs && System.nanoTime() < deadline) Thread.sleep(10);
+            bob.close();
+        }
+
+        assertTrue(m.accepts() > accepts);
+        assertTrue(m.messagesIn() > msgs);
+        assertTrue(m.bytesIn() - in >= len, "bytesIn");
+        assertTrue(m.bytesOut() - out >= len, "bytesOut");
+        assertTrue(m.saveLatency().count() > saves);
+        assertTrue(m.firstByteLatency(true).count() > ttfbIn);
+        assertEquals(ttfbOut, m.firstByteLatency(false).count(), "SimpleProtocol sender reads nothing back");
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(Metrics.OBJECT_NAME);
+        assertTrue(server.isRegistered(name), "listen() exports the MXBean");
+        assertTrue((Long) server.getAttribute(name, "MessagesIn") >= m.messagesIn() - 1);
+        assertTrue(((String) server.getAttribute(name, "Json")).contains("\"save\":{\"count\":"));
+    }
+
+    @Test
+    void errors_are_counted_by_stage_and_type(@TempDir Path tmp) throws Exception {
+        Path notADir = Files.writeString(tmp.resolve("inbox"), "file, not a directory");
+        long before = m().getErrors().entrySet().stream()
+                .filter(e -> e.getKey().startsWith("save.")).mapToLong(e -> e.getValue()).sum();
+
+        assertThrows(FileSystemException.class, () ->
+                InboundSaver.saveSmart(notADir, "s", new ByteArrayInputStream("x".getBytes())));
+
+        long after = m().getErrors().entrySet().stream()
+                .filter(e -> e.getKey().startsWith("save.")).mapToLong(e -> e.getValue()).sum();
+        assertEquals(before + 1, after);
+    }
+
+    @Test
+    void dump_writes_text_or_json_to_a_file(@TempDir Path tmp) throws Exception {
+        Metrics m = new Metrics();
+        m.accepted();
+        m.saved(2_000_000);
+        m.error(Metrics.Stage.CONNECT, new java.net.ConnectException("refused"));
+        Path file = tmp.resolve("metrics.json");
+
+        m.dump(true, file);
+        String json = Files.readString(file);
+        assertTrue(json.startsWith("{\"accepts\":1,"), json);
+        assertTrue(json.contains("\"errors\":{\"connect.ConnectException\":1}"), json);
+
+        m.dump(false, file);
+        String text = Files.readString(file);
+        assertTrue(text.contains("save          n=1 mean=2.00ms"), text);
+        assertFalse(Files.exists(tmp.resolve("metrics.json.tmp")));
+    }
+
+    private static Metrics m() {
+        return Metrics.shared();
+    }
+}
@@ -0,0 +1,235 @@
+package dev.learn.i2p.core;
+
+import dev.learn.i2p.net.ConnectionPool;
+import dev.learn.i2p.net.I2PTransport;
+import dev.learn.i2p.net.InboundDispatcher;
+import dev.learn.i2p.net.support.FakeI2PSocketManager;
+import dev.learn.i2p.proto.FramedProtocol;
+import dev.learn.i2p.proto.SimpleProtocol;
+import net.i2p.data.Destination;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static dev.learn.i2p.net.support.InboxFiles.countFiles;
+import static org.junit.jupiter.api.Assertions.*;
+
+class OutboundQueueTest {
+
+    private static OutboundQueue.Settings settings(int capacity, Duration linger, OutboundQueue.Overflow overflow) {
+        return new OutboundQueue.Settings(capacity, 64, 64 * 1024, linger, overflow);
+    }
+
+    private static Throwable cause(CompletableFuture<Void> f) {
+        ExecutionException e = assertThrows(ExecutionException.class, () -> f.get(5, TimeUnit.SECONDS));
+        return e.getCause();
+    }
+
+    @Test
+    void order_is_preserved_per_destination_and_small_texts_are_coalesced() throws Exception {
+        Map<String, List<String>> delivered = new ConcurrentHashMap<>();
+        List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+        OutboundQueue q = new OutboundQueue((dest, texts, acked) -> {
+            batchSizes.add(texts.size());
+            for (int i = 0; i < texts.size(); i++) {
+                delivered.computeIfAbsent(dest, d -> Collections.synchronizedList(new ArrayList<>())).add(texts.get(i));
+                acked.accept(i);
+            }
+        }, settings(1000, Duration.ofMillis(20), OutboundQueue.Overflow.REJECT));
+
+        List<CompletableFuture<Void>> all = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            all.add(q.submit("a", "a" + i));
+            all.add(q.submit("b", "b" + i));
+        }
+        CompletableFuture.allOf(all.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+        q.close();
+
+        for (String dest : List.of("a", "b")) {
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 200; i++) expected.add(dest + i);
+            assertEquals(expected, delivered.get(dest));
+        }
+        assertEquals(400, q.sent());
+        assertTrue(q.batches() < 40, "expected coalescing, got " + q.batches() + " batches: " + batchSizes);
+    }
+
+    @Test
+    void failure_mid_batch_fails_only_unacknowledged_messages() throws Exception {
+        OutboundQueue q = new OutboundQueue((dest, texts, acked) -> {
+            acked.accept(0);
+            throw new IOException("tunnel dropped");
+        }, settings(10, Duration.ofMillis(50), OutboundQueue.Overflow.REJECT));
+
+        CompletableFuture<Void> first = q.submit("p", "one");
+        CompletableFuture<Void> second = q.submit("p", "two");
+
+        first.get(5, TimeUnit.SECONDS);
+        assertInstanceOf(IOException.class, cause(second));
+        q.close();
+    }
+
+    @Test
+    void idle_destinations_are_retired() throws Exception {
+        OutboundQueue q = new OutboundQueue((dest, texts, acked) -> {
+            for (int i = 0; i < texts.size(); i++) acked.accept(i);
+        }, settings(10, Duration.ofMillis(10), OutboundQueue.Overflow.REJECT));
+
+        List<CompletableFuture<Void>> all = new ArrayList<>();
+        for (int i = 0; i < 50; i++) all.add(q.submit("peer" + i, "hi"));
+        CompletableFuture.allOf(all.toArray(CompletableFuture[]::new)).get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 500 && q.peerCount() > 0; i++) Thread.sleep(2);
+        assertEquals(0, q.peerCount(), "drained queues and their workers are gone");
+
+        q.submit("peer0", "again").get(5, TimeUnit.SECONDS);
+        q.close(); // дожидается и учёта отправленного: счётчик растёт после подтверждений
+        assertEquals(51, q.sent());
+    }
+
+    @Test
+    void reject_policy_fails_new_messages_when_full() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        OutboundQueue q = new OutboundQueue(blockingSender(release), settings(2, Duration.ZERO, OutboundQueue.Overflow.REJECT));
+
+        CompletableFuture<Void> inFlight = q.submit("p", "0");
+        awaitDequeued(q, "p");
+        CompletableFuture<Void> a = q.submit("p", "1");
+        CompletableFuture<Void> b = q.submit("p", "2");
+        CompletableFuture<Void> rejected = q.submit("p", "3");
+
+        assertInstanceOf(RejectedExecutionException.class, cause(rejected));
+        release.countDown();
+        CompletableFuture.allOf(inFlight, a, b).get(5, TimeUnit.SECONDS);
+        q.close();
+    }
+
+    @Test
+    void drop_oldest_policy_evicts_the_head_of_the_queue() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        OutboundQueue q = new OutboundQueue(blockingSender(release), settings(2, Duration.ZERO, OutboundQueue.Overflow.DROP_OLDEST));
+
+        CompletableFuture<Void> inFlight = q.submit("p", "0");
+        awaitDequeued(q, "p");
+        CompletableFuture<Void> oldest = q.submit("p", "1");
+        CompletableFuture<Void> b = q.submit("p", "2");
+        CompletableFuture<Void> c = q.submit("p", "3");
+
+        assertInstanceOf(RejectedExecutionException.class, cause(oldest));
+        release.countDown();
+        CompletableFuture.allOf(inFlight, b, c).get(5, TimeUnit.SECONDS);
+        q.close();
+    }
+
+    @Test
+    void block_policy_makes_the_caller_wait_for_room() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        OutboundQueue q = new OutboundQueue(blockingSender(release), settings(1, Duration.ZERO, OutboundQueue.Overflow.BLOCK));
+
+        q.submit("p", "0");
+        awaitDequeued(q, "p");
+        q.submit("p", "1");
+        Thread caller = Thread.ofVirtual().start(() -> q.submit("p", "2"));
+        caller.join(200);
+        assertTrue(caller.isAlive(), "submit must block while the queue is full");
+
+        release.countDown();
+        caller.join(5000);
+        assertFalse(caller.isAlive());
+        q.close();
+    }
+
+    @Test
+    void caller_blocked_for_room_is_rejected_once_the_queue_closes() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> sent = Collections.synchronizedList(new ArrayList<>());
+        OutboundQueue q = new OutboundQueue((dest, texts, acked) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            sent.addAll(texts);
+            for (int i = 0; i < texts.size(); i++) acked.accept(i);
+        }, settings(1, Duration.ZERO, OutboundQueue.Overflow.BLOCK));
+
+        q.submit("p", "0");
+        awaitDequeued(q, "p");
+        q.submit("p", "1");
+        CompletableFuture<CompletableFuture<Void>> late = new CompletableFuture<>();
+        Thread caller = Thread.ofVirtual().start(() -> late.complete(q.submit("p", "2")));
+        while (caller.getState() != Thread.State.WAITING) Thread.sleep(1);
+
+        q.close(Duration.ZERO);
+        release.countDown();
+
+        assertInstanceOf(RejectedExecutionException.class, cause(late.get(5, TimeUnit.SECONDS)));
+        Thread.sleep(50);
+        assertFalse(sent.contains("2"), "nothing goes out after close: " + sent);
+    }
+
+    /** Первая пачка висит в отправке до release. */
+    private static OutboundQueue.BatchSender blockingSender(CountDownLatch release) {
+        return (dest, texts, acked) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            }
+            for (int i = 0; i < texts.size(); i++) acked.accept(i);
+        };
+    }
+
+    private static void awaitDequeued(OutboundQueue q, String dest) throws InterruptedException {
+        for (int i = 0; i < 500 && q.pending(dest) > 0; i++) Thread.sleep(2);
+        assertEquals(0, q.pending(dest));
+    }
+
+    // === пропускная способность: по соединению на сообщение против очереди ===
+
+    private static final Duration CONNECT_LATENCY = Duration.ofMillis(20);
+    private static final Destination PEER = FakeI2PSocketManager.destination(9);
+
+    /** Скорость — в JMH-профиле; здесь — то, за счёт чего она берётся: соединения и пачки. */
+    @Test
+    void async_queue_needs_far_fewer_connections_than_one_per_message(@TempDir Path tmp) throws Exception {
+        int n = 200;
+
+        Path syncInbox = tmp.resolve("sync");
+        SimpleProtocol simple = new SimpleProtocol(syncInbox);
+        FakeI2PSocketManager syncFake = new FakeI2PSocketManager(CONNECT_LATENCY, simple::handle);
+        int sample = 20;
+        try (Messenger m = new Messenger(new I2PTransport(syncFake.manager(), InboundDispatcher.inline(), null, FakeI2PSocketManager.names(PEER)),
+                simple, syncInbox)) {
+            for (int i = 0; i < sample; i++) m.sendText("peer.b32.i2p", "msg " + i);
+        }
+        assertEquals(sample, syncFake.connects(), "simple protocol: a connection per message");
+
+        Path asyncInbox = tmp.resolve("async");
+        FramedProtocol framed = new FramedProtocol(asyncInbox);
+        FakeI2PSocketManager asyncFake = new FakeI2PSocketManager(CONNECT_LATENCY, framed::handle);
+        try (Messenger m = new Messenger(new I2PTransport(asyncFake.manager(), InboundDispatcher.inline(), null, FakeI2PSocketManager.names(PEER)),
+                framed, asyncInbox)) {
+            List<CompletableFuture<Void>> all = new ArrayList<>();
+            for (int i = 0; i < n; i++) all.add(m.sendTextAsync("peer.b32.i2p", "msg " + i));
+            CompletableFuture.allOf(all.toArray(CompletableFuture[]::new)).get(30, TimeUnit.SECONDS);
+            assertTrue(m.outbox().batches() < n, "messages must be coalesced: " + m.outbox().batches() + " batches");
+            assertTrue(asyncFake.connects() <= ConnectionPool.DEFAULT_MAX_PER_PEER,
+                    "pooled stream is reused across batches: " + asyncFake.connects() + " connects");
+        }
+
+        assertEquals(n, countFiles(asyncInbox));
+    }
+}
@@ -0,0 +1,106 @@
+package dev.learn.i2p.core;
+
+import dev.learn.i2p.core.profile.ProfileManager;
+import dev.learn.i2p.net.LoopbackNetwork;
+import dev.learn.i2p.proto.FramedProtocol;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static dev.learn.i2p.net.support.InboxFiles.texts;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ProfileHostTest {
+
+    private final LoopbackNetwork net = new LoopbackNetwork(LoopbackNetwork.LinkProfile.PERFECT);
+
+    @AfterEach
+    void cleanup() {
+        System.clearProperty("i2p.messenger.profile.bob.admission.deny");
+        net.close();
+    }
+
+    private ProfileHost open(Path base, String... names) throws IOException {
+        return ProfileHost.open(base, List.of(names), 16, (name, p, inbound) -> net.endpoint(name, inbound));
+    }
+
+    private static List<String> await(Path inbox, int n) throws Exception {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        List<String> got;
+        while ((got = texts(inbox)).size() < n && System.nanoTime() < deadline) Thread.sleep(20);
+        return got;
+    }
+
+    private void send(String to, String text, Path tmp) throws IOException {
+        FramedProtocol p = new FramedProtocol(tmp.resolve("sender"));
+        net.endpoint("peer-" + System.nanoTime()).withConnection(to, s -> p.sendText(s, text));
+    }
+
+    @Test
+    void each_profile_has_its_own_address_inbox_and_lock(@TempDir Path tmp) throws Exception {
+        try (ProfileHost host = open(tmp, "alice", "bob", "carol")) {
+            host.start();
+            for (ProfileHost.Tenant t : host.tenants()) send(t.name(), "hello " + t.name(), tmp);
+
+            for (ProfileHost.Tenant t : host.tenants()) {
+                assertEquals(tmp.resolve("profiles").resolve(t.name()).resolve("inbox"), t.inbox());
+                assertEquals(List.of("hello " + t.name()), await(t.inbox(), 1));
+                assertTrue(t.profile().lock().isValid());
+            }
+            assertThrows(IOException.class, () -> ProfileManager.resolveNamed(tmp, "bob"), "bob is locked by the host");
+        }
+    }
+
+    @Test
+    void profiles_send_under_their_own_identity(@TempDir Path tmp) throws Exception {
+        try (ProfileHost host = open(tmp, "alice", "bob")) {
+            host.start();
+
+            host.tenant("alice").messenger().sendText("bob", "from alice");
+
+            assertEquals(List.of("from alice"), await(host.tenant("bob").inbox(), 1));
+            try (Stream<Path> s = Files.walk(host.tenant("bob").inbox())) {
+                assertTrue(s.anyMatch(p -> p.getFileName().toString().contains("alice")), "sender shard is alice");
+            }
+            assertEquals(List.of(), texts(host.tenant("alice").inbox()));
+        }
+    }
+
+    @Test
+    void admission_limits_are_isolated_per_profile(@TempDir Path tmp) throws Exception {
+        System.setProperty("i2p.messenger.profile.bob.admission.deny", "mallory");
+        try (ProfileHost host = open(tmp, "alice", "bob")) {
+            host.start();
+            FramedProtocol p = new FramedProtocol(tmp.resolve("sender"));
+            var mallory = net.endpoint("mallory");
+
+            mallory.withConnection("alice", s -> p.sendText(s, "to alice"));
+            try {
+                mallory.withConnection("bob", s -> p.sendText(s, "to bob"));
+                fail("bob denies mallory");
+            } catch (IOException expected) {
+                // отказ приходит отправителю закрытым стримом
+            }
+
+            assertEquals(List.of("to alice"), await(host.tenant("alice").inbox(), 1));
+            assertEquals(List.of(), texts(host.tenant("bob").inbox()));
+            assertEquals(List.of("mallory"), host.tenant("bob").admission().getDenied());
+            assertEquals(List.of(), host.tenant("alice").admission().getDenied());
+        }
+    }
+
+    @Test
+    void failing_profile_releases_the_ones_already_opened(@TempDir Path tmp) throws Exception {
+        assertThrows(IllegalArgumentException.class, () -> open(tmp, "alice", "../escape"));
+
+        try (ProfileHost again = open(tmp, "alice")) {
+            assertTrue(again.tenant("alice").profile().lock().isValid(), "alice's lock was released");
+        }
+    }
+}
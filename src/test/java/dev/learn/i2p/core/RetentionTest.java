@@ -0,0 +1,191 @@
+package dev.learn.i2p.core;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipFile;
+
+import static dev.learn.i2p.net.support.InboxFiles.files;
+import static org.junit.jupiter.api.Assertions.*;
+
+class RetentionTest {
+
+    private static final String ALICE = "alicealicealicealicealicealicealicealicealicealice.b32.i2p";
+    private static final String BOB = "bobbobbobbobbobbobbobbobbobbobbobbobbobbobbobbobbob.b32.i2p";
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("yyyyMMdd_HHmmss_SSS");
+
+    private final List<Path> inboxes = new ArrayList<>();
+
+    @AfterEach
+    void closeIndexes() {
+        inboxes.forEach(InboxIndex::closeIfOpen);
+    }
+
+    private Path inbox(Path tmp) {
+        Path inbox = tmp.resolve("inbox");
+        inboxes.add(inbox);
+        return inbox;
+    }
+
+    private static Retention.Policy policy(Duration maxAge, long maxBytes, long maxFiles, long maxSenderBytes, long maxSenderFiles) {
+        return new Retention.Policy(maxAge, maxBytes, maxFiles, maxSenderBytes, maxSenderFiles, null, 0, null, null);
+    }
+
+    /** Файл, принятый daysAgo дней назад: в раскладке inbox и с временем в имени (его возьмёт rebuild). */
+    private static Path received(Path inbox, String sender, int daysAgo, int seq, String body) throws Exception {
+        LocalDateTime at = LocalDateTime.now().minusDays(daysAgo).withHour(12).withMinute(0).withSecond(seq % 60);
+        String key = InboxLayout.senderKey(sender);
+        Path file = InboxLayout.shard(inbox, at.toLocalDate(), key).resolve(STAMP.format(at) + "_from-" + key + ".txt");
+        Files.createDirectories(file.getParent());
+        return Files.writeString(file, body);
+    }
+
+    @Test
+    void expired_files_are_removed_and_forgotten(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        Path old = received(inbox, ALICE, 40, 0, "old");
+        Path fresh = InboundSaver.saveSmart(inbox, ALICE, new ByteArrayInputStream("fresh".getBytes()));
+        InboxIndex.of(inbox).rebuild();
+
+        Retention.Report r = new Retention(inbox, policy(Duration.ofDays(30), 0, 0, 0, 0)).run();
+
+        assertEquals(1, r.expired());
+        assertEquals(3, r.reclaimedBytes());
+        assertFalse(Files.exists(old));
+        assertFalse(Files.exists(old.getParent()), "empty shard removed");
+        List<InboxIndex.Entry> left = InboxIndex.of(inbox).query(InboxIndex.Query.all());
+        assertEquals(1, left.size());
+        assertEquals(fresh.toAbsolutePath(), left.get(0).path());
+    }
+
+    /** Inbox держит слушатель другого процесса: разовый проход отказывается, ничего не удалив. */
+    @Test
+    void pass_is_refused_while_another_process_owns_the_inbox(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        Path old = received(inbox, ALICE, 40, 0, "old");
+        try (InboxIndex listener = InboxIndex.open(inbox)) { // мимо реестра — как чужой процесс
+            listener.rebuild();
+            IOException e = assertThrows(IOException.class, () -> new Retention(inbox, policy(Duration.ofDays(30), 0, 0, 0, 0)).run());
+            assertTrue(e.getMessage().contains("another process"), e.getMessage());
+            assertTrue(Files.exists(old));
+            assertEquals(1, listener.size());
+        }
+    }
+
+    @Test
+    void per_sender_quota_evicts_only_that_senders_oldest(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        Path a1 = received(inbox, ALICE, 3, 1, "aaaa");
+        Path a2 = received(inbox, ALICE, 2, 2, "aaaa");
+        Path a3 = received(inbox, ALICE, 1, 3, "aaaa");
+        Path b1 = received(inbox, BOB, 5, 4, "bbbb");
+        InboxIndex.of(inbox).rebuild();
+
+        Retention.Report r = new Retention(inbox, policy(null, 0, 0, 0, 2)).run();
+
+        assertEquals(1, r.evicted());
+        assertEquals(List.of(false, true, true, true), Stream.of(a1, a2, a3, b1).map(Files::exists).toList());
+        assertEquals(3, InboxIndex.of(inbox).size());
+    }
+
+    @Test
+    void global_byte_quota_evicts_oldest_first(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        Path b1 = received(inbox, BOB, 5, 1, "x".repeat(100));
+        Path a1 = received(inbox, ALICE, 3, 2, "x".repeat(100));
+        Path a2 = received(inbox, ALICE, 1, 3, "x".repeat(100));
+        InboxIndex.of(inbox).rebuild();
+
+        Retention.Report r = new Retention(inbox, policy(null, 150, 0, 0, 0)).run();
+
+        assertEquals(2, r.evicted());
+        assertEquals(200, r.reclaimedBytes());
+        assertEquals(List.of(a2), files(inbox));
+        assertFalse(Files.exists(b1) || Files.exists(a1));
+    }
+
+    @Test
+    void small_old_files_are_packed_into_a_daily_segment(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        Path a = received(inbox, ALICE, 10, 1, "hello from alice");
+        Path b = received(inbox, BOB, 10, 2, "hello from bob");
+        Path big = received(inbox, BOB, 10, 3, "y".repeat(5000));
+        Path recent = received(inbox, ALICE, 0, 4, "today");
+        InboxIndex.of(inbox).rebuild();
+        Retention.Policy p = new Retention.Policy(null, 0, 0, 0, 0, Duration.ofDays(7), 1024, null, null);
+
+        Retention.Report r = new Retention(inbox, p).run();
+
+        assertEquals(2, r.compacted());
+        assertEquals(1, r.segments());
+        assertEquals(List.of(big, recent).stream().sorted().toList(), files(inbox));
+        Path segment = Retention.archiveFor(inbox).resolve(a.getParent().getParent().getFileName() + "-1.zip");
+        try (ZipFile zip = new ZipFile(segment.toFile())) {
+            String name = inbox.relativize(a).subpath(1, 3).toString().replace('\\', '/');
+            assertEquals("hello from alice", new String(zip.getInputStream(zip.getEntry(name)).readAllBytes()));
+            assertEquals(2, zip.size());
+        }
+        assertFalse(Files.exists(b));
+        assertEquals(2, InboxIndex.of(inbox).size());
+    }
+
+    @Test
+    void stale_temp_files_and_abandoned_partials_are_swept(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        Path shard = Files.createDirectories(inbox.resolve("2024-01-01").resolve("alicealic"));
+        Path stale = Files.writeString(shard.resolve(".x.txt.part"), "half");
+        Path live = Files.writeString(shard.resolve(".y.txt.part"), "writing");
+        Path partial = Files.createDirectories(inbox.resolveSibling("inbox.partial").resolve("abc"));
+        Files.writeString(partial.resolve("data"), "chunk");
+        FileTime longAgo = FileTime.from(Instant.now().minus(Duration.ofDays(30)));
+        Files.setLastModifiedTime(stale, longAgo);
+        Files.setLastModifiedTime(partial.resolve("data"), longAgo);
+        Files.setLastModifiedTime(partial, longAgo);
+
+        Retention.Report r = new Retention(inbox, Retention.Policy.fromSystemProps()).run();
+
+        assertEquals(2, r.staleRemoved());
+        assertFalse(Files.exists(stale));
+        assertTrue(Files.exists(live));
+        assertFalse(Files.exists(partial));
+    }
+
+    @Test
+    void deduplicated_content_is_freed_with_its_last_link(@TempDir Path tmp) throws Exception {
+        Path inbox = inbox(tmp);
+        byte[] body = "same content, sent twice".getBytes();
+        InboundSaver.saveSmart(inbox, ALICE, new ByteArrayInputStream(body));
+        InboundSaver.saveSmart(inbox, BOB, new ByteArrayInputStream(body));
+
+        Retention.Report r = new Retention(inbox, policy(null, 0, 1, 0, 0)).run();
+
+        assertEquals(1, r.evicted());
+        assertEquals(0, r.reclaimedBytes(), "the other copy still holds the content");
+        r = new Retention(inbox, policy(null, 0, 0, 0, 0)).run();
+        assertEquals(0, r.evicted());
+        assertEquals(1, files(inbox).size());
+    }
+
+    @Test
+    void policy_parses_durations() {
+        assertEquals(Duration.ofDays(30), Retention.duration("30d"));
+        assertEquals(Duration.ofHours(12), Retention.duration("12h"));
+        assertEquals(Duration.ofSeconds(10), Retention.duration("10s"));
+        assertEquals(Duration.ZERO, Retention.duration("0"));
+        assertThrows(IllegalArgumentException.class, () -> Retention.duration("1w"));
+        assertThrows(IllegalArgumentException.class, () -> policy(null, -1, 0, 0, 0));
+    }
+}
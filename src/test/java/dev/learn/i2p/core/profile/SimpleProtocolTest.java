@@ -1,5 +1,6 @@
 package dev.learn.i2p.core.profile;
 
+import dev.learn.i2p.net.PeerStream;
 import dev.learn.i2p.proto.SimpleProtocol;
 import net.i2p.client.streaming.I2PSocket;
 import org.junit.jupiter.api.Test;
@@ -26,7 +27,7 @@ class SimpleProtocolTest {
         I2PSocket sock = Mockito.mock(I2PSocket.class);
         when(sock.getInputStream()).thenReturn(new ByteArrayInputStream(payload));
 
-        p.handle(sock);
+        p.handle(PeerStream.of(sock));
 
         assertTrue(Files.exists(inbox), "inbox dir must exist");
         long files = list(inbox).count();
@@ -42,7 +43,7 @@ class SimpleProtocolTest {
         when(sock.getOutputStream()).thenReturn(baos);
 
         String msg = "привет из I2P";
-        p.sendText(sock, msg);
+        p.sendText(PeerStream.of(sock), msg);
 
         assertEquals(msg, baos.toString(StandardCharsets.UTF_8));
     }
@@ -60,7 +61,7 @@ class SimpleProtocolTest {
         I2PSocket sock = Mockito.mock(I2PSocket.class);
         when(sock.getOutputStream()).thenReturn(baos);
 
-        p.sendImage(sock, img);
+        p.sendImage(PeerStream.of(sock), img);
 
         assertArrayEquals(bytes, baos.toByteArray());
     }
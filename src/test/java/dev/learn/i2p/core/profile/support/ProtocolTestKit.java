@@ -87,6 +87,35 @@ public final class ProtocolTestKit {
         }
     }
 
+    // === Фреймы FrameCodec: [type][flags][seq varint][len varint] + payload (без заголовков) ===
+    public static byte[] makeCodecFrame(int type, long seq, byte[] payload) {
+        java.io.ByteArrayOutputStream bos = new java.io.ByteArrayOutputStream();
+        bos.write(type);
+        bos.write(0);
+        writeVarint(bos, seq);
+        writeVarint(bos, payload.length);
+        bos.writeBytes(payload);
+        return bos.toByteArray();
+    }
+
+    /** Только заголовок фрейма с заявленной длиной (тело не прикладываем — для проверок лимитов). */
+    public static byte[] makeCodecHeaderWithLen(int type, long declaredLen) {
+        java.io.ByteArrayOutputStream bos = new java.io.ByteArrayOutputStream();
+        bos.write(type);
+        bos.write(0);
+        writeVarint(bos, 0);
+        writeVarint(bos, declaredLen);
+        return bos.toByteArray();
+    }
+
+    private static void writeVarint(java.io.ByteArrayOutputStream bos, long v) {
+        while ((v & ~0x7FL) != 0) {
+            bos.write((int) ((v & 0x7F) | 0x80));
+            v >>>= 7;
+        }
+        bos.write((int) v);
+    }
+
     public static byte[] truncated(byte[] full, int leave) {
         if (leave < 0) leave = 0;
         if (leave > full.length) leave = full.length;
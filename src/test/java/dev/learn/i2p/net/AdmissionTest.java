@@ -0,0 +1,177 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.core.Metrics;
+import dev.learn.i2p.proto.SimpleProtocol;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AdmissionTest {
+
+    private final Metrics metrics = new Metrics();
+    private final AtomicLong clock = new AtomicLong(1_000_000_000L);
+
+    private Admission admission(Admission.Limits limits) {
+        return new Admission(limits, metrics, clock::get);
+    }
+
+    private static Admission.Limits limits(double connPerSec, int connBurst, long bytesPerSec, long byteBurst, int maxPerPeer) {
+        return new Admission.Limits(connPerSec, connBurst, bytesPerSec, byteBurst, maxPerPeer, 0, Set.of(), Set.of());
+    }
+
+    /** Стрим поверх массива байт — для проверки полосы без сети. */
+    private static PeerStream bytes(byte[] data) {
+        InputStream in = new ByteArrayInputStream(data);
+        OutputStream out = new ByteArrayOutputStream();
+        return new PeerStream() {
+            @Override public InputStream getInputStream() { return in; }
+            @Override public OutputStream getOutputStream() { return out; }
+            @Override public String peerAddress() { return "peer"; }
+            @Override public void setReadTimeout(long ms) { }
+            @Override public boolean isClosed() { return false; }
+            @Override public void close() { }
+        };
+    }
+
+    @Test
+    void deny_and_allow_lists_are_checked_first() {
+        Admission a = admission(new Admission.Limits(0, 0, 0, 0, 0, 0, Set.of("good.b32.i2p"), Set.of("Evil.b32.i2p")));
+
+        assertNull(a.admit("evil.b32.i2p"));
+        assertNull(a.admit("other.b32.i2p"));
+        assertNotNull(a.admit("GOOD.b32.i2p"));
+        assertEquals(1, metrics.rejections(Metrics.Rejection.DENIED));
+        assertEquals(1, metrics.rejections(Metrics.Rejection.NOT_ALLOWED));
+    }
+
+    @Test
+    void connection_rate_is_limited_per_peer_and_refills_over_time() {
+        Admission a = admission(limits(2, 3, 0, 0, 0));
+
+        for (int i = 0; i < 3; i++) assertNotNull(a.admit("a.b32.i2p"), "burst " + i);
+        assertNull(a.admit("a.b32.i2p"));
+        assertNotNull(a.admit("b.b32.i2p"), "other peer has its own bucket");
+
+        clock.addAndGet(500_000_000L); // полсекунды при 2/с — один токен
+        assertNotNull(a.admit("a.b32.i2p"));
+        assertNull(a.admit("a.b32.i2p"));
+        assertEquals(2, metrics.rejections(Metrics.Rejection.CONNECTION_RATE));
+    }
+
+    @Test
+    void concurrent_connections_per_peer_are_capped_until_tickets_close() {
+        Admission a = admission(limits(0, 0, 0, 0, 2));
+
+        Admission.Ticket t1 = a.admit("10.0.0.1:40001");
+        Admission.Ticket t2 = a.admit("10.0.0.1:40002");
+        assertNotNull(t1);
+        assertNotNull(t2);
+        assertNull(a.admit("10.0.0.1:40003"), "same host, other port");
+        assertEquals(1, metrics.rejections(Metrics.Rejection.PEER_CONCURRENCY));
+
+        t1.close();
+        t1.close(); // повторное закрытие не освобождает чужой слот
+        assertNotNull(a.admit("10.0.0.1:40004"));
+        assertNull(a.admit("10.0.0.1:40005"));
+    }
+
+    @Test
+    void reads_beyond_the_burst_are_delayed_to_the_byte_rate() throws IOException {
+        Admission a = new Admission(limits(0, 0, 10_000, 1_000, 0), metrics, System::nanoTime);
+        PeerStream s = a.admit("peer").throttle(bytes(new byte[3_000]));
+
+        long start = System.nanoTime();
+        assertEquals(3_000, s.getInputStream().readAllBytes().length);
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        // 1000 байт из запаса, ещё 2000 при 10 000 B/s — около 200 мс
+        assertTrue(elapsedMs >= 150, "elapsed " + elapsedMs + " ms");
+        assertTrue(metrics.throttledNanos() >= 150_000_000L, "throttled " + metrics.throttledNanos());
+    }
+
+    @Test
+    void runtime_changes_apply_to_known_peers() {
+        Admission a = admission(limits(1, 1, 0, 0, 0));
+        assertNotNull(a.admit("p.b32.i2p"));
+        assertNull(a.admit("p.b32.i2p"));
+
+        a.setConnectionsPerSecond(0); // 0 — без ограничения
+        assertNotNull(a.admit("p.b32.i2p"));
+
+        a.deny("P.b32.i2p");
+        assertEquals(1, a.getDenied().size());
+        assertNull(a.admit("p.b32.i2p"));
+        a.undeny("p.b32.i2p");
+        assertNotNull(a.admit("p.b32.i2p"));
+        assertEquals(1, a.getTrackedPeers());
+    }
+
+    @Test
+    void idle_peers_are_swept_at_most_once_per_interval() {
+        Admission a = admission(Admission.Limits.UNLIMITED);
+        long start = clock.get();
+        for (int i = 0; i <= Admission.MAX_TRACKED; i++) a.admit("old-" + i).close();
+
+        clock.set(start + Admission.IDLE_NANOS - Admission.SWEEP_INTERVAL_NANOS / 2);
+        a.admit("mid").close(); // проход есть, но старые ещё не простаивают
+        assertEquals(Admission.MAX_TRACKED + 2, a.getTrackedPeers());
+
+        clock.set(start + Admission.IDLE_NANOS + 1);
+        a.admit("new-1").close(); // старые уже простаивают, но с прошлого прохода не прошло интервала
+        assertEquals(Admission.MAX_TRACKED + 3, a.getTrackedPeers());
+
+        clock.set(start + Admission.IDLE_NANOS + Admission.SWEEP_INTERVAL_NANOS / 2);
+        a.admit("new-2").close();
+        assertEquals(3, a.getTrackedPeers(), "mid, new-1, new-2");
+    }
+
+    @Test
+    void peer_keys_are_normalized() {
+        assertEquals("abc.b32.i2p", Admission.keyOf(" ABC.b32.i2p "));
+        assertEquals("127.0.0.1", Admission.keyOf("127.0.0.1:51234"));
+        assertEquals("::1", Admission.keyOf("::1"));
+        assertEquals(Admission.UNKNOWN, Admission.keyOf(null));
+    }
+
+    @Test
+    void rejected_connection_never_reaches_the_handler_or_the_inbox(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        Admission a = admission(new Admission.Limits(0, 0, 0, 0, 0, 0, Set.of(), Set.of("mallory")));
+
+        try (var net = new LoopbackNetwork(LoopbackNetwork.LinkProfile.PERFECT)) {
+            var bob = net.endpoint("bob", InboundDispatcher.virtualThreads(4, a));
+            CountDownLatch handled = new CountDownLatch(1);
+            Thread.ofVirtual().start(() -> bob.acceptLoop(s -> {
+                new SimpleProtocol(inbox).handle(s);
+                handled.countDown();
+            }));
+
+            try {
+                net.endpoint("mallory").withConnection("bob", s -> new SimpleProtocol(inbox).sendText(s, "spam"));
+            } catch (IOException expected) {
+                // отказ может прийти отправителю как закрытый стрим
+            }
+            net.endpoint("alice").withConnection("bob", s -> new SimpleProtocol(inbox).sendText(s, "hello"));
+            assertTrue(handled.await(5, TimeUnit.SECONDS));
+            bob.close();
+        }
+
+        assertEquals(1, metrics.rejections(Metrics.Rejection.DENIED));
+        try (var files = Files.walk(inbox)) {
+            assertEquals(1, files.filter(p -> p.toString().endsWith(".txt")).count(), "only alice's message");
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.core.InboxIndex;
+import dev.learn.i2p.net.support.FakeI2PSocketManager;
+import dev.learn.i2p.proto.FramedProtocol;
+import dev.learn.i2p.proto.SimpleProtocol;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.data.Destination;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static dev.learn.i2p.net.support.InboxFiles.countFiles;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class ConnectionPoolTest {
+
+    private static final Duration CONNECT_LATENCY = Duration.ofMillis(20);
+    private static final Destination PEER = FakeI2PSocketManager.destination(7);
+
+    @Test
+    void pooled_sends_reuse_one_stream(@TempDir Path tmp) throws Exception {
+        int n = 20;
+        Path inbox = tmp.resolve("inbox");
+        FramedProtocol proto = new FramedProtocol(inbox);
+        FakeI2PSocketManager fake = new FakeI2PSocketManager(CONNECT_LATENCY, proto::handle);
+
+        try (I2PTransport t = new I2PTransport(fake.manager(), InboundDispatcher.inline(), null, FakeI2PSocketManager.names(PEER))) {
+            for (int i = 0; i < n; i++) {
+                String msg = "msg " + i;
+                t.withReusableConnection("peer.b32.i2p", s -> proto.sendText(s, msg));
+            }
+        }
+
+        assertEquals(1, fake.connects(), "all frames must go over one pooled stream");
+        assertEquals(n, countFiles(inbox));
+    }
+
+    @Test
+    void stale_pooled_stream_is_retried_only_if_nothing_was_written(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        FramedProtocol proto = new FramedProtocol(inbox);
+        FakeI2PSocketManager fake = new FakeI2PSocketManager(CONNECT_LATENCY, proto::handle);
+
+        try (I2PTransport t = new I2PTransport(fake.manager(), InboundDispatcher.inline(), null, FakeI2PSocketManager.names(PEER))) {
+            t.withReusableConnection("peer.b32.i2p", s -> proto.sendText(s, "warm-up"));
+
+            AtomicInteger calls = new AtomicInteger();
+            assertThrows(SocketTimeoutException.class, () -> t.withReusableConnection("peer.b32.i2p", s -> {
+                calls.incrementAndGet();
+                s.getOutputStream().write(new byte[]{1, 2, 3}); // кадр ушёл, ACK не дождались
+                throw new SocketTimeoutException("no ACK");
+            }));
+            assertEquals(1, calls.get(), "written data may have arrived: no blind resend");
+
+            t.withReusableConnection("peer.b32.i2p", s -> proto.sendText(s, "warm-up again")); // тот стрим закрыт
+            calls.set(0);
+            t.withReusableConnection("peer.b32.i2p", s -> {
+                if (calls.incrementAndGet() == 1) throw new IOException("stream reset");
+                proto.sendText(s, "after reset");
+            });
+            assertEquals(2, calls.get(), "nothing was written: safe to retry on a new stream");
+        }
+        assertEquals(3, countFiles(inbox));
+    }
+
+    @Test
+    void unpooled_sends_open_a_stream_each_time(@TempDir Path tmp) throws Exception {
+        int n = 10;
+        Path inbox = tmp.resolve("inbox");
+        SimpleProtocol proto = new SimpleProtocol(inbox);
+        FakeI2PSocketManager fake = new FakeI2PSocketManager(CONNECT_LATENCY, proto::handle);
+
+        try (I2PTransport t = new I2PTransport(fake.manager(), InboundDispatcher.inline(), null, FakeI2PSocketManager.names(PEER))) {
+            for (int i = 0; i < n; i++) {
+                String msg = "msg " + i;
+                t.withConnection("peer.b32.i2p", s -> proto.sendText(s, msg));
+            }
+        }
+
+        assertEquals(n, fake.connects(), "every message pays a new stream");
+        // ACK в simple нет: последние сообщения пир может ещё дописывать — ждём их в индексе
+        for (int i = 0; i < 1000 && InboxIndex.of(inbox).size() < n; i++) Thread.sleep(5);
+        assertEquals(n, InboxIndex.of(inbox).size());
+        InboxIndex.closeIfOpen(inbox);
+    }
+
+    @Test
+    void max_per_peer_is_enforced() throws Exception {
+        ConnectionPool pool = new ConnectionPool(d -> mock(I2PSocket.class), 1,
+                Duration.ofSeconds(60), Duration.ofMillis(100));
+        ConnectionPool.Lease first = pool.borrow(PEER);
+        assertThrows(IOException.class, () -> pool.borrow(PEER), "second lease must wait and time out");
+
+        pool.release(first, true);
+        ConnectionPool.Lease again = pool.borrow(PEER);
+        assertSame(first.socket(), again.socket());
+        assertFalse(again.fresh());
+        pool.close();
+    }
+
+    @Test
+    void closed_and_idle_sockets_are_not_reused() throws Exception {
+        ConnectionPool pool = new ConnectionPool(d -> mock(I2PSocket.class), 4,
+                Duration.ofMillis(50), Duration.ofSeconds(1));
+
+        ConnectionPool.Lease a = pool.borrow(PEER);
+        when(a.socket().isClosed()).thenReturn(true);
+        pool.release(a, true);
+        assertNotSame(a.socket(), pool.borrow(PEER).socket(), "closed socket must be dropped");
+
+        ConnectionPool.Lease b = pool.borrow(PEER);
+        pool.release(b, true);
+        Thread.sleep(80);
+        pool.evictIdle();
+        verify(b.socket()).close();
+        assertEquals(1, pool.evictions());
+        assertEquals(1, pool.openCount(I2PTransport.toB32(PEER)), "only the still-leased socket remains");
+        pool.close();
+    }
+
+    @Test
+    void peers_without_sockets_are_forgotten() throws Exception {
+        ConnectionPool pool = new ConnectionPool(d -> mock(I2PSocket.class), 1,
+                Duration.ofMillis(30), Duration.ofSeconds(1));
+        for (int i = 1; i <= 3; i++) {
+            pool.release(pool.borrow(FakeI2PSocketManager.destination(100 + i)), true);
+        }
+        ConnectionPool.Lease held = pool.borrow(PEER);
+        pool.release(pool.borrow(FakeI2PSocketManager.destination(200)), false);
+
+        Thread.sleep(60);
+        pool.evictIdle();
+        assertEquals(1, pool.peerCount(), "only the peer with a leased socket stays");
+
+        pool.release(held, true);
+        ConnectionPool.Lease again = pool.borrow(PEER);
+        assertSame(held.socket(), again.socket());
+        assertThrows(IOException.class, () -> pool.borrow(PEER), "maxPerPeer still holds for a kept peer");
+        pool.close();
+    }
+}
@@ -0,0 +1,97 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.net.support.FakeI2PSocketManager;
+import net.i2p.data.Destination;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DestinationCacheTest {
+
+    private static final Destination ALICE = FakeI2PSocketManager.destination(1);
+
+    @Test
+    void hit_after_first_lookup_and_counters() {
+        AtomicInteger calls = new AtomicInteger();
+        DestinationCache c = new DestinationCache(h -> { calls.incrementAndGet(); return ALICE; },
+                16, Duration.ofMinutes(1), Duration.ofSeconds(1));
+
+        assertSame(ALICE, c.resolve("alice.b32.i2p"));
+        assertSame(ALICE, c.resolve("ALICE.b32.i2p "));
+        assertEquals(1, calls.get());
+        assertEquals(1, c.hits());
+        assertEquals(1, c.misses());
+    }
+
+    @Test
+    void ttl_and_negative_ttl_expire() {
+        AtomicLong now = new AtomicLong();
+        AtomicInteger calls = new AtomicInteger();
+        DestinationCache c = new DestinationCache(h -> {
+            calls.incrementAndGet();
+            return h.startsWith("known") ? ALICE : null;
+        }, 16, Duration.ofSeconds(10), Duration.ofSeconds(1), now::get);
+
+        assertNull(c.resolve("typo.b32.i2p"));
+        assertNull(c.resolve("typo.b32.i2p"));
+        assertEquals(1, calls.get(), "negative result must be cached");
+
+        now.addAndGet(Duration.ofSeconds(2).toNanos());
+        assertNull(c.resolve("typo.b32.i2p"));
+        assertEquals(2, calls.get(), "negative entry expires faster");
+
+        c.resolve("known.b32.i2p");
+        now.addAndGet(Duration.ofSeconds(5).toNanos());
+        c.resolve("known.b32.i2p");
+        assertEquals(3, calls.get());
+        now.addAndGet(Duration.ofSeconds(6).toNanos());
+        c.resolve("known.b32.i2p");
+        assertEquals(4, calls.get(), "positive entry expires after ttl");
+    }
+
+    @Test
+    void concurrent_resolves_make_one_lookup() throws Exception {
+        CountDownLatch inLookup = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+        DestinationCache c = new DestinationCache(h -> {
+            calls.incrementAndGet();
+            inLookup.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return ALICE;
+        }, 16, Duration.ofMinutes(1), Duration.ofSeconds(1));
+
+        int n = 16;
+        try (ExecutorService ex = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<Destination>> fs = new java.util.ArrayList<>();
+            for (int i = 0; i < n; i++) fs.add(ex.submit(() -> c.resolve("alice.b32.i2p")));
+            assertTrue(inLookup.await(5, TimeUnit.SECONDS));
+            Thread.sleep(50); // остальные успевают встать в ожидание
+            release.countDown();
+            for (Future<Destination> f : fs) assertSame(ALICE, f.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(1, calls.get());
+        assertEquals(1, c.lookups());
+    }
+
+    @Test
+    void bounded_lru_and_prefetch() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        DestinationCache c = new DestinationCache(h -> { calls.incrementAndGet(); return ALICE; },
+                2, Duration.ofMinutes(1), Duration.ofSeconds(1));
+
+        c.prefetch(List.of("a.b32.i2p", "b.b32.i2p", "c.b32.i2p")).get(5, TimeUnit.SECONDS);
+        assertEquals(3, calls.get());
+        assertEquals(2, c.size(), "cache must stay within maxEntries");
+    }
+}
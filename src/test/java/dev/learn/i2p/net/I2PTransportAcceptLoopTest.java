@@ -0,0 +1,114 @@
+package dev.learn.i2p.net;
+
+import net.i2p.client.I2PSession;
+import net.i2p.client.streaming.I2PServerSocket;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.client.streaming.I2PSocketManager;
+import org.junit.jupiter.api.Test;
+import org.slf4j.MDC;
+
+import java.time.Duration;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+class I2PTransportAcceptLoopTest {
+
+    /** Сервер-сокет, который отдаёт заранее подготовленные сокеты, а потом null (как "тишина"). */
+    private static I2PSocketManager managerWith(BlockingQueue<I2PSocket> incoming) throws Exception {
+        I2PServerSocket server = mock(I2PServerSocket.class);
+        when(server.accept()).thenAnswer(inv -> incoming.poll(20, TimeUnit.MILLISECONDS));
+        I2PSocketManager mgr = mock(I2PSocketManager.class);
+        when(mgr.getServerSocket()).thenReturn(server);
+        when(mgr.getSession()).thenReturn(mock(I2PSession.class));
+        return mgr;
+    }
+
+    private static BlockingQueue<I2PSocket> sockets(int n) {
+        BlockingQueue<I2PSocket> q = new LinkedBlockingQueue<>();
+        for (int i = 0; i < n; i++) q.add(mock(I2PSocket.class));
+        return q;
+    }
+
+    @Test
+    void slow_handler_does_not_block_other_peers() throws Exception {
+        int n = 8;
+        I2PTransport t = new I2PTransport(managerWith(sockets(n)), InboundDispatcher.virtualThreads(64), null, null);
+        CountDownLatch allInside = new CountDownLatch(n);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread loop = Thread.ofPlatform().start(() -> t.acceptLoop(s -> {
+            assertNotNull(MDC.get("peer"), "MDC peer must be set in handler thread");
+            allInside.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+
+        assertTrue(allInside.await(5, TimeUnit.SECONDS), "all connections must be served concurrently");
+        release.countDown();
+        t.close();
+        loop.join(5000);
+        assertFalse(loop.isAlive());
+    }
+
+    @Test
+    void cap_applies_backpressure() throws Exception {
+        int cap = 2;
+        BlockingQueue<I2PSocket> q = sockets(6);
+        I2PTransport t = new I2PTransport(managerWith(q), InboundDispatcher.virtualThreads(cap), null, null);
+        AtomicInteger inside = new AtomicInteger();
+        AtomicInteger maxSeen = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(6);
+
+        Thread loop = Thread.ofPlatform().start(() -> t.acceptLoop(s -> {
+            maxSeen.accumulateAndGet(inside.incrementAndGet(), Math::max);
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            inside.decrementAndGet();
+            done.countDown();
+        }));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(maxSeen.get() <= cap, "no more than " + cap + " concurrent, saw " + maxSeen.get());
+        t.close();
+        loop.join(5000);
+    }
+
+    @Test
+    void close_drains_in_flight_connections() throws Exception {
+        I2PSocket sock = mock(I2PSocket.class);
+        BlockingQueue<I2PSocket> q = new LinkedBlockingQueue<>();
+        q.add(sock);
+        InboundDispatcher d = InboundDispatcher.onExecutor(
+                Executors.newFixedThreadPool(2), 4, Duration.ofSeconds(5));
+        I2PTransport t = new I2PTransport(managerWith(q), d, null, null);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicInteger finished = new AtomicInteger();
+
+        Thread loop = Thread.ofPlatform().start(() -> t.acceptLoop(s -> {
+            started.countDown();
+            try {
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            finished.incrementAndGet();
+        }));
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        t.close();
+        assertEquals(1, finished.get(), "in-flight handler must complete before close() returns");
+        verify(sock).close();
+        loop.join(5000);
+        assertFalse(loop.isAlive());
+    }
+}
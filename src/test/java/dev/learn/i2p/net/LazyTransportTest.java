@@ -0,0 +1,74 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.core.Messenger;
+import dev.learn.i2p.proto.FramedProtocol;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static dev.learn.i2p.net.support.InboxFiles.texts;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LazyTransportTest {
+
+    @Test
+    void own_address_is_known_before_the_connect_finishes() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        try (var net = new LoopbackNetwork(LoopbackNetwork.LinkProfile.PERFECT)) {
+            LazyTransport t = LazyTransport.start("alice", () -> {
+                release.await();
+                return net.endpoint("alice");
+            });
+
+            assertEquals("alice", t.myAddress());
+            assertFalse(t.isDone());
+            assertEquals(-1, t.connectMillis());
+            release.countDown();
+            assertEquals("alice", t.get().myAddress());
+            assertTrue(t.connectMillis() >= 0);
+            t.close();
+        }
+    }
+
+    @Test
+    void work_overlaps_with_the_connect_and_only_the_rest_is_waited(@TempDir Path tmp) throws Exception {
+        try (var net = new LoopbackNetwork(LoopbackNetwork.LinkProfile.PERFECT)) {
+            Path inbox = tmp.resolve("inbox");
+            Messenger bob = new Messenger(net.endpoint("bob"), new FramedProtocol(inbox), inbox);
+            Thread.ofVirtual().start(bob::listen);
+
+            LazyTransport t = LazyTransport.start("alice", () -> {
+                Thread.sleep(300); // рукопожатие с роутером
+                return net.endpoint("alice");
+            });
+            try (Messenger alice = new Messenger(t, new FramedProtocol(tmp.resolve("out")), tmp.resolve("out"))) {
+                Thread.sleep(200); // разбор аргументов, хэши файла
+                alice.sendText("bob", "hi");
+            }
+
+            assertTrue(t.connectMillis() >= 300, "connect " + t.connectMillis());
+            assertTrue(t.waitedMillis() < 250, "waited " + t.waitedMillis());
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (texts(inbox).isEmpty() && System.nanoTime() < deadline) Thread.sleep(20);
+            assertEquals(1, texts(inbox).size());
+            bob.close();
+        }
+    }
+
+    @Test
+    void connect_failure_surfaces_in_the_first_network_call() {
+        LazyTransport t = LazyTransport.start("alice", () -> {
+            throw new IOException("router is not running");
+        });
+
+        IOException e = assertThrows(IOException.class, () -> t.withConnection("bob", s -> { }));
+        assertEquals("router is not running", e.getMessage());
+        assertEquals("alice", t.myAddress());
+        t.close();
+    }
+
+}
@@ -0,0 +1,161 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.core.Messenger;
+import dev.learn.i2p.net.LoopbackNetwork.LinkProfile;
+import dev.learn.i2p.proto.FramedProtocol;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Random;
+
+import static dev.learn.i2p.net.support.InboxFiles.files;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LoopbackNetworkTest {
+
+    /** Эхо: читает до EOF и отдаёт всё обратно. */
+    private static void echo(PeerStream s) throws IOException {
+        InputStream in = s.getInputStream();
+        OutputStream out = s.getOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+    }
+
+    private static Thread listen(Transport t, SocketConsumer handler) {
+        return Thread.ofVirtual().start(() -> t.acceptLoop(handler));
+    }
+
+    @Test
+    void latency_is_paid_for_connect_and_each_direction() throws Exception {
+        try (var net = new LoopbackNetwork(new LinkProfile(Duration.ofMillis(50), 0, 0))) {
+            var server = net.endpoint("server");
+            var client = net.endpoint("client");
+            listen(server, s -> {
+                int b = s.getInputStream().read();
+                s.getOutputStream().write(b + 1);
+            });
+
+            long t0 = System.nanoTime();
+            int[] reply = new int[1];
+            client.withConnection("server", s -> {
+                s.getOutputStream().write(41);
+                reply[0] = s.getInputStream().read();
+            });
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+
+            assertEquals(42, reply[0]);
+            assertTrue(ms >= 200, "connect (2x50) + request (50) + reply (50) must take >= 200 ms, took " + ms);
+            assertTrue(ms < 2_000, "took " + ms + " ms");
+            assertEquals(1, net.connects());
+        }
+    }
+
+    @Test
+    void bandwidth_paces_the_writer_and_data_arrives_intact() throws Exception {
+        byte[] payload = new byte[512 * 1024];
+        new Random(1).nextBytes(payload);
+        try (var net = new LoopbackNetwork(new LinkProfile(Duration.ZERO, 1024 * 1024, 0))) {
+            var server = net.endpoint("server");
+            listen(server, LoopbackNetworkTest::echo);
+
+            byte[] back = new byte[payload.length];
+            long t0 = System.nanoTime();
+            net.endpoint("client").withConnection("server", s -> {
+                Thread reader = Thread.ofVirtual().start(() -> {
+                    try {
+                        new DataInputStream(s.getInputStream()).readFully(back);
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                });
+                s.getOutputStream().write(payload);
+                try {
+                    reader.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            long ms = (System.nanoTime() - t0) / 1_000_000;
+
+            assertArrayEquals(payload, back);
+            // 512 KiB туда на 1 MiB/s ~ 500 ms; обратно идёт параллельно
+            assertTrue(ms >= 450, "512 KiB at 1 MiB/s must take ~500 ms, took " + ms);
+        }
+    }
+
+    @Test
+    void loss_resets_the_connection_on_both_sides() throws Exception {
+        try (var net = new LoopbackNetwork(new LinkProfile(Duration.ZERO, 0, 1.0), LoopbackNetwork.DEFAULT_WINDOW, 7)) {
+            var server = net.endpoint("server");
+            listen(server, LoopbackNetworkTest::echo);
+
+            assertThrows(SocketException.class, () -> net.endpoint("client")
+                    .withConnection("server", s -> s.getOutputStream().write(new byte[16])));
+            assertEquals(1, net.resets());
+        }
+    }
+
+    @Test
+    void read_times_out_and_unknown_address_is_rejected() throws Exception {
+        try (var net = new LoopbackNetwork(LinkProfile.PERFECT)) {
+            var server = net.endpoint("server");
+            listen(server, s -> s.getInputStream().read()); // ничего не отвечает
+            var client = net.endpoint("client");
+
+            assertThrows(SocketTimeoutException.class, () -> client.withConnection("server", s -> {
+                s.setReadTimeout(100);
+                s.getInputStream().read();
+            }));
+            IOException e = assertThrows(IOException.class, () -> client.withConnection("nobody", s -> {}));
+            assertTrue(e.getMessage().contains("nobody"));
+            assertThrows(IllegalArgumentException.class, () -> net.endpoint("server"));
+        }
+    }
+
+    @Test
+    void messenger_round_trip_over_loopback(@TempDir Path tmp) throws Exception {
+        Path bobInbox = Files.createDirectories(tmp.resolve("bob"));
+        Path aliceInbox = Files.createDirectories(tmp.resolve("alice"));
+        byte[] image = new byte[3 * 1024 * 1024 + 17];
+        new Random(2).nextBytes(image);
+        Path img = Files.write(tmp.resolve("photo.bin"), image);
+
+        try (var net = new LoopbackNetwork(new LinkProfile(Duration.ofMillis(5), 0, 0));
+             var bob = new Messenger(net.endpoint("bob"), new FramedProtocol(bobInbox), bobInbox);
+             var alice = new Messenger(net.endpoint("alice"), new FramedProtocol(aliceInbox), aliceInbox)) {
+            Thread.ofVirtual().start(bob::listen);
+
+            alice.sendText("bob", "привет через loopback");
+            alice.sendImage("bob", img);
+
+            List<Path> saved = files(bobInbox);
+            assertEquals(2, saved.size(), "saved: " + saved);
+            assertTrue(saved.stream().anyMatch(p -> {
+                try {
+                    return "привет через loopback".equals(Files.readString(p, StandardCharsets.UTF_8));
+                } catch (IOException | RuntimeException e) {
+                    return false;
+                }
+            }));
+            assertTrue(saved.stream().anyMatch(p -> {
+                try {
+                    return Files.size(p) == image.length && java.util.Arrays.equals(image, Files.readAllBytes(p));
+                } catch (IOException e) {
+                    return false;
+                }
+            }));
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package dev.learn.i2p.net;
+
+import dev.learn.i2p.core.Messenger;
+import dev.learn.i2p.proto.FramedProtocol;
+import dev.learn.i2p.proto.SimpleProtocol;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static dev.learn.i2p.net.support.InboxFiles.files;
+import static org.junit.jupiter.api.Assertions.*;
+
+class TcpTransportTest {
+
+    @Test
+    void framed_messenger_round_trip_over_localhost(@TempDir Path tmp) throws Exception {
+        Path bobInbox = Files.createDirectories(tmp.resolve("bob"));
+        Path aliceInbox = Files.createDirectories(tmp.resolve("alice"));
+        Path img = Files.write(tmp.resolve("x.bin"), new byte[]{1, 2, 3, (byte) 0xFF});
+
+        try (var bob = new Messenger(TcpTransport.bind(0), new FramedProtocol(bobInbox), bobInbox);
+             var alice = new Messenger(TcpTransport.bind(0), new FramedProtocol(aliceInbox), aliceInbox)) {
+            Thread.ofVirtual().start(bob::listen);
+            assertTrue(bob.myB32().startsWith("127.0.0.1:"), bob.myB32());
+
+            alice.sendText(bob.myB32(), "hello over tcp");
+            alice.sendTextAsync(bob.myB32(), "and async").get();
+            alice.sendImage(bob.myB32(), img);
+
+            assertEquals(3, files(bobInbox).size());
+        }
+    }
+
+    @Test
+    void simple_protocol_peer_sees_sender_address(@TempDir Path tmp) throws Exception {
+        Path inbox = Files.createDirectories(tmp.resolve("inbox"));
+        String[] peer = new String[1];
+        try (TcpTransport server = TcpTransport.bind(0); TcpTransport client = TcpTransport.bind(0)) {
+            SimpleProtocol p = new SimpleProtocol(inbox);
+            Thread.ofVirtual().start(() -> server.acceptLoop(s -> {
+                peer[0] = s.peerAddress();
+                p.handle(s);
+            }));
+
+            client.withConnection(server.myAddress(), s -> p.sendText(s, "one shot"));
+
+            for (int i = 0; i < 100 && files(inbox).isEmpty(); i++) Thread.sleep(20);
+            List<Path> saved = files(inbox);
+            assertEquals(1, saved.size());
+            assertEquals("one shot", Files.readString(saved.get(0), StandardCharsets.UTF_8));
+            assertTrue(peer[0].startsWith("127.0.0.1:"), peer[0]);
+        }
+    }
+
+    @Test
+    void parse_accepts_host_port_and_bare_port() throws Exception {
+        assertEquals(new InetSocketAddress("127.0.0.1", 7000), TcpTransport.parse("127.0.0.1:7000"));
+        assertEquals(7001, TcpTransport.parse("7001").getPort());
+        assertThrows(IOException.class, () -> TcpTransport.parse("host:notaport"));
+    }
+}
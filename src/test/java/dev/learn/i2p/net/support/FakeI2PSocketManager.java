@@ -0,0 +1,175 @@
+package dev.learn.i2p.net.support;
+
+import dev.learn.i2p.net.DestinationCache;
+import dev.learn.i2p.net.PeerStream;
+import dev.learn.i2p.net.SocketConsumer;
+import net.i2p.client.I2PSession;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.client.streaming.I2PSocketManager;
+import net.i2p.data.Destination;
+import net.i2p.data.Hash;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+/**
+ * Заменитель I2PSocketManager без роутера.
+ * - connect(dest) "стоит" connectLatency (имитация постройки стрима через туннели);
+ * - каждая сторона соединения — пара in-memory труб; серверная сторона обслуживается
+ *   переданным обработчиком на виртуальном потоке (как это делал бы accept-цикл пира).
+ * Позволяет мерить задержку отправки с пулом и без.
+ */
+public final class FakeI2PSocketManager {
+    private final I2PSocketManager mgr = mock(I2PSocketManager.class);
+    private final AtomicInteger connects = new AtomicInteger();
+    private final Duration connectLatency;
+    private final SocketConsumer server;
+
+    public FakeI2PSocketManager(Duration connectLatency, SocketConsumer server) throws Exception {
+        this.connectLatency = connectLatency;
+        this.server = server;
+        when(mgr.getSession()).thenReturn(mock(I2PSession.class));
+        when(mgr.connect(any())).thenAnswer(inv -> connect());
+    }
+
+    public I2PSocketManager manager() {
+        return mgr;
+    }
+
+    /** Сколько раз открывали новый стрим. */
+    public int connects() {
+        return connects.get();
+    }
+
+    /** Destination-заглушка с детерминированным хэшем (для ключа пула и b32). */
+    public static Destination destination(int id) {
+        Destination d = mock(Destination.class);
+        byte[] h = new byte[32];
+        Arrays.fill(h, (byte) id);
+        when(d.calculateHash()).thenReturn(new Hash(h));
+        return d;
+    }
+
+    /** Резолв без NamingService: любое имя -> peer. */
+    public static DestinationCache names(Destination peer) {
+        return new DestinationCache(h -> peer, 16, Duration.ofMinutes(1), Duration.ofSeconds(1));
+    }
+
+    private I2PSocket connect() throws InterruptedException {
+        Thread.sleep(connectLatency.toMillis());
+        connects.incrementAndGet();
+
+        Pipe c2s = new Pipe();
+        Pipe s2c = new Pipe();
+        I2PSocket client = socket(s2c.in, c2s.out);
+        I2PSocket serverSide = socket(c2s.in, s2c.out);
+        Thread.ofVirtual().name("fake-peer").start(() -> {
+            try {
+                server.accept(PeerStream.of(serverSide));
+            } catch (IOException ignore) {
+                // пир отвалился — как в реальной жизни
+            } finally {
+                s2c.close();
+            }
+        });
+        return client;
+    }
+
+    static I2PSocket socket(InputStream in, OutputStream out) {
+        I2PSocket s = mock(I2PSocket.class);
+        AtomicBoolean closed = new AtomicBoolean();
+        try {
+            when(s.getInputStream()).thenReturn(in);
+            when(s.getOutputStream()).thenReturn(out);
+            when(s.isClosed()).thenAnswer(inv -> closed.get());
+            doAnswer(inv -> {
+                closed.set(true);
+                out.close();
+                in.close();
+                return null;
+            }).when(s).close();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return s;
+    }
+
+    /** Однонаправленная in-memory труба; в отличие от PipedStream не привязана к потокам. */
+    public static final class Pipe {
+        private final ArrayDeque<byte[]> chunks = new ArrayDeque<>();
+        private byte[] cur;
+        private int pos;
+        private boolean closed;
+
+        public final InputStream in = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) < 0 ? -1 : (one[0] & 0xFF);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                synchronized (Pipe.this) {
+                    while (cur == null || pos == cur.length) {
+                        cur = chunks.poll();
+                        pos = 0;
+                        if (cur != null) continue;
+                        if (closed) return -1;
+                        try {
+                            Pipe.this.wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new java.io.InterruptedIOException();
+                        }
+                    }
+                    int n = Math.min(len, cur.length - pos);
+                    System.arraycopy(cur, pos, b, off, n);
+                    pos += n;
+                    return n;
+                }
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        public final OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                synchronized (Pipe.this) {
+                    if (closed) throw new IOException("Pipe closed");
+                    chunks.add(Arrays.copyOfRange(b, off, off + len));
+                    Pipe.this.notifyAll();
+                }
+            }
+
+            @Override
+            public void close() {
+                Pipe.this.close();
+            }
+        };
+
+        public synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package dev.learn.i2p.net.support;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Что лежит в каталоге (inbox) после приёма — для проверок в тестах.
+ * Каталога ещё нет — пусто, а не ошибка: приём мог не начаться.
+ */
+public final class InboxFiles {
+    private InboxFiles() {}
+
+    /** Все обычные файлы под dir (рекурсивно), по порядку имён. */
+    public static List<Path> files(Path dir) throws IOException {
+        if (!Files.exists(dir)) return List.of();
+        try (Stream<Path> s = Files.walk(dir)) {
+            return s.filter(Files::isRegularFile).sorted().toList();
+        }
+    }
+
+    public static long countFiles(Path dir) throws IOException {
+        return files(dir).size();
+    }
+
+    /** Содержимое принятых текстов (*.txt), отсортированное; недочитанный файл — пустая строка. */
+    public static List<String> texts(Path inbox) {
+        if (!Files.exists(inbox)) return List.of();
+        try (Stream<Path> s = Files.walk(inbox)) {
+            return s.filter(p -> p.toString().endsWith(".txt")).map(p -> {
+                try {
+                    return Files.readString(p);
+                } catch (IOException e) {
+                    return "";
+                }
+            }).sorted().toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
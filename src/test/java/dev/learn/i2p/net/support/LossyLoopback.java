@@ -0,0 +1,101 @@
+package dev.learn.i2p.net.support;
+
+import dev.learn.i2p.net.PeerStream;
+import dev.learn.i2p.net.SocketConsumer;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.data.Destination;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static org.mockito.Mockito.when;
+
+/**
+ * In-process "туннель", который рвётся: каждое соединение пропускает от клиента к серверу
+ * не больше dropAfter.getAsLong() байт. Дальше запись уходит в никуда, а сервер видит обрыв
+ * посреди того, что читал; клиент узнаёт о разрыве так же, как в I2P, — ответа не будет (EOF).
+ * Сервер обслуживается переданным обработчиком на виртуальном потоке.
+ */
+public final class LossyLoopback {
+    private final SocketConsumer server;
+    private final LongSupplier dropAfter;
+    private final AtomicInteger connects = new AtomicInteger();
+    private final AtomicInteger drops = new AtomicInteger();
+    private final AtomicLong delivered = new AtomicLong();
+    private volatile Destination from;
+
+    public LossyLoopback(SocketConsumer server, LongSupplier dropAfter) {
+        this.server = server;
+        this.dropAfter = dropAfter;
+    }
+
+    /** Адрес, который сервер видит у соединений (по умолчанию — никакого, как у анонимного пира). */
+    public LossyLoopback from(Destination peer) {
+        this.from = peer;
+        return this;
+    }
+
+    public int connects() {
+        return connects.get();
+    }
+
+    public int drops() {
+        return drops.get();
+    }
+
+    /** Сколько байт от клиента реально дошло до сервера по всем соединениям. */
+    public long delivered() {
+        return delivered.get();
+    }
+
+    public I2PSocket connect() {
+        connects.incrementAndGet();
+        FakeI2PSocketManager.Pipe c2s = new FakeI2PSocketManager.Pipe();
+        FakeI2PSocketManager.Pipe s2c = new FakeI2PSocketManager.Pipe();
+        long budget = dropAfter.getAsLong();
+
+        OutputStream lossy = new FilterOutputStream(c2s.out) {
+            long left = budget;
+            boolean cut;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                int n = (int) Math.min(len, left);
+                if (n > 0) {
+                    out.write(b, off, n);
+                    left -= n;
+                    delivered.addAndGet(n);
+                }
+                if (n < len && !cut) {
+                    cut = true;
+                    drops.incrementAndGet();
+                    c2s.close();
+                }
+            }
+        };
+
+        I2PSocket client = FakeI2PSocketManager.socket(s2c.in, lossy);
+        I2PSocket serverSide = FakeI2PSocketManager.socket(c2s.in, s2c.out);
+        Destination peer = from;
+        if (peer != null) when(serverSide.getPeerDestination()).thenReturn(peer);
+        Thread.ofVirtual().name("lossy-peer").start(() -> {
+            try {
+                server.accept(PeerStream.of(serverSide));
+            } catch (IOException ignore) {
+                // обрыв — ожидаемо
+            } finally {
+                s2c.close();
+            }
+        });
+        return client;
+    }
+}
@@ -0,0 +1,96 @@
+package dev.learn.i2p.net.support;
+
+import dev.learn.i2p.net.PeerStream;
+import dev.learn.i2p.net.SocketConsumer;
+import net.i2p.client.streaming.I2PSocket;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * In-process соединения с ограничением как у I2P-стрима: у каждого стрима своя полоса
+ * bytesPerSecond от клиента к серверу, ответы сервера приходят с задержкой latency,
+ * и столько же стоит открыть стрим. Несколько стримов полосу не делят — так видно,
+ * сколько даёт параллельная передача.
+ */
+public final class ThrottledLoopback {
+    private final SocketConsumer server;
+    private final long bytesPerSecond;
+    private final Duration latency;
+    private final AtomicInteger connects = new AtomicInteger();
+
+    public ThrottledLoopback(SocketConsumer server, long bytesPerSecond, Duration latency) {
+        this.server = server;
+        this.bytesPerSecond = bytesPerSecond;
+        this.latency = latency;
+    }
+
+    public int connects() {
+        return connects.get();
+    }
+
+    /** Открыть стрим, выполнить op и закрыть — как I2PTransport.withConnection. */
+    public void withStream(SocketConsumer op) throws IOException {
+        try (I2PSocket s = connect()) {
+            op.accept(PeerStream.of(s));
+        }
+    }
+
+    public I2PSocket connect() throws IOException {
+        pause(latency.toNanos());
+        connects.incrementAndGet();
+        FakeI2PSocketManager.Pipe c2s = new FakeI2PSocketManager.Pipe();
+        FakeI2PSocketManager.Pipe s2c = new FakeI2PSocketManager.Pipe();
+
+        OutputStream paced = new FilterOutputStream(c2s.out) {
+            private final long start = System.nanoTime();
+            private long sent;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                sent += len;
+                pause(start + sent * 1_000_000_000L / bytesPerSecond - System.nanoTime());
+                out.write(b, off, len);
+            }
+        };
+        OutputStream delayed = new FilterOutputStream(s2c.out) {
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                pause(latency.toNanos());
+                out.write(b, off, len);
+            }
+        };
+
+        I2PSocket client = FakeI2PSocketManager.socket(s2c.in, paced);
+        I2PSocket serverSide = FakeI2PSocketManager.socket(c2s.in, delayed);
+        Thread.ofVirtual().name("throttled-peer").start(() -> {
+            try {
+                server.accept(PeerStream.of(serverSide));
+            } catch (IOException ignore) {
+                // клиент закрыл стрим
+            } finally {
+                s2c.close();
+            }
+        });
+        return client;
+    }
+
+    private static void pause(long nanos) throws InterruptedIOException {
+        if (nanos <= 0) return;
+        try {
+            Thread.sleep(Duration.ofNanos(nanos));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+package dev.learn.i2p.proto;
+
+import dev.learn.i2p.core.InboundSaver;
+import dev.learn.i2p.core.InboxIndex;
+import dev.learn.i2p.net.I2PTransport;
+import dev.learn.i2p.net.PeerStream;
+import dev.learn.i2p.net.support.FakeI2PSocketManager;
+import dev.learn.i2p.net.support.LossyLoopback;
+import dev.learn.i2p.net.support.ThrottledLoopback;
+import net.i2p.client.streaming.I2PSocket;
+import net.i2p.data.Destination;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static dev.learn.i2p.net.support.InboxFiles.files;
+import static org.junit.jupiter.api.Assertions.*;
+
+class ChunkedTransferTest {
+
+    private static final int CHUNK = 64 * 1024;
+    private static final Destination ALICE = FakeI2PSocketManager.destination(1);
+    private static final Destination MALLORY = FakeI2PSocketManager.destination(2);
+
+    private static Path randomFile(Path dir, int size, long seed) throws IOException {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return Files.write(dir.resolve("big-" + seed + ".bin"), data);
+    }
+
+    /** Как Messenger.sendImage: повторяем на новом соединении, пока не пройдёт; все попытки — одна передача. */
+    private static int sendWithRetries(FramedProtocol p, LossyLoopback net, Path file, int maxAttempts) throws Exception {
+        return sendWithRetries(p, net, file, maxAttempts, MessengerProtocol.newTransfer());
+    }
+
+    private static int sendWithRetries(FramedProtocol p, LossyLoopback net, Path file, int maxAttempts, String transfer) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            I2PSocket s = net.connect();
+            try {
+                p.sendImage(PeerStream.of(s), file, transfer);
+                return attempt;
+            } catch (IOException e) {
+                if (attempt >= maxAttempts) throw e;
+            } finally {
+                s.close();
+            }
+        }
+    }
+
+    @Test
+    void transfer_survives_random_drops_and_only_resends_missing_chunks(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        FramedProtocol p = new FramedProtocol(inbox, CHUNK);
+        Path file = randomFile(tmp, 3 * 1024 * 1024 + 123, 7);
+        Random drops = new Random(42);
+        LossyLoopback net = new LossyLoopback(p::handle, () -> 100_000 + drops.nextInt(500_000));
+
+        int attempts = sendWithRetries(p, net, file, 200);
+
+        List<Path> saved = files(inbox);
+        assertEquals(1, saved.size());
+        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(saved.get(0)));
+        assertTrue(net.drops() > 0 && attempts > 1, "the loopback must actually drop connections");
+        assertTrue(net.delivered() < 2L * Files.size(file),
+                "resume must not resend the whole file: " + net.delivered() + " bytes over " + attempts + " attempts");
+
+        // от недокачки остался только маркер завершения
+        Path state = PartialStore.rootFor(inbox);
+        try (Stream<Path> s = Files.walk(state)) {
+            assertEquals(List.of("done"), s.filter(Files::isRegularFile).map(f -> f.getFileName().toString()).toList());
+        }
+    }
+
+    @Test
+    void resending_a_completed_file_does_not_duplicate_it(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        FramedProtocol p = new FramedProtocol(inbox, CHUNK);
+        Path file = randomFile(tmp, 5 * CHUNK, 1);
+        LossyLoopback net = new LossyLoopback(p::handle, () -> Long.MAX_VALUE);
+
+        String transfer = MessengerProtocol.newTransfer();
+        sendWithRetries(p, net, file, 1, transfer);
+        long first = net.delivered();
+        sendWithRetries(p, net, file, 1, transfer); // ACK на COMMIT потерялся и отправитель повторил ту же передачу
+
+        assertEquals(1, files(inbox).size());
+        assertTrue(net.delivered() - first < CHUNK, "second send must not carry chunk data");
+    }
+
+    /** Тот же файл ещё раз, новой отправкой: это новое сообщение, а не повтор. */
+    @Test
+    void sending_the_same_file_again_is_a_new_message(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        FramedProtocol p = new FramedProtocol(inbox, CHUNK);
+        Path file = randomFile(tmp, 5 * CHUNK, 9);
+        LossyLoopback net = new LossyLoopback(p::handle, () -> Long.MAX_VALUE).from(ALICE);
+
+        sendWithRetries(p, net, file, 1);
+        long first = net.delivered();
+        sendWithRetries(p, net, file, 1);
+
+        assertEquals(2, files(inbox).size(), "second send must land in the inbox too");
+        assertEquals(2, InboxIndex.of(inbox).size());
+        assertTrue(net.delivered() - first < CHUNK, "known content is linked, not resent");
+        InboxIndex.closeIfOpen(inbox);
+    }
+
+    @Test
+    void unfinished_transfers_are_capped_per_sender(@TempDir Path tmp) throws Exception {
+        PartialStore store = new PartialStore(tmp.resolve("inbox"));
+        for (int i = 0; i < 4; i++) {
+            FileManifest m = FileManifest.of(randomFile(tmp, 2 * CHUNK, 100 + i), CHUNK);
+            assertTrue(store.offer(m, "mallory.b32.i2p", "").isEmpty());
+        }
+        FileManifest fifth = FileManifest.of(randomFile(tmp, 2 * CHUNK, 104), CHUNK);
+
+        assertThrows(ProtocolException.class, () -> store.offer(fifth, "mallory.b32.i2p", ""));
+        assertTrue(store.offer(fifth, "alice.b32.i2p", "").isEmpty(), "other senders are not affected");
+    }
+
+    @Test
+    void content_from_another_sender_is_transferred_but_stored_once(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        FramedProtocol p = new FramedProtocol(inbox, CHUNK);
+        Path file = randomFile(tmp, 5 * CHUNK, 4);
+        Path earlier = InboundSaver.saveSmart(inbox, "someone-else", Files.newInputStream(file)); // тот же мем от другого пира
+        LossyLoopback net = new LossyLoopback(p::handle, () -> Long.MAX_VALUE).from(ALICE);
+
+        sendWithRetries(p, net, file, 1);
+
+        List<Path> saved = files(inbox);
+        assertEquals(2, saved.size());
+        assertTrue(Files.isSameFile(saved.get(0), saved.get(1)), "second copy must be a link to the first");
+        assertTrue(net.delivered() >= Files.size(file), "alice never sent it, so she has to send it now: " + net.delivered() + " bytes");
+        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(earlier));
+        InboxIndex.closeIfOpen(inbox);
+    }
+
+    /** Пир знает только хэш: ни узнать, есть ли файл у нас, ни завести запись в inbox он не может. */
+    @Test
+    void a_hash_alone_proves_nothing(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        FramedProtocol p = new FramedProtocol(inbox, CHUNK);
+        Path file = randomFile(tmp, 5 * CHUNK, 5);
+        Path other = randomFile(tmp, 5 * CHUNK, 6);
+        sendWithRetries(p, new LossyLoopback(p::handle, () -> Long.MAX_VALUE).from(ALICE), file, 1);
+        PartialStore store = new PartialStore(inbox);
+        String mallory = I2PTransport.toB32(MALLORY);
+
+        String held = FileManifest.of(file, CHUNK).id();
+        String absent = FileManifest.of(other, CHUNK).id();
+        ProtocolException forHeld = assertThrows(ProtocolException.class, () -> store.commit(held, mallory, ""));
+        ProtocolException forAbsent = assertThrows(ProtocolException.class, () -> store.commit(absent, mallory, ""));
+        assertEquals(forAbsent.getMessage().replace(PartialStore.shortId(absent), "<id>"),
+                forHeld.getMessage().replace(PartialStore.shortId(held), "<id>"), "same answer whether we hold it or not");
+        assertTrue(store.offer(FileManifest.of(file, CHUNK), mallory, "").isEmpty(), "a stranger has to send every chunk");
+        assertEquals(1, files(inbox).size(), "no inbox entry without data");
+        assertEquals(1, InboxIndex.of(inbox).size());
+        InboxIndex.closeIfOpen(inbox);
+    }
+
+    @Test
+    void small_files_still_go_as_one_frame(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        FramedProtocol p = new FramedProtocol(inbox, CHUNK);
+        Path file = randomFile(tmp, CHUNK, 3);
+
+        sendWithRetries(p, new LossyLoopback(p::handle, () -> Long.MAX_VALUE), file, 1);
+
+        assertEquals(1, files(inbox).size());
+        assertFalse(Files.exists(PartialStore.rootFor(inbox)));
+    }
+
+    @Test
+    void chunk_with_wrong_hash_is_not_accepted(@TempDir Path tmp) throws Exception {
+        Path file = randomFile(tmp, 3 * CHUNK, 4);
+        FileManifest m = FileManifest.of(file, CHUNK);
+        PartialStore store = new PartialStore(tmp.resolve("inbox"));
+        assertTrue(store.offer(m, "bob", "").isEmpty());
+
+        byte[] garbage = new byte[CHUNK];
+        assertFalse(store.writeChunk("bob", m.id(), 1, new ByteArrayInputStream(garbage), CHUNK));
+        assertTrue(store.offer(m, "bob", "").isEmpty());
+
+        byte[] real = Files.readAllBytes(file);
+        assertTrue(store.writeChunk("bob", m.id(), 1, new ByteArrayInputStream(real, CHUNK, CHUNK), CHUNK));
+        assertTrue(store.offer(m, "carol", "").isEmpty(), "another sender's transfer is separate");
+        BitSet have = store.offer(m, "bob", "");
+        assertEquals(1, have.cardinality());
+        assertTrue(have.get(1));
+    }
+
+    @Test
+    void whole_file_hash_mismatch_resets_the_transfer(@TempDir Path tmp) throws Exception {
+        Path file = randomFile(tmp, 2 * CHUNK, 5);
+        FileManifest real = FileManifest.of(file, CHUNK);
+        FileManifest lying = new FileManifest("0".repeat(64), "x", real.size(), CHUNK, real.chunkHashes());
+        Path inbox = tmp.resolve("inbox");
+        PartialStore store = new PartialStore(inbox);
+
+        store.offer(lying, null, "");
+        byte[] bytes = Files.readAllBytes(file);
+        for (int i = 0; i < lying.chunks(); i++) {
+            assertTrue(store.writeChunk(null, lying.id(), i, new ByteArrayInputStream(bytes, i * CHUNK, CHUNK), CHUNK));
+        }
+
+        assertThrows(IOException.class, () -> store.commit(lying.id(), null, ""));
+        assertTrue(files(PartialStore.rootFor(inbox)).isEmpty());
+        assertFalse(Files.exists(inbox) && !files(inbox).isEmpty());
+    }
+
+    @Test
+    void manifest_hashes_match_file_layout(@TempDir Path tmp) throws Exception {
+        Path file = randomFile(tmp, 2 * CHUNK + 10, 6);
+        FileManifest m = FileManifest.of(file, CHUNK);
+
+        assertEquals(3, m.chunks());
+        assertEquals(10, m.length(2));
+        FileManifest parsed = FileManifest.fromOffer(FrameCodec.parse(FrameCodec.encode(m.toOffer(9, 0))));
+        assertTrue(parsed.sameAs(m));
+    }
+
+    @Test
+    void prepared_manifest_is_reused_once_and_only_for_the_same_file(@TempDir Path tmp) throws Exception {
+        Path file = randomFile(tmp, 2 * CHUNK + 10, 8);
+        FileManifest prepared = FileManifest.prepare(file, CHUNK);
+
+        assertSame(prepared, FileManifest.of(file, CHUNK));
+        assertNotSame(prepared, FileManifest.of(file, CHUNK), "taken once");
+
+        FileManifest.prepare(file, CHUNK);
+        Files.write(file, new byte[3 * CHUNK]);
+        FileManifest changed = FileManifest.of(file, CHUNK);
+        assertEquals(3 * CHUNK, changed.size());
+        assertFalse(changed.sameAs(prepared));
+    }
+
+    @Test
+    void split_gives_contiguous_balanced_ranges() {
+        BitSet missing = new BitSet();
+        missing.set(0, 10);
+        missing.clear(3);
+
+        List<BitSet> ranges = FramedProtocol.split(missing, 4);
+
+        assertEquals(List.of("{0, 1, 2}", "{4, 5}", "{6, 7}", "{8, 9}"), ranges.stream().map(BitSet::toString).toList());
+        assertEquals(2, FramedProtocol.split(missing, 2).size());
+        assertEquals(9, FramedProtocol.split(missing, 20).size(), "no empty ranges");
+    }
+
+    @Test
+    void parallel_streams_deliver_the_file_and_scale_with_stream_count(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        FramedProtocol p = new FramedProtocol(inbox, CHUNK);
+        Path file = randomFile(tmp, 16 * CHUNK, 8);
+
+        long one = timeParallelSend(p, file, 1, tmp.resolve("inbox-1"));
+        long four = timeParallelSend(p, file, 4, inbox);
+
+        List<Path> saved = files(inbox);
+        assertEquals(1, saved.size());
+        assertArrayEquals(Files.readAllBytes(file), Files.readAllBytes(saved.get(0)));
+        assertTrue(four * 2 < one, "4 streams: " + four + " ms, 1 stream: " + one + " ms");
+    }
+
+    /** 512 KiB/s и 20 мс на стрим; receiver пишет в свой inbox, чтобы прогоны не видели части друг друга. */
+    private static long timeParallelSend(FramedProtocol sender, Path file, int streams, Path inbox) throws Exception {
+        FramedProtocol receiver = new FramedProtocol(inbox, sender.chunkSize());
+        ThrottledLoopback net = new ThrottledLoopback(receiver::handle, 512 * 1024, Duration.ofMillis(20));
+        long t0 = System.nanoTime();
+        sender.sendImage(file, streams, net::withStream);
+        return (System.nanoTime() - t0) / 1_000_000;
+    }
+}
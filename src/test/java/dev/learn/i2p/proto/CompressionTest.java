@@ -0,0 +1,229 @@
+package dev.learn.i2p.proto;
+
+import dev.learn.i2p.net.PeerStream;
+import dev.learn.i2p.net.support.LossyLoopback;
+import net.i2p.client.streaming.I2PSocket;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static dev.learn.i2p.net.support.InboxFiles.files;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CompressionTest {
+
+    private static PeerStream socket(byte[] inbound, ByteArrayOutputStream outbound) throws IOException {
+        I2PSocket s = mock(I2PSocket.class);
+        when(s.getInputStream()).thenReturn(new ByteArrayInputStream(inbound));
+        when(s.getOutputStream()).thenReturn(outbound);
+        return PeerStream.of(s);
+    }
+
+    /** Отправить через sendText/sendImage и вернуть записанное в стрим (ACK'и подложены заранее). */
+    private static byte[] wire(IoAction send) throws IOException {
+        ByteArrayOutputStream acks = new ByteArrayOutputStream();
+        FrameCodec.write(acks, Frame.ack(0));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        send.run(socket(acks.toByteArray(), out));
+        return out.toByteArray();
+    }
+
+    private interface IoAction {
+        void run(PeerStream s) throws IOException;
+    }
+
+    private static Frame firstFrame(byte[] wire) throws IOException {
+        ByteArrayInputStream in = new ByteArrayInputStream(wire);
+        in.skipNBytes(FrameCodec.PREAMBLE_LENGTH);
+        return FrameCodec.read(in, FrameCodec.MAX_PAYLOAD);
+    }
+
+    private static byte[] zlib(byte[] raw) {
+        Deflater d = new Deflater();
+        d.setInput(raw);
+        d.finish();
+        byte[] out = new byte[raw.length + 64];
+        int n = d.deflate(out);
+        d.end();
+        return Arrays.copyOf(out, n);
+    }
+
+    private static byte[] stream(Frame f) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FrameCodec.writePreamble(bos);
+        FrameCodec.write(bos, f);
+        return bos.toByteArray();
+    }
+
+    @Test
+    void text_goes_compressed_and_is_saved_as_sent(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        String text = "Привет! Как дела? Вот лог роутера:\n" + "tunnel build ok, 3 hops\n".repeat(40);
+        FramedProtocol p = new FramedProtocol(inbox, 0, Compression.ON);
+
+        byte[] wire = wire(s -> p.sendText(s, text));
+        Frame f = firstFrame(wire);
+        byte[] raw = text.getBytes(StandardCharsets.UTF_8);
+        assertEquals(String.valueOf(raw.length), f.headers().get(Compression.HEADER));
+        assertTrue(f.payload().length < raw.length / 4, "compressed to " + f.payload().length);
+
+        p.handle(socket(wire, new ByteArrayOutputStream()));
+        List<Path> saved = files(inbox);
+        assertEquals(1, saved.size());
+        assertEquals(text, Files.readString(saved.get(0)));
+        assertTrue(saved.get(0).toString().endsWith(".txt"), "sniffed after decompression");
+    }
+
+    @Test
+    void short_chat_text_benefits_from_the_dictionary() {
+        byte[] text = "привет! как дела? всё хорошо, спасибо. а у тебя что нового?".getBytes(StandardCharsets.UTF_8);
+
+        Compression.Encoded e = Compression.ON.text(text);
+
+        assertTrue(e.compressed());
+        assertTrue(e.length() < text.length * 0.7, e.length() + " of " + text.length);
+        assertFalse(Compression.ON.text("ok".getBytes(StandardCharsets.UTF_8)).compressed(), "too short to bother");
+    }
+
+    @Test
+    void already_compressed_formats_are_sent_as_is(@TempDir Path tmp) throws Exception {
+        byte[] png = new byte[16 * 1024]; // сигнатура PNG, дальше нули — deflate сжал бы, но тип решает раньше
+        System.arraycopy(new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A}, 0, png, 0, 8);
+        Path file = Files.write(tmp.resolve("pic.png"), png);
+        FramedProtocol p = new FramedProtocol(tmp.resolve("inbox"), 0, Compression.ON);
+
+        Frame f = firstFrame(wire(s -> p.sendImage(s, file)));
+
+        assertNull(f.headers().get(Compression.HEADER));
+        assertArrayEquals(png, f.payload());
+        assertFalse(Compression.ON.worthTrying(png, png.length));
+    }
+
+    @Test
+    void incompressible_data_falls_back_to_raw(@TempDir Path tmp) throws Exception {
+        byte[] noise = new byte[8 * 1024];
+        new Random(1).nextBytes(noise);
+        Path file = Files.write(tmp.resolve("noise.bin"), noise);
+        FramedProtocol p = new FramedProtocol(tmp.resolve("inbox"), 0, Compression.ON);
+
+        Frame f = firstFrame(wire(s -> p.sendImage(s, file)));
+
+        assertNull(f.headers().get(Compression.HEADER));
+        assertArrayEquals(noise, f.payload());
+    }
+
+    @Test
+    void whole_file_is_compressed_as_a_stream_larger_than_the_buffer(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        byte[] log = "2024-05-01 12:00:00 INFO tunnel build ok, 3 hops\n".repeat(20_000).getBytes(StandardCharsets.UTF_8);
+        Path file = Files.write(tmp.resolve("router.log"), log);
+        FramedProtocol p = new FramedProtocol(inbox, 0, Compression.ON);
+
+        byte[] wire = wire(s -> p.sendImage(s, file));
+        Frame f = firstFrame(wire);
+        assertEquals(String.valueOf(log.length), f.headers().get(Compression.HEADER));
+        assertTrue(f.payload().length < log.length / 10, "compressed to " + f.payload().length);
+
+        p.handle(socket(wire, new ByteArrayOutputStream()));
+        List<Path> saved = files(inbox);
+        assertEquals(1, saved.size());
+        assertArrayEquals(log, Files.readAllBytes(saved.get(0)));
+    }
+
+    @Test
+    void corrupt_stream_is_released_on_the_first_error() throws Exception {
+        byte[] z = zlib("hello ".repeat(50).getBytes(StandardCharsets.UTF_8));
+        z[z.length / 2] ^= 0x55;
+        Frame.Header h = new Frame.Header(Frame.TYPE_TEXT, 0, 0, Map.of(Compression.HEADER, "300"), z.length);
+
+        var in = Compression.decoding(h, new ByteArrayInputStream(z), 1024);
+
+        assertThrows(IOException.class, in::readAllBytes);
+        assertEquals(-1, in.read(), "Inflater already ended — the reader need not close the stream");
+    }
+
+    @Test
+    void disabled_compression_leaves_frames_untouched(@TempDir Path tmp) throws Exception {
+        FramedProtocol p = new FramedProtocol(tmp, 0, Compression.OFF);
+        String text = "a".repeat(10_000);
+
+        Frame f = firstFrame(wire(s -> p.sendText(s, text)));
+
+        assertEquals(Map.of(), f.headers());
+        assertEquals(text.length(), f.payload().length);
+    }
+
+    @Test
+    void chunked_transfer_compresses_each_chunk(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        FramedProtocol p = new FramedProtocol(inbox, 64 * 1024, Compression.ON);
+        byte[] bmp = new byte[600 * 1024]; // BMP: заголовок и однотонная заливка
+        bmp[0] = 'B';
+        bmp[1] = 'M';
+        for (int i = 54; i < bmp.length; i++) bmp[i] = (byte) (i % 3 == 0 ? 0x40 : 0xC0);
+        Path file = Files.write(tmp.resolve("picture.bmp"), bmp);
+        LossyLoopback net = new LossyLoopback(p::handle, () -> Long.MAX_VALUE);
+
+        I2PSocket s = net.connect();
+        try {
+            p.sendImage(PeerStream.of(s), file);
+        } finally {
+            s.close();
+        }
+
+        List<Path> saved = files(inbox);
+        assertEquals(1, saved.size());
+        assertArrayEquals(bmp, Files.readAllBytes(saved.get(0)));
+        assertTrue(net.delivered() < bmp.length / 10, "on the wire: " + net.delivered());
+    }
+
+    @Test
+    void decompression_bomb_is_rejected_without_saving(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        byte[] bomb = zlib(new byte[1024 * 1024]);
+        Frame f = new Frame(Frame.TYPE_TEXT, Frame.FLAG_ACK_REQUESTED, 0, Map.of(Compression.HEADER, "100"), bomb);
+
+        assertThrows(ProtocolException.class,
+                () -> new FramedProtocol(inbox).handle(socket(stream(f), new ByteArrayOutputStream())));
+        assertEquals(List.of(), files(inbox));
+    }
+
+    @Test
+    void declared_size_above_the_frame_limit_gets_nak(@TempDir Path tmp) throws Exception {
+        Frame f = new Frame(Frame.TYPE_TEXT, Frame.FLAG_ACK_REQUESTED, 3,
+                Map.of(Compression.HEADER, "999999999"), zlib(new byte[100]));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThrows(ProtocolException.class, () -> new FramedProtocol(tmp.resolve("inbox")).handle(socket(stream(f), out)));
+
+        Frame nak = FrameCodec.parse(out.toByteArray());
+        assertEquals(Frame.TYPE_NAK, nak.type());
+        assertEquals(3, nak.seq());
+    }
+
+    @Test
+    void trailing_garbage_after_the_zlib_stream_is_rejected(@TempDir Path tmp) throws Exception {
+        byte[] raw = "hello ".repeat(50).getBytes(StandardCharsets.UTF_8);
+        byte[] z = zlib(raw);
+        byte[] padded = Arrays.copyOf(z, z.length + 5);
+        Frame f = new Frame(Frame.TYPE_TEXT, Frame.FLAG_ACK_REQUESTED, 0,
+                Map.of(Compression.HEADER, String.valueOf(raw.length)), padded);
+
+        assertThrows(ProtocolException.class,
+                () -> new FramedProtocol(tmp.resolve("inbox")).handle(socket(stream(f), new ByteArrayOutputStream())));
+    }
+}
@@ -0,0 +1,253 @@
+package dev.learn.i2p.proto;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContentTypesTest {
+
+    private static String sniff(byte[] head, int len) {
+        return ContentTypes.shared().sniff(head, len).mime();
+    }
+
+    @Test
+    void zip_localHeader_isZip() {
+        byte[] head = new byte[] { 'P','K', 3, 4, 0,0,0,0 };
+        assertEquals("application/zip", sniff(head, head.length));
+    }
+
+    @Test
+    void zip_empty_isZip() {
+        byte[] head = new byte[] { 'P','K', 5, 6, 0,0,0,0 };
+        assertEquals("application/zip", sniff(head, head.length));
+    }
+
+    @Test
+    void rar_v4_isRar() {
+        byte[] head = new byte[] { 'R','a','r','!', 0x1A, 0x07, 0x00, 0 };
+        assertEquals("application/vnd.rar", sniff(head, head.length));
+    }
+
+    @Test
+    void rar_v5_isRar() {
+        byte[] head = new byte[] { 'R','a','r','!', 0x1A, 0x07, 0x01, 0x00 };
+        assertEquals("application/vnd.rar", sniff(head, head.length));
+    }
+
+    @Test
+    void jpeg_isJpeg() {
+        byte[] head = new byte[] { (byte)0xFF, (byte)0xD8, (byte)0xFF, 0, 0 };
+        assertEquals("image/jpeg", sniff(head, head.length));
+    }
+
+    @Test
+    void text_utf8_isText() {
+        byte[] head = "Привет".getBytes(java.nio.charset.StandardCharsets.UTF_8);
+        assertEquals("text/plain", sniff(head, head.length));
+    }
+
+    @Test
+    void binary_noise_isBinary() {
+        byte[] head = new byte[] { 0, 1, 2, 3, 0, 0, 0, 0 };
+        assertEquals("application/octet-stream", sniff(head, head.length));
+    }
+
+    @Test
+    void table_matcher_agrees_with_the_old_if_chain_on_random_heads() {
+        Random rnd = new Random(12);
+        byte[][] prefixes = {
+                {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A}, {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF},
+                {'G', 'I', 'F', '8', '7', 'a'}, {'G', 'I', 'F', '8', '9', 'a'}, {'G', 'I', 'F', '8', '8', 'a'},
+                {'R', 'I', 'F', 'F', 1, 2, 3, 4, 'W', 'E', 'B', 'P'}, {'B', 'M'}, {'%', 'P', 'D', 'F'},
+                {'P', 'K', 3, 4}, {'P', 'K', 7, 6}, {'P', 'K', 4, 3}, {'R', 'a', 'r', '!', 0x1A, 0x07, 0x00},
+                {'R', 'a', 'r', '!', 0x1A, 0x07, 0x01, 0x00}, {'R', 'a', 'r', '!', 0x1A, 0x07, 0x01}, {}};
+        String[] texts = {"plain ascii line\n", "Привет, мир\t", "emoji 😀 ", "\r\n", "\u007f", "\u0001"};
+        for (int round = 0; round < 20_000; round++) {
+            int len = rnd.nextInt(64);
+            byte[] head = new byte[len + rnd.nextInt(4)]; // len может быть меньше длины массива
+            switch (rnd.nextInt(4)) {
+                case 0 -> rnd.nextBytes(head);
+                case 1 -> { // текст, иногда с обрезанной многобайтной последовательностью или нулём
+                    StringBuilder sb = new StringBuilder();
+                    while (sb.length() < head.length) sb.append(texts[rnd.nextInt(texts.length)]);
+                    byte[] t = sb.toString().getBytes(StandardCharsets.UTF_8);
+                    System.arraycopy(t, 0, head, 0, head.length);
+                    if (len > 0 && rnd.nextInt(4) == 0) head[rnd.nextInt(len)] = 0;
+                }
+                case 2 -> { // магия + шум
+                    rnd.nextBytes(head);
+                    byte[] p = prefixes[rnd.nextInt(prefixes.length)];
+                    System.arraycopy(p, 0, head, 0, Math.min(p.length, head.length));
+                }
+                default -> { // магия + текст (ZIP/RAR не должны стать TEXT)
+                    java.util.Arrays.fill(head, (byte) 'a');
+                    byte[] p = prefixes[rnd.nextInt(prefixes.length)];
+                    System.arraycopy(p, 0, head, 0, Math.min(p.length, head.length));
+                }
+            }
+            assertEquals(legacySniff(head, len), sniff(head, len),
+                    () -> "len=" + len + " head=" + java.util.HexFormat.of().formatHex(head));
+        }
+    }
+
+    @Test
+    void truncated_multibyte_tail_with_zeros_follows_the_two_percent_rule() {
+        byte[] longText = new byte[200];
+        java.util.Arrays.fill(longText, (byte) 'x');
+        longText[197] = (byte) 0xF0; // 4-байтная последовательность обрезана концом буфера
+        longText[198] = 0;
+        longText[199] = 0;
+        assertEquals("text/plain", sniff(longText, longText.length)); // 2 нуля из 200 = 1%
+
+        byte[] shortText = {'a', 'b', (byte) 0xE0, 0};
+        assertEquals("application/octet-stream", sniff(shortText, shortText.length)); // 1 из 4
+    }
+
+    @Test
+    void extensionFor_keeps_the_old_toExtension_rules() {
+        ContentTypes r = ContentTypes.shared();
+        assertEquals(".png", r.extensionFor("image/png", null));
+        assertEquals(".jpg", r.extensionFor(" Image/JPG ; charset=binary", "x.gif"));
+        assertEquals(".ico", r.extensionFor("image/vnd.microsoft.icon", null));
+        assertEquals(".tiff", r.extensionFor("application/x-tif-scan", null));  // подсказка по подстроке
+        assertEquals(".avif", r.extensionFor("application/x-avif-image", null));
+        assertEquals(".jpeg", r.extensionFor("application/x-unknown", "photo.JPEG?size=1#top"));
+        assertEquals(".xyz1", r.extensionFor(null, "data.XYZ1"));              // неизвестное — как есть, в нижнем регистре
+        assertEquals(".bin", r.extensionFor(null, "archive.tar-gz"));          // не [a-z0-9]
+        assertEquals(".bin", r.extensionFor(null, ".hidden"));
+        assertEquals(".bin", r.extensionFor(null, "name.toolong"));
+        assertEquals(".bin", r.extensionFor("  ", "  "));
+    }
+
+    @Test
+    void lookups_by_mime_and_extension_ignore_case_and_parameters() {
+        ContentTypes r = ContentTypes.shared();
+        assertEquals("image/jpeg", r.forMime("IMAGE/PJPEG; q=0.5").mime());
+        assertEquals("application/vnd.rar", r.forMime("application/x-rar-compressed").mime());
+        assertNull(r.forMime("application/x-nothing"));
+        assertNull(r.forMime(";"));
+        assertEquals("image/jpeg", r.forExtension(".JPG").mime());
+        assertEquals("image/jpeg", r.forExtension("jpeg").mime());
+        assertEquals("video/mp4", r.forFileName("clip.M4V").mime());
+        assertNull(r.forFileName("README"));
+        assertEquals(".jpg", r.forMime("image/jpeg").ext());
+    }
+
+    @Test
+    void bundled_database_knows_heic_avif_mp4_ogg_and_7z() {
+        assertEquals("image/heic", sniff(ftyp("heic"), 12));
+        assertEquals("image/heif", sniff(ftyp("mif1"), 12));
+        assertEquals("image/avif", sniff(ftyp("avif"), 12));
+        assertEquals("video/mp4", sniff(ftyp("isom"), 12));
+        assertEquals("application/octet-stream", sniff(ftyp("zzzz"), 12));
+        byte[] ogg = "OggS\0\2".getBytes(StandardCharsets.ISO_8859_1);
+        assertEquals("audio/ogg", sniff(ogg, ogg.length));
+        byte[] sevenZip = {'7', 'z', (byte) 0xBC, (byte) 0xAF, 0x27, 0x1C, 0, 4};
+        assertEquals("application/x-7z-compressed", sniff(sevenZip, sevenZip.length));
+    }
+
+    @Test
+    void deployment_can_add_types_from_a_file(@TempDir Path tmp) throws Exception {
+        Path extra = Files.writeString(tmp.resolve("types.txt"), """
+                # свой формат и дополнение встроенного
+                application/x-acme   .acme  alias=application/acme  magic=41434D45[01|02]
+                image/png            .apng
+                """);
+        ContentTypes r = ContentTypes.withExtra(extra);
+
+        byte[] acme = {'A', 'C', 'M', 'E', 2, 0};
+        assertEquals("application/x-acme", r.sniff(acme, acme.length).mime());
+        assertEquals(".acme", r.extensionFor("application/acme", null));
+        assertEquals("image/png", r.forExtension(".apng").mime());
+        assertEquals(".png", r.forMime("image/png").ext(), "canonical extension stays the bundled one");
+        // встроенный реестр не изменился
+        assertEquals("text/plain", ContentTypes.bundled().sniff(acme, 4).mime());
+
+        Path bad = Files.writeString(tmp.resolve("bad.txt"), "image/x-bad .bad magic=4G\n");
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> ContentTypes.withExtra(bad));
+        assertTrue(e.getMessage().contains("bad.txt:1"), e.getMessage());
+    }
+
+    @Test
+    void known_lookups_do_not_allocate() {
+        ContentTypes r = ContentTypes.shared();
+        String mime = "image/JPEG; charset=binary";
+        String name = "holiday.photo.JPEG?size=large#top";
+        for (int i = 0; i < 20_000; i++) { // прогрев JIT
+            r.extensionFor(mime, name);
+            r.forFileName(name);
+        }
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long tid = Thread.currentThread().threadId();
+        long before = mx.getThreadAllocatedBytes(tid);
+        int sink = 0;
+        for (int i = 0; i < 100_000; i++) {
+            sink += r.extensionFor(mime, name).length();
+            sink += r.extensionFor("application/x-unknown", name).length();
+            sink += r.forFileName(name).mime().length();
+        }
+        long allocated = mx.getThreadAllocatedBytes(tid) - before;
+        assertTrue(sink > 0);
+        // 300k поисков: прежний toExtension тратил на split/toLowerCase/regex сотни байт на вызов
+        assertTrue(allocated < 64 * 1024, "allocated " + allocated + " bytes");
+    }
+
+    private static byte[] ftyp(String brand) {
+        byte[] b = new byte[12];
+        b[3] = 0x18;
+        System.arraycopy("ftyp".getBytes(StandardCharsets.US_ASCII), 0, b, 4, 4);
+        System.arraycopy(brand.getBytes(StandardCharsets.US_ASCII), 0, b, 8, 4);
+        return b;
+    }
+
+    /** FileType.sniff до перехода на таблицу сигнатур (возвращал enum, здесь — его MIME) — эталон для сравнения. */
+    private static String legacySniff(byte[] head, int len) {
+        if (len >= 8
+                && (head[0] & 0xFF) == 0x89 && head[1] == 0x50 && head[2] == 0x4E && head[3] == 0x47
+                && head[4] == 0x0D && head[5] == 0x0A && head[6] == 0x1A && head[7] == 0x0A) return "image/png";
+        if (len >= 3
+                && (head[0] & 0xFF) == 0xFF && (head[1] & 0xFF) == 0xD8 && (head[2] & 0xFF) == 0xFF) return "image/jpeg";
+        if (len >= 6 && head[0]=='G' && head[1]=='I' && head[2]=='F' && head[3]=='8'
+                && (head[4]=='7'||head[4]=='9') && head[5]=='a') return "image/gif";
+        if (len >= 12 && head[0]=='R' && head[1]=='I' && head[2]=='F' && head[3]=='F'
+                && head[8]=='W' && head[9]=='E' && head[10]=='B' && head[11]=='P') return "image/webp";
+        if (len >= 2 && head[0]=='B' && head[1]=='M') return "image/bmp";
+        if (len >= 4 && head[0]==0x25 && head[1]==0x50 && head[2]==0x44 && head[3]==0x46) return "application/pdf";
+        if (len >= 4
+                && head[0]=='P' && head[1]=='K'
+                && (head[2]==3 || head[2]==5 || head[2]==7)
+                && (head[3]==4 || head[3]==6 || head[3]==8)) return "application/zip";
+        if (len >= 7
+                && head[0]=='R' && head[1]=='a' && head[2]=='r' && head[3]=='!' && (head[4] & 0xFF)==0x1A
+                && (head[5] & 0xFF)==0x07 && (head[6] & 0xFF)==0x00) return "application/vnd.rar";
+        if (len >= 8
+                && head[0]=='R' && head[1]=='a' && head[2]=='r' && head[3]=='!' && (head[4] & 0xFF)==0x1A
+                && (head[5] & 0xFF)==0x07 && (head[6] & 0xFF)==0x01 && (head[7] & 0xFF)==0x00) return "application/vnd.rar";
+
+        int i = 0;
+        while (i < len) {
+            int c = head[i] & 0xFF;
+            if (c == 0x09 || c == 0x0A || c == 0x0D || (c >= 0x20 && c <= 0x7E)) { i++; continue; }
+            int n;
+            if      ((c & 0xE0) == 0xC0) n = 1;
+            else if ((c & 0xF0) == 0xE0) n = 2;
+            else if ((c & 0xF8) == 0xF0) n = 3;
+            else return "application/octet-stream";
+            if (i + n >= len) break;
+            for (int j = 1; j <= n; j++) {
+                if ((head[i + j] & 0xC0) != 0x80) return "application/octet-stream";
+            }
+            i += n + 1;
+        }
+        long zeros = 0;
+        for (int k = 0; k < len; k++) if (head[k] == 0) zeros++;
+        return zeros * 1.0 / Math.max(1, len) < 0.02 ? "text/plain" : "application/octet-stream";
+    }
+}
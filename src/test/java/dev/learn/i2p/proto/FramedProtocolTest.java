@@ -0,0 +1,103 @@
+package dev.learn.i2p.proto;
+
+import dev.learn.i2p.net.PeerStream;
+import net.i2p.client.streaming.I2PSocket;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static dev.learn.i2p.net.support.InboxFiles.files;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class FramedProtocolTest {
+
+    private static PeerStream socket(byte[] inbound, ByteArrayOutputStream outbound) throws IOException {
+        I2PSocket s = mock(I2PSocket.class);
+        when(s.getInputStream()).thenReturn(new ByteArrayInputStream(inbound));
+        when(s.getOutputStream()).thenReturn(outbound);
+        return PeerStream.of(s);
+    }
+
+    private static byte[] stream(Frame... frames) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        FrameCodec.writePreamble(bos);
+        for (Frame f : frames) FrameCodec.write(bos, f);
+        return bos.toByteArray();
+    }
+
+    @Test
+    void several_frames_on_one_stream_are_saved_and_acked(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        byte[] in = stream(
+                new Frame(Frame.TYPE_TEXT, Frame.FLAG_ACK_REQUESTED, 0, Map.of(), "one".getBytes(StandardCharsets.UTF_8)),
+                new Frame(Frame.TYPE_TEXT, Frame.FLAG_ACK_REQUESTED, 1, Map.of(), "two".getBytes(StandardCharsets.UTF_8)),
+                new Frame(Frame.TYPE_IMAGE, Frame.FLAG_ACK_REQUESTED, 2, Map.of("name", "x.bin"), new byte[]{0, 1, 2}));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new FramedProtocol(inbox).handle(socket(in, out));
+
+        assertEquals(3, files(inbox).size());
+        ByteArrayInputStream acks = new ByteArrayInputStream(out.toByteArray());
+        for (int seq = 0; seq < 3; seq++) {
+            Frame ack = FrameCodec.read(acks, 0);
+            assertEquals(Frame.TYPE_ACK, ack.type());
+            assertEquals(seq, ack.seq());
+        }
+        assertEquals(0, acks.available());
+    }
+
+    @Test
+    void unknown_type_gets_nak_and_stream_is_dropped(@TempDir Path tmp) throws Exception {
+        byte[] in = stream(new Frame(0x42, Frame.FLAG_ACK_REQUESTED, 5, Map.of(), new byte[]{1}));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        assertThrows(ProtocolException.class, () -> new FramedProtocol(tmp).handle(socket(in, out)));
+
+        Frame nak = FrameCodec.parse(out.toByteArray());
+        assertEquals(Frame.TYPE_NAK, nak.type());
+        assertEquals(5, nak.seq());
+    }
+
+    @Test
+    void legacy_raw_stream_is_saved_as_one_message(@TempDir Path tmp) throws Exception {
+        Path inbox = tmp.resolve("inbox");
+        byte[] raw = "hello from an old client".getBytes(StandardCharsets.UTF_8);
+
+        new FramedProtocol(inbox).handle(socket(raw, new ByteArrayOutputStream()));
+
+        List<Path> saved = files(inbox);
+        assertEquals(1, saved.size());
+        assertArrayEquals(raw, Files.readAllBytes(saved.get(0)));
+    }
+
+    @Test
+    void sender_writes_preamble_once_and_increments_seq(@TempDir Path tmp) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream acks = new ByteArrayOutputStream();
+        FrameCodec.write(acks, Frame.ack(0));
+        FrameCodec.write(acks, Frame.ack(1));
+        PeerStream s = socket(acks.toByteArray(), out);
+        FramedProtocol p = new FramedProtocol(tmp);
+
+        p.sendText(s, "a");
+        p.sendText(s, "b");
+
+        ByteArrayInputStream wire = new ByteArrayInputStream(out.toByteArray());
+        assertTrue(FrameCodec.hasMagic(wire.readNBytes(FrameCodec.PREAMBLE_LENGTH)));
+        assertEquals("a", new String(FrameCodec.read(wire, 16).payload(), StandardCharsets.UTF_8));
+        Frame second = FrameCodec.read(wire, 16);
+        assertEquals(1, second.seq());
+        assertTrue(second.ackRequested());
+    }
+}
@@ -1,8 +1,14 @@
 package dev.learn.i2p.proto;
 
+import dev.learn.i2p.core.profile.support.ProtocolTestKit;
+import dev.learn.i2p.core.profile.support.ProtocolTestKit.ParserAdapter;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.ValueSource;
 
+import java.io.EOFException;
+import java.net.ProtocolException;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 class SimpleProtocolBoundaryTest {
@@ -26,4 +32,36 @@ class SimpleProtocolBoundaryTest {
     void invalid_sizes_fail(int size) {
         assertFalse(isPayloadSizeValid(size), "Ожидали НЕвалидный размер: " + size);
     }
+
+    // --- настоящий парсер фреймов ---
+
+    @ParameterizedTest
+    @ValueSource(ints = {0, 1, 127, 128, 16383, 16384, 64 * 1024})
+    void codec_roundtrips_sizes_around_varint_boundaries(int size) throws Throwable {
+        ParserAdapter codec = ParserAdapter.load("dev.learn.i2p.proto.FrameCodec");
+        byte[] body = new byte[size];
+        java.util.Arrays.fill(body, (byte) 0x5A);
+        Frame f = codec.parse(ProtocolTestKit.makeCodecFrame(1, size, body));
+        assertEquals(size, f.payload().length);
+        assertEquals(size, f.seq());
+    }
+
+    @Test
+    void codec_rejects_declared_length_over_limit_without_allocating() {
+        ParserAdapter codec = ParserAdapter.load("dev.learn.i2p.proto.FrameCodec");
+        byte[] over = ProtocolTestKit.makeCodecHeaderWithLen(2, FrameCodec.MAX_PAYLOAD + 1);
+        assertThrows(ProtocolException.class, () -> codec.parse(over));
+
+        // ровно на лимите — формат допустим, просто не хватает тела
+        byte[] atLimit = ProtocolTestKit.makeCodecHeaderWithLen(2, FrameCodec.MAX_PAYLOAD);
+        assertThrows(EOFException.class, () -> codec.parse(atLimit));
+    }
+
+    @Test
+    void codec_rejects_overlong_varint() {
+        ParserAdapter codec = ParserAdapter.load("dev.learn.i2p.proto.FrameCodec");
+        byte[] bad = {1, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF,
+                (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x01, 0};
+        assertThrows(ProtocolException.class, () -> codec.parse(bad));
+    }
 }
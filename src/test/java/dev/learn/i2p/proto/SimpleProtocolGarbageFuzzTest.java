@@ -1,11 +1,16 @@
 package dev.learn.i2p.proto;
 
+import dev.learn.i2p.core.profile.support.ProtocolTestKit;
+import dev.learn.i2p.core.profile.support.ProtocolTestKit.ParserAdapter;
 import org.junit.jupiter.api.RepeatedTest;
+import org.junit.jupiter.api.RepetitionInfo;
 
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Random;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
 
 class SimpleProtocolGarbageFuzzTest {
 
@@ -26,4 +31,34 @@ class SimpleProtocolGarbageFuzzTest {
         new Random(1337).nextBytes(junk);
         assertDoesNotThrow(() -> parseLenient(ByteBuffer.wrap(junk)));
     }
+
+    // --- настоящий парсер фреймов ---
+
+    /** Мусор должен давать либо фрейм, либо IOException — без NPE/OOM/зависаний. */
+    private static void assertCleanOutcome(ParserAdapter codec, byte[] input) {
+        try {
+            ProtocolTestKit.withTimeout(() -> codec.parse(input));
+        } catch (RuntimeException e) {
+            assertInstanceOf(IOException.class, e.getCause(), "unexpected failure: " + e);
+        }
+    }
+
+    @RepeatedTest(5)
+    void random_garbage_through_frame_codec_fails_cleanly(RepetitionInfo info) {
+        ParserAdapter codec = ParserAdapter.load("dev.learn.i2p.proto.FrameCodec");
+        byte[] junk = ProtocolTestKit.randomBytes(2048, 1337L + info.getCurrentRepetition());
+        assertCleanOutcome(codec, junk);
+    }
+
+    @RepeatedTest(5)
+    void bit_flipped_frames_fail_cleanly(RepetitionInfo info) {
+        ParserAdapter codec = ParserAdapter.load("dev.learn.i2p.proto.FrameCodec");
+        Random rnd = new Random(42L + info.getCurrentRepetition());
+        byte[] valid = ProtocolTestKit.makeCodecFrame(1, 7, ProtocolTestKit.utf8("hello, frame"));
+        for (int i = 0; i < 200; i++) {
+            byte[] m = valid.clone();
+            m[rnd.nextInt(m.length)] ^= (byte) (1 << rnd.nextInt(8));
+            assertCleanOutcome(codec, m);
+        }
+    }
 }
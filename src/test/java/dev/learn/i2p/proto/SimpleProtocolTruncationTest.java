@@ -1,7 +1,10 @@
 package dev.learn.i2p.proto;
 
+import dev.learn.i2p.core.profile.support.ProtocolTestKit;
+import dev.learn.i2p.core.profile.support.ProtocolTestKit.ParserAdapter;
 import org.junit.jupiter.api.Test;
 
+import java.io.EOFException;
 import java.nio.ByteBuffer;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -51,4 +54,22 @@ class SimpleProtocolTruncationTest {
         cut.flip();
         assertTrue(isTruncated(cut));
     }
+
+    // --- настоящий парсер фреймов: обрезка в любом месте — EOFException ---
+
+    @Test
+    void codec_frame_truncated_at_every_offset_is_rejected() throws Throwable {
+        ParserAdapter codec = ParserAdapter.load("dev.learn.i2p.proto.FrameCodec");
+        byte[] payload = ProtocolTestKit.randomBytes(300, 7);
+        byte[] full = ProtocolTestKit.makeCodecFrame(2, 1234, payload);
+
+        Frame f = codec.parse(full);
+        assertArrayEquals(payload, f.payload());
+        assertEquals(1234, f.seq());
+
+        for (int leave = 0; leave < full.length; leave++) {
+            byte[] cut = ProtocolTestKit.truncated(full, leave);
+            assertThrows(EOFException.class, () -> codec.parse(cut), "cut at " + leave);
+        }
+    }
 }
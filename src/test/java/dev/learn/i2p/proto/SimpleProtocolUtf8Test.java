@@ -1,7 +1,12 @@
 package dev.learn.i2p.proto;
 
+import dev.learn.i2p.core.profile.support.ProtocolTestKit;
 import org.junit.jupiter.api.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.net.ProtocolException;
+import java.util.Map;
+
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.*;
@@ -44,4 +49,26 @@ class SimpleProtocolUtf8Test {
         assertEquals("�(", cb.toString()); // <-- было "�"
     }
 
+
+    @Test
+    void codec_headers_roundtrip_utf8() throws Exception {
+        Frame f = new Frame(2, 0, 1, Map.of("name", "котик ✓.png"), new byte[]{1, 2, 3});
+        Frame back = FrameCodec.parse(FrameCodec.encode(f));
+        assertEquals("котик ✓.png", back.headers().get("name"));
+    }
+
+    @Test
+    void codec_rejects_invalid_utf8_in_headers() {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        bos.write(2);                        // type
+        bos.write(Frame.FLAG_HEADERS);       // flags
+        bos.write(0);                        // seq
+        bos.write(1);                        // 1 заголовок
+        byte[] bad = ProtocolTestKit.invalidUtf8Payload();
+        bos.write(bad.length);
+        bos.writeBytes(bad);                 // ключ — битый UTF-8
+        bos.write(0);                        // пустое значение
+        bos.write(0);                        // len = 0
+        assertThrows(ProtocolException.class, () -> FrameCodec.parse(bos.toByteArray()));
+    }
 }